@@ -0,0 +1,145 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.DataRecord;
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.DataTableConversion;
+import com.tibbo.aggregate.common.datatable.DataTableException;
+import com.tibbo.aggregate.common.datatable.FieldFormat;
+import com.tibbo.aggregate.common.datatable.GageBean;
+import com.tibbo.aggregate.common.datatable.MegaGageBean;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.TestEncodingUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк для измерения скорости преобразования бинов в таблицы и обратно.
+ *
+ * Сравнивает DataTableConversion, использующий план отображения с method handles,
+ * с чтением свойств через PropertyUtils для каждого поля каждого бина.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="BeanConversionBenchmark -rf json -rff results.json"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class BeanConversionBenchmark
+{
+  private static final TableFormat FORMAT = TestEncodingUtils.TEST_TABLE_FORMAT;
+
+  @Param({ "10", "1000" })
+  private int beanCount;
+
+  private DataTable table;
+
+  private List<GageBean> gageBeans;
+
+  private List<MegaGageBean> megaGageBeans;
+
+  @Setup
+  public void setup() throws DataTableException
+  {
+    table = TestEncodingUtils.createTestDataTable(false, beanCount);
+
+    gageBeans = DataTableConversion.beansFromTable(table, GageBean.class, FORMAT, true);
+
+    megaGageBeans = new ArrayList<>(beanCount);
+    for (GageBean bean : gageBeans)
+    {
+      megaGageBeans.add(new MegaGageBean(bean));
+    }
+  }
+
+  /**
+   * Бины в таблицу через DataTableConversion.
+   */
+  @Benchmark
+  public DataTable beansToTable() throws DataTableException
+  {
+    return DataTableConversion.beansToTable(gageBeans, FORMAT, true);
+  }
+
+  /**
+   * Бины в таблицу через PropertyUtils, как до введения плана отображения.
+   */
+  @Benchmark
+  public DataTable beansToTableReflection() throws Exception
+  {
+    DataTable result = new SimpleDataTable(FORMAT);
+
+    for (GageBean bean : gageBeans)
+    {
+      DataRecord rec = result.addRecord();
+
+      for (FieldFormat field : FORMAT)
+      {
+        rec.setValue(field.getName(), PropertyUtils.getProperty(bean, field.getName()));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Таблица в бины через DataTableConversion.
+   */
+  @Benchmark
+  public List<GageBean> beansFromTable() throws DataTableException
+  {
+    return DataTableConversion.beansFromTable(table, GageBean.class, FORMAT, true);
+  }
+
+  /**
+   * Таблица в бины через PropertyUtils, как до введения плана отображения.
+   */
+  @Benchmark
+  public List<GageBean> beansFromTableReflection() throws Exception
+  {
+    List<GageBean> result = new ArrayList<>(table.getRecordCount());
+
+    for (DataRecord rec : table)
+    {
+      GageBean bean = new GageBean();
+
+      for (FieldFormat field : FORMAT)
+      {
+        PropertyUtils.setProperty(bean, field.getName(), rec.getValue(field.getName()));
+      }
+
+      result.add(bean);
+    }
+
+    return result;
+  }
+
+  /**
+   * Бины AggreGateBean в таблицу через DataTableConversion.
+   */
+  @Benchmark
+  public DataTable megaBeansToTable() throws DataTableException
+  {
+    return DataTableConversion.beansToTable(megaGageBeans, FORMAT, true);
+  }
+
+  public static void main(String[] args) throws RunnerException
+  {
+    Options opt = new OptionsBuilder()
+        .include(BeanConversionBenchmark.class.getSimpleName())
+        .build();
+
+    new Runner(opt).run();
+  }
+}
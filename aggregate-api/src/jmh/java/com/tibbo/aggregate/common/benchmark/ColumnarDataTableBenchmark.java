@@ -0,0 +1,185 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.ColumnarDataTable;
+import com.tibbo.aggregate.common.datatable.DataRecord;
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк для сравнения SimpleDataTable и ColumnarDataTable на таблице истории (Date, Double, Integer).
+ *
+ * Измеряет время заполнения таблицы и полного прохода по столбцу значений: через DataRecord
+ * (для ColumnarDataTable - через представления записей) и через примитивные методы доступа ColumnarDataTable.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="ColumnarDataTableBenchmark -rf json -rff results.json"
+ *
+ * Для вывода занимаемой памяти на запись для обеих реализаций:
+ * java -cp aggregate-api-jmh.jar com.tibbo.aggregate.common.benchmark.ColumnarDataTableBenchmark memory 1000000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ColumnarDataTableBenchmark
+{
+  private static final TableFormat FORMAT = new TableFormat("<<time><D>> <<value><E><F=N>> <<quality><I>>", new ClassicEncodingSettings(true));
+
+  private static final long START = 1500000000000L;
+
+  @Param({ "100000", "1000000" })
+  public int rows;
+
+  private DataTable simple;
+  private ColumnarDataTable columnar;
+
+  @Setup
+  public void setup()
+  {
+    simple = fill(new SimpleDataTable(FORMAT), rows);
+    columnar = fill(new ColumnarDataTable(FORMAT, rows), rows);
+  }
+
+  /**
+   * Заполнение SimpleDataTable.
+   */
+  @Benchmark
+  public DataTable fillSimple()
+  {
+    return fill(new SimpleDataTable(FORMAT), rows);
+  }
+
+  /**
+   * Заполнение ColumnarDataTable.
+   */
+  @Benchmark
+  public DataTable fillColumnar()
+  {
+    return fill(new ColumnarDataTable(FORMAT), rows);
+  }
+
+  /**
+   * Суммирование столбца значений SimpleDataTable через DataRecord.
+   */
+  @Benchmark
+  public double scanSimple()
+  {
+    double sum = 0;
+    for (DataRecord rec : simple)
+    {
+      Double value = rec.getDouble(1);
+      if (value != null)
+      {
+        sum += value;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Суммирование столбца значений ColumnarDataTable через представления записей.
+   */
+  @Benchmark
+  public double scanColumnarRecords()
+  {
+    double sum = 0;
+    for (DataRecord rec : columnar)
+    {
+      Double value = rec.getDouble(1);
+      if (value != null)
+      {
+        sum += value;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Суммирование столбца значений ColumnarDataTable через примитивные методы доступа, без упаковки.
+   */
+  @Benchmark
+  public double scanColumnarPrimitive()
+  {
+    double sum = 0;
+    for (int i = 0; i < rows; i++)
+    {
+      if (!columnar.isNull(i, 1))
+      {
+        sum += columnar.getDoubleValue(i, 1);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   * С аргументами "memory &lt;rows&gt;" выводит объём кучи, занимаемый таблицей каждой реализации.
+   */
+  public static void main(String[] args) throws RunnerException, InterruptedException
+  {
+    if (args.length == 2 && "memory".equals(args[0]))
+    {
+      memory(Integer.parseInt(args[1]));
+      return;
+    }
+
+    Options opt = new OptionsBuilder()
+      .include(ColumnarDataTableBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  private static void memory(int rows) throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    long before = usedHeap(runtime);
+    DataTable simple = fill(new SimpleDataTable(FORMAT), rows);
+    long simpleBytes = usedHeap(runtime) - before;
+
+    before = usedHeap(runtime);
+    DataTable columnar = fill(new ColumnarDataTable(FORMAT, rows), rows);
+    long columnarBytes = usedHeap(runtime) - before;
+
+    int cells = rows * FORMAT.getFieldCount();
+
+    System.out.println("Rows: " + rows + ", fields: " + FORMAT.getFieldCount());
+    System.out.println("SimpleDataTable: " + simpleBytes / 1024 / 1024 + " MB, " + simpleBytes / cells + " bytes per cell");
+    System.out.println("ColumnarDataTable: " + columnarBytes / 1024 / 1024 + " MB, " + columnarBytes / cells + " bytes per cell");
+
+    // Таблицы должны оставаться достижимыми до последнего замера
+    System.out.println("Records: " + simple.getRecordCount() + " / " + columnar.getRecordCount());
+  }
+
+  private static <T extends DataTable> T fill(T table, int rows)
+  {
+    for (int i = 0; i < rows; i++)
+    {
+      table.addRecord(new Date(START + i * 1000L), i % 100 == 0 ? null : i * 0.5, 192);
+    }
+    return table;
+  }
+
+  private static long usedHeap(Runtime runtime) throws InterruptedException
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,106 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.protocol.AggreGateCodes;
+import com.tibbo.aggregate.common.protocol.AggreGateCommand;
+import com.tibbo.aggregate.common.protocol.IncomingAggreGateCommand;
+import com.tibbo.aggregate.common.util.StringUtils;
+import com.tibbo.aggregate.common.util.StringWrapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк разбора входящих команд IncomingAggreGateCommand.
+ *
+ * Сравнивает прежнюю схему разбора (копирование тела команды, построение строки из всего содержимого
+ * и разбиение её через StringWrapper.split()) с разбором в один проход по байтам команды,
+ * при котором параметры декодируются лениво.
+ *
+ * Команда имитирует ответ сервера с закодированной таблицей данных размером 1 КБ, 1 МБ и 50 МБ.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="CommandParsingBenchmark -rf json -rff results.json"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CommandParsingBenchmark
+{
+  @Param({ "1024", "1048576", "52428800" })
+  public int size;
+
+  private byte[] command;
+
+  @Setup
+  public void setup()
+  {
+    StringBuilder table = new StringBuilder(size);
+    table.append("<F=<<name><S><A=>><<value><S><A=>>>");
+
+    // Записи содержат кириллицу, чтобы декодирование UTF-8 не сводилось к копированию ASCII
+    for (int i = 0; table.length() < size; i++)
+    {
+      table.append("<R=<device").append(i).append("><значение ").append(i).append(">>");
+    }
+
+    String separator = AggreGateCommand.CLIENT_COMMAND_SEPARATOR;
+    String body = AggreGateCommand.COMMAND_CODE_REPLY + separator + "42" + separator + AggreGateCodes.REPLY_CODE_OK + separator + table;
+
+    command = body.getBytes(StringUtils.UTF8_CHARSET);
+  }
+
+  /**
+   * Прежняя схема разбора: копия тела команды, строка из всего содержимого и её разбиение.
+   */
+  @Benchmark
+  public List<StringWrapper> parseLegacy()
+  {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(command, 0, command.length);
+
+    String content = new String(stream.toByteArray(), StringUtils.UTF8_CHARSET);
+    return StringWrapper.split(content, AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0));
+  }
+
+  /**
+   * Разбор команды без обращения к телу: типичный случай для пересылаемых команд
+   * и проверок типа команды, кода ответа и идентификатора.
+   */
+  @Benchmark
+  public String parseAndInspect() throws Exception
+  {
+    IncomingAggreGateCommand cmd = new IncomingAggreGateCommand(command);
+    return cmd.isReply() ? cmd.getReplyCode() + cmd.getId() : null;
+  }
+
+  /**
+   * Разбор команды с декодированием таблицы данных из ответа.
+   */
+  @Benchmark
+  public String parseAndDecode() throws Exception
+  {
+    IncomingAggreGateCommand cmd = new IncomingAggreGateCommand(command);
+    return cmd.getEncodedDataTableFromReply();
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   */
+  public static void main(String[] args) throws RunnerException
+  {
+    Options opt = new OptionsBuilder()
+      .include(CommandParsingBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
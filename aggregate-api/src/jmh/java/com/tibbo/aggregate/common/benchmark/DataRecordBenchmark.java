@@ -0,0 +1,120 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.DataRecord;
+import com.tibbo.aggregate.common.datatable.FieldAccessor;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк для измерения скорости доступа к полям DataRecord.
+ *
+ * Сравнивает чтение и запись полей по имени, по индексу и через FieldAccessor,
+ * а также клонирование записи.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="DataRecordBenchmark -rf json -rff results.json"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DataRecordBenchmark
+{
+  private static final TableFormat FORMAT = new TableFormat(
+      "<<time><D>> <<value><E>> <<quality><I>> <<name><S>> <<description><S>> <<enabled><B>> <<counter><L>> <<ratio><F>>",
+      new ClassicEncodingSettings(true));
+
+  private DataRecord record;
+
+  private FieldAccessor value;
+  private FieldAccessor quality;
+  private FieldAccessor name;
+
+  private int counter;
+
+  @Setup
+  public void setup()
+  {
+    record = new DataRecord(FORMAT, new Date(), 1.5, 192, "sensor", "Temperature sensor", true, 100L, 0.5f);
+
+    value = FORMAT.getAccessor("value");
+    quality = FORMAT.getAccessor("quality");
+    name = FORMAT.getAccessor("name");
+  }
+
+  /**
+   * Чтение трёх полей по имени.
+   */
+  @Benchmark
+  public int getByName()
+  {
+    return record.getDouble("value").intValue() + record.getInt("quality") + record.getString("name").length();
+  }
+
+  /**
+   * Чтение трёх полей по индексу.
+   */
+  @Benchmark
+  public int getByIndex()
+  {
+    return record.getDouble(1).intValue() + record.getInt(2) + record.getString(3).length();
+  }
+
+  /**
+   * Чтение трёх полей через заранее полученные FieldAccessor.
+   */
+  @Benchmark
+  public int getByAccessor()
+  {
+    return value.getDouble(record).intValue() + quality.getInt(record) + name.getString(record).length();
+  }
+
+  /**
+   * Запись поля по имени.
+   */
+  @Benchmark
+  public DataRecord setByName()
+  {
+    return record.setValue("quality", counter++ & 0xFF);
+  }
+
+  /**
+   * Запись поля через FieldAccessor.
+   */
+  @Benchmark
+  public DataRecord setByAccessor()
+  {
+    return quality.set(record, counter++ & 0xFF);
+  }
+
+  /**
+   * Клонирование записи.
+   */
+  @Benchmark
+  public DataRecord cloneRecord()
+  {
+    return record.clone();
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   */
+  public static void main(String[] args) throws RunnerException
+  {
+    Options opt = new OptionsBuilder()
+      .include(DataRecordBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,180 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.DataTableBinaryCodec;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.JsonEncodingHelper;
+import com.tibbo.aggregate.common.protocol.ProtocolVersion;
+import com.tibbo.aggregate.common.util.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк для сравнения кодирования таблиц для передачи по протоколу: классического текстового, JSON и двоичного (протокол V5).
+ *
+ * Измеряет время кодирования и декодирования таблицы истории (Date, Double, Integer, String, Long).
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="DataTableWireEncodingBenchmark -rf json -rff results.json"
+ *
+ * Для вывода объёма передаваемых данных для каждого кодирования:
+ * java -cp aggregate-api-jmh.jar com.tibbo.aggregate.common.benchmark.DataTableWireEncodingBenchmark size 10000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DataTableWireEncodingBenchmark
+{
+  private static final TableFormat FORMAT = new TableFormat("<<time><D>> <<value><E><F=N>> <<quality><I>> <<name><S>> <<counter><L>>",
+      new ClassicEncodingSettings(true));
+
+  private static final long START = 1500000000000L;
+
+  @Param({ "100", "10000" })
+  public int rows;
+
+  private DataTable table;
+
+  private byte[] classic;
+  private String json;
+  private byte[] binary;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    table = fill(rows);
+    classic = encodeClassic(table);
+    json = JsonEncodingHelper.tableToJson(table);
+    binary = encodeBinary(table);
+  }
+
+  /**
+   * Классическое кодирование в байты UTF-8.
+   */
+  @Benchmark
+  public byte[] encodeClassic()
+  {
+    return encodeClassic(table);
+  }
+
+  /**
+   * Кодирование в JSON.
+   */
+  @Benchmark
+  public byte[] encodeJson()
+  {
+    return JsonEncodingHelper.tableToJson(table).getBytes(StringUtils.UTF8_CHARSET);
+  }
+
+  /**
+   * Двоичное кодирование.
+   */
+  @Benchmark
+  public byte[] encodeBinary() throws IOException
+  {
+    return encodeBinary(table);
+  }
+
+  /**
+   * Декодирование классического представления из байтов UTF-8.
+   */
+  @Benchmark
+  public DataTable decodeClassic() throws Exception
+  {
+    return new SimpleDataTable(new String(classic, StringUtils.UTF8_CHARSET), createSettings(), false);
+  }
+
+  /**
+   * Декодирование JSON.
+   */
+  @Benchmark
+  public DataTable decodeJson() throws Exception
+  {
+    return JsonEncodingHelper.tableFromJson(json, false);
+  }
+
+  /**
+   * Декодирование двоичного представления, полученного как параметр команды.
+   */
+  @Benchmark
+  public DataTable decodeBinary() throws Exception
+  {
+    return new SimpleDataTable(new String(binary, StandardCharsets.ISO_8859_1), createSettings(), false);
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   * С аргументами "size &lt;rows&gt;" выводит объём таблицы в каждом кодировании.
+   */
+  public static void main(String[] args) throws RunnerException, IOException
+  {
+    if (args.length == 2 && "size".equals(args[0]))
+    {
+      size(Integer.parseInt(args[1]));
+      return;
+    }
+
+    Options opt = new OptionsBuilder()
+      .include(DataTableWireEncodingBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  private static void size(int rows) throws IOException
+  {
+    DataTable table = fill(rows);
+
+    int classicBytes = encodeClassic(table).length;
+    int jsonBytes = JsonEncodingHelper.tableToJson(table).getBytes(StringUtils.UTF8_CHARSET).length;
+    int binaryBytes = encodeBinary(table).length;
+
+    System.out.println("Rows: " + rows + ", fields: " + FORMAT.getFieldCount());
+    System.out.println("Classic: " + classicBytes + " bytes, " + classicBytes / rows + " bytes per record");
+    System.out.println("JSON: " + jsonBytes + " bytes, " + jsonBytes / rows + " bytes per record");
+    System.out.println("Binary: " + binaryBytes + " bytes, " + binaryBytes / rows + " bytes per record");
+  }
+
+  private static ClassicEncodingSettings createSettings()
+  {
+    ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+    settings.setProtocolVersion(ProtocolVersion.V5);
+    return settings;
+  }
+
+  private static byte[] encodeClassic(DataTable table)
+  {
+    return table.encode(createSettings()).getBytes(StringUtils.UTF8_CHARSET);
+  }
+
+  private static byte[] encodeBinary(DataTable table) throws IOException
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataTableBinaryCodec.encode(table, createSettings(), out);
+    return out.toByteArray();
+  }
+
+  private static DataTable fill(int rows)
+  {
+    DataTable table = new SimpleDataTable(FORMAT);
+    for (int i = 0; i < rows; i++)
+    {
+      table.addRecord(new Date(START + i * 1000L), i % 100 == 0 ? null : i * 0.5, 192, "sensor" + i % 50, (long) i * 1000);
+    }
+    return table;
+  }
+}
@@ -0,0 +1,114 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.expression.CompiledExpression;
+import com.tibbo.aggregate.common.expression.DefaultEvaluatingVisitor;
+import com.tibbo.aggregate.common.expression.DefaultReferenceResolver;
+import com.tibbo.aggregate.common.expression.EvaluationEnvironment;
+import com.tibbo.aggregate.common.expression.Evaluator;
+import com.tibbo.aggregate.common.expression.Expression;
+import com.tibbo.aggregate.common.expression.ExpressionCompiler;
+import com.tibbo.aggregate.common.expression.ExpressionUtils;
+import com.tibbo.aggregate.common.expression.parser.ASTStart;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк для сравнения интерпретатора выражений и выражений, скомпилированных в дерево замыканий.
+ *
+ * Сравнивает обход дерева разбора DefaultEvaluatingVisitor с вычислением CompiledExpression
+ * на одном и том же разобранном выражении, а также полный вызов Evaluator.evaluate().
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="ExpressionEvaluationBenchmark -rf json -rff results.json"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ExpressionEvaluationBenchmark
+{
+  @Param({
+      "({int} * 2 + 10) / 4 - 1",
+      "{int} > 100 && {str} == 'test'",
+      "{bool} ? {int} % 7 : -{int}",
+      "length({str}) + 1 > 3",
+      "(1 + 2) * 3 > 8 ? 'yes' : 'no'"
+  })
+  public String expression;
+
+  private Evaluator evaluator;
+  private EvaluationEnvironment environment;
+
+  private Expression parsed;
+  private ASTStart root;
+  private CompiledExpression compiled;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    DataTable table = new SimpleDataTable(new TableFormat("<<str><S>> <<int><I>> <<bool><B>>", new ClassicEncodingSettings(true)));
+    table.addRecord("test", 123, true);
+
+    DefaultReferenceResolver resolver = new DefaultReferenceResolver();
+    resolver.setDefaultTable(table);
+
+    evaluator = new Evaluator(resolver);
+    environment = new EvaluationEnvironment();
+
+    parsed = new Expression(expression);
+    root = ExpressionUtils.parse(parsed, true);
+    compiled = ExpressionCompiler.compile(root);
+  }
+
+  /**
+   * Вычисление обходом дерева разбора.
+   */
+  @Benchmark
+  public Object interpreted()
+  {
+    DefaultEvaluatingVisitor visitor = new DefaultEvaluatingVisitor(evaluator);
+    root.jjtAccept(visitor, environment);
+    return visitor.getResult();
+  }
+
+  /**
+   * Вычисление скомпилированного выражения.
+   */
+  @Benchmark
+  public Object compiled()
+  {
+    return compiled.evaluate(evaluator, environment);
+  }
+
+  /**
+   * Полный вызов Evaluator.evaluate() с кэшированным результатом компиляции.
+   */
+  @Benchmark
+  public Object evaluate() throws Exception
+  {
+    return evaluator.evaluate(parsed, environment);
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   */
+  public static void main(String[] args) throws RunnerException
+  {
+    Options opt = new OptionsBuilder()
+      .include(ExpressionEvaluationBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,239 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.datatable.field.DateFieldFormat;
+import com.tibbo.aggregate.common.datatable.field.DoubleFieldFormat;
+import com.tibbo.aggregate.common.datatable.field.IntFieldFormat;
+import com.tibbo.aggregate.common.datatable.field.LongFieldFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.util.DateUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+/**
+ * Бенчмарк для сравнения кодеков примитивных значений полей (FieldCodecs) с прежними путями преобразования:
+ * регулярное выражение и GregorianCalendar для дат, конструкторы-обёртки для чисел, промежуточные строки при кодировании.
+ *
+ * Наследует бенчмарки TypeConversionBenchmark, так что результаты общих преобразований типов видны в том же отчёте.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="FieldCodecBenchmark -prof gc -rf json -rff results.json"
+ */
+public class FieldCodecBenchmark extends TypeConversionBenchmark
+{
+  private static final String DATE_PATTERN = "^\\d{4,5}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}.\\d{3}$";
+
+  private static final int VALUES = 64;
+
+  private final DateFieldFormat dateFormat = new DateFieldFormat("date");
+  private final IntFieldFormat intFormat = new IntFieldFormat("int");
+  private final LongFieldFormat longFormat = new LongFieldFormat("long");
+  private final DoubleFieldFormat doubleFormat = new DoubleFieldFormat("double");
+
+  private final ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+
+  private final GregorianCalendar calendar = new GregorianCalendar(DateUtils.UTC_TIME_ZONE);
+
+  private final StringBuilder sb = new StringBuilder(4096);
+
+  private Date[] dates;
+  private String[] dateStrings;
+  private Integer[] ints;
+  private String[] intStrings;
+  private Long[] longs;
+  private String[] longStrings;
+  private Double[] doubles;
+  private String[] doubleStrings;
+
+  @Setup
+  public void setupCodecs()
+  {
+    Random random = new Random(1);
+
+    dates = new Date[VALUES];
+    dateStrings = new String[VALUES];
+    ints = new Integer[VALUES];
+    intStrings = new String[VALUES];
+    longs = new Long[VALUES];
+    longStrings = new String[VALUES];
+    doubles = new Double[VALUES];
+    doubleStrings = new String[VALUES];
+
+    for (int i = 0; i < VALUES; i++)
+    {
+      dates[i] = new Date(1500000000000L + random.nextInt(Integer.MAX_VALUE) * 1000L);
+      dateStrings[i] = DateFieldFormat.dateToString(dates[i]);
+      ints[i] = random.nextInt(1000000) - 500000;
+      intStrings[i] = ints[i].toString();
+      longs[i] = dates[i].getTime();
+      longStrings[i] = longs[i].toString();
+      doubles[i] = random.nextInt(10000000) / 1000.0;
+      doubleStrings[i] = doubles[i].toString();
+    }
+  }
+
+  @Benchmark
+  public long parseDatesLegacy()
+  {
+    long total = 0;
+    for (String value : dateStrings)
+    {
+      total += legacyDateFromString(value).getTime();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long parseDates()
+  {
+    long total = 0;
+    for (String value : dateStrings)
+    {
+      total += dateFormat.valueFromString(value, settings, false).getTime();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int encodeDatesLegacy()
+  {
+    sb.setLength(0);
+    for (Date value : dates)
+    {
+      sb.append(legacyDateToString(value));
+    }
+    return sb.length();
+  }
+
+  @Benchmark
+  public int encodeDates()
+  {
+    sb.setLength(0);
+    for (Date value : dates)
+    {
+      dateFormat.valueToEncodedString(value, settings, sb, 1);
+    }
+    return sb.length();
+  }
+
+  @Benchmark
+  public long parseNumbersLegacy()
+  {
+    long total = 0;
+    for (int i = 0; i < VALUES; i++)
+    {
+      total += new Integer(intStrings[i]) + new Long(longStrings[i]) + new Double(doubleStrings[i]).longValue();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long parseNumbers()
+  {
+    long total = 0;
+    for (int i = 0; i < VALUES; i++)
+    {
+      total += intFormat.valueFromString(intStrings[i], settings, false) + longFormat.valueFromString(longStrings[i], settings, false)
+          + doubleFormat.valueFromString(doubleStrings[i], settings, false).longValue();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int encodeNumbersLegacy()
+  {
+    sb.setLength(0);
+    for (int i = 0; i < VALUES; i++)
+    {
+      sb.append(ints[i].toString()).append(longs[i].toString()).append(doubles[i].toString());
+    }
+    return sb.length();
+  }
+
+  @Benchmark
+  public int encodeNumbers()
+  {
+    sb.setLength(0);
+    for (int i = 0; i < VALUES; i++)
+    {
+      intFormat.valueToEncodedString(ints[i], settings, sb, 1);
+      longFormat.valueToEncodedString(longs[i], settings, sb, 1);
+      doubleFormat.valueToEncodedString(doubles[i], settings, sb, 1);
+    }
+    return sb.length();
+  }
+
+  /**
+   * Прежний разбор даты: регулярное выражение, split и календарь.
+   */
+  private Date legacyDateFromString(String value)
+  {
+    if (!value.matches(DATE_PATTERN))
+    {
+      throw new IllegalStateException("Illegal value format");
+    }
+
+    String[] splitValue = value.split("\\D");
+
+    calendar.set(Calendar.YEAR, Integer.parseInt(splitValue[0]));
+    calendar.set(Calendar.MONTH, Integer.parseInt(splitValue[1]) - 1);
+    calendar.set(Calendar.DAY_OF_MONTH, Integer.parseInt(splitValue[2]));
+    calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(splitValue[3]));
+    calendar.set(Calendar.MINUTE, Integer.parseInt(splitValue[4]));
+    calendar.set(Calendar.SECOND, Integer.parseInt(splitValue[5]));
+    calendar.set(Calendar.MILLISECOND, Integer.parseInt(splitValue[6]));
+
+    return calendar.getTime();
+  }
+
+  /**
+   * Прежнее форматирование даты через календарь и отдельный StringBuilder.
+   */
+  private String legacyDateToString(Date value)
+  {
+    calendar.setTime(value);
+
+    StringBuilder result = new StringBuilder();
+
+    appendPadded(result, calendar.get(Calendar.YEAR), 4).append("-");
+    appendPadded(result, calendar.get(Calendar.MONTH) + 1, 2).append("-");
+    appendPadded(result, calendar.get(Calendar.DAY_OF_MONTH), 2).append(" ");
+    appendPadded(result, calendar.get(Calendar.HOUR_OF_DAY), 2).append(":");
+    appendPadded(result, calendar.get(Calendar.MINUTE), 2).append(":");
+    appendPadded(result, calendar.get(Calendar.SECOND), 2).append(".");
+    appendPadded(result, calendar.get(Calendar.MILLISECOND), 3);
+
+    return result.toString();
+  }
+
+  private static StringBuilder appendPadded(StringBuilder result, int value, int width)
+  {
+    for (int limit = 10; width > 1; width--, limit *= 10)
+    {
+      if (value < limit)
+      {
+        result.append("0");
+      }
+    }
+    return result.append(value);
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   */
+  public static void main(String[] args) throws RunnerException
+  {
+    Options opt = new OptionsBuilder()
+      .include(FieldCodecBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,330 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.protocol.AggreGateCodes;
+import com.tibbo.aggregate.common.protocol.AggreGateCommandParser;
+import com.tibbo.aggregate.common.protocol.DefaultCommandWriter;
+import com.tibbo.aggregate.common.protocol.IncomingAggreGateCommand;
+import com.tibbo.aggregate.common.protocol.OutgoingAggreGateCommand;
+import com.tibbo.aggregate.common.protocol.ProtocolCommandBuilder;
+import com.tibbo.aggregate.common.protocol.SelectorChannel;
+import com.tibbo.aggregate.common.protocol.SelectorChannelHandler;
+import com.tibbo.aggregate.common.protocol.SelectorEventLoopGroup;
+import com.tibbo.aggregate.common.util.BlockingChannel;
+import com.tibbo.aggregate.common.util.SocketBlockingChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк транспорта: сравнение модели "поток на соединение" (SocketBlockingChannel + отдельный поток,
+ * заблокированный в readCommand()) с мультиплексированием соединений через SelectorEventLoopGroup.
+ *
+ * Сервер отвечает на каждую команду ответом REPLY_CODE_OK, клиенты работают через обычные блокирующие сокеты.
+ * Режим SampleTime позволяет получить перцентили (p99) задержки обработки команды.
+ *
+ * Запуск:
+ * ./gradlew :aggregate-api:jmh --args="SelectorTransportBenchmark -rf json -rff results.json"
+ *
+ * Для измерения числа соединений на 1 ГБ кучи используется режим длительной нагрузки (soak):
+ * java -cp aggregate-api-jmh.jar com.tibbo.aggregate.common.benchmark.SelectorTransportBenchmark soak selector 5000
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+public class SelectorTransportBenchmark
+{
+  public static final String BLOCKING = "blocking";
+  public static final String SELECTOR = "selector";
+
+  @Param({ BLOCKING, SELECTOR })
+  public String transport;
+
+  @Param({ "100", "1000" })
+  public int connections;
+
+  private EchoServer server;
+  private BlockingQueue<Client> clients;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    server = new EchoServer(transport);
+    clients = new LinkedBlockingQueue<>(server.connect(connections));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException
+  {
+    for (Client client : clients)
+    {
+      client.close();
+    }
+    server.close();
+  }
+
+  /**
+   * Отправка команды по свободному соединению и ожидание ответа.
+   */
+  @Benchmark
+  public IncomingAggreGateCommand roundTrip() throws Exception
+  {
+    Client client = clients.take();
+    try
+    {
+      return client.roundTrip();
+    }
+    finally
+    {
+      clients.add(client);
+    }
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   * С аргументами "soak &lt;transport&gt; &lt;connections&gt;" выполняет измерение памяти и потоков.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length == 3 && "soak".equals(args[0]))
+    {
+      soak(args[1], Integer.parseInt(args[2]));
+      return;
+    }
+
+    Options opt = new OptionsBuilder()
+      .include(SelectorTransportBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  /**
+   * Открывает заданное число соединений, измеряет прирост занятой кучи и числа потоков,
+   * затем выполняет серию команд по всем соединениям и выводит перцентили задержки.
+   * Клиентская часть одинакова для обеих моделей, поэтому разница отражает стоимость серверной модели.
+   */
+  private static void soak(String transport, int connections) throws Exception
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    long heapBefore = usedHeap(runtime);
+    int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    EchoServer server = new EchoServer(transport);
+    List<Client> clients = server.connect(connections);
+
+    for (Client client : clients)
+    {
+      client.roundTrip(); // Every connection has processed at least one command
+    }
+
+    long heapPerConnection = Math.max(1, (usedHeap(runtime) - heapBefore) / connections);
+    int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+    int rounds = Math.max(10, 100000 / connections);
+    long[] latencies = new long[rounds * connections];
+    int count = 0;
+
+    for (int round = 0; round < rounds; round++)
+    {
+      for (Client client : clients)
+      {
+        long start = System.nanoTime();
+        client.roundTrip();
+        latencies[count++] = System.nanoTime() - start;
+      }
+    }
+
+    Arrays.sort(latencies);
+
+    System.out.println("Transport: " + transport + ", connections: " + connections);
+    System.out.println("Threads: " + threads);
+    System.out.println("Heap per connection: " + heapPerConnection + " bytes, connections per GB: " + (1024L * 1024L * 1024L / heapPerConnection));
+    System.out.println("Latency p50: " + TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length / 2]) + " us, p99: "
+        + TimeUnit.NANOSECONDS.toMicros(latencies[(int) (latencies.length * 0.99)]) + " us");
+
+    for (Client client : clients)
+    {
+      client.close();
+    }
+    server.close();
+  }
+
+  private static long usedHeap(Runtime runtime) throws InterruptedException
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void reply(IncomingAggreGateCommand cmd, BlockingChannel channel) throws Exception
+  {
+    OutgoingAggreGateCommand reply = new OutgoingAggreGateCommand();
+    reply.constructReply(cmd.getId(), AggreGateCodes.REPLY_CODE_OK);
+    new DefaultCommandWriter<OutgoingAggreGateCommand>().write(reply, channel, true);
+  }
+
+  private static class EchoServer
+  {
+    private final ServerSocketChannel serverChannel;
+    private final SelectorEventLoopGroup group;
+    private final List<Thread> threads = new ArrayList<>();
+
+    EchoServer(String transport) throws IOException
+    {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+      group = SELECTOR.equals(transport) ? new SelectorEventLoopGroup("benchmark") : null;
+    }
+
+    List<Client> connect(int count) throws IOException
+    {
+      List<Client> result = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++)
+      {
+        Socket socket = new Socket();
+        socket.connect(serverChannel.getLocalAddress());
+        socket.setTcpNoDelay(true);
+
+        accept(serverChannel.accept());
+
+        result.add(new Client(socket));
+      }
+
+      return result;
+    }
+
+    private void accept(SocketChannel accepted) throws IOException
+    {
+      if (group != null)
+      {
+        SelectorChannel channel = group.register(accepted);
+        channel.activate(new EchoHandler(new AggreGateCommandParser(channel)));
+        return;
+      }
+
+      // Модель "поток на соединение"
+      accepted.socket().setTcpNoDelay(true);
+      final SocketBlockingChannel channel = new SocketBlockingChannel(accepted.socket());
+      final AggreGateCommandParser parser = new AggreGateCommandParser(channel);
+
+      Thread thread = new Thread(() -> {
+        try
+        {
+          while (channel.isOpen())
+          {
+            IncomingAggreGateCommand cmd = parser.readCommand();
+            if (cmd != null)
+            {
+              reply(cmd, channel);
+            }
+          }
+        }
+        catch (Exception ex)
+        {
+          // Соединение закрыто
+        }
+      }, "BlockingEchoServer/" + threads.size());
+
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+
+    void close() throws IOException
+    {
+      serverChannel.close();
+
+      if (group != null)
+      {
+        group.shutdown();
+      }
+    }
+  }
+
+  private static class EchoHandler implements SelectorChannelHandler
+  {
+    private final AggreGateCommandParser parser;
+
+    EchoHandler(AggreGateCommandParser parser)
+    {
+      this.parser = parser;
+    }
+
+    @Override
+    public void channelReadable(SelectorChannel channel) throws Exception
+    {
+      IncomingAggreGateCommand cmd;
+      while ((cmd = parser.readCommand()) != null)
+      {
+        reply(cmd, channel);
+      }
+    }
+
+    @Override
+    public void channelIdle(SelectorChannel channel)
+    {
+    }
+
+    @Override
+    public void channelClosed(SelectorChannel channel)
+    {
+    }
+  }
+
+  private static class Client
+  {
+    private final ProtocolCommandBuilder builder = new ProtocolCommandBuilder(false);
+    private final DefaultCommandWriter<OutgoingAggreGateCommand> writer = new DefaultCommandWriter<>();
+    private final SocketBlockingChannel channel;
+    private final AggreGateCommandParser parser;
+
+    Client(Socket socket) throws IOException
+    {
+      channel = new SocketBlockingChannel(socket);
+      parser = new AggreGateCommandParser(channel);
+    }
+
+    IncomingAggreGateCommand roundTrip() throws Exception
+    {
+      writer.write(builder.getVariableOperation("users.admin.devices.device1", "status"), channel, true);
+
+      IncomingAggreGateCommand reply;
+      do
+      {
+        reply = parser.readCommand();
+      }
+      while (reply == null);
+
+      return reply;
+    }
+
+    void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package com.tibbo.aggregate.common.benchmark;
+
+import com.tibbo.aggregate.common.communication.AbstractDeviceController;
+import com.tibbo.aggregate.common.communication.CommandParser;
+import com.tibbo.aggregate.common.communication.CommandParserListener;
+import com.tibbo.aggregate.common.device.DisconnectionException;
+import com.tibbo.aggregate.common.protocol.AggreGateCodes;
+import com.tibbo.aggregate.common.protocol.IncomingAggreGateCommand;
+import com.tibbo.aggregate.common.protocol.OutgoingAggreGateCommand;
+import com.tibbo.aggregate.common.protocol.ProtocolCommandBuilder;
+import com.tibbo.aggregate.common.util.NamedThreadFactory;
+import com.tibbo.aggregate.common.util.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузочный тест блокирующих удалённых вызовов в режиме платформенных и виртуальных потоков.
+ *
+ * Каждый вызов выполняется в отдельной задаче и блокируется в AbstractDeviceController.sendCommand()
+ * до получения ответа. Удалённая сторона имитируется контроллером, который отвечает на каждую команду
+ * с заданной задержкой. Без виртуальных потоков каждый одновременный вызов занимает поток ОС,
+ * а число одновременных отправителей ограничено пулом SendersPool.
+ *
+ * Режим выбирается системным свойством aggregate.virtualThreads (требуется JDK 21+):
+ * ./gradlew :aggregate-api:jmh --args="VirtualThreadsLoadBenchmark"
+ * ./gradlew :aggregate-api:jmh --args="VirtualThreadsLoadBenchmark -jvmArgsAppend -Daggregate.virtualThreads=true"
+ *
+ * Для вывода числа потоков и перцентилей задержки при 10 000 одновременных вызовов:
+ * java -Daggregate.virtualThreads=true -Daggregate.virtualThreads.tracePinning=short -cp aggregate-api-jmh.jar
+ *   com.tibbo.aggregate.common.benchmark.VirtualThreadsLoadBenchmark load 10000
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VirtualThreadsLoadBenchmark
+{
+  private static final long REPLY_DELAY = 50;
+
+  @Param({ "1000", "10000" })
+  public int calls;
+
+  private DelayedReplyController controller;
+  private ExecutorService callers;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    controller = new DelayedReplyController(REPLY_DELAY);
+    controller.connect();
+    callers = VirtualThreads.newThreadPerTaskExecutor("LoadTestCaller");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    callers.shutdownNow();
+    controller.disconnect();
+  }
+
+  /**
+   * Выполнение заданного числа одновременных блокирующих вызовов и ожидание их завершения.
+   */
+  @Benchmark
+  public int blockingCalls() throws Exception
+  {
+    return run(controller, callers, calls, null).errors;
+  }
+
+  /**
+   * Точка входа для запуска бенчмарка напрямую.
+   * С аргументами "load &lt;calls&gt;" выполняет одиночный прогон и выводит число потоков и задержки.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length == 2 && "load".equals(args[0]))
+    {
+      load(Integer.parseInt(args[1]));
+      return;
+    }
+
+    Options opt = new OptionsBuilder()
+      .include(VirtualThreadsLoadBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+
+  private static void load(int calls) throws Exception
+  {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    DelayedReplyController controller = new DelayedReplyController(REPLY_DELAY);
+    controller.connect();
+
+    ExecutorService callers = VirtualThreads.newThreadPerTaskExecutor("LoadTestCaller");
+
+    int threadsBefore = threads.getThreadCount();
+    threads.resetPeakThreadCount();
+
+    long[] latencies = new long[calls];
+    long start = System.nanoTime();
+    Result result = run(controller, callers, calls, latencies);
+    long total = System.nanoTime() - start;
+
+    Arrays.sort(latencies);
+
+    // Виртуальные потоки не учитываются ThreadMXBean, поэтому пик отражает число потоков ОС
+    System.out.println("Virtual threads: " + VirtualThreads.isEnabled() + ", calls: " + calls + ", reply delay: " + REPLY_DELAY + " ms");
+    System.out.println("Platform threads: " + threadsBefore + " before, " + threads.getPeakThreadCount() + " peak");
+    System.out.println("Total: " + TimeUnit.NANOSECONDS.toMillis(total) + " ms, errors: " + result.errors);
+    System.out.println("Latency p50: " + TimeUnit.NANOSECONDS.toMillis(latencies[calls / 2]) + " ms, p99: "
+        + TimeUnit.NANOSECONDS.toMillis(latencies[(int) (calls * 0.99)]) + " ms, max: " + TimeUnit.NANOSECONDS.toMillis(latencies[calls - 1]) + " ms");
+
+    callers.shutdownNow();
+    controller.disconnect();
+  }
+
+  private static Result run(final DelayedReplyController controller, ExecutorService callers, int calls, final long[] latencies) throws Exception
+  {
+    final ProtocolCommandBuilder builder = new ProtocolCommandBuilder(false);
+
+    List<Future<Boolean>> futures = new ArrayList<>(calls);
+
+    for (int i = 0; i < calls; i++)
+    {
+      final int index = i;
+
+      futures.add(callers.submit(() -> {
+        long start = System.nanoTime();
+        try
+        {
+          controller.sendCommand(builder.getVariableOperation("users.admin.devices.device" + index, "status"));
+          return true;
+        }
+        catch (Exception ex)
+        {
+          return false;
+        }
+        finally
+        {
+          if (latencies != null)
+          {
+            latencies[index] = System.nanoTime() - start;
+          }
+        }
+      }));
+    }
+
+    Result result = new Result();
+
+    for (Future<Boolean> future : futures)
+    {
+      if (!future.get())
+      {
+        result.errors++;
+      }
+    }
+
+    return result;
+  }
+
+  private static class Result
+  {
+    private int errors;
+  }
+
+  /**
+   * Контроллер, имитирующий удалённую сторону: отвечает на каждую команду через заданное время.
+   */
+  private static class DelayedReplyController extends AbstractDeviceController<IncomingAggreGateCommand, OutgoingAggreGateCommand>
+  {
+    private final QueueParser parser = new QueueParser();
+    private final ScheduledExecutorService replier = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("LoadTestReplier"));
+    private final long delay;
+
+    DelayedReplyController(long delay)
+    {
+      super(TimeUnit.MINUTES.toMillis(1), null);
+      this.delay = delay;
+    }
+
+    @Override
+    protected boolean connectImpl()
+    {
+      setCommandParser(parser);
+      return true;
+    }
+
+    @Override
+    protected boolean loginImpl()
+    {
+      return true;
+    }
+
+    @Override
+    protected void disconnectImpl()
+    {
+      replier.shutdownNow();
+    }
+
+    @Override
+    protected void send(final OutgoingAggreGateCommand cmd)
+    {
+      replier.schedule(() -> {
+        OutgoingAggreGateCommand reply = new OutgoingAggreGateCommand();
+        reply.constructReply(cmd.getId(), AggreGateCodes.REPLY_CODE_OK);
+        parser.queue.add(new IncomingAggreGateCommand(reply.toByteArray()));
+        return null;
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static class QueueParser implements CommandParser<IncomingAggreGateCommand>
+  {
+    private final BlockingQueue<IncomingAggreGateCommand> queue = new LinkedBlockingQueue<>();
+
+    @Override
+    public IncomingAggreGateCommand readCommand() throws DisconnectionException
+    {
+      try
+      {
+        return queue.poll(100, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new DisconnectionException(ex.getMessage());
+      }
+    }
+
+    @Override
+    public void addData(int dataByte)
+    {
+    }
+
+    @Override
+    public void reset()
+    {
+    }
+
+    @Override
+    public void setListener(CommandParserListener listener)
+    {
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.tibbo.aggregate.common.agent;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.text.MessageFormat;
 import java.util.List;
@@ -24,12 +25,15 @@ import com.tibbo.aggregate.common.datatable.encoding.FormatCache;
 import com.tibbo.aggregate.common.datatable.encoding.LocalFormatCache;
 import com.tibbo.aggregate.common.device.DisconnectionException;
 import com.tibbo.aggregate.common.device.RemoteDeviceErrorException;
+import com.tibbo.aggregate.common.protocol.ClientControllerSelectorHandler;
 import com.tibbo.aggregate.common.protocol.RemoteServer;
+import com.tibbo.aggregate.common.protocol.SelectorChannel;
+import com.tibbo.aggregate.common.protocol.SelectorEventLoopGroup;
 import com.tibbo.aggregate.common.protocol.SslHelper;
 import com.tibbo.aggregate.common.util.BlockingChannel;
-import com.tibbo.aggregate.common.util.NamedThreadFactory;
 import com.tibbo.aggregate.common.util.SocketBlockingChannel;
 import com.tibbo.aggregate.common.util.SyntaxErrorException;
+import com.tibbo.aggregate.common.util.VirtualThreads;
 
 public class Agent
 {
@@ -55,6 +59,10 @@ public class Agent
   private int pendingEventsQueueCapacity = Integer.MAX_VALUE;
   private int maxCommandExecutors = Integer.MAX_VALUE;
   
+  private SelectorEventLoopGroup selectorGroup;
+  
+  private ClientControllerSelectorHandler selectorHandler;
+  
   public Agent(RemoteServer server, String name, boolean eventConfirmation)
   {
     this.server = server;
@@ -92,6 +100,8 @@ public class Agent
       
       Log.PROTOCOL.debug("Connecting to remote server (" + server + ")");
       
+      selectorHandler = null;
+      
       BlockingChannel dataChannel = constructChannel();
       
       Log.PROTOCOL.debug("Connection with remote server established");
@@ -103,7 +113,7 @@ public class Agent
       
       DataTableRegistry dataTableRegistry = new DataTableRegistry();
       
-      commandExecutionService = new ThreadPoolExecutor(maxCommandExecutors, maxCommandExecutors, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("Agent/" + server));
+      commandExecutionService = new ThreadPoolExecutor(maxCommandExecutors, maxCommandExecutors, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), VirtualThreads.newThreadFactory("Agent/" + server));
       
       commandExecutionService.allowCoreThreadTimeOut(true);
       
@@ -111,6 +121,20 @@ public class Agent
       
       context.setKnownFormatCollector(controller.getKnownFormatCollector());
       
+      if (dataChannel instanceof SelectorChannel)
+      {
+        selectorHandler = new ClientControllerSelectorHandler(controller)
+        {
+          @Override
+          protected void connectionClosed()
+          {
+            // Agent is shut down by disconnect()
+          }
+        };
+        
+        ((SelectorChannel) dataChannel).activate(selectorHandler);
+      }
+      
       contextManager.getRoot().accept(new DefaultContextVisitor()
       {
         @Override
@@ -147,6 +171,12 @@ public class Agent
       
       return new SocketBlockingChannel(socket, useDataCompression, bufferSize);
     }
+    else if (selectorGroup != null)
+    {
+      SelectorChannel channel = selectorGroup.connect(new InetSocketAddress(server.getAddress(), server.getPort()), (int) server.getConnectionTimeout());
+      channel.setUsesCompression(useDataCompression);
+      return channel;
+    }
     else
     {
       Socket socket = SocketFactory.getDefault().createSocket(server.getAddress(), server.getPort());
@@ -179,6 +209,25 @@ public class Agent
   
   public void run() throws DisconnectionException, SyntaxErrorException, IOException
   {
+    if (selectorHandler != null)
+    {
+      // Commands are read by the selector event loop, just wait for disconnection like a blocking read would do
+      try
+      {
+        if (selectorHandler.awaitClosed(server.getConnectionTimeout()))
+        {
+          throw new DisconnectionException(Cres.get().getString("disconnected"));
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new IOException(ex);
+      }
+      
+      return;
+    }
+    
     controller.runImpl();
   }
   
@@ -192,6 +241,15 @@ public class Agent
     return controller.getLastDataTimestamp();
   }
   
+  /**
+   * Makes plain (non-secure) connections of this agent to be served by the given group of selector event loops instead of a thread blocked in
+   * {@link #run()}. Allows a single process to host thousands of agents. Must be called before {@link #connect()}.
+   */
+  public void setSelectorGroup(SelectorEventLoopGroup selectorGroup)
+  {
+    this.selectorGroup = selectorGroup;
+  }
+  
   public RemoteServer getServer()
   {
     return server;
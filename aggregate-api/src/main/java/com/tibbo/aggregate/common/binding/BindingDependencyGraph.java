@@ -0,0 +1,152 @@
+package com.tibbo.aggregate.common.binding;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.tibbo.aggregate.common.expression.Reference;
+
+/**
+ * Dependency graph of bindings built from their references.
+ * <p>
+ * Binding B depends on binding A if A's target may be one of the references read by B's expression. Each binding gets a rank: bindings that depend on
+ * no other binding have rank 0, others have a rank greater than the rank of any binding they depend on. Evaluating a change wave in the rank order
+ * guarantees that a binding is evaluated after all bindings it depends on have written their results.
+ * <p>
+ * Matching of targets to references is conservative, an extra edge affects only evaluation order. Bindings forming a cycle get a common rank that is
+ * greater than the rank of any other binding.
+ */
+class BindingDependencyGraph
+{
+  private final Map<Binding, Integer> ranks = new HashMap<>();
+  
+  BindingDependencyGraph(Map<Binding, List<Reference>> references)
+  {
+    Map<String, List<Binding>> writers = new HashMap<>();
+    
+    for (Binding binding : references.keySet())
+    {
+      Reference target = binding.getTarget();
+      
+      if (target != null)
+      {
+        writers.computeIfAbsent(entityKey(target), key -> new ArrayList<>()).add(binding);
+      }
+    }
+    
+    Map<Binding, Set<Binding>> dependents = new LinkedHashMap<>();
+    Map<Binding, Integer> inDegrees = new HashMap<>();
+    
+    for (Binding binding : references.keySet())
+    {
+      dependents.put(binding, new LinkedHashSet<>());
+      inDegrees.put(binding, 0);
+    }
+    
+    for (Map.Entry<Binding, List<Reference>> entry : references.entrySet())
+    {
+      Binding reader = entry.getKey();
+      
+      for (Reference reference : entry.getValue())
+      {
+        List<Binding> candidates = writers.get(entityKey(reference));
+        
+        if (candidates == null)
+        {
+          continue;
+        }
+        
+        for (Binding writer : candidates)
+        {
+          if (writer.equals(reader) || !fieldsMatch(writer.getTarget(), reference))
+          {
+            continue;
+          }
+          
+          if (dependents.get(writer).add(reader))
+          {
+            inDegrees.merge(reader, 1, Integer::sum);
+          }
+        }
+      }
+    }
+    
+    // Kahn's algorithm, rank of a binding is the length of the longest dependency chain leading to it
+    Deque<Binding> ready = new ArrayDeque<>();
+    
+    for (Binding binding : dependents.keySet())
+    {
+      if (inDegrees.get(binding) == 0)
+      {
+        ready.add(binding);
+        ranks.put(binding, 0);
+      }
+    }
+    
+    int maxRank = 0;
+    
+    while (!ready.isEmpty())
+    {
+      Binding binding = ready.poll();
+      int rank = ranks.get(binding);
+      
+      maxRank = Math.max(maxRank, rank);
+      
+      for (Binding dependent : dependents.get(binding))
+      {
+        ranks.merge(dependent, rank + 1, Math::max);
+        
+        if (inDegrees.merge(dependent, -1, Integer::sum) == 0)
+        {
+          ready.add(dependent);
+        }
+      }
+    }
+    
+    for (Binding binding : dependents.keySet())
+    {
+      if (inDegrees.get(binding) > 0)
+      {
+        // Binding is a part of a cycle or depends on one
+        ranks.put(binding, maxRank + 1);
+      }
+    }
+  }
+  
+  static BindingDependencyGraph empty()
+  {
+    return new BindingDependencyGraph(Collections.emptyMap());
+  }
+  
+  /**
+   * Returns rank of the binding or 0 if binding is not a part of the graph.
+   */
+  int getRank(Binding binding)
+  {
+    Integer rank = ranks.get(binding);
+    return rank != null ? rank : 0;
+  }
+  
+  int size()
+  {
+    return ranks.size();
+  }
+  
+  private static String entityKey(Reference reference)
+  {
+    return reference.getServer() + "/" + reference.getSchema() + "/" + reference.getContext() + "/" + reference.getEntity();
+  }
+  
+  private static boolean fieldsMatch(Reference target, Reference reference)
+  {
+    return target.getField() == null || reference.getField() == null || Objects.equals(target.getField(), reference.getField());
+  }
+}
@@ -3,13 +3,17 @@ package com.tibbo.aggregate.common.binding;
 import static com.tibbo.aggregate.common.structure.OriginKind.EXPRESSION;
 import static com.tibbo.aggregate.common.structure.OriginKind.REFERENCE;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Timer;
-import java.util.TimerTask;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -23,6 +27,7 @@ import javax.annotation.Nullable;
 import com.google.common.annotations.VisibleForTesting;
 import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.context.ContextUtils;
 import com.tibbo.aggregate.common.expression.EvaluationEnvironment;
 import com.tibbo.aggregate.common.expression.EvaluationException;
 import com.tibbo.aggregate.common.expression.Evaluator;
@@ -34,12 +39,18 @@ import com.tibbo.aggregate.common.util.Util;
 
 public class DefaultBindingProcessor implements BindingProcessor
 {
+  private static final int PERIODIC_BATCH_SIZE = 64;
+  
+  private static final int MAX_WAVE_EVALUATIONS = 100;
+  
   private final BindingProvider provider;
 
   private final Evaluator evaluator;
   
   private Timer timer;
   
+  private TimerWheel timerWheel;
+  
   private TimerFactory timerFactory;
   
   private ExecutorService executionService;
@@ -52,7 +63,17 @@ public class DefaultBindingProcessor implements BindingProcessor
   
   private final List<ReferenceListener> listeners = new LinkedList<>();
   
-  private final List<TimerTask> timerTasks = new LinkedList();
+  private final Map<String, PeriodicGroup> periodicGroups = new HashMap<>(); // Guarded by processor
+  
+  private volatile BindingDependencyGraph dependencyGraph = BindingDependencyGraph.empty();
+  
+  private final Map<Binding, List<Reference>> graphReferences = new HashMap<>(); // Guarded by itself
+  
+  private final ThreadLocal<ChangeWave> currentWave = new ThreadLocal<>();
+  
+  private ChangeWave pendingWave; // Guarded by pendingWaveLock
+  
+  private final Object pendingWaveLock = new Object();
   
   private final Set<Future> tasks = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap()));
   
@@ -166,22 +187,16 @@ public class DefaultBindingProcessor implements BindingProcessor
     
     stopped = true;
     
-    if (shareTimer)
+    for (PeriodicGroup group : periodicGroups.values())
     {
-      synchronized (timerTasks)
-      {
-        for (TimerTask task : timerTasks)
-        {
-          task.cancel();
-        }
-      }
+      group.timeout.cancel();
     }
-    else
+    
+    periodicGroups.clear();
+    
+    if (!shareTimer && timer != null)
     {
-      if (timer != null)
-      {
-        timer.cancel();
-      }
+      timer.cancel();
     }
     
     if (shareConcurrency)
@@ -274,6 +289,8 @@ public class DefaultBindingProcessor implements BindingProcessor
         return;
       }
       
+      addToDependencyGraph(binding, options);
+      
       Log.BINDINGS.debug("Initializing binding: " + binding + ", evaluation options: " + options);
       
       if ((options.getPattern() & EvaluationOptions.EVENT) != 0)
@@ -319,19 +336,7 @@ public class DefaultBindingProcessor implements BindingProcessor
       if ((options.getPattern() & EvaluationOptions.PERIODIC) != 0 && options.getPeriod() > 0)
       {
         ensureTimer();
-        if (!stopped)
-        {
-          final EvaluationTimerTask task = new EvaluationTimerTask(binding, options);
-          timer.schedule(task, options.getPeriod(), options.getPeriod());
-          if (shareTimer)
-          {
-            // timerTasks list manipulation is always synchronized using processor as a mutex
-            synchronized (this)
-            {
-              timerTasks.add(task);
-            }
-          }
-        }
+        schedulePeriodicEvaluation(binding, options);
       }
     }
     catch (Exception ex)
@@ -343,6 +348,16 @@ public class DefaultBindingProcessor implements BindingProcessor
 
   private void initBindings(final Map<Binding, EvaluationOptions> bindings, final boolean concurrentProcessing)
   {
+    synchronized (graphReferences)
+    {
+      for (Map.Entry<Binding, EvaluationOptions> entry : bindings.entrySet())
+      {
+        graphReferences.put(entry.getKey(), getGraphReferences(entry.getKey(), entry.getValue()));
+      }
+      
+      dependencyGraph = new BindingDependencyGraph(graphReferences);
+    }
+    
     for (Binding bin : bindings.keySet())
     {
       initBinding(bin, bindings.get(bin));
@@ -351,6 +366,42 @@ public class DefaultBindingProcessor implements BindingProcessor
     evaluateStartupBindings(bindings, concurrentProcessing);
   }
   
+  /**
+   * Ranks a binding initialized after the processor has started. Graph is rebuilt as a whole, since bindings are rarely added one by one.
+   */
+  private void addToDependencyGraph(Binding binding, EvaluationOptions options)
+  {
+    synchronized (graphReferences)
+    {
+      if (graphReferences.containsKey(binding))
+      {
+        return;
+      }
+      
+      graphReferences.put(binding, getGraphReferences(binding, options));
+      
+      dependencyGraph = new BindingDependencyGraph(graphReferences);
+    }
+  }
+  
+  private List<Reference> getGraphReferences(Binding binding, EvaluationOptions options)
+  {
+    if ((options.getPattern() & EvaluationOptions.EVENT) == 0 || options.getActivator() != null)
+    {
+      return Collections.emptyList();
+    }
+    
+    try
+    {
+      return provider.getReferences(binding);
+    }
+    catch (Exception ex)
+    {
+      // Error is reported during binding initialization
+      return Collections.emptyList();
+    }
+  }
+  
   private void evaluateStartupBindings(Map<Binding, EvaluationOptions> bindings, boolean concurrentProcessing)
   {
     if (stopped || !enabled)
@@ -441,6 +492,37 @@ public class DefaultBindingProcessor implements BindingProcessor
     }
   }
   
+  /**
+   * Adds binding to the group of periodic bindings having the same period and phase. Every group is a single timer wheel task.
+   */
+  private synchronized void schedulePeriodicEvaluation(Binding binding, EvaluationOptions options)
+  {
+    if (stopped)
+    {
+      return;
+    }
+    
+    if (timerWheel == null)
+    {
+      timerWheel = TimerWheel.get(timer);
+    }
+    
+    long period = options.getPeriod();
+    
+    String key = period + "/" + timerWheel.getPhase(period);
+    
+    PeriodicGroup group = periodicGroups.get(key);
+    
+    if (group == null)
+    {
+      group = new PeriodicGroup();
+      group.timeout = timerWheel.schedule(group, period, period);
+      periodicGroups.put(key, group);
+    }
+    
+    group.add(new PeriodicEvaluation(binding, options));
+  }
+  
   protected void ensureTimer()
   {
     if (timer == null)
@@ -528,36 +610,207 @@ public class DefaultBindingProcessor implements BindingProcessor
     this.startupBindingsEvaluatedCallback = startupBindingsEvaluatedCallback;
   }
   
-  private class EvaluationTimerTask extends TimerTask
+  /**
+   * Adds the change to a change wave. Changes caused by evaluations of a wave being processed by the current thread join that wave, other changes
+   * start a new wave that is processed either synchronously or by the executor. Asynchronous changes arriving before the executor picks their wave
+   * up join it as well.
+   */
+  private void processInWave(BindingReferenceListener listener, Reference cause, Map<String, Object> environment, boolean async) throws BindingException
   {
-    private final Binding binding;
-    private final EvaluationOptions options;
+    ChangeWave wave = currentWave.get();
     
-    public EvaluationTimerTask(Binding binding, EvaluationOptions options)
+    if (wave != null)
     {
-      this.binding = binding;
-      this.options = options;
+      wave.add(listener, cause, environment);
+      return;
     }
     
-    @Override
-    public void run()
+    if (async)
     {
-      Callable task = () -> {
-        executeEvaluationTask();
-        return null;
-      };
+      boolean newWave;
+      
+      synchronized (pendingWaveLock)
+      {
+        newWave = pendingWave == null;
+        
+        if (newWave)
+        {
+          pendingWave = new ChangeWave();
+        }
+        
+        pendingWave.add(listener, cause, environment);
+      }
+      
+      if (newWave)
+      {
+        Callable task = () -> {
+          ChangeWave next;
+          
+          synchronized (pendingWaveLock)
+          {
+            next = pendingWave;
+            pendingWave = null;
+          }
+          
+          if (next != null)
+          {
+            processWave(next);
+          }
+          
+          return null;
+        };
+        
+        try
+        {
+          submit(task);
+        }
+        catch (Exception ex)
+        {
+          ChangeWave dropped;
+          
+          synchronized (pendingWaveLock)
+          {
+            dropped = pendingWave;
+            pendingWave = null;
+          }
+          
+          BindingException error = new BindingException(Cres.get().getString("binBindingQueueOverflow"), ex);
+          
+          if (dropped != null)
+          {
+            // Changes that joined the wave are lost as well
+            dropped.reportError(error);
+          }
+          else
+          {
+            provider.processError(listener.getBinding(), EvaluationOptions.EVENT, cause, error);
+          }
+        }
+      }
+    }
+    else
+    {
+      wave = new ChangeWave();
+      
+      currentWave.set(wave);
       
       try
       {
-        submit(task);
+        listener.processReferenceChange(cause, environment, null);
+      }
+      finally
+      {
+        processWave(wave);
+      }
+    }
+  }
+  
+  /**
+   * Evaluates pending bindings of the wave in dependency order. Each binding is evaluated once all bindings it depends on have been evaluated, so
+   * intermediate values of its references are never read.
+   */
+  private void processWave(ChangeWave wave)
+  {
+    currentWave.set(wave);
+    
+    try
+    {
+      PendingEvaluation evaluation;
+      
+      while ((evaluation = wave.poll()) != null)
+      {
+        if (stopped || !enabled)
+        {
+          return;
+        }
+        
+        try
+        {
+          evaluation.listener.processReferenceChange(evaluation.cause, evaluation.environment, null);
+        }
+        catch (BindingException ex)
+        {
+          provider.processError(evaluation.listener.getBinding(), EvaluationOptions.EVENT, evaluation.cause, ex);
+        }
+      }
+    }
+    finally
+    {
+      currentWave.remove();
+    }
+  }
+  
+  /**
+   * Periodic bindings that run at the same ticks. Bindings are handed over to the executor in batches.
+   */
+  private class PeriodicGroup implements Runnable
+  {
+    private final Set<PeriodicEvaluation> evaluations = new LinkedHashSet<>();
+    
+    private PeriodicEvaluation[] snapshot;
+    
+    private TimerWheel.Timeout timeout;
+    
+    private synchronized void add(PeriodicEvaluation evaluation)
+    {
+      evaluations.add(evaluation);
+      snapshot = null;
+    }
+    
+    private synchronized PeriodicEvaluation[] getSnapshot()
+    {
+      if (snapshot == null)
+      {
+        snapshot = evaluations.toArray(new PeriodicEvaluation[evaluations.size()]);
       }
-      catch (Throwable ex)
+      
+      return snapshot;
+    }
+    
+    @Override
+    public void run()
+    {
+      PeriodicEvaluation[] all = getSnapshot();
+      
+      for (int from = 0; from < all.length; from += PERIODIC_BATCH_SIZE)
       {
-        provider.processError(binding, EvaluationOptions.PERIODIC, null, new BindingException(Cres.get().getString("binBindingQueueOverflow"), ex));
+        final PeriodicEvaluation[] batch = Arrays.copyOfRange(all, from, Math.min(from + PERIODIC_BATCH_SIZE, all.length));
+        
+        Callable task = () -> {
+          for (PeriodicEvaluation evaluation : batch)
+          {
+            evaluation.execute();
+          }
+          return null;
+        };
+        
+        try
+        {
+          submit(task);
+        }
+        catch (Throwable ex)
+        {
+          for (PeriodicEvaluation evaluation : batch)
+          {
+            provider.processError(evaluation.binding, EvaluationOptions.PERIODIC, null, new BindingException(Cres.get().getString("binBindingQueueOverflow"), ex));
+          }
+        }
       }
     }
+  }
+  
+  private class PeriodicEvaluation
+  {
+    private final Binding binding;
+    private final EvaluationOptions options;
+    
+    public PeriodicEvaluation(Binding binding, EvaluationOptions options)
+    {
+      this.binding = binding;
+      this.options = options;
+    }
     
-    public void executeEvaluationTask()
+    public void execute()
     {
       if (stopped || !enabled)
       {
@@ -609,7 +862,11 @@ public class DefaultBindingProcessor implements BindingProcessor
       
       boolean async = executionService != null && (asynchronousProcessing == null || asynchronousProcessing);
       
-      if (async)
+      if (cache == null && isCoalescable(cause))
+      {
+        processInWave(this, cause, environment, async);
+      }
+      else if (async)
       {
         Callable task = () -> {
           try
@@ -639,6 +896,14 @@ public class DefaultBindingProcessor implements BindingProcessor
       }
     }
     
+    /**
+     * Changes caused by events and changes whose processing is tracked by a change cache are never coalesced.
+     */
+    private boolean isCoalescable(Reference cause)
+    {
+      return cause != null && cause.getEntityType() != ContextUtils.ENTITY_EVENT && options.getActivator() == null;
+    }
+    
     private void processReferenceChange(Reference cause, Map<String, Object> environment, ChangeCache cache) throws BindingException
     {
       if (stopped || !enabled)
@@ -694,6 +959,148 @@ public class DefaultBindingProcessor implements BindingProcessor
     }
   }
   
+  /**
+   * Set of binding evaluations triggered by a single change and by evaluations it caused.
+   */
+  private class ChangeWave
+  {
+    private final PriorityQueue<PendingEvaluation> queue = new PriorityQueue<>();
+    
+    private final Map<EvaluationKey, PendingEvaluation> pending = new HashMap<>();
+    
+    private final Map<EvaluationKey, Integer> evaluationCounts = new HashMap<>();
+    
+    private long sequence;
+    
+    private void add(BindingReferenceListener listener, Reference cause, Map<String, Object> environment)
+    {
+      EvaluationKey key = new EvaluationKey(listener.getBinding(), cause);
+      
+      PendingEvaluation evaluation = pending.get(key);
+      
+      if (evaluation != null)
+      {
+        // Binding was triggered again before being evaluated, only the latest change is processed
+        evaluation.listener = listener;
+        evaluation.cause = cause;
+        evaluation.environment = environment;
+        return;
+      }
+      
+      int count = evaluationCounts.getOrDefault(key, 0);
+      
+      if (count >= MAX_WAVE_EVALUATIONS)
+      {
+        if (count == MAX_WAVE_EVALUATIONS)
+        {
+          Log.BINDINGS.warn("Binding was evaluated " + count + " times during processing of a single change, probably it is a part of a cycle: " + listener.getBinding());
+          evaluationCounts.put(key, count + 1);
+        }
+        
+        return;
+      }
+      
+      evaluation = new PendingEvaluation(key, dependencyGraph.getRank(listener.getBinding()), sequence++, listener, cause, environment);
+      
+      pending.put(key, evaluation);
+      queue.add(evaluation);
+    }
+    
+    /**
+     * Reports the error for every evaluation of the wave that won't take place.
+     */
+    private void reportError(BindingException error)
+    {
+      for (PendingEvaluation evaluation : queue)
+      {
+        provider.processError(evaluation.listener.getBinding(), EvaluationOptions.EVENT, evaluation.cause, error);
+      }
+    }
+    
+    private PendingEvaluation poll()
+    {
+      PendingEvaluation evaluation = queue.poll();
+      
+      if (evaluation != null)
+      {
+        pending.remove(evaluation.key);
+        evaluationCounts.merge(evaluation.key, 1, Integer::sum);
+      }
+      
+      return evaluation;
+    }
+  }
+  
+  private static class PendingEvaluation implements Comparable<PendingEvaluation>
+  {
+    private final EvaluationKey key;
+    private final int rank;
+    private final long sequence;
+    
+    private BindingReferenceListener listener;
+    private Reference cause;
+    private Map<String, Object> environment;
+    
+    private PendingEvaluation(EvaluationKey key, int rank, long sequence, BindingReferenceListener listener, Reference cause, Map<String, Object> environment)
+    {
+      this.key = key;
+      this.rank = rank;
+      this.sequence = sequence;
+      this.listener = listener;
+      this.cause = cause;
+      this.environment = environment;
+    }
+    
+    @Override
+    public int compareTo(PendingEvaluation other)
+    {
+      int res = Integer.compare(rank, other.rank);
+      return res != 0 ? res : Long.compare(sequence, other.sequence);
+    }
+  }
+  
+  /**
+   * Evaluations of the same binding are interchangeable if their causes point to the same context and row, since the provider may write the result
+   * into the row of the cause.
+   */
+  private static class EvaluationKey
+  {
+    private final Binding binding;
+    private final String context;
+    private final Integer row;
+    
+    private EvaluationKey(Binding binding, Reference cause)
+    {
+      this.binding = binding;
+      this.context = cause.getContext();
+      this.row = cause.getRow();
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+      
+      if (!(obj instanceof EvaluationKey))
+      {
+        return false;
+      }
+      
+      EvaluationKey other = (EvaluationKey) obj;
+      
+      return binding.equals(other.binding) && Objects.equals(context, other.context) && Objects.equals(row, other.row);
+    }
+    
+    @Override
+    public int hashCode()
+    {
+      return Objects.hash(binding, context, row);
+    }
+  }
+  
   @Override
   public void submit(Callable task)
   {
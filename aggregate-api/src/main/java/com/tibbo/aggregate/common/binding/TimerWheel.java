@@ -0,0 +1,448 @@
+package com.tibbo.aggregate.common.binding;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+import com.tibbo.aggregate.common.Log;
+
+/**
+ * Hierarchical hashed timer wheel driven by a {@link Timer}.
+ * <p>
+ * Time is divided into ticks (<code>aggregate.binding.timerWheelTick</code> milliseconds, 10 by default). Timeouts due within 256 ticks are kept in
+ * the slots of the lowest level, later ones are kept in three coarser levels of 64 slots each and are cascaded down as time advances. Scheduling and
+ * cancellation take constant time regardless of the number of pending timeouts, and the timer thread wakes up only once per tick rather than once per
+ * task.
+ * <p>
+ * Tasks are run by the timer thread, so they should only hand work over to an executor.
+ */
+public class TimerWheel
+{
+  private static final long DEFAULT_TICK_DURATION = getDefaultTickDuration();
+  
+  private static final int LEVELS = 4;
+  private static final int LOWEST_LEVEL_BITS = 8;
+  private static final int LEVEL_BITS = 6;
+  private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+  
+  private static final Map<Timer, TimerWheel> WHEELS = new WeakHashMap<>();
+  
+  private final WeakReference<Timer> timer;
+  private final long tickDuration;
+  private final long startTime = System.nanoTime();
+  
+  private final Timeout[][] slots = new Timeout[LEVELS][];
+  
+  private long currentTick;
+  private int count;
+  
+  private TimerTask tickTask;
+  
+  /**
+   * Returns wheel driven by the timer, creating it on first call. All users of the same timer share one wheel.
+   */
+  public static TimerWheel get(Timer timer)
+  {
+    synchronized (WHEELS)
+    {
+      TimerWheel wheel = WHEELS.get(timer);
+      
+      if (wheel == null)
+      {
+        wheel = new TimerWheel(timer, DEFAULT_TICK_DURATION);
+        WHEELS.put(timer, wheel);
+      }
+      
+      return wheel;
+    }
+  }
+  
+  /**
+   * Creates a wheel that is advanced only by {@link #advanceTo(long)} calls.
+   */
+  TimerWheel(long tickDuration)
+  {
+    this(null, tickDuration);
+  }
+  
+  private TimerWheel(Timer timer, long tickDuration)
+  {
+    this.timer = timer != null ? new WeakReference<>(timer) : null;
+    this.tickDuration = tickDuration;
+    
+    slots[0] = new Timeout[1 << LOWEST_LEVEL_BITS];
+    
+    for (int level = 1; level < LEVELS; level++)
+    {
+      slots[level] = new Timeout[1 << LEVEL_BITS];
+    }
+  }
+  
+  /**
+   * Schedules the task to run after the delay and then periodically, if the period is positive. Delay and period are rounded up to whole ticks.
+   */
+  public synchronized Timeout schedule(Runnable task, long delay, long period)
+  {
+    if (count == 0 && timer != null)
+    {
+      // Wheel was idle, its time has not been advanced
+      currentTick = Math.max(currentTick, getElapsedTicks());
+    }
+    
+    Timeout timeout = new Timeout(task, currentTick + toTicks(delay), period > 0 ? toTicks(period) : 0);
+    
+    count++;
+    
+    if (!place(timeout))
+    {
+      // Placing into the next tick is the earliest possible
+      timeout.deadline = currentTick + 1;
+      place(timeout);
+    }
+    
+    ensureTicking();
+    
+    return timeout;
+  }
+  
+  /**
+   * Returns phase (tick number modulo period) that periodic tasks scheduled now get, tasks with the same period and phase run at the same ticks.
+   */
+  public synchronized long getPhase(long period)
+  {
+    long now = count == 0 && timer != null ? Math.max(currentTick, getElapsedTicks()) : currentTick;
+    
+    return now % toTicks(period);
+  }
+  
+  public synchronized int size()
+  {
+    return count;
+  }
+  
+  public long getTickDuration()
+  {
+    return tickDuration;
+  }
+  
+  synchronized long getCurrentTick()
+  {
+    return currentTick;
+  }
+  
+  /**
+   * Advances wheel time up to the tick and runs all tasks due by that tick.
+   */
+  void advanceTo(long tick)
+  {
+    List<Timeout> expired = new ArrayList<>();
+    
+    synchronized (this)
+    {
+      if (count == 0)
+      {
+        currentTick = Math.max(currentTick, tick);
+        return;
+      }
+      
+      while (currentTick < tick)
+      {
+        currentTick++;
+        
+        for (int level = LEVELS - 1; level > 0; level--)
+        {
+          int shift = shift(level);
+          
+          if ((currentTick & ((1L << shift) - 1)) == 0)
+          {
+            cascade(level, (int) ((currentTick >> shift) & LEVEL_MASK), expired);
+          }
+        }
+        
+        Timeout[] lowest = slots[0];
+        int index = (int) (currentTick & (lowest.length - 1));
+        
+        for (Timeout timeout = lowest[index]; timeout != null; timeout = timeout.next)
+        {
+          timeout.level = -1;
+          expired.add(timeout);
+        }
+        
+        lowest[index] = null;
+      }
+    }
+    
+    for (Timeout timeout : expired)
+    {
+      run(timeout);
+    }
+  }
+  
+  private void run(Timeout timeout)
+  {
+    if (timeout.cancelled)
+    {
+      return;
+    }
+    
+    try
+    {
+      timeout.task.run();
+    }
+    catch (Throwable ex)
+    {
+      Log.BINDINGS.error("Error running timer task: " + timeout.task, ex);
+    }
+    
+    synchronized (this)
+    {
+      if (timeout.cancelled)
+      {
+        return;
+      }
+      
+      if (timeout.period > 0)
+      {
+        // Ticks missed because of a delayed timer thread are skipped rather than run in a burst
+        timeout.deadline = Math.max(timeout.deadline + timeout.period, currentTick + 1);
+        place(timeout);
+      }
+      else
+      {
+        timeout.cancelled = true;
+        count--;
+      }
+    }
+  }
+  
+  private void cascade(int level, int index, List<Timeout> expired)
+  {
+    Timeout timeout = slots[level][index];
+    
+    slots[level][index] = null;
+    
+    while (timeout != null)
+    {
+      Timeout next = timeout.next;
+      
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.level = -1;
+      
+      if (!place(timeout))
+      {
+        expired.add(timeout);
+      }
+      
+      timeout = next;
+    }
+  }
+  
+  /**
+   * Links timeout into the slot matching its deadline. Returns false if the timeout is already due.
+   */
+  private boolean place(Timeout timeout)
+  {
+    long deadline = timeout.deadline;
+    
+    if (deadline <= currentTick)
+    {
+      return false;
+    }
+    
+    if (deadline - currentTick < slots[0].length)
+    {
+      link(timeout, 0, (int) (deadline & (slots[0].length - 1)));
+      return true;
+    }
+    
+    for (int level = 1; level < LEVELS; level++)
+    {
+      int shift = shift(level);
+      
+      if ((deadline >> shift) - (currentTick >> shift) <= LEVEL_MASK)
+      {
+        link(timeout, level, (int) ((deadline >> shift) & LEVEL_MASK));
+        return true;
+      }
+    }
+    
+    // Deadline is beyond the wheel range, the timeout is placed into the farthest slot and re-placed when that slot is cascaded
+    int shift = shift(LEVELS - 1);
+    link(timeout, LEVELS - 1, (int) (((currentTick >> shift) + LEVEL_MASK) & LEVEL_MASK));
+    
+    return true;
+  }
+  
+  private void link(Timeout timeout, int level, int index)
+  {
+    Timeout head = slots[level][index];
+    
+    timeout.level = level;
+    timeout.index = index;
+    timeout.prev = null;
+    timeout.next = head;
+    
+    if (head != null)
+    {
+      head.prev = timeout;
+    }
+    
+    slots[level][index] = timeout;
+  }
+  
+  private synchronized void cancel(Timeout timeout)
+  {
+    if (timeout.cancelled)
+    {
+      return;
+    }
+    
+    timeout.cancelled = true;
+    count--;
+    
+    if (timeout.level < 0)
+    {
+      // Timeout is being run
+      return;
+    }
+    
+    if (timeout.prev != null)
+    {
+      timeout.prev.next = timeout.next;
+    }
+    else
+    {
+      slots[timeout.level][timeout.index] = timeout.next;
+    }
+    
+    if (timeout.next != null)
+    {
+      timeout.next.prev = timeout.prev;
+    }
+    
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.level = -1;
+  }
+  
+  private void ensureTicking()
+  {
+    Timer t = timer != null ? timer.get() : null;
+    
+    if (t == null || tickTask != null)
+    {
+      return;
+    }
+    
+    tickTask = new TimerTask()
+    {
+      @Override
+      public void run()
+      {
+        advanceTo(getElapsedTicks());
+        
+        synchronized (TimerWheel.this)
+        {
+          if (count == 0 && tickTask == this)
+          {
+            // Idle wheel does not wake the timer thread up
+            cancel();
+            tickTask = null;
+          }
+        }
+      }
+    };
+    
+    try
+    {
+      t.scheduleAtFixedRate(tickTask, tickDuration, tickDuration);
+    }
+    catch (IllegalStateException ex)
+    {
+      tickTask = null;
+      throw ex;
+    }
+  }
+  
+  private long getElapsedTicks()
+  {
+    return (System.nanoTime() - startTime) / (tickDuration * 1000000L);
+  }
+  
+  private long toTicks(long millis)
+  {
+    return Math.max(1, (millis + tickDuration - 1) / tickDuration);
+  }
+  
+  private static int shift(int level)
+  {
+    return level == 0 ? 0 : LOWEST_LEVEL_BITS + LEVEL_BITS * (level - 1);
+  }
+  
+  private static long getDefaultTickDuration()
+  {
+    String prop = System.getProperty("aggregate.binding.timerWheelTick");
+    
+    if (prop != null)
+    {
+      try
+      {
+        long tick = Long.parseLong(prop);
+        
+        if (tick > 0)
+        {
+          return tick;
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        // Default tick is used
+      }
+    }
+    
+    return 10;
+  }
+  
+  /**
+   * Handle of a scheduled task.
+   */
+  public class Timeout
+  {
+    private final Runnable task;
+    private final long period;
+    
+    private long deadline;
+    
+    private volatile boolean cancelled;
+    
+    private Timeout prev;
+    private Timeout next;
+    private int level = -1;
+    private int index;
+    
+    private Timeout(Runnable task, long deadline, long period)
+    {
+      this.task = task;
+      this.deadline = deadline;
+      this.period = period;
+    }
+    
+    /**
+     * Cancels the task. Takes constant time.
+     */
+    public void cancel()
+    {
+      TimerWheel.this.cancel(this);
+    }
+    
+    public boolean isCancelled()
+    {
+      return cancelled;
+    }
+  }
+}
@@ -1,12 +1,19 @@
 package com.tibbo.aggregate.common.communication;
 
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 
 public abstract class AbstractCommandParser<C extends Command> implements CommandParser<C>
 {
   private static final int DEFAULT_SIZE = 1024;
   
-  private ByteArrayOutputStream data = new ByteArrayOutputStream(DEFAULT_SIZE);
+  /**
+   * Detached data is copied if more than this fraction of its storage is unused, so large commands do not retain up to twice their size.
+   */
+  private static final int MAX_DETACHED_SLACK_DIVISOR = 4;
+  
+  private DataBuffer data = new DataBuffer(DEFAULT_SIZE);
   
   private CommandParserListener listener;
   
@@ -30,10 +37,21 @@ public abstract class AbstractCommandParser<C extends Command> implements Comman
   public byte[] clearData()
   {
     byte[] dataArray = data.toByteArray();
-    data = new ByteArrayOutputStream(DEFAULT_SIZE);
+    data = new DataBuffer(DEFAULT_SIZE);
     return dataArray;
   }
   
+  /**
+   * Hands accumulated data over to the caller and starts a new data buffer. Unlike {@link #clearData()}, the storage is normally not copied: the
+   * returned buffer wraps it starting from position zero.
+   */
+  public ByteBuffer detachData()
+  {
+    ByteBuffer detached = data.detach();
+    data = new DataBuffer(DEFAULT_SIZE);
+    return detached;
+  }
+  
   @Override
   public void addData(int dataByte)
   {
@@ -56,4 +74,18 @@ public abstract class AbstractCommandParser<C extends Command> implements Comman
   {
     return data.toString();
   }
+  
+  private static class DataBuffer extends ByteArrayOutputStream
+  {
+    DataBuffer(int size)
+    {
+      super(size);
+    }
+    
+    ByteBuffer detach()
+    {
+      byte[] storage = buf.length - count > buf.length / MAX_DETACHED_SLACK_DIVISOR ? Arrays.copyOf(buf, count) : buf;
+      return ByteBuffer.wrap(storage, 0, count);
+    }
+  }
 }
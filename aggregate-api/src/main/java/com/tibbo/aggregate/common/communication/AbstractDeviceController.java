@@ -2,6 +2,7 @@ package com.tibbo.aggregate.common.communication;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 
 import javax.swing.*;
@@ -159,6 +160,48 @@ public abstract class AbstractDeviceController<I extends Command, O extends Comm
     return reply;
   }
   
+  /**
+   * Sends a command without blocking until it is replied. See {@link AsyncCommandProcessor#sendAsyncCommand(Command)} for details.
+   */
+  public CompletableFuture<I> sendCommandAsync(O cmd) throws DisconnectionException, IOException, InterruptedException, RemoteDeviceErrorException, ContextException
+  {
+    return sendCommandsAsync(Collections.singletonList(cmd)).get(0);
+  }
+  
+  /**
+   * Sends several commands in one pipelined batch. See {@link AsyncCommandProcessor#sendAsyncCommands(List)} for details.
+   */
+  public List<CompletableFuture<I>> sendCommandsAsync(List<O> commands) throws DisconnectionException, IOException, InterruptedException, RemoteDeviceErrorException,
+      ContextException
+  {
+    checkAndConnect();
+    
+    List<CompletableFuture<I>> replies = processor.sendAsyncCommands(commands);
+    
+    List<CompletableFuture<I>> res = new ArrayList<>(replies.size());
+    
+    for (int i = 0; i < replies.size(); i++)
+    {
+      final O cmd = commands.get(i);
+      
+      res.add(replies.get(i).whenComplete((reply, error) -> {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        
+        if (cause instanceof DisconnectionException)
+        {
+          setLoggedIn(false);
+          setConnected(false);
+        }
+        else if (reply != null && logger != null && logger.isDebugEnabled())
+        {
+          logger.debug("Received reply: " + StringUtils.toHexString(reply.toByteArray()) + " to command: " + StringUtils.toHexString(cmd.toByteArray()));
+        }
+      }));
+    }
+    
+    return res;
+  }
+  
   public boolean isActive()
   {
     if (connecting || loggingIn)
@@ -196,10 +239,15 @@ public abstract class AbstractDeviceController<I extends Command, O extends Comm
   
   protected void startCommandProcessor()
   {
-    processor = new AsyncCommandProcessor(this);
+    processor = createCommandProcessor();
     processor.start();
   }
   
+  protected AsyncCommandProcessor createCommandProcessor()
+  {
+    return new AsyncCommandProcessor(this);
+  }
+  
   protected void setCommandParser(CommandParser commandParser)
   {
     this.commandParser = commandParser;
@@ -209,7 +257,7 @@ public abstract class AbstractDeviceController<I extends Command, O extends Comm
   
   public boolean isConnected()
   {
-    return connected && (processor == null || processor.isAlive());
+    return connected && (processor == null || processor.isRunning());
   }
   
   protected void setConnected(boolean connected)
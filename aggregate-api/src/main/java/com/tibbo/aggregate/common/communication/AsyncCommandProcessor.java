@@ -4,13 +4,24 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.nio.channels.ClosedByInterruptException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import javax.net.ssl.SSLException;
 import javax.swing.*;
@@ -20,13 +31,25 @@ import org.apache.log4j.Level;
 import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.device.DisconnectionException;
+import com.tibbo.aggregate.common.util.NamedThreadFactory;
 import com.tibbo.aggregate.common.util.StringUtils;
 import com.tibbo.aggregate.common.util.TimeHelper;
+import com.tibbo.aggregate.common.util.VirtualThreads;
 
 public class AsyncCommandProcessor<I extends Command, O extends Command, C extends AbstractDeviceController<I, O>> extends Thread
 {
   private static final long PENDING_COMMAND_TIMEOUT = TimeHelper.DAY_IN_MS;
   
+  // Fails pipelined commands that were not replied in time
+  private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AsyncCommandTimeouts"));
+  static
+  {
+    TIMEOUT_SCHEDULER.setRemoveOnCancelPolicy(true);
+  }
+  
+  // Completes futures of pipelined commands, so that callbacks never run in the reading thread
+  private static final ExecutorService REPLY_EXECUTOR = VirtualThreads.newThreadPerTaskExecutor("AsyncCommandReplies");
+  
   private final C controller;
   
   // Queue contains commands without ids
@@ -37,6 +60,10 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
   
   private final Object commandQueueMonitor = new Object();
   
+  // Serializes sending of commands without ids, since their replies are matched in the order of sending. Not a monitor, since the sending thread blocks
+  // while holding it, which would pin a virtual thread
+  private final Lock unidentifiedSendLock = new ReentrantLock();
+  
   private final CommandProcessorStatistics statistics = new CommandProcessorStatistics();
   
   public AsyncCommandProcessor(C controller)
@@ -97,22 +124,200 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
     }
   }
   
-  private synchronized ReplyMonitor sendCommand(final O cmd) throws DisconnectionException, IOException, InterruptedException
+  /**
+   * Sends a command without waiting for the reply. Any number of commands may be in flight on one connection, and their replies are matched by command
+   * id in any order, so a slow operation does not delay others.
+   * <p>
+   * The returned future is completed with the reply (or {@code null} for commands that expect no reply). It is completed exceptionally with
+   * {@link DisconnectionException} if the connection is lost, and with {@link IOException} if sending fails or no reply arrives within the command
+   * timeout. Dependent actions are executed outside of the thread reading commands.
+   * 
+   * @throws IllegalArgumentException
+   *           if the command has no id
+   */
+  public CompletableFuture<I> sendAsyncCommand(final O cmd)
   {
-    if (!isAlive())
+    return sendAsyncCommands(Collections.singletonList(cmd)).get(0);
+  }
+  
+  /**
+   * Pipelined sending of several commands. All commands are written back-to-back by a single sender, so the whole batch costs one round trip. Futures
+   * in the resulting list correspond to commands in the same order and behave as described in {@link #sendAsyncCommand(Command)}.
+   * 
+   * @throws IllegalArgumentException
+   *           if any command has no id
+   */
+  public List<CompletableFuture<I>> sendAsyncCommands(final List<O> commands)
+  {
+    for (O cmd : commands)
+    {
+      if (cmd.getId() == null)
+      {
+        throw new IllegalArgumentException("Pipelined command has no id: " + cmd);
+      }
+    }
+    
+    final List<ReplyMonitor<O, I>> monitors = new ArrayList<>(commands.size());
+    
+    for (O cmd : commands)
+    {
+      monitors.add(new ReplyMonitor<>(cmd));
+    }
+    
+    if (!isRunning())
+    {
+      monitors.forEach(ReplyMonitor::terminate);
+      return toResults(monitors);
+    }
+    
+    for (ReplyMonitor<O, I> mon : monitors)
+    {
+      addPipelinedCommand(mon);
+    }
+    
+    Runnable sender = () -> {
+      for (ReplyMonitor<O, I> mon : monitors)
+      {
+        if (mon.getFuture().isDone())
+        {
+          continue; // Cancelled or timed out before sending
+        }
+        
+        try
+        {
+          mon.recordCommandSize();
+          sendUnrepliedCommand(mon.getCommand());
+          
+          if (mon.getCommand().isAsync())
+          {
+            mon.getFuture().complete(null);
+          }
+        }
+        catch (Throwable ex)
+        {
+          sentCommandsMap.remove(mon.getCommand().getId(), mon);
+          mon.getFuture().completeExceptionally(ex);
+        }
+      }
+    };
+    
+    try
+    {
+      SendersPool.get().execute(sender);
+    }
+    catch (RejectedExecutionException ex)
+    {
+      sender.run();
+    }
+    
+    return toResults(monitors);
+  }
+  
+  private void addPipelinedCommand(final ReplyMonitor<O, I> mon)
+  {
+    final O cmd = mon.getCommand();
+    
+    if (cmd.isAsync())
+    {
+      return; // No reply expected
+    }
+    
+    final String id = cmd.getId();
+    
+    sentCommandsMap.put(id, mon);
+    
+    long timeout = cmd.getTimeout() != null ? cmd.getTimeout() : controller.getCommandTimeout();
+    
+    ScheduledFuture<?> timeoutTask = scheduleTimeout(mon, timeout);
+    
+    mon.getFuture().whenComplete((reply, error) -> {
+      timeoutTask.cancel(false);
+      sentCommandsMap.remove(id, mon);
+      statistics.updateOnSyncCommand(mon);
+    });
+  }
+  
+  private List<CompletableFuture<I>> toResults(List<ReplyMonitor<O, I>> monitors)
+  {
+    List<CompletableFuture<I>> results = new ArrayList<>(monitors.size());
+    
+    for (ReplyMonitor<O, I> mon : monitors)
+    {
+      CompletableFuture<I> result = mon.getFuture().thenApplyAsync(Function.identity(), REPLY_EXECUTOR);
+      
+      result.whenComplete((reply, error) -> {
+        if (result.isCancelled())
+        {
+          mon.getFuture().cancel(false);
+        }
+      });
+      
+      results.add(result);
+    }
+    
+    return results;
+  }
+  
+  private ScheduledFuture<?> scheduleTimeout(final ReplyMonitor<O, I> mon, final long timeout)
+  {
+    long deadline = Math.max(mon.getStartTime(), mon.getResetTime()) + timeout;
+    
+    return TIMEOUT_SCHEDULER.schedule(() -> {
+      if (mon.getFuture().isDone())
+      {
+        return;
+      }
+      
+      // Timeout may have been reset by incoming data
+      if (System.currentTimeMillis() < Math.max(mon.getStartTime(), mon.getResetTime()) + timeout)
+      {
+        scheduleTimeout(mon, timeout);
+        return;
+      }
+      
+      sentCommandsMap.remove(mon.getCommand().getId(), mon);
+      mon.getFuture().completeExceptionally(new IOException(MessageFormat.format(Cres.get().getString("cmdTimeout"), mon.getCommand().getId())));
+    }, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+  }
+  
+  private ReplyMonitor<O, I> sendCommand(final O cmd) throws DisconnectionException, IOException, InterruptedException
+  {
+    if (!isRunning())
     {
       synchronized (commandQueueMonitor)
       {
-        sentCommandsMap.forEach((s, cur) -> cur.setReply(null));
-        sentCommandsQueue.forEach(cur -> cur.setReply(null));
+        sentCommandsMap.forEach((s, cur) -> cur.terminate());
+        sentCommandsQueue.forEach(ReplyMonitor::terminate);
       }
       
       throw new DisconnectionException(Cres.get().getString("disconnected"));
     }
     
-    final ReplyMonitor mon = new ReplyMonitor(cmd);
+    final ReplyMonitor<O, I> mon = new ReplyMonitor<>(cmd);
+    
+    if (cmd.getId() == null)
+    {
+      unidentifiedSendLock.lockInterruptibly();
+      try
+      {
+        sendCommand(mon);
+      }
+      finally
+      {
+        unidentifiedSendLock.unlock();
+      }
+    }
+    else
+    {
+      sendCommand(mon);
+    }
     
-    Future<Throwable> future = SendersPool.get().submit(new Callable()
+    return mon;
+  }
+  
+  private void sendCommand(final ReplyMonitor<O, I> mon) throws DisconnectionException, IOException, InterruptedException
+  {
+    Future<Throwable> future = SendersPool.get().submit(new Callable<Throwable>()
     {
       @Override
       public Throwable call() throws Exception
@@ -120,7 +325,8 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
         try
         {
           addSentCommand(mon);
-          sendUnrepliedCommand(cmd);
+          mon.recordCommandSize();
+          sendUnrepliedCommand(mon.getCommand());
           return null;
         }
         catch (Throwable ex)
@@ -136,7 +342,7 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
       
       if (th == null)
       {
-        return mon;
+        return;
       }
       else if (th instanceof DisconnectionException)
       {
@@ -208,92 +414,119 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
   @Override
   public void run()
   {
-    
-    I cmd;
     try
     {
       while (!isInterrupted())
       {
-        cmd = controller.getCommandParser().readCommand();
+        I cmd = controller.getCommandParser().readCommand();
         
         if (cmd != null)
         {
-          if (controller.getLogger() != null && controller.getLogger().isDebugEnabled())
-          {
-            controller.getLogger().debug("Received command: " + StringUtils.toHexString(cmd.toByteArray()));
-          }
-          
-          if (cmd.isAsync())
-          {
-            controller.processAsyncCommand(cmd);
-            
-            statistics.updateOnAsyncCommand(cmd);
-          }
-          else
-          {
-            String commandId = cmd.getId();
-            ReplyMonitor<O, I> replyMonitor;
-            if (commandId != null)
-            {
-              replyMonitor = sentCommandsMap.remove(commandId);
-            }
-            else
-            {
-              replyMonitor = sentCommandsQueue.poll();
-            }
-            
-            if (replyMonitor != null)
-            {
-              synchronized (replyMonitor)
-              {
-                replyMonitor.setReply(cmd);
-              }
-            }
-            else
-            {
-              if (controller.getLogger() != null && controller.getLogger().isDebugEnabled())
-              {
-                controller.getLogger().debug("Reply cannot be matched to a sent command: "
-                    + (commandId == null ? "commands queue is empty" : "Command Id: " + commandId + ", commands in progress: " + sentCommandsMap.size()));
-              }
-            }
-            removeExpiredCommands();
-          }
+          processIncomingCommand(cmd);
         }
       }
       
       controller.disconnectImpl();
     }
-    catch (DisconnectionException ex)
+    catch (Exception ex)
+    {
+      processReadError(ex);
+    }
+    finally
+    {
+      terminateSentCommands();
+    }
+  }
+  
+  /**
+   * Reads and processes all commands that can be parsed without blocking. Used by processors that are driven by a selector instead of running their
+   * own thread.
+   */
+  protected void processAvailableCommands() throws Exception
+  {
+    I cmd;
+    
+    while ((cmd = controller.getCommandParser().readCommand()) != null)
+    {
+      processIncomingCommand(cmd);
+    }
+  }
+  
+  protected void processIncomingCommand(I cmd)
+  {
+    if (controller.getLogger() != null && controller.getLogger().isDebugEnabled())
+    {
+      controller.getLogger().debug("Received command: " + StringUtils.toHexString(cmd.toByteArray()));
+    }
+    
+    if (cmd.isAsync())
+    {
+      controller.processAsyncCommand(cmd);
+      
+      statistics.updateOnAsyncCommand(cmd);
+    }
+    else
+    {
+      String commandId = cmd.getId();
+      ReplyMonitor<O, I> replyMonitor;
+      if (commandId != null)
+      {
+        replyMonitor = sentCommandsMap.remove(commandId);
+      }
+      else
+      {
+        replyMonitor = sentCommandsQueue.poll();
+      }
+      
+      if (replyMonitor != null)
+      {
+        replyMonitor.setReply(cmd);
+      }
+      else
+      {
+        if (controller.getLogger() != null && controller.getLogger().isDebugEnabled())
+        {
+          controller.getLogger().debug("Reply cannot be matched to a sent command: "
+              + (commandId == null ? "commands queue is empty" : "Command Id: " + commandId + ", commands in progress: " + sentCommandsMap.size()));
+        }
+      }
+      removeExpiredCommands();
+    }
+  }
+  
+  protected void processReadError(Exception ex)
+  {
+    if (ex instanceof DisconnectionException)
     {
       processError(Level.DEBUG, "Disconnection of peer detected in async processor", ex);
     }
-    catch (ClosedByInterruptException ex)
+    else if (ex instanceof ClosedByInterruptException)
     {
       processError(Level.DEBUG, "Async processor interrupted", ex);
     }
-    catch (SocketException ex)
+    else if (ex instanceof SocketException)
     {
       processError(Level.DEBUG, "Socket error in async processor", ex);
     }
-    catch (SSLException ex)
+    else if (ex instanceof SSLException)
     {
       processError(Level.DEBUG, "SSL error in async processor", ex);
     }
-    catch (Exception ex)
+    else
     {
       processError(Level.ERROR, "Error in async processor", ex);
     }
-    finally
-    {
-      sentCommandsQueue.forEach(ReplyMonitor::terminate);
-      sentCommandsQueue.clear();
-      sentCommandsMap.values().forEach(ReplyMonitor::terminate);
-      sentCommandsMap.clear();
-    }
   }
   
-  private void removeExpiredCommands()
+  protected void terminateSentCommands()
+  {
+    sentCommandsQueue.forEach(ReplyMonitor::terminate);
+    sentCommandsQueue.clear();
+    sentCommandsMap.values().forEach(ReplyMonitor::terminate);
+    sentCommandsMap.clear();
+  }
+  
+  protected void removeExpiredCommands()
   {
     sentCommandsMap.entrySet().removeIf(entry -> isExpired(entry.getValue()));
     sentCommandsQueue.removeIf(this::isExpired);
@@ -329,6 +562,14 @@ public class AsyncCommandProcessor<I extends Command, O extends Command, C exten
     }
   }
   
+  /**
+   * Returns true while the processor is able to receive replies. For thread-based processors this is equivalent to {@link #isAlive()}.
+   */
+  public boolean isRunning()
+  {
+    return isAlive();
+  }
+  
   public boolean isActive()
   {
     return !sentCommandsQueue.isEmpty() || !sentCommandsMap.isEmpty();
@@ -144,13 +144,8 @@ public abstract class BufferedCommandParser<C extends Command> extends AbstractC
     
     while (true)
     {
-      // Обеспечиваем достаточную емкость буфера перед чтением
-      // Если буфер заполнен, увеличиваем его размер
-      if (!buffer.hasRemaining())
-      {
-        ensureBufferCapacity(buffer.capacity() * BUFFER_GROWTH_FACTOR);
-      }
-      
+      // Буфер чтения к этому моменту полностью разобран (данные команды накапливаются через addData()),
+      // поэтому он просто очищается. Увеличение буфера здесь приводило к его удвоению при каждом чтении.
       buffer.clear();
 
       WatchdogHolder.getInstance().awaitForEnoughMemory();
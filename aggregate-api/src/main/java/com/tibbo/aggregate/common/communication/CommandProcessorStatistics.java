@@ -31,14 +31,14 @@ public class CommandProcessorStatistics
   private long incomingTraffic;
   private long unrepliedCommandCount;
   
-  public void updateOnAsyncCommand(Command command)
+  public synchronized void updateOnAsyncCommand(Command command)
   {
     eventCount++;
     
     incomingTraffic += command.size();
   }
   
-  public void updateOnSyncCommand(ReplyMonitor<? extends Command, ? extends Command> monitor)
+  public synchronized void updateOnSyncCommand(ReplyMonitor<? extends Command, ? extends Command> monitor)
   {
     if (commandCount == 0)
     {
@@ -49,7 +49,7 @@ public class CommandProcessorStatistics
     
     averageResponseTime = (averageResponseTime * (new Float(commandCount) - 1) + new Float(System.currentTimeMillis() - monitor.getStartTime())) / new Float(commandCount);
     
-    outgoingTraffic += monitor.getCommand().size();
+    outgoingTraffic += monitor.getCommandSize();
     
     if (monitor.getReply() != null)
     {
@@ -4,6 +4,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 
 import com.tibbo.aggregate.common.*;
+import com.tibbo.aggregate.common.device.*;
 
 public class ReplyMonitor<C extends Command, R extends Command>
 {
@@ -20,6 +21,12 @@ public class ReplyMonitor<C extends Command, R extends Command>
   private boolean timeoutReset;
   private boolean terminated;
   
+  private volatile long resetTime;
+  
+  private volatile int commandSize;
+  
+  private final CompletableFuture<R> future = new CompletableFuture<>();
+  
   public ReplyMonitor(C command)
   {
     super();
@@ -33,6 +40,20 @@ public class ReplyMonitor<C extends Command, R extends Command>
     return command;
   }
   
+  /**
+   * Records size of the command once it's about to be sent, so that statistics don't have to compute it again when the reply arrives.
+   */
+  public void recordCommandSize()
+  {
+    command.complete(); // Contents of the command are final once it's completed
+    commandSize = command.size();
+  }
+  
+  public int getCommandSize()
+  {
+    return commandSize;
+  }
+  
   public R getReply()
   {
     return reply;
@@ -50,6 +71,8 @@ public class ReplyMonitor<C extends Command, R extends Command>
     {
       lock.unlock();
     }
+    if (reply != null)
+      future.complete(reply);
     if (Log.COMMANDS.isDebugEnabled())
       Log.COMMANDS.debug("Command replied in " + (System.currentTimeMillis() - time) + " ms: command '" + command + "', reply '" + reply + "'");
   }
@@ -66,6 +89,7 @@ public class ReplyMonitor<C extends Command, R extends Command>
     {
       lock.unlock();
     }
+    future.completeExceptionally(new DisconnectionException(Cres.get().getString("disconnected")));
   }
   
   public void reset()
@@ -74,6 +98,7 @@ public class ReplyMonitor<C extends Command, R extends Command>
     try
     {
       timeoutReset = true;
+      resetTime = System.currentTimeMillis();
       commandReceivedCondition.signalAll();
     }
     finally
@@ -120,6 +145,22 @@ public class ReplyMonitor<C extends Command, R extends Command>
     return startTime;
   }
   
+  /**
+   * Returns the time of the last {@link #reset()} call, or zero if timeout was never reset.
+   */
+  public long getResetTime()
+  {
+    return resetTime;
+  }
+  
+  /**
+   * Future that is completed with the reply, or exceptionally if the monitor is terminated. Used by pipelined (non-blocking) senders.
+   */
+  public CompletableFuture<R> getFuture()
+  {
+    return future;
+  }
+  
   @Override
   public String toString()
   {
@@ -0,0 +1,111 @@
+package com.tibbo.aggregate.common.communication;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.tibbo.aggregate.common.Cres;
+import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.device.DisconnectionException;
+import com.tibbo.aggregate.common.protocol.SelectorChannel;
+import com.tibbo.aggregate.common.protocol.SelectorChannelHandler;
+
+/**
+ * Command processor that does not own a thread. Incoming commands are read by the {@link com.tibbo.aggregate.common.protocol.SelectorEventLoop}
+ * serving the controller's {@link SelectorChannel}, while sending and reply matching work exactly as in {@link AsyncCommandProcessor}.
+ * <p>
+ * The processor is a {@link Thread} only for compatibility with existing callers; {@link #start()} activates the channel instead of starting a thread.
+ */
+public class SelectorCommandProcessor<I extends Command, O extends Command, C extends AbstractDeviceController<I, O>> extends AsyncCommandProcessor<I, O, C> implements
+    SelectorChannelHandler
+{
+  private final SelectorChannel channel;
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  public SelectorCommandProcessor(C controller, SelectorChannel channel)
+  {
+    super(controller);
+    this.channel = channel;
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    if (running.compareAndSet(false, true))
+    {
+      channel.activate(this);
+    }
+  }
+
+  @Override
+  public boolean isRunning()
+  {
+    return running.get();
+  }
+
+  @Override
+  public void channelReadable(SelectorChannel channel)
+  {
+    if (!running.get())
+    {
+      return;
+    }
+
+    try
+    {
+      processAvailableCommands();
+    }
+    catch (Exception ex)
+    {
+      stop(ex);
+    }
+  }
+
+  @Override
+  public void channelIdle(SelectorChannel channel)
+  {
+    removeExpiredCommands();
+  }
+
+  @Override
+  public void channelClosed(SelectorChannel channel)
+  {
+    stop(new DisconnectionException(Cres.get().getString("disconnected")));
+  }
+
+  @Override
+  public void interrupt()
+  {
+    Log.CORE_THREAD.debug("Selector command processor '" + getName() + "' is stopped by '" + Thread.currentThread().getName() + "'");
+
+    if (running.compareAndSet(true, false))
+    {
+      try
+      {
+        getController().disconnectImpl();
+      }
+      catch (Exception ex)
+      {
+        Log.COMMANDS.debug("Disconnection error", ex);
+      }
+      finally
+      {
+        terminateSentCommands();
+      }
+    }
+  }
+
+  private void stop(Exception cause)
+  {
+    if (running.compareAndSet(true, false))
+    {
+      try
+      {
+        processReadError(cause);
+      }
+      finally
+      {
+        terminateSentCommands();
+      }
+    }
+  }
+}
@@ -7,7 +7,9 @@ import com.tibbo.aggregate.common.util.*;
 
 public class SendersPool
 {
-  private static ThreadPoolExecutor SENDERS_POOL = new ThreadPoolExecutor(0, 200, 60L, TimeUnit.SECONDS, new SynchronousQueue(), new NamedThreadFactory("AsyncCommandSender"));
+  // Virtual threads are cheap, so the number of concurrent senders is not limited in virtual thread mode
+  private static ThreadPoolExecutor SENDERS_POOL = new ThreadPoolExecutor(0, VirtualThreads.isEnabled() ? Integer.MAX_VALUE : 200, 60L, TimeUnit.SECONDS,
+      new SynchronousQueue(), VirtualThreads.newThreadFactory("AsyncCommandSender"));
   static
   {
     SENDERS_POOL.allowCoreThreadTimeOut(true);
@@ -1,8 +1,5 @@
 package com.tibbo.aggregate.common.context;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -16,7 +13,7 @@ import com.tibbo.aggregate.common.event.ContextEventListener;
 import com.tibbo.aggregate.common.event.ContextEventListenerInfo;
 import com.tibbo.aggregate.common.event.ContextEventListenerSet;
 import com.tibbo.aggregate.common.event.Enrichment;
-import com.tibbo.aggregate.common.util.Util;
+import com.tibbo.aggregate.common.event.EventHistory;
 
 public class EventData implements Comparable<EventData>
 {
@@ -30,7 +27,7 @@ public class EventData implements Comparable<EventData>
 
   private long unsubscribeCount;
 
-  private final List<Event> history = Collections.synchronizedList(new LinkedList());
+  private final EventHistory history = new EventHistory();
   
   private long fireCount;
   
@@ -130,46 +127,10 @@ public class EventData implements Comparable<EventData>
       return null;
     }
     
-    Event duplicate = null;
-    
-    synchronized (history)
-    {
-      for (Iterator<Event> iterator = history.iterator(); iterator.hasNext();)
-      {
-        Event cur = iterator.next();
-        
-        // Removing if expired
-        if (cur.getExpirationtime() != null && cur.getExpirationtime().getTime() < System.currentTimeMillis())
-        {
-          iterator.remove();
-          continue;
-        }
-        
-        // Adding for persistent storage if in-memory history size exceeded
-        if (history.size() > memoryStorageSize)
-        {
-          iterator.remove();
-          continue;
-        }
-        
-        if (event.getDeduplicationId() != null && Util.equals(event.getDeduplicationId(), cur.getDeduplicationId()))
-        {
-          if (duplicate != null)
-          {
-            Log.CONTEXT_EVENTS.warn("Event history of event " + event + " contains more than one duplicate with ID: " + event.getDeduplicationId());
-          }
-          
-          duplicate = cur;
-        }
-      }
-    }
+    Event duplicate = history.store(event, memoryStorageSize);
     
     if (duplicate == null)
     {
-      if (history.size() < memoryStorageSize)
-      {
-        history.add(event);
-      }
       return null;
     }
     else
@@ -187,18 +148,20 @@ public class EventData implements Comparable<EventData>
   
   public void updateContext(String oldPath, String newPath)
   {
-    for (Event ev : history)
-    {
-      if (ev.getContext().equals(oldPath))
-      {
-        ev.setContext(newPath);
-      }
-    }
+    history.updateContext(oldPath, newPath);
   }
   
   public List<Event> getHistory()
   {
-    return new LinkedList(history);
+    return history.getEvents();
+  }
+  
+  /**
+   * Returns in-memory event history supporting range queries by time, level and context.
+   */
+  public EventHistory getEventHistory()
+  {
+    return history;
   }
   
   @Override
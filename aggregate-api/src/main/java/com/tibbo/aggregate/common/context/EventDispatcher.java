@@ -11,7 +11,7 @@ import java.util.function.Supplier;
 
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.event.FireEventRequestController;
-import com.tibbo.aggregate.common.util.NamedThreadFactory;
+import com.tibbo.aggregate.common.util.VirtualThreads;
 import com.tibbo.aggregate.common.util.WatchdogHolder;
 
 public class EventDispatcher extends Thread
@@ -41,7 +41,7 @@ public class EventDispatcher extends Thread
   public static ThreadPoolExecutor createConcurrentEventDispatcherPool(int coreSize, int maxCoreSize, int queueLength, String parentThreadName)
   {
     ThreadPoolExecutor dispatcherPool = new ThreadPoolExecutor(coreSize, maxCoreSize, CONCURRENT_DISPATCHER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
-        new LinkedBlockingQueue<>(queueLength), new NamedThreadFactory("ConcurrentEventDispatcher/" + parentThreadName), new ThreadPoolExecutor.CallerRunsPolicy());
+        new LinkedBlockingQueue<>(queueLength), VirtualThreads.newThreadFactory("ConcurrentEventDispatcher/" + parentThreadName), new ThreadPoolExecutor.CallerRunsPolicy());
     dispatcherPool.allowCoreThreadTimeOut(true);
     return dispatcherPool;
   }
@@ -17,6 +17,7 @@ import com.tibbo.aggregate.common.context.CallerController;
 import com.tibbo.aggregate.common.context.Context;
 import com.tibbo.aggregate.common.context.ContextManager;
 import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.EncodingStream;
 import com.tibbo.aggregate.common.datatable.encoding.FormatCache;
 import com.tibbo.aggregate.common.datatable.encoding.KnownFormatCollector;
 import com.tibbo.aggregate.common.datatable.field.DataTableFieldFormat;
@@ -42,8 +43,8 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
   static final String ELEMENT_RECORD = "R";
   static final String ELEMENT_FIELD_NAME = "N";
   static final String UNSUPPORTED = "This operation is not supported";
-  private static final String ELEMENT_FORMAT = "F";
-  private static final String ELEMENT_FORMAT_ID = "D";
+  static final String ELEMENT_FORMAT = "F";
+  static final String ELEMENT_FORMAT_ID = "D";
   private static final String ELEMENT_TIMESTAMP = "T";
   private static final String ELEMENT_QUALITY = "Q";
   private static final String ELEMENT_INVALIDATOR = "I";
@@ -68,79 +69,15 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
     if (elements == null)
       return;
     
-    boolean found = false;
-    String encodedFormat = null;
-    List<String> fieldNames = null;
+    DataTableDecoder decoder = new DataTableDecoder(this, settings, validate);
     
     for (Element el : elements)
     {
-      if (el.getName() != null)
+      DataRecord record = decoder.decodeElement(el);
+      
+      if (record != null)
       {
-        if (el.getName().equals(ELEMENT_FORMAT_ID))
-        {
-          int formatId = Integer.valueOf(el.getValue());
-          
-          if (settings.getFormatCache() == null)
-          {
-            throw new IllegalStateException("Can't use format ID - format cache not found");
-          }
-          
-          if (encodedFormat != null) // If format was already found in the encoded data
-          {
-            TableFormat format = new TableFormat(encodedFormat, settings, validate);
-            settings.getFormatCache().put(formatId, format);
-            continue;
-          }
-          
-          TableFormat format = settings.getFormatCache().get(formatId);
-          
-          if (format == null)
-          {
-            throw new IllegalStateException("Format with specified ID not found in the cache: " + formatId);
-          }
-          
-          setFormat(format);
-          
-          found = true;
-          
-          continue;
-        }
-        else if (el.getName().equals(ELEMENT_FORMAT))
-        {
-          encodedFormat = el.getValue();
-          setFormat(new TableFormat(encodedFormat, settings, validate));
-          found = true;
-          continue;
-        }
-        else if (el.getName().equals(ELEMENT_RECORD))
-        {
-          // Using table's format if encodedFormat is not NULL (i.e. was found in the encoded data)
-          TableFormat format = found ? getFormat() : (settings != null ? settings.getFormat() : null);
-          
-          if (format == null)
-          {
-            throw new IllegalStateException("Table format is neither found in encoded table nor provided by decoding environment");
-          }
-          
-          addRecord(new DataRecord(format, el.getValue(), settings, validate, fieldNames));
-          continue;
-        }
-        else if (el.getName().equals(ELEMENT_FIELD_NAME))
-        {
-          if (fieldNames == null)
-          {
-            fieldNames = new ArrayList<>();
-          }
-          fieldNames.add(el.getValue());
-        }
-        else if (el.getName().equals(ELEMENT_ID))
-        {
-          id = Long.valueOf(el.getValue());
-        }
-        else
-        {
-          decodeAdvancedElement(el);
-        }
+        addRecord(record);
       }
     }
   }
@@ -494,6 +431,27 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
   
   protected abstract DataRecord removeRecordImpl(int index);
   
+  /**
+   * Indexes are not supported by default, queries scan the table.
+   */
+  @Override
+  public void createIndex(String... fields)
+  {
+  }
+  
+  /**
+   * Indexes are not supported by default, queries scan the table.
+   */
+  @Override
+  public void createSortedIndex(String field)
+  {
+  }
+  
+  @Override
+  public void dropIndexes()
+  {
+  }
+  
   @Override
   public String getEncodedData(ClassicEncodingSettings settings)
   {
@@ -551,7 +509,10 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
   @Override
   public StringBuilder encode(StringBuilder finalSB, ClassicEncodingSettings settings, Boolean isTransferEncode, Integer encodeLevel)
   {
-    if (finalSB.length() + getEstimateDataSize() > finalSB.capacity())
+    EncodingStream stream = settings != null ? settings.getEncodingStream() : null;
+    
+    // Streamed table never resides in the builder as a whole
+    if ((stream == null || !stream.isBuffer(finalSB)) && finalSB.length() + getEstimateDataSize() > finalSB.capacity())
     {
       finalSB.ensureCapacity(finalSB.capacity() + getEstimateDataSize());
     }
@@ -773,17 +734,7 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
     
     for (DataRecord rec : this)
     {
-      boolean meet = true;
-      
-      for (QueryCondition cond : query.getConditions())
-      {
-        if (!rec.meetToCondition(cond))
-        {
-          meet = false;
-        }
-      }
-      
-      if (meet)
+      if (meetsQuery(rec, query))
       {
         r.add(rec);
       }
@@ -797,17 +748,7 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
   {
     for (DataRecord rec : this)
     {
-      boolean meet = true;
-      
-      for (QueryCondition cond : query.getConditions())
-      {
-        if (!rec.meetToCondition(cond))
-        {
-          meet = false;
-        }
-      }
-      
-      if (meet)
+      if (meetsQuery(rec, query))
       {
         return rec;
       }
@@ -816,6 +757,22 @@ public abstract class AbstractDataTable implements DataTable, Cloneable, PublicC
     return null;
   }
   
+  /**
+   * Returns true if the record meets all conditions of the query. Checking stops at the first condition that is not met.
+   */
+  static boolean meetsQuery(DataRecord rec, DataTableQuery query)
+  {
+    for (QueryCondition cond : query.getConditions())
+    {
+      if (!rec.meetToCondition(cond))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
   @Override
   public DataRecord select(String field, Object value)
   {
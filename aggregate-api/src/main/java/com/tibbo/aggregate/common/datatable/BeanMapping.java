@@ -0,0 +1,251 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.datatable.converter.FormatConverter;
+
+/**
+ * Mapping between properties of a bean class and fields of a table format, used by {@link DataTableConversion}. It's built once per conversion of a
+ * bean collection: bean properties are resolved to method handles once per class, and format converters are resolved once per field.
+ * <p>
+ * Properties that can't be accessed by method handles are accessed by {@link PropertyUtils}, so the mapping behaves exactly as the per-bean reflection.
+ * Exceptions thrown by accessors are wrapped in {@link InvocationTargetException} like {@link PropertyUtils} does.
+ */
+final class BeanMapping
+{
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+  
+  // Property that exists but is resolved by PropertyUtils for every bean
+  private static final Property UNRESOLVED = new Property(null, null, null);
+  
+  private static final ClassValue<Map<String, Property>> PROPERTIES = new ClassValue<Map<String, Property>>()
+  {
+    @Override
+    protected Map<String, Property> computeValue(Class<?> beanClass)
+    {
+      return introspect(beanClass);
+    }
+  };
+  
+  private final Class<?> beanClass;
+  
+  private final FieldMapping[] fields;
+  
+  private BeanMapping(Class<?> beanClass, TableFormat format)
+  {
+    this.beanClass = beanClass;
+    
+    // Maps and dyna beans have properties of their own, so they are always accessed by PropertyUtils
+    boolean dynamic = Map.class.isAssignableFrom(beanClass) || DynaBean.class.isAssignableFrom(beanClass);
+    
+    Map<String, Property> properties = dynamic ? Collections.emptyMap() : PROPERTIES.get(beanClass);
+    
+    fields = new FieldMapping[format.getFieldCount()];
+    
+    for (int i = 0; i < fields.length; i++)
+    {
+      String name = format.getField(i).getName();
+      Property property = properties.get(name);
+      
+      fields[i] = new FieldMapping(name, property, !dynamic && property == null);
+    }
+  }
+  
+  /**
+   * Returns mapping for the bean, or null if the bean is null.
+   */
+  static BeanMapping of(Object bean, TableFormat format)
+  {
+    return bean != null ? new BeanMapping(bean.getClass(), format) : null;
+  }
+  
+  /**
+   * Returns mapping for the bean, reusing the previous one if the bean is of the same class.
+   */
+  static BeanMapping of(Object bean, TableFormat format, BeanMapping previous)
+  {
+    return previous != null && bean != null && bean.getClass() == previous.beanClass ? previous : of(bean, format);
+  }
+  
+  static BeanMapping of(Class<?> beanClass, TableFormat format)
+  {
+    return new BeanMapping(beanClass, format);
+  }
+  
+  FieldMapping getField(int index)
+  {
+    return fields[index];
+  }
+  
+  private static Map<String, Property> introspect(Class<?> beanClass)
+  {
+    PropertyDescriptor[] descriptors;
+    
+    try
+    {
+      descriptors = Introspector.getBeanInfo(beanClass).getPropertyDescriptors();
+    }
+    catch (IntrospectionException ex)
+    {
+      Log.DATATABLE.debug("Error introspecting bean class '" + beanClass.getName() + "': " + ex.getMessage(), ex);
+      return Collections.emptyMap();
+    }
+    
+    Map<String, Property> properties = new HashMap<>();
+    
+    for (PropertyDescriptor descriptor : descriptors)
+    {
+      // Indexed properties are rare, PropertyUtils resolves their types in a special way
+      if (descriptor instanceof IndexedPropertyDescriptor || descriptor.getPropertyType() == null)
+      {
+        properties.put(descriptor.getName(), UNRESOLVED);
+        continue;
+      }
+      
+      properties.put(descriptor.getName(), new Property(descriptor.getPropertyType(), unreflect(descriptor.getReadMethod(), GETTER_TYPE),
+          unreflect(descriptor.getWriteMethod(), SETTER_TYPE)));
+    }
+    
+    return properties;
+  }
+  
+  private static MethodHandle unreflect(Method method, MethodType type)
+  {
+    if (method == null)
+    {
+      return null;
+    }
+    
+    try
+    {
+      // Public accessors may be declared by non-public classes
+      method.setAccessible(true);
+      
+      return MethodHandles.lookup().unreflect(method).asType(type);
+    }
+    catch (IllegalAccessException | RuntimeException ex)
+    {
+      Log.DATATABLE.debug("Cannot access method '" + method + "', falling back to reflection: " + ex.getMessage());
+      return null;
+    }
+  }
+  
+  /**
+   * Accessors of a bean property, resolved once per class.
+   */
+  private static final class Property
+  {
+    private final Class<?> type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    
+    private Property(Class<?> type, MethodHandle getter, MethodHandle setter)
+    {
+      this.type = type;
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+  
+  /**
+   * Accessors and format converter of a bean property mapped to a table field.
+   */
+  static final class FieldMapping
+  {
+    private final String name;
+    private final Class<?> type;
+    private final Class<?> boxedType;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final FormatConverter converter;
+    private final boolean resolved;
+    private final boolean missing;
+    
+    private FieldMapping(String name, Property property, boolean missing)
+    {
+      this.name = name;
+      this.resolved = property != null && property != UNRESOLVED;
+      this.missing = missing;
+      this.type = resolved ? property.type : null;
+      this.boxedType = resolved ? MethodType.methodType(type).wrap().returnType() : null;
+      this.getter = resolved ? property.getter : null;
+      this.setter = resolved ? property.setter : null;
+      this.converter = resolved ? DataTableConversion.getFormatConverter(type) : null;
+    }
+    
+    /**
+     * Returns true if the bean class definitely has no such property.
+     */
+    boolean isMissing()
+    {
+      return missing;
+    }
+    
+    Class<?> getType(Object bean) throws Exception
+    {
+      return resolved || missing ? type : PropertyUtils.getPropertyType(bean, name);
+    }
+    
+    FormatConverter getConverter(Object bean) throws Exception
+    {
+      return resolved || missing ? converter : DataTableConversion.getFormatConverter(getType(bean));
+    }
+    
+    Object get(Object bean) throws Exception
+    {
+      if (getter == null)
+      {
+        return PropertyUtils.getProperty(bean, name);
+      }
+      
+      try
+      {
+        return (Object) getter.invokeExact(bean);
+      }
+      catch (Throwable ex)
+      {
+        throw new InvocationTargetException(ex);
+      }
+    }
+    
+    void set(Object bean, Object value) throws Exception
+    {
+      if (setter == null)
+      {
+        PropertyUtils.setProperty(bean, name, value);
+        return;
+      }
+      
+      // Checked here, so that everything thrown by the handle comes from the setter
+      if (value == null ? type.isPrimitive() : !boxedType.isInstance(value))
+      {
+        throw new IllegalArgumentException("argument type mismatch");
+      }
+      
+      try
+      {
+        setter.invokeExact(bean, value);
+      }
+      catch (Throwable ex)
+      {
+        throw new InvocationTargetException(ex);
+      }
+    }
+  }
+}
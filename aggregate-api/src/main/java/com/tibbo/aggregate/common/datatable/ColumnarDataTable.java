@@ -0,0 +1,1510 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.lang.reflect.Array;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.tibbo.aggregate.common.Cres;
+import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.EncodingStream;
+import com.tibbo.aggregate.common.util.CloneUtils;
+import com.tibbo.aggregate.common.util.Element;
+import com.tibbo.aggregate.common.util.StringUtils;
+import com.tibbo.aggregate.common.util.Util;
+
+/**
+ * <code>ColumnarDataTable</code> is a <code>DataTable</code> that stores values column by column rather than record by record. Values of Integer, Long,
+ * Float, Double, Boolean and Date fields are kept in primitive arrays, String values are dictionary-encoded, and nulls are tracked by a bitmap per column.
+ * Values of other field types are kept in plain object arrays.
+ * <p>
+ * This layout is intended for large tables with many records of the same format, such as value histories. Records are not stored: <code>DataRecord</code>
+ * objects returned by the table are lightweight views of a record position, created on demand. Changing a view changes the table. A view refers to the
+ * position rather than to the record, so it should not be used after records are added, removed or reordered at or before its position. Records passed to
+ * <code>addRecord()</code> and <code>setRecord()</code> are copied into the table and are not linked to it.
+ * <p>
+ * Primitive accessors, such as {@link #getDoubleValue(int, int)}, allow scanning columns without boxing and creating views.
+ */
+public class ColumnarDataTable extends AbstractDataTable implements Comparable<DataTable>, Cloneable
+{
+  private static final int MIN_CAPACITY = 16;
+  
+  // Distinct values of a String column after which dictionary encoding is dropped, since values are mostly unique
+  private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+  
+  private Column[] columns = new Column[0];
+  
+  private String[] ids;
+  
+  private int size;
+  
+  /**
+   * Constructs a <code>ColumnarDataTable</code> with empty <code>TableFormat</code> and zero records.
+   */
+  public ColumnarDataTable()
+  {
+  }
+  
+  /**
+   * Constructs a <code>ColumnarDataTable</code> with specified <code>TableFormat</code> and zero records.
+   */
+  public ColumnarDataTable(TableFormat format)
+  {
+    setFormat(format);
+  }
+  
+  /**
+   * Constructs a <code>ColumnarDataTable</code> with specified <code>TableFormat</code> and zero records, reserving storage for <code>capacity</code>
+   * records.
+   */
+  public ColumnarDataTable(TableFormat format, int capacity)
+  {
+    this(format);
+    ensureCapacity(capacity);
+  }
+  
+  /**
+   * Constructs a <code>ColumnarDataTable</code> with format, records, timestamp and quality copied from <code>source</code> table.
+   */
+  public ColumnarDataTable(DataTable source)
+  {
+    this(source.getFormat(), source.getRecordCount() != null ? source.getRecordCount() : 0);
+    
+    for (DataRecord rec : source)
+    {
+      addRecord(rec);
+    }
+    
+    setTimestamp(source.getTimestamp());
+    setQuality(source.getQuality());
+  }
+  
+  /**
+   * Decodes <code>ColumnarDataTable</code> from string.
+   */
+  public ColumnarDataTable(String data, ClassicEncodingSettings settings, boolean validate) throws DataTableException
+  {
+    accomplishConstruction(data != null ? StringUtils.elements(data, settings != null && settings.isUseVisibleSeparators()) : null,
+        settings, validate);
+  }
+  
+  /**
+   * Reserves storage for at least <code>capacity</code> records.
+   */
+  public void ensureCapacity(int capacity)
+  {
+    for (Column column : columns)
+    {
+      column.ensureCapacity(capacity);
+    }
+  }
+  
+  @Override
+  public Integer getRecordCount()
+  {
+    return size;
+  }
+  
+  @Override
+  public DataTable setFormat(TableFormat format)
+  {
+    if (format == null || format == this.format)
+    {
+      return this;
+    }
+    
+    TableFormat oldFormat = this.format;
+    Column[] oldColumns = columns;
+    
+    super.setFormat(format);
+    
+    columns = createColumns(format, size);
+    
+    // Existing values are moved to the columns of the new format by field names
+    for (int i = 0; i < format.getFieldCount(); i++)
+    {
+      FieldFormat ff = format.getField(i);
+      int oldIndex = oldFormat.getFieldIndex(ff.getName());
+      
+      for (int row = 0; row < size; row++)
+      {
+        Object value = oldIndex != -1 ? convert(ff, oldColumns[oldIndex].get(row)) : getDefaultValue(ff);
+        setCell(row, i, value);
+      }
+    }
+    
+    return this;
+  }
+  
+  @Override
+  public void setId(Long id)
+  {
+    ensureMutable();
+    
+    this.id = id;
+  }
+  
+  private void checkOrSetFormat(DataRecord record)
+  {
+    if (format.getFieldCount() != 0)
+    {
+      if (format != record.getFormat())
+      {
+        String message = record.getFormat().extendMessage(format);
+        if (message != null)
+        {
+          throw new IllegalArgumentException("Format of new record ('" + record.getFormat() + "') differs from format of data table ('" + getFormat() + "'): " + message);
+        }
+      }
+    }
+    else
+    {
+      setFormat(record.getFormat());
+    }
+  }
+  
+  /**
+   * Adds new record to the table. Values of the record are copied to the table.
+   */
+  @Override
+  public DataTable addRecord(DataRecord record)
+  {
+    return addRecord(size, record);
+  }
+  
+  /**
+   * Adds new record to the table.
+   */
+  @Override
+  public DataRecord addRecord(Object... fieldValues)
+  {
+    DataRecord rec = addRecord();
+    for (Object value : fieldValues)
+    {
+      rec.addValue(value);
+    }
+    return rec;
+  }
+  
+  /**
+   * Adds new record to the table at the specified index. Values of the record are copied to the table.
+   */
+  @Override
+  public DataTable addRecord(int index, DataRecord record)
+  {
+    checkOrSetFormat(record);
+    
+    insertRow(index);
+    
+    try
+    {
+      copyRecord(index, record);
+    }
+    catch (RuntimeException ex)
+    {
+      removeRow(index);
+      throw ex;
+    }
+    
+    validateInsertedRow(index);
+    
+    return this;
+  }
+  
+  /**
+   * Adds new record filled with default values to the table and returns its view.
+   */
+  @Override
+  public DataRecord addRecord()
+  {
+    if (getFormat() == null)
+    {
+      throw new IllegalStateException("Can't add empty record because format of data table was not set");
+    }
+    
+    int row = size;
+    
+    insertRow(row);
+    
+    for (int i = 0; i < columns.length; i++)
+    {
+      setCell(row, i, getDefaultValue(format.getField(i)));
+    }
+    
+    validateInsertedRow(row);
+    
+    return new Row(row);
+  }
+  
+  private void insertRow(int index)
+  {
+    ensureMutable();
+    
+    if (index < 0 || index > size)
+    {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    
+    if (size >= format.getMaxRecords())
+    {
+      throw new IllegalStateException(Cres.get().getString("dtCannotAddRecord") + "maximum number of records is reached: " + format.getMaxRecords());
+    }
+    
+    for (Column column : columns)
+    {
+      column.insert(index, size);
+    }
+    
+    if (ids != null)
+    {
+      ids = insert(ids, index, size);
+    }
+    
+    size++;
+  }
+  
+  private void removeRow(int index)
+  {
+    for (Column column : columns)
+    {
+      column.remove(index, size);
+    }
+    
+    if (ids != null)
+    {
+      System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+      ids[size - 1] = null;
+    }
+    
+    size--;
+  }
+  
+  private void validateInsertedRow(int row)
+  {
+    try
+    {
+      validateRecord(new Row(row));
+    }
+    catch (ValidationException ex)
+    {
+      removeRow(row);
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+  
+  private void copyRecord(int row, DataRecord record)
+  {
+    TableFormat recordFormat = record.getFormat();
+    
+    for (int i = 0; i < columns.length; i++)
+    {
+      FieldFormat ff = format.getField(i);
+      
+      Object value;
+      if (recordFormat == format)
+      {
+        value = record.getValue(i);
+      }
+      else
+      {
+        value = recordFormat.hasField(ff.getName()) ? convert(ff, record.getValue(ff.getName())) : getDefaultValue(ff);
+      }
+      
+      setCell(row, i, value);
+    }
+    
+    setId(row, record.getId());
+  }
+  
+  private void setCell(int row, int field, Object value)
+  {
+    Column column = columns[field];
+    
+    column.set(row, value);
+    
+    if (column instanceof StringColumn && ((StringColumn) column).dictionary.size() > MAX_DICTIONARY_SIZE)
+    {
+      columns[field] = ((StringColumn) column).toObjectColumn(size);
+    }
+  }
+  
+  private void setId(int row, String id)
+  {
+    if (id == null && ids == null)
+    {
+      return;
+    }
+    
+    if (ids == null)
+    {
+      ids = new String[Math.max(MIN_CAPACITY, size)];
+    }
+    else if (ids.length <= row)
+    {
+      String[] grown = new String[Math.max(row + 1, ids.length * 2)];
+      System.arraycopy(ids, 0, grown, 0, ids.length);
+      ids = grown;
+    }
+    
+    ids[row] = id;
+  }
+  
+  private static Object getDefaultValue(FieldFormat ff)
+  {
+    return ff.isDefaultOverride() ? null : ff.getDefaultValueCopy();
+  }
+  
+  private static Object convert(FieldFormat ff, Object value)
+  {
+    try
+    {
+      return ff.checkAndConvertValue(value, false);
+    }
+    catch (ValidationException ex)
+    {
+      throw new IllegalArgumentException(MessageFormat.format(Cres.get().getString("dtIllegalFieldValue"), value, ff.toDetailedString()) + ex.getMessage(), ex);
+    }
+  }
+  
+  /**
+   * Replaces record at the specified index. Values of the record are copied to the table.
+   */
+  @Override
+  public DataTable setRecord(int index, DataRecord record)
+  {
+    ensureMutable();
+    
+    checkOrSetFormat(record);
+    checkIndex(index);
+    
+    copyRecord(index, record);
+    
+    return this;
+  }
+  
+  /**
+   * Swaps two records.
+   */
+  @Override
+  public void swapRecords(int index1, int index2)
+  {
+    ensureMutable();
+    
+    checkIndex(index1);
+    checkIndex(index2);
+    
+    for (Column column : columns)
+    {
+      column.swap(index1, index2);
+    }
+    
+    if (ids != null)
+    {
+      String id = ids[index1];
+      ids[index1] = ids[index2];
+      ids[index2] = id;
+    }
+  }
+  
+  /**
+   * Returns a view of the record with specified index.
+   */
+  @Override
+  public DataRecord getRecord(int number)
+  {
+    checkIndex(number);
+    
+    return new Row(number);
+  }
+  
+  private void checkIndex(int index)
+  {
+    if (index < 0 || index >= size)
+    {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+  
+  /**
+   * Returns true if value of the field with specified index is null in the record with specified index.
+   */
+  public boolean isNull(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].nulls.get(record);
+  }
+  
+  /**
+   * Returns value of Integer field without boxing. Null values are returned as zero, use {@link #isNull(int, int)} to detect them.
+   */
+  public int getIntValue(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].getInt(record);
+  }
+  
+  /**
+   * Returns value of Long field, or number of milliseconds of Date field, without boxing. Null values are returned as zero, use {@link #isNull(int, int)} to
+   * detect them.
+   */
+  public long getLongValue(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].getLong(record);
+  }
+  
+  /**
+   * Returns value of Float field without boxing. Null values are returned as zero, use {@link #isNull(int, int)} to detect them.
+   */
+  public float getFloatValue(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].getFloat(record);
+  }
+  
+  /**
+   * Returns value of Double field without boxing. Null values are returned as zero, use {@link #isNull(int, int)} to detect them.
+   */
+  public double getDoubleValue(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].getDouble(record);
+  }
+  
+  /**
+   * Returns value of Boolean field without boxing. Null values are returned as false, use {@link #isNull(int, int)} to detect them.
+   */
+  public boolean getBooleanValue(int record, int field)
+  {
+    checkIndex(record);
+    
+    return columns[field].getBoolean(record);
+  }
+  
+  @Override
+  protected DataRecord removeRecordImpl(int index)
+  {
+    ensureMutable();
+    
+    checkIndex(index);
+    
+    if (size <= format.getMinRecords())
+    {
+      throw new IllegalStateException("Cannot remove record: minimum number of records is reached: " + format.getMinRecords());
+    }
+    
+    DataRecord removed = new Row(index).clone();
+    
+    removeRow(index);
+    
+    return removed;
+  }
+  
+  @Override
+  public void removeRecordsByIds(Collection<String> ids)
+  {
+    ensureMutable();
+    
+    if (this.ids == null)
+    {
+      return;
+    }
+    
+    for (int i = size - 1; i >= 0; i--)
+    {
+      if (ids.contains(this.ids[i]))
+      {
+        removeRow(i);
+      }
+    }
+  }
+  
+  /**
+   * Removes all records equal to the rec parameter from the table.
+   */
+  @Override
+  public void removeRecords(DataRecord rec)
+  {
+    for (int i = size - 1; i >= 0; i--)
+    {
+      if (Util.equals(rec, new Row(i)))
+      {
+        removeRecordImpl(i);
+      }
+    }
+  }
+  
+  /**
+   * Moves specified record to position specified by <code>index</code> argument.
+   *
+   * <code>record</code> must be a view returned by this table, otherwise method will throw an <code>IllegalStateException</code>
+   */
+  @Override
+  public void reorderRecord(DataRecord record, int index)
+  {
+    ensureMutable();
+    
+    if (!(record instanceof Row) || record.getTable() != this || ((Row) record).row >= size)
+    {
+      throw new IllegalStateException("Record is not from this table");
+    }
+    
+    int oi = ((Row) record).row;
+    int ni = index - (oi < index ? 1 : 0);
+    
+    // Records keep their relative order, except the moved one that is put to its new position
+    int[] order = new int[size];
+    int pos = 0;
+    for (int src = 0; src < size; src++)
+    {
+      if (pos == ni)
+      {
+        order[pos++] = oi;
+      }
+      if (src != oi)
+      {
+        order[pos++] = src;
+      }
+    }
+    if (pos < size)
+    {
+      order[pos] = oi;
+    }
+    
+    reorder(order);
+  }
+  
+  private void reorder(int[] order)
+  {
+    for (Column column : columns)
+    {
+      column.reorder(order, size);
+    }
+    
+    if (ids != null)
+    {
+      String[] reordered = new String[ids.length];
+      for (int i = 0; i < size; i++)
+      {
+        reordered[i] = ids[order[i]];
+      }
+      ids = reordered;
+    }
+  }
+  
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (obj == null)
+    {
+      return false;
+    }
+    
+    if (!(obj instanceof ColumnarDataTable))
+    {
+      return false;
+    }
+    
+    ColumnarDataTable other = (ColumnarDataTable) obj;
+    
+    if (!format.equals(other.getFormat()))
+    {
+      return false;
+    }
+    
+    if (size != other.size)
+    {
+      return false;
+    }
+    
+    if (!Util.equals(quality, other.quality))
+    {
+      return false;
+    }
+    
+    for (int i = 0; i < size; i++)
+    {
+      if (!new Row(i).equals(other.new Row(i)))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  @Override
+  public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((format == null) ? 0 : format.hashCode());
+    
+    int recordsHash = 1;
+    for (int i = 0; i < size; i++)
+    {
+      recordsHash = prime * recordsHash + new Row(i).hashCode();
+    }
+    
+    result = prime * result + recordsHash;
+    result = prime * result + ((quality == null) ? 0 : quality.hashCode());
+    return result;
+  }
+  
+  @Override
+  void getEncodedRecordsOrTableID(StringBuilder finalSB, ClassicEncodingSettings settings, Boolean isTransferEncode, Integer encodeLevel)
+  {
+    EncodingStream stream = settings != null ? settings.getEncodingStream() : null;
+    
+    Row cursor = new Row(0);
+    
+    for (int i = 0; i < size; i++)
+    {
+      cursor.row = i;
+      new Element(ELEMENT_RECORD, cursor).encode(finalSB, settings, isTransferEncode, encodeLevel);
+      
+      if (stream != null)
+      {
+        stream.flushIfFull(finalSB);
+      }
+    }
+  }
+  
+  @Override
+  int getEstimateDataSize()
+  {
+    return getFieldCount() * size * 3 + getFieldCount() * 7;
+  }
+  
+  @Override
+  public String toDefaultString()
+  {
+    if (size == 1)
+    {
+      return dataAsString();
+    }
+    else
+    {
+      return MessageFormat.format(Cres.get().getString("dtTable"), size);
+    }
+  }
+  
+  @Override
+  public String dataAsString(boolean showFieldNames, boolean showHiddenFields, boolean showPasswords)
+  {
+    StringBuilder res = new StringBuilder();
+    
+    String recordSeparator = getFieldCount() > 1 ? " | " : ", ";
+    
+    for (int i = 0; i < size; i++)
+    {
+      if (i > 0)
+      {
+        res.append(recordSeparator);
+      }
+      
+      res.append(new Row(i).dataAsString(showFieldNames, showHiddenFields, showPasswords));
+    }
+    
+    return res.toString();
+  }
+  
+  /**
+   * Returns true if table has exactly one record and one field.
+   */
+  @Override
+  public boolean isOneCellTable()
+  {
+    return getFieldCount() == 1 && size == 1;
+  }
+  
+  @Override
+  public Integer findIndex(DataTableQuery query)
+  {
+    Row cursor = new Row(0);
+    
+    for (int i = 0; i < size; i++)
+    {
+      cursor.row = i;
+      
+      if (meetsQuery(cursor, query))
+      {
+        return i;
+      }
+    }
+    
+    return null;
+  }
+  
+  @Override
+  public void sort(DataTableSorter sorter)
+  {
+    sort(sorter.comparator(getFormat()));
+  }
+  
+  /**
+   * Sorts records of the table. Records are compared using their views, and then values are moved in every column at once.
+   */
+  @Override
+  public void sort(final Comparator<DataRecord> comparator)
+  {
+    ensureMutable();
+    
+    Integer[] positions = new Integer[size];
+    final Row[] rows = new Row[size];
+    for (int i = 0; i < size; i++)
+    {
+      positions[i] = i;
+      rows[i] = new Row(i);
+    }
+    
+    Arrays.sort(positions, (p1, p2) -> comparator.compare(rows[p1], rows[p2]));
+    
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++)
+    {
+      order[i] = positions[i];
+    }
+    
+    reorder(order);
+  }
+  
+  @Override
+  public Iterator<DataRecord> iterator()
+  {
+    return new Iter(0);
+  }
+  
+  @Override
+  public Iterator<DataRecord> iterator(int index)
+  {
+    return new Iter(index);
+  }
+  
+  @Override
+  public Stream<DataRecord> stream()
+  {
+    return IntStream.range(0, size).mapToObj(Row::new);
+  }
+  
+  @Override
+  public DataTable clone()
+  {
+    ColumnarDataTable cl = (ColumnarDataTable) super.clone();
+    
+    cl.columns = new Column[columns.length];
+    for (int i = 0; i < columns.length; i++)
+    {
+      cl.columns[i] = columns[i].copyColumn(size);
+    }
+    
+    cl.ids = ids != null ? ids.clone() : null;
+    
+    cl.namingEvaluator = null;
+    
+    cl.immutable = false;
+    
+    return cl;
+  }
+  
+  @Override
+  public int compareTo(DataTable other)
+  {
+    return dataAsString().compareTo(other.dataAsString());
+  }
+  
+  @Override
+  public DataTable makeImmutable()
+  {
+    if (immutable)
+    {
+      return this;
+    }
+    
+    immutable = true;
+    
+    format.makeImmutable(this);
+    
+    for (Column column : columns)
+    {
+      if (column.format.getType() == FieldFormat.DATATABLE_FIELD)
+      {
+        for (int i = 0; i < size; i++)
+        {
+          DataTable nested = (DataTable) column.get(i);
+          if (nested != null)
+          {
+            nested.makeImmutable();
+          }
+        }
+      }
+    }
+    
+    return this;
+  }
+  
+  @Override
+  public boolean isSimple()
+  {
+    return true;
+  }
+  
+  private static Column[] createColumns(TableFormat format, int capacity)
+  {
+    Column[] columns = new Column[format.getFieldCount()];
+    
+    for (int i = 0; i < columns.length; i++)
+    {
+      FieldFormat ff = format.getField(i);
+      
+      switch (ff.getType())
+      {
+        case FieldFormat.INTEGER_FIELD:
+          columns[i] = new IntColumn(ff);
+          break;
+        case FieldFormat.LONG_FIELD:
+          columns[i] = new LongColumn(ff);
+          break;
+        case FieldFormat.FLOAT_FIELD:
+          columns[i] = new FloatColumn(ff);
+          break;
+        case FieldFormat.DOUBLE_FIELD:
+          columns[i] = new DoubleColumn(ff);
+          break;
+        case FieldFormat.BOOLEAN_FIELD:
+          columns[i] = new BooleanColumn(ff);
+          break;
+        case FieldFormat.DATE_FIELD:
+          columns[i] = new DateColumn(ff);
+          break;
+        case FieldFormat.STRING_FIELD:
+          columns[i] = new StringColumn(ff);
+          break;
+        default:
+          columns[i] = new ObjectColumn(ff);
+      }
+      
+      columns[i].ensureCapacity(capacity);
+    }
+    
+    return columns;
+  }
+  
+  private static String[] insert(String[] array, int index, int size)
+  {
+    String[] target = array;
+    
+    if (array.length <= size)
+    {
+      target = new String[Math.max(MIN_CAPACITY, array.length * 2)];
+      System.arraycopy(array, 0, target, 0, index);
+    }
+    
+    System.arraycopy(array, index, target, index + 1, size - index);
+    target[index] = null;
+    
+    return target;
+  }
+  
+  /**
+   * View of a record stored in the table columns.
+   */
+  private class Row extends DataRecord
+  {
+    private int row;
+    
+    // Number of values set by addValue()
+    private int added;
+    
+    Row(int row)
+    {
+      super(ColumnarDataTable.this, format);
+      this.row = row;
+    }
+    
+    @Override
+    public Object getValue(int index)
+    {
+      return columns[index].get(row);
+    }
+    
+    @Override
+    Object peekValue(int index)
+    {
+      return columns[index].get(row);
+    }
+    
+    @Override
+    public DataRecord setValue(int index, Object value, boolean validate)
+    {
+      ensureMutable();
+      
+      if (value != null && value == ColumnarDataTable.this)
+      {
+        value = ColumnarDataTable.this.clone();
+      }
+      
+      FieldFormat ff = getFormat().getField(index);
+      
+      try
+      {
+        value = ff.checkAndConvertValue(value, validate);
+      }
+      catch (ValidationException ex)
+      {
+        throw new IllegalArgumentException(MessageFormat.format(Cres.get().getString("dtIllegalFieldValue"), value, ff.toDetailedString()) + ex.getMessage(), ex);
+      }
+      
+      Object oldValue = columns[index].get(row);
+      
+      setCell(row, index, value);
+      
+      try
+      {
+        validateRecord(this);
+      }
+      catch (ValidationException ex1)
+      {
+        setCell(row, index, oldValue);
+        throw new IllegalArgumentException(ex1.getMessage(), ex1);
+      }
+      
+      return this;
+    }
+    
+    @Override
+    public DataRecord addValue(Object value)
+    {
+      if (added >= getFieldCount())
+      {
+        Log.DATATABLE.warn("Can't add data to data record since all data fields defined by format are already set: " + value, new Exception());
+        return this;
+      }
+      
+      return setValue(added++, value);
+    }
+    
+    @Override
+    public String getId()
+    {
+      return ids != null ? ids[row] : null;
+    }
+    
+    @Override
+    public DataRecord setId(String id)
+    {
+      ensureMutable();
+      
+      ColumnarDataTable.this.setId(row, id);
+      
+      return this;
+    }
+    
+    /**
+     * Returns a copy of the record that is not linked to the table.
+     */
+    @Override
+    public DataRecord clone()
+    {
+      DataRecord cl = new DataRecord(getFormat());
+      
+      for (int i = 0; i < columns.length; i++)
+      {
+        cl.setValue(i, columns[i].copyValue(row), false);
+      }
+      
+      cl.setId(getId());
+      
+      return cl;
+    }
+  }
+  
+  private class Iter implements Iterator<DataRecord>
+  {
+    private int next;
+    private int last = -1;
+    
+    Iter(int index)
+    {
+      next = index;
+    }
+    
+    @Override
+    public boolean hasNext()
+    {
+      return next < size;
+    }
+    
+    @Override
+    public DataRecord next()
+    {
+      if (next >= size)
+      {
+        throw new NoSuchElementException();
+      }
+      
+      last = next++;
+      
+      return new Row(last);
+    }
+    
+    @Override
+    public void remove()
+    {
+      if (last == -1)
+      {
+        throw new IllegalStateException();
+      }
+      
+      removeRecordImpl(last);
+      
+      next = last;
+      last = -1;
+    }
+  }
+  
+  /**
+   * Values of one field. Values are kept in an array of primitive or reference type, nulls are marked in a bitmap.
+   */
+  private abstract static class Column implements Cloneable
+  {
+    final FieldFormat format;
+    
+    Object values;
+    
+    BitSet nulls = new BitSet();
+    
+    Column(FieldFormat format, Object values)
+    {
+      this.format = format;
+      this.values = values;
+    }
+    
+    Object get(int row)
+    {
+      return nulls.get(row) ? null : getValue(row);
+    }
+    
+    void set(int row, Object value)
+    {
+      if (value == null)
+      {
+        nulls.set(row);
+        clear(row);
+      }
+      else
+      {
+        nulls.clear(row);
+        setValue(row, value);
+      }
+    }
+    
+    /**
+     * Returns value that may be put into another record without sharing mutable state with this column.
+     */
+    Object copyValue(int row)
+    {
+      return get(row);
+    }
+    
+    abstract Object getValue(int row);
+    
+    abstract void setValue(int row, Object value);
+    
+    void clear(int row)
+    {
+    }
+    
+    int getInt(int row)
+    {
+      throw new IllegalArgumentException("Field '" + format.getName() + "' is not an Integer field");
+    }
+    
+    long getLong(int row)
+    {
+      throw new IllegalArgumentException("Field '" + format.getName() + "' is neither a Long nor a Date field");
+    }
+    
+    float getFloat(int row)
+    {
+      throw new IllegalArgumentException("Field '" + format.getName() + "' is not a Float field");
+    }
+    
+    double getDouble(int row)
+    {
+      throw new IllegalArgumentException("Field '" + format.getName() + "' is not a Double field");
+    }
+    
+    boolean getBoolean(int row)
+    {
+      throw new IllegalArgumentException("Field '" + format.getName() + "' is not a Boolean field");
+    }
+    
+    void ensureCapacity(int capacity)
+    {
+      int length = Array.getLength(values);
+      
+      if (length < capacity)
+      {
+        Object grown = Array.newInstance(values.getClass().getComponentType(), Math.max(capacity, Math.max(MIN_CAPACITY, length * 2)));
+        System.arraycopy(values, 0, grown, 0, length);
+        values = grown;
+      }
+    }
+    
+    void insert(int index, int size)
+    {
+      ensureCapacity(size + 1);
+      
+      System.arraycopy(values, index, values, index + 1, size - index);
+      
+      for (int i = nulls.previousSetBit(size - 1); i >= index; i = nulls.previousSetBit(i - 1))
+      {
+        nulls.clear(i);
+        nulls.set(i + 1);
+      }
+    }
+    
+    void remove(int index, int size)
+    {
+      System.arraycopy(values, index + 1, values, index, size - index - 1);
+      
+      nulls.clear(index);
+      
+      for (int i = nulls.nextSetBit(index + 1); i >= 0 && i < size; i = nulls.nextSetBit(i + 1))
+      {
+        nulls.clear(i);
+        nulls.set(i - 1);
+      }
+      
+      clear(size - 1);
+    }
+    
+    void swap(int index1, int index2)
+    {
+      Object value1 = get(index1);
+      set(index1, get(index2));
+      set(index2, value1);
+    }
+    
+    /**
+     * Puts value from position <code>order[i]</code> to position <code>i</code> for every record.
+     */
+    void reorder(int[] order, int size)
+    {
+      Object reordered = Array.newInstance(values.getClass().getComponentType(), Array.getLength(values));
+      BitSet reorderedNulls = new BitSet();
+      
+      for (int i = 0; i < size; i++)
+      {
+        System.arraycopy(values, order[i], reordered, i, 1);
+        
+        if (nulls.get(order[i]))
+        {
+          reorderedNulls.set(i);
+        }
+      }
+      
+      values = reordered;
+      nulls = reorderedNulls;
+    }
+    
+    Column copyColumn(int size)
+    {
+      Column cl;
+      try
+      {
+        cl = (Column) super.clone();
+      }
+      catch (CloneNotSupportedException ex)
+      {
+        throw new IllegalStateException(ex.getMessage(), ex);
+      }
+      
+      cl.values = Array.newInstance(values.getClass().getComponentType(), Array.getLength(values));
+      System.arraycopy(values, 0, cl.values, 0, size);
+      cl.nulls = (BitSet) nulls.clone();
+      
+      return cl;
+    }
+  }
+  
+  private static class IntColumn extends Column
+  {
+    IntColumn(FieldFormat format)
+    {
+      super(format, new int[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((int[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((int[]) values)[row] = ((Number) value).intValue();
+    }
+    
+    @Override
+    int getInt(int row)
+    {
+      return ((int[]) values)[row];
+    }
+  }
+  
+  private static class LongColumn extends Column
+  {
+    LongColumn(FieldFormat format)
+    {
+      super(format, new long[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((long[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((long[]) values)[row] = ((Number) value).longValue();
+    }
+    
+    @Override
+    long getLong(int row)
+    {
+      return ((long[]) values)[row];
+    }
+  }
+  
+  private static class FloatColumn extends Column
+  {
+    FloatColumn(FieldFormat format)
+    {
+      super(format, new float[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((float[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((float[]) values)[row] = ((Number) value).floatValue();
+    }
+    
+    @Override
+    float getFloat(int row)
+    {
+      return ((float[]) values)[row];
+    }
+  }
+  
+  private static class DoubleColumn extends Column
+  {
+    DoubleColumn(FieldFormat format)
+    {
+      super(format, new double[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((double[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((double[]) values)[row] = ((Number) value).doubleValue();
+    }
+    
+    @Override
+    double getDouble(int row)
+    {
+      return ((double[]) values)[row];
+    }
+  }
+  
+  private static class BooleanColumn extends Column
+  {
+    BooleanColumn(FieldFormat format)
+    {
+      super(format, new boolean[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((boolean[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((boolean[]) values)[row] = (Boolean) value;
+    }
+    
+    @Override
+    boolean getBoolean(int row)
+    {
+      return ((boolean[]) values)[row];
+    }
+  }
+  
+  /**
+   * Dates are kept as milliseconds, so every read returns a new <code>Date</code> object.
+   */
+  private static class DateColumn extends Column
+  {
+    DateColumn(FieldFormat format)
+    {
+      super(format, new long[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return new Date(((long[]) values)[row]);
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((long[]) values)[row] = ((Date) value).getTime();
+    }
+    
+    @Override
+    long getLong(int row)
+    {
+      return ((long[]) values)[row];
+    }
+  }
+  
+  /**
+   * Strings are replaced by codes of a dictionary of distinct values. The dictionary is never shrunk.
+   */
+  private static class StringColumn extends Column
+  {
+    private List<String> dictionary = new ArrayList<>();
+    private Map<String, Integer> codes = new HashMap<>();
+    
+    StringColumn(FieldFormat format)
+    {
+      super(format, new int[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return dictionary.get(((int[]) values)[row]);
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      Integer code = codes.get(value);
+      
+      if (code == null)
+      {
+        code = dictionary.size();
+        dictionary.add((String) value);
+        codes.put((String) value, code);
+      }
+      
+      ((int[]) values)[row] = code;
+    }
+    
+    ObjectColumn toObjectColumn(int size)
+    {
+      ObjectColumn column = new ObjectColumn(format);
+      column.ensureCapacity(Array.getLength(values));
+      
+      for (int i = 0; i < size; i++)
+      {
+        column.set(i, get(i));
+      }
+      
+      return column;
+    }
+    
+    @Override
+    Column copyColumn(int size)
+    {
+      StringColumn cl = (StringColumn) super.copyColumn(size);
+      cl.dictionary = new ArrayList<>(dictionary);
+      cl.codes = new HashMap<>(codes);
+      return cl;
+    }
+  }
+  
+  private static class ObjectColumn extends Column
+  {
+    ObjectColumn(FieldFormat format)
+    {
+      super(format, new Object[0]);
+    }
+    
+    @Override
+    Object getValue(int row)
+    {
+      return ((Object[]) values)[row];
+    }
+    
+    @Override
+    void setValue(int row, Object value)
+    {
+      ((Object[]) values)[row] = value;
+    }
+    
+    @Override
+    void clear(int row)
+    {
+      ((Object[]) values)[row] = null;
+    }
+    
+    @Override
+    Object copyValue(int row)
+    {
+      return CloneUtils.deepClone(get(row));
+    }
+    
+    @Override
+    Column copyColumn(int size)
+    {
+      Column cl = super.copyColumn(size);
+      
+      Object[] copied = (Object[]) cl.values;
+      for (int i = 0; i < size; i++)
+      {
+        copied[i] = CloneUtils.deepClone(copied[i]);
+      }
+      
+      return cl;
+    }
+  }
+}
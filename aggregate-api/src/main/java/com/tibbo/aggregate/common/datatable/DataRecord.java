@@ -18,12 +18,27 @@ import com.tibbo.aggregate.common.util.*;
 
 public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
 {
-  private static final int INITIAL_DATA_SIZE = 4; // Should be power of 2 (undocumented internal behavior of HashMap)
-  
   private static final String ELEMENT_ID = "I";
   
-  private Map<String, Object> data;
-  private TableFormat format = new TableFormat();
+  private static final Object[] EMPTY_DATA = new Object[0];
+  
+  // Marks a field explicitly set to null, while null slots are fields that were never set and resolve to their default values
+  private static final Object NULL = new Object();
+  
+  // Values indexed by field position in the record format
+  private Object[] data;
+  
+  // Number of fields that were set
+  private int filled;
+  
+  // Values array is shared with clones of this record and must be copied before modification. Shared array holds immutable values only
+  private transient volatile boolean shared;
+  
+  // Names of fields the values are stored for, kept only while the format is mutable and its fields may be inserted, removed or renamed
+  private transient String[] layout;
+  private transient int layoutVersion;
+  
+  private TableFormat format;
   private String id = null;
   
   private transient DataTable table;
@@ -33,7 +48,9 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord()
   {
-    data = new HashMap<String, Object>(INITIAL_DATA_SIZE);
+    data = EMPTY_DATA;
+    format = new TableFormat();
+    trackLayout();
   }
   
   /**
@@ -41,12 +58,26 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord(TableFormat tableFormat)
   {
-    data = new HashMap<String, Object>(tableFormat != null ? tableFormat.getFieldCount() : INITIAL_DATA_SIZE);
+    data = tableFormat != null && tableFormat.getFieldCount() > 0 ? new Object[tableFormat.getFieldCount()] : EMPTY_DATA;
     if (tableFormat != null)
     {
       tableFormat.makeImmutable(null);
       format = tableFormat;
     }
+    else
+    {
+      format = new TableFormat();
+      trackLayout();
+    }
+  }
+  
+  /**
+   * Constructs a record whose values are stored by the table rather than by the record itself. Subclasses must override all methods accessing values.
+   */
+  DataRecord(DataTable table, TableFormat tableFormat)
+  {
+    this.table = table;
+    this.format = tableFormat;
   }
   
   /**
@@ -198,7 +229,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
     {
       FieldFormat ff = format.getField(i);
       
-      Object value = getValue(ff);
+      Object value = peekValue(i);
       
       new Element(null, ff, value).encode(sb, settings, isTransferEncode, encodeLevel);
     }
@@ -208,7 +239,9 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   
   private boolean checkNumberOfDataFieldsSet(Object value)
   {
-    if (data.size() >= format.getFieldCount())
+    checkLayout();
+    
+    if (filled >= format.getFieldCount())
     {
       Log.DATATABLE.warn("Can't add data to data record since all data fields defined by format are already set: " + value, new Exception());
       
@@ -223,12 +256,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addInt(Integer val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -236,12 +264,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addString(String val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -249,12 +272,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addBoolean(Boolean val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -262,12 +280,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addLong(Long val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -275,12 +288,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addFloat(Float val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -288,12 +296,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addDouble(Double val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -301,12 +304,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addDate(Date val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -314,12 +312,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addDataTable(DataTable val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -327,12 +320,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addColor(Color val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -340,12 +328,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public DataRecord addData(Data val)
   {
-    if (!checkNumberOfDataFieldsSet(val))
-    {
-      return this;
-    }
-    
-    return setValue(data.size(), val);
+    return addValue(val);
   }
   
   /**
@@ -360,6 +343,14 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   {
     ensureMutable();
     
+    // Clones sharing the record get its copy before it changes
+    SimpleDataTable indexedTable = table instanceof SimpleDataTable ? (SimpleDataTable) table : null;
+    
+    if (indexedTable != null)
+    {
+      indexedTable.recordModifying();
+    }
+    
     DataTable recordTable = getTable();
     boolean isRecursive = value != null && value == recordTable;
     if (isRecursive)
@@ -378,11 +369,28 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
       throw new IllegalArgumentException(MessageFormat.format(Cres.get().getString("dtIllegalFieldValue"), value, ff.toDetailedString()) + ex.getMessage(), ex);
     }
     
-    Object oldValue = data.get(ff.getName());
+    checkLayout();
+    
+    unshare();
+    
+    if (index >= data.length)
+    {
+      data = Arrays.copyOf(data, format.getFieldCount());
+    }
+    
+    Object oldValue = data[index];
+    
+    int position = indexedTable != null ? indexedTable.recordChanging(this, ff.getName()) : -1;
+    
+    data[index] = value != null ? value : NULL;
+    
+    if (oldValue == null)
+    {
+      filled++;
+    }
     
     try
     {
-      data.put(ff.getName(), value);
       if (table != null)
       {
         table.validateRecord(this);
@@ -390,9 +398,22 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
     }
     catch (ValidationException ex1)
     {
-      data.put(ff.getName(), oldValue);
+      data[index] = oldValue;
+      
+      if (oldValue == null)
+      {
+        filled--;
+      }
+      
       throw new IllegalArgumentException(ex1.getMessage(), ex1);
     }
+    finally
+    {
+      if (indexedTable != null)
+      {
+        indexedTable.recordChanged(this, ff.getName(), position);
+      }
+    }
     
     return this;
   }
@@ -473,7 +494,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
       return this;
     }
     
-    return setValue(data.size(), value);
+    return setValue(filled, value);
   }
   
   /**
@@ -666,9 +687,34 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
    */
   public Object getValue(int index)
   {
-    FieldFormat ff = format.getField(index);
+    Object value = peekValue(index);
+    
+    // Caller may modify a mutable value in place, so clones of the table must stop sharing the record first
+    if (table instanceof SimpleDataTable && isMutable(value))
+    {
+      ((SimpleDataTable) table).recordModifying();
+    }
+    
+    return value;
+  }
+  
+  /**
+   * Returns value of field with specified index. Read-only paths of the record use it, so that subclasses storing values elsewhere override it along
+   * with {@link #getValue(int)}.
+   */
+  Object peekValue(int index)
+  {
+    checkLayout();
+    
+    // Slots beyond the array belong to fields appended to a mutable format after the record was created
+    Object value = index < data.length ? data[index] : null;
+    
+    if (value != null)
+    {
+      return value != NULL ? value : null;
+    }
     
-    return getValue(ff);
+    return getDefaultValue(format.getField(index));
   }
   
   /**
@@ -679,13 +725,8 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
     return getValue(findIndex(name));
   }
   
-  private Object getValue(FieldFormat ff)
+  private Object getDefaultValue(FieldFormat ff)
   {
-    if (data.containsKey(ff.getName()))
-    {
-      return data.get(ff.getName());
-    }
-    
     if (ff.isDefaultOverride())
     {
       return null;
@@ -717,15 +758,29 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   
   public String getValueAsString(int index)
   {
-    return format.getField(index).valueToString(getValue(index));
+    return format.getField(index).valueToString(peekValue(index));
   }
   
   public DataRecord setId(String id)
   {
     ensureMutable();
     
+    SimpleDataTable indexedTable = table instanceof SimpleDataTable ? (SimpleDataTable) table : null;
+    
+    if (indexedTable != null)
+    {
+      indexedTable.recordModifying();
+    }
+    
+    int position = indexedTable != null ? indexedTable.recordChanging(this, null) : -1;
+    
     this.id = id;
     
+    if (indexedTable != null)
+    {
+      indexedTable.recordChanged(this, null, position);
+    }
+    
     return this;
   }
   
@@ -737,7 +792,114 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   void setFormat(TableFormat format)
   {
     format.makeImmutable(null);
+    remap(format);
     this.format = format;
+    trackLayout();
+  }
+  
+  /**
+   * Moves values to the positions of same-named fields of the new format.
+   */
+  private void remap(TableFormat newFormat)
+  {
+    if (data == null || newFormat == format)
+    {
+      return;
+    }
+    
+    checkLayout();
+    
+    int count = newFormat.getFieldCount();
+    
+    boolean sameLayout = format.getFieldCount() == count;
+    
+    for (int i = 0; sameLayout && i < count; i++)
+    {
+      sameLayout = format.getFieldName(i).equals(newFormat.getFieldName(i));
+    }
+    
+    if (sameLayout)
+    {
+      return;
+    }
+    
+    String[] names = new String[format.getFieldCount()];
+    
+    for (int i = 0; i < names.length; i++)
+    {
+      names[i] = format.getFieldName(i);
+    }
+    
+    relocate(names, newFormat);
+  }
+  
+  /**
+   * Starts tracking positions of fields if the record format is mutable, so that values follow their fields when the format is modified in place.
+   */
+  private void trackLayout()
+  {
+    if (data == null || format.isImmutable())
+    {
+      layout = null;
+      return;
+    }
+    
+    layout = new String[format.getFieldCount()];
+    
+    for (int i = 0; i < layout.length; i++)
+    {
+      layout[i] = format.getFieldName(i);
+    }
+    
+    layoutVersion = format.getLayoutVersion();
+  }
+  
+  /**
+   * Moves values to the current positions of their fields if fields of the mutable record format were inserted, removed or renamed since the values
+   * were stored. Values of removed and renamed fields are dropped.
+   */
+  private void checkLayout()
+  {
+    if (layout == null || layoutVersion == format.getLayoutVersion())
+    {
+      return;
+    }
+    
+    relocate(layout, format);
+    
+    trackLayout();
+  }
+  
+  /**
+   * Moves values stored for fields with specified names to the positions of same-named fields of the format.
+   */
+  private void relocate(String[] names, TableFormat newFormat)
+  {
+    unshare();
+    
+    int count = newFormat.getFieldCount();
+    
+    Object[] remapped = count > 0 ? new Object[count] : EMPTY_DATA;
+    
+    filled = 0;
+    
+    for (int i = 0; i < data.length && i < names.length; i++)
+    {
+      if (data[i] == null)
+      {
+        continue;
+      }
+      
+      int index = newFormat.getFieldIndex(names[i]);
+      
+      if (index != -1)
+      {
+        remapped[index] = data[i];
+        filled++;
+      }
+    }
+    
+    data = remapped;
   }
   
   @Override
@@ -771,8 +933,8 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
     
     for (int i = 0; i < getFieldCount(); i++)
     {
-      Object field = getValue(i);
-      Object value = rec.getValue(i);
+      Object field = peekValue(i);
+      Object value = rec.peekValue(i);
       if (field != null ? !field.equals(value) : value != null)
       {
         return false;
@@ -790,7 +952,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
     result = 31 * result + (id != null ? id.hashCode() : 0);
     for (int i = 0; i < getFieldCount(); i++)
     {
-      Object field = getValue(i);
+      Object field = peekValue(i);
       result = 31 * result + (field != null ? field.hashCode() : 0);
     }
     return result;
@@ -808,7 +970,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   {
     if (hasField(condition.getField()))
     {
-      Object recValue = getValue(condition.getField());
+      Object recValue = peekValue(findIndex(condition.getField()));
       Object condValue = condition.getValue();
       int operator = condition.getOperator();
       
@@ -870,14 +1032,13 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   
   public void cloneFormatFromTable()
   {
-    if (table != null)
-    {
-      format = table.getFormat().clone();
-    }
-    else
-    {
-      format = format.clone();
-    }
+    TableFormat clone = table != null ? table.getFormat().clone() : format.clone();
+    
+    remap(clone);
+    
+    format = clone;
+    
+    trackLayout();
   }
   
   public String dataAsString(boolean showFieldNames, boolean showHiddenFields)
@@ -930,7 +1091,7 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
   {
     FieldFormat ff = getFormat(name);
     
-    Object val = getValue(name);
+    Object val = peekValue(findIndex(name));
     
     String value = val != null
         ? (FieldFormat.DATATABLE_FIELD == ff.getType() && !((DataTable) val).isSimple()) ? ((DataTable) val).dataAsString(showFieldNames, showHiddenFields, showPasswords) : val.toString()
@@ -973,11 +1134,68 @@ public class DataRecord implements Cloneable, PublicCloneable, StringEncodable
       throw new IllegalStateException(ex.getMessage(), ex);
     }
     
-    cl.data = (Map) CloneUtils.deepClone(data);
+    if (data == null || data.length == 0)
+    {
+      return cl;
+    }
+    
+    if (filled == 0)
+    {
+      cl.data = new Object[data.length];
+      cl.shared = false;
+      return cl;
+    }
+    
+    Object[] copy = null;
+    
+    for (int i = 0; i < data.length; i++)
+    {
+      Object value = data[i];
+      
+      if (value != NULL && isMutable(value))
+      {
+        if (copy == null)
+        {
+          copy = data.clone();
+        }
+        
+        // Callers may already hold mutable values of the record. Nested tables are cloned in constant time and share their records until accessed
+        copy[i] = value instanceof DataTable ? ((DataTable) value).clone() : CloneUtils.deepClone(value);
+      }
+    }
+    
+    if (copy != null)
+    {
+      cl.data = copy;
+      cl.shared = false;
+    }
+    else
+    {
+      // Array of immutable values is copied by the record that is modified first
+      shared = true;
+      cl.shared = true;
+    }
     
     return cl;
   }
   
+  /**
+   * Replaces values array shared with clones of the record by a private copy.
+   */
+  private void unshare()
+  {
+    if (shared)
+    {
+      data = data.clone();
+      shared = false;
+    }
+  }
+  
+  private static boolean isMutable(Object value)
+  {
+    return value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Color);
+  }
+  
   private void ensureMutable()
   {
     if (isTableImmutable())
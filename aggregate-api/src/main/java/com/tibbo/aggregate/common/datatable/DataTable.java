@@ -224,6 +224,23 @@ public interface DataTable extends Iterable<DataRecord>, AttributedObject, Strin
    */
   Integer findIndex(DataRecord record);
   
+  /**
+   * Creates hash index on the fields. Queries having equality conditions on all indexed fields use the index rather than scanning the table. The index is
+   * maintained while the table is changed. Tables that do not support indexes ignore the call and keep scanning.
+   */
+  void createIndex(String... fields);
+  
+  /**
+   * Creates sorted index on the field. Queries having an equality or comparison condition on the field use the index rather than scanning the table. The
+   * index is maintained while the table is changed. Tables that do not support indexes ignore the call and keep scanning.
+   */
+  void createSortedIndex(String field);
+  
+  /**
+   * Removes all indexes of the table.
+   */
+  void dropIndexes();
+  
   void sort(String field, boolean ascending);
   
   void sort(DataTableSorter sorter);
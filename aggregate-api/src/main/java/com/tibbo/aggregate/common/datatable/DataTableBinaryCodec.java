@@ -0,0 +1,588 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.function.Consumer;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.FormatCache;
+import com.tibbo.aggregate.common.datatable.encoding.KnownFormatCollector;
+import com.tibbo.aggregate.common.protocol.AggreGateCommand;
+import com.tibbo.aggregate.common.protocol.ProtocolVersion;
+import com.tibbo.aggregate.common.util.StringUtils;
+import com.tibbo.aggregate.common.util.StringWrapper;
+import com.tibbo.aggregate.common.util.Util;
+
+/**
+ * Binary encoding of data tables used by protocol version {@link ProtocolVersion#V5} and later.
+ * <p>
+ * Encoded table starts with {@link StringWrapper#BINARY_MARKER} and encoding version bytes. It is followed by a flags varint, the format (as a
+ * length-prefixed classic format string) and/or its {@link FormatCache} ID, quality, timestamp and invalidation message if present, and records. Each
+ * record is prefixed by a byte telling whether it has an ID, and the zero byte terminates the records. Integer and long values are zigzag varints, dates
+ * are epoch milliseconds, floating point values are IEEE 754 bits, strings are length-prefixed UTF-8, nested tables are encoded recursively and values
+ * of other types are their string representations. Values of nullable fields are preceded by a presence byte.
+ * <p>
+ * Encoded data is byte-stuffed so that it never contains the command parameter separator: separator and escape bytes are replaced by the escape byte
+ * followed by the original byte XOR 0x40.
+ */
+public class DataTableBinaryCodec
+{
+  private static final int VERSION = 1;
+  
+  private static final byte ESCAPE = 0x10;
+  private static final byte SEPARATOR = (byte) AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0);
+  private static final int ESCAPE_MASK = 0x40;
+  
+  private static final int FLAG_FORMAT = 1;
+  private static final int FLAG_FORMAT_ID = 1 << 1;
+  private static final int FLAG_QUALITY = 1 << 2;
+  private static final int FLAG_TIMESTAMP = 1 << 3;
+  private static final int FLAG_INVALID = 1 << 4;
+  
+  private static final int RECORDS_END = 0;
+  private static final int RECORD = 1;
+  private static final int RECORD_WITH_ID = 2;
+  
+  private static final int BUFFER_SIZE = 8192;
+  
+  /**
+   * Returns true if the table may be encoded in binary form with the settings. Tables that are kept by the server and referred by their IDs, and tables
+   * whose field names must be encoded without format are encoded in classic form.
+   */
+  public static boolean isApplicable(DataTable table, ClassicEncodingSettings settings)
+  {
+    if (settings == null || settings.getProtocolVersion() == null || settings.getProtocolVersion().ordinal() < ProtocolVersion.V5.ordinal())
+    {
+      return false;
+    }
+    
+    return table.getId() == null && (settings.isEncodeFormat() || !settings.isEncodeFieldNames());
+  }
+  
+  /**
+   * Returns true if the string is a table encoded in binary form, whose bytes are represented as chars one to one. Only tables decoded with settings of
+   * {@link ProtocolVersion#V5} and later may be binary.
+   */
+  public static boolean isBinary(String encoded, ClassicEncodingSettings settings)
+  {
+    if (settings == null || settings.getProtocolVersion() == null || settings.getProtocolVersion().ordinal() < ProtocolVersion.V5.ordinal())
+    {
+      return false;
+    }
+    
+    return encoded != null && !encoded.isEmpty() && encoded.charAt(0) == StringWrapper.BINARY_MARKER;
+  }
+  
+  /**
+   * Writes the table in binary form to the stream.
+   */
+  public static void encode(DataTable table, ClassicEncodingSettings settings, OutputStream out) throws IOException
+  {
+    Output output = new Output(out);
+    
+    out.write(StringWrapper.BINARY_MARKER);
+    output.write(VERSION);
+    
+    encodeTable(table, settings, settings.isEncodeFormat(), output);
+    
+    output.flush();
+  }
+  
+  /**
+   * Decodes table encoded in binary form, passing its records to the consumer. Returns table that holds format and attributes of the decoded table, but
+   * no records.
+   */
+  public static DataTable decode(ByteBuffer encoded, ClassicEncodingSettings settings, boolean validate, Consumer<DataRecord> consumer) throws DataTableException
+  {
+    SimpleDataTable table = new SimpleDataTable();
+    decode(table, encoded, settings, validate, consumer);
+    return table;
+  }
+  
+  static void decode(AbstractDataTable table, ByteBuffer encoded, ClassicEncodingSettings settings, boolean validate, Consumer<DataRecord> consumer)
+      throws DataTableException
+  {
+    Input input = new Input(encoded.duplicate());
+    
+    try
+    {
+      if (input.buffer.get() != StringWrapper.BINARY_MARKER)
+      {
+        throw new DataTableException("Binary table marker not found");
+      }
+      
+      int version = input.read();
+      
+      if (version != VERSION)
+      {
+        throw new DataTableException("Unsupported binary table encoding version: " + version);
+      }
+      
+      decodeTable(table, input, settings, validate, settings != null ? settings.getFormat() : null, consumer);
+    }
+    catch (BufferUnderflowException ex)
+    {
+      throw new DataTableException("Unexpected end of binary table", ex);
+    }
+  }
+  
+  private static void encodeTable(DataTable table, ClassicEncodingSettings settings, boolean encodeFormat, Output out) throws IOException
+  {
+    TableFormat format = table.getFormat();
+    
+    int flags = 0;
+    
+    Integer formatId = null;
+    
+    boolean isKnown = false;
+    
+    KnownFormatCollector collector = settings != null ? settings.getKnownFormatCollector() : null;
+    
+    if (encodeFormat)
+    {
+      flags |= FLAG_FORMAT;
+      
+      if (format.getFieldCount() > 0 && settings.getFormatCache() != null)
+      {
+        formatId = settings.getFormatCache().addIfNotExists(format);
+        
+        if (collector != null)
+        {
+          // Inserting ID only if the format is known, otherwise both format and ID
+          isKnown = collector.isKnown(formatId) && collector.isMarked(formatId);
+          flags = isKnown ? FLAG_FORMAT_ID : FLAG_FORMAT | FLAG_FORMAT_ID;
+        }
+      }
+    }
+    
+    if (table.getQuality() != null)
+    {
+      flags |= FLAG_QUALITY;
+    }
+    
+    if (table.getTimestamp() != null)
+    {
+      flags |= FLAG_TIMESTAMP;
+    }
+    
+    if (table.isInvalid())
+    {
+      flags |= FLAG_INVALID;
+    }
+    
+    out.writeVarint(flags);
+    
+    if ((flags & FLAG_FORMAT) != 0)
+    {
+      out.writeString(format.encode(false));
+    }
+    
+    if ((flags & FLAG_FORMAT_ID) != 0)
+    {
+      out.writeVarint(formatId);
+    }
+    
+    if ((flags & FLAG_QUALITY) != 0)
+    {
+      out.writeZigZag(table.getQuality());
+    }
+    
+    if ((flags & FLAG_TIMESTAMP) != 0)
+    {
+      out.writeZigZag(table.getTimestamp().getTime());
+    }
+    
+    if ((flags & FLAG_INVALID) != 0)
+    {
+      out.writeString(table.getInvalidationMessage());
+    }
+    
+    int fieldCount = format.getFieldCount();
+    
+    for (DataRecord record : table)
+    {
+      if (record.getId() != null)
+      {
+        out.write(RECORD_WITH_ID);
+        out.writeString(record.getId());
+      }
+      else
+      {
+        out.write(RECORD);
+      }
+      
+      for (int i = 0; i < fieldCount; i++)
+      {
+        encodeValue(format.getField(i), record.peekValue(i), settings, out);
+      }
+    }
+    
+    out.write(RECORDS_END);
+    
+    if (!isKnown && formatId != null && collector != null)
+    {
+      // Marking format as known
+      collector.makeKnown(formatId, true);
+    }
+  }
+  
+  private static void encodeValue(FieldFormat ff, Object value, ClassicEncodingSettings settings, Output out) throws IOException
+  {
+    if (ff.isNullable())
+    {
+      out.write(value != null ? 1 : 0);
+      
+      if (value == null)
+      {
+        return;
+      }
+    }
+    else if (value == null)
+    {
+      value = ff.getNotNullDefault();
+    }
+    
+    switch (ff.getType())
+    {
+      case FieldFormat.INTEGER_FIELD:
+        out.writeZigZag(((Number) value).intValue());
+        break;
+      
+      case FieldFormat.LONG_FIELD:
+        out.writeZigZag(((Number) value).longValue());
+        break;
+      
+      case FieldFormat.BOOLEAN_FIELD:
+        out.write((Boolean) value ? 1 : 0);
+        break;
+      
+      case FieldFormat.FLOAT_FIELD:
+        out.writeFixed(Float.floatToIntBits(((Number) value).floatValue()), 4);
+        break;
+      
+      case FieldFormat.DOUBLE_FIELD:
+        out.writeFixed(Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+        break;
+      
+      case FieldFormat.DATE_FIELD:
+        out.writeZigZag(((Date) value).getTime());
+        break;
+      
+      case FieldFormat.DATATABLE_FIELD:
+        DataTable nested = (DataTable) value;
+        DataTable defaultValue = (DataTable) ff.getDefaultValue();
+        
+        // Format of a nested table is omitted if it's the format of field default value, like in classic encoding
+        boolean encodeFormat = defaultValue == null || defaultValue.getFieldCount() == 0 || !Util.equals(defaultValue.getFormat(), nested.getFormat());
+        
+        encodeTable(nested, settings, encodeFormat, out);
+        break;
+      
+      default:
+        // Strings and values of other types are transferred as their string representations
+        out.writeString(ff.valueToString(value, settings));
+    }
+  }
+  
+  private static void decodeTable(AbstractDataTable table, Input in, ClassicEncodingSettings settings, boolean validate, TableFormat defaultFormat,
+      Consumer<DataRecord> consumer) throws DataTableException
+  {
+    int flags = in.readVarint();
+    
+    TableFormat format = null;
+    
+    if ((flags & FLAG_FORMAT) != 0)
+    {
+      format = new TableFormat(in.readString(), new ClassicEncodingSettings(false), validate);
+    }
+    
+    if ((flags & FLAG_FORMAT_ID) != 0)
+    {
+      int formatId = in.readVarint();
+      
+      FormatCache cache = settings != null ? settings.getFormatCache() : null;
+      
+      if (cache == null)
+      {
+        throw new IllegalStateException("Can't use format ID - format cache not found");
+      }
+      
+      if (format != null)
+      {
+        cache.put(formatId, format);
+      }
+      else
+      {
+        format = cache.get(formatId);
+        
+        if (format == null)
+        {
+          throw new IllegalStateException("Format with specified ID not found in the cache: " + formatId);
+        }
+      }
+    }
+    
+    if (format == null)
+    {
+      format = defaultFormat;
+    }
+    
+    if (format == null)
+    {
+      throw new IllegalStateException("Table format is neither found in encoded table nor provided by decoding environment");
+    }
+    
+    table.setFormat(format);
+    
+    if ((flags & FLAG_QUALITY) != 0)
+    {
+      table.setQuality((int) in.readZigZag());
+    }
+    
+    if ((flags & FLAG_TIMESTAMP) != 0)
+    {
+      table.setTimestamp(new Date(in.readZigZag()));
+    }
+    
+    if ((flags & FLAG_INVALID) != 0)
+    {
+      table.setInvalidationMessage(in.readString());
+    }
+    
+    int fieldCount = format.getFieldCount();
+    
+    int marker;
+    
+    while ((marker = in.read()) != RECORDS_END)
+    {
+      DataRecord record = new DataRecord(format);
+      
+      if (marker == RECORD_WITH_ID)
+      {
+        record.setId(in.readString());
+      }
+      
+      for (int i = 0; i < fieldCount; i++)
+      {
+        record.setValue(i, decodeValue(format.getField(i), in, settings, validate), validate);
+      }
+      
+      consumer.accept(record);
+    }
+  }
+  
+  private static Object decodeValue(FieldFormat ff, Input in, ClassicEncodingSettings settings, boolean validate) throws DataTableException
+  {
+    if (ff.isNullable() && in.read() == 0)
+    {
+      return null;
+    }
+    
+    switch (ff.getType())
+    {
+      case FieldFormat.INTEGER_FIELD:
+        return (int) in.readZigZag();
+      
+      case FieldFormat.LONG_FIELD:
+        return in.readZigZag();
+      
+      case FieldFormat.BOOLEAN_FIELD:
+        return in.read() != 0;
+      
+      case FieldFormat.FLOAT_FIELD:
+        return Float.intBitsToFloat((int) in.readFixed(4));
+      
+      case FieldFormat.DOUBLE_FIELD:
+        return Double.longBitsToDouble(in.readFixed(8));
+      
+      case FieldFormat.DATE_FIELD:
+        return new Date(in.readZigZag());
+      
+      case FieldFormat.DATATABLE_FIELD:
+        return decodeNestedTable(ff, in, settings, validate);
+      
+      default:
+        return ff.valueFromString(in.readString(), settings, validate);
+    }
+  }
+  
+  private static DataTable decodeNestedTable(FieldFormat ff, Input in, ClassicEncodingSettings settings, boolean validate) throws DataTableException
+  {
+    DataTable defaultValue = (DataTable) ff.getDefaultValue();
+    
+    SimpleDataTable res = new SimpleDataTable();
+    decodeTable(res, in, settings, validate, defaultValue != null ? defaultValue.getFormat() : null, res::addRecord);
+    
+    // Adapting the table to the format of field default value, like DataTableFieldFormat does for classic encoding
+    if (defaultValue != null && defaultValue.getFieldCount() > 0 && !res.getFormat().extend(defaultValue.getFormat()))
+    {
+      DataTable newRes = defaultValue.clone();
+      DataTableReplication.copy(res, newRes, true, true, true);
+      return newRes;
+    }
+    
+    return res;
+  }
+  
+  /**
+   * Buffered writer of stuffed data.
+   */
+  private static class Output
+  {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    
+    private Output(OutputStream out)
+    {
+      this.out = out;
+    }
+    
+    private void write(int b) throws IOException
+    {
+      // Reserving room for an escaped byte
+      if (count >= BUFFER_SIZE - 1)
+      {
+        flush();
+      }
+      
+      byte value = (byte) b;
+      
+      if (value == SEPARATOR || value == ESCAPE)
+      {
+        buffer[count++] = ESCAPE;
+        buffer[count++] = (byte) (value ^ ESCAPE_MASK);
+      }
+      else
+      {
+        buffer[count++] = value;
+      }
+    }
+    
+    private void writeVarint(long value) throws IOException
+    {
+      while ((value & ~0x7FL) != 0)
+      {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      
+      write((int) value);
+    }
+    
+    private void writeZigZag(long value) throws IOException
+    {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+    
+    private void writeFixed(long value, int bytes) throws IOException
+    {
+      for (int i = bytes - 1; i >= 0; i--)
+      {
+        write((int) (value >>> (i * 8)));
+      }
+    }
+    
+    private void writeString(String value) throws IOException
+    {
+      byte[] bytes = value.getBytes(StringUtils.UTF8_CHARSET);
+      
+      writeVarint(bytes.length);
+      
+      for (byte b : bytes)
+      {
+        write(b);
+      }
+    }
+    
+    private void flush() throws IOException
+    {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+  
+  /**
+   * Reader of stuffed data.
+   */
+  private static class Input
+  {
+    private final ByteBuffer buffer;
+    
+    private Input(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+    
+    private int read()
+    {
+      byte b = buffer.get();
+      
+      if (b == ESCAPE)
+      {
+        b = (byte) (buffer.get() ^ ESCAPE_MASK);
+      }
+      
+      return b & 0xFF;
+    }
+    
+    private long readVarintLong() throws DataTableException
+    {
+      long value = 0;
+      
+      for (int shift = 0; shift < 64; shift += 7)
+      {
+        int b = read();
+        
+        value |= (long) (b & 0x7F) << shift;
+        
+        if ((b & 0x80) == 0)
+        {
+          return value;
+        }
+      }
+      
+      throw new DataTableException("Malformed varint in binary table");
+    }
+    
+    private int readVarint() throws DataTableException
+    {
+      return (int) readVarintLong();
+    }
+    
+    private long readZigZag() throws DataTableException
+    {
+      long value = readVarintLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private long readFixed(int bytes)
+    {
+      long value = 0;
+      
+      for (int i = 0; i < bytes; i++)
+      {
+        value = (value << 8) | read();
+      }
+      
+      return value;
+    }
+    
+    private String readString() throws DataTableException
+    {
+      int length = readVarint();
+      
+      byte[] bytes = new byte[length];
+      
+      for (int i = 0; i < length; i++)
+      {
+        bytes[i] = (byte) read();
+      }
+      
+      return new String(bytes, StringUtils.UTF8_CHARSET);
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -17,7 +18,6 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.annotation.Nullable;
 
 import org.apache.commons.beanutils.ConstructorUtils;
-import org.apache.commons.beanutils.PropertyUtils;
 
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.datatable.converter.FCByte;
@@ -89,10 +89,15 @@ public class DataTableConversion
   {
     DataTable table = new SimpleDataTable(format);
     
+    Set<String> fieldsToSkip = Collections.emptySet();
+    
+    BeanMapping mapping = null;
+    
     for (Iterator iter = beans.iterator(); iter.hasNext();)
     {
       Object bean = iter.next();
-      table.addRecord(beanToRecord(bean, format, setReadOnlyFields, false));
+      mapping = BeanMapping.of(bean, format, mapping);
+      table.addRecord(beanToRecord(bean, format, setReadOnlyFields, false, fieldsToSkip, mapping));
     }
     
     return table;
@@ -133,16 +138,20 @@ public class DataTableConversion
         return res;
       }
       
+      boolean fieldClass = FieldFormat.isFieldClass(beanClass);
+      
+      BeanFactory<C> factory = fieldClass ? null : new BeanFactory<>(beanClass, format);
+      
       int i = 0;
       for (DataRecord rec : table)
       {
-        if (FieldFormat.isFieldClass(beanClass))
+        if (fieldClass)
         {
           res.add((C) rec.getValue(0));
           continue;
         }
         
-        C bean = beanFromRecord(rec, beanClass, format, setReadOnlyFields);
+        C bean = factory.create(rec, setReadOnlyFields);
 
         if (origin != null && PinpointAware.class.isAssignableFrom(beanClass))
         {
@@ -163,33 +172,7 @@ public class DataTableConversion
   
   public static <C> C beanFromRecord(DataRecord rec, Class<C> beanClass, TableFormat format, boolean setReadOnlyFields) throws DataTableException
   {
-    try
-    {
-      C bean;
-      FormatConverter<C> fc = getFormatConverter(beanClass);
-      if (fc == null)
-      {
-        Constructor<C> recordConstructor = ConstructorUtils.getAccessibleConstructor(beanClass, DataRecord.class);
-        if (recordConstructor != null)
-        {
-          bean = recordConstructor.newInstance(rec);
-        }
-        else
-        {
-          bean = beanClass.newInstance();
-          populateBeanFromRecord(bean, rec, format, setReadOnlyFields);
-        }
-      }
-      else
-      {
-        bean = fc.instantiate(rec);
-      }
-      return bean;
-    }
-    catch (Exception ex)
-    {
-      throw new DataTableException("Error converting data record to the bean of type '" + beanClass.getName() + "': " + ex.getMessage(), ex);
-    }
+    return new BeanFactory<>(beanClass, format).create(rec, setReadOnlyFields);
   }
   
   public static void populateBeanFromRecord(Object bean, DataRecord rec, TableFormat format, boolean setReadOnlyFields) throws DataTableException
@@ -198,11 +181,20 @@ public class DataTableConversion
   }
   
   public static void populateBeanFromRecord(Object bean, DataRecord rec, TableFormat format, boolean setReadOnlyFields, Set<String> fieldsToSkip) throws DataTableException
+  {
+    populateBeanFromRecord(bean, rec, format, setReadOnlyFields, fieldsToSkip, BeanMapping.of(bean, format));
+  }
+  
+  private static void populateBeanFromRecord(Object bean, DataRecord rec, TableFormat format, boolean setReadOnlyFields, Set<String> fieldsToSkip,
+      BeanMapping mapping) throws DataTableException
   {
     try
     {
-      for (FieldFormat ff : format)
+      for (int i = 0; i < format.getFieldCount(); i++)
       {
+        FieldFormat ff = format.getField(i);
+        BeanMapping.FieldMapping field = mapping.getField(i);
+        
         if (fieldsToSkip.contains(ff.getName()))
         {
           continue;
@@ -227,7 +219,7 @@ public class DataTableConversion
         {
           if (value != null)
           {
-            Class requiredClass = PropertyUtils.getPropertyType(bean, ff.getName());
+            Class requiredClass = field.getType(bean);
             
             if (requiredClass == null)
             {
@@ -246,11 +238,11 @@ public class DataTableConversion
             }
             else
             {
-              FormatConverter fc = DataTableConversion.getFormatConverter(requiredClass);
+              FormatConverter fc = field.getConverter(bean);
               
               if (fc != null)
               {
-                Object originalValue = PropertyUtils.getProperty(bean, ff.getName());
+                Object originalValue = field.get(bean);
                 
                 value = fc.convertToBean(value, originalValue);
               }
@@ -266,7 +258,7 @@ public class DataTableConversion
             }
           }
           
-          PropertyUtils.setProperty(bean, ff.getName(), value);
+          field.set(bean, value);
         }
         catch (InvocationTargetException ex1)
         {
@@ -291,6 +283,12 @@ public class DataTableConversion
   }
   
   public static DataRecord beanToRecord(Object bean, TableFormat format, boolean setReadOnlyFields, boolean ignoreErrors, Set<String> fieldsToSkip) throws DataTableException
+  {
+    return beanToRecord(bean, format, setReadOnlyFields, ignoreErrors, fieldsToSkip, format != null ? BeanMapping.of(bean, format) : null);
+  }
+  
+  private static DataRecord beanToRecord(Object bean, TableFormat format, boolean setReadOnlyFields, boolean ignoreErrors, Set<String> fieldsToSkip,
+      BeanMapping mapping) throws DataTableException
   {
     try
     {
@@ -307,19 +305,30 @@ public class DataTableConversion
         return rec;
       }
       
-      for (FieldFormat ff : format)
+      for (int i = 0; i < format.getFieldCount(); i++)
       {
+        FieldFormat ff = format.getField(i);
+        
         if (fieldsToSkip.contains(ff.getName()) || (!setReadOnlyFields && ff.isReadonly()))
         {
           continue;
         }
         
+        BeanMapping.FieldMapping field = bean != null ? mapping.getField(i) : null;
+        
+        if (field != null && field.isMissing())
+        {
+          Log.DATATABLE.debug(MessageFormat.format("Error getting property ''{0}'' ({1}) from object of type ''{2}'': {3}", ff.getName(), ff.getFieldWrappedClass(), bean.getClass()
+              .getName(), "Unknown property"));
+          continue;
+        }
+        
         Object value = null;
         try
         {
           if (bean != null)
           {
-            value = PropertyUtils.getProperty(bean, ff.getName());
+            value = field.get(bean);
           }
         }
         catch (NoSuchMethodException ex3)
@@ -339,7 +348,7 @@ public class DataTableConversion
           continue;
         }
         
-        FormatConverter fc = bean == null ? null : DataTableConversion.getFormatConverter(PropertyUtils.getPropertyType(bean, ff.getName()));
+        FormatConverter fc = bean == null ? null : field.getConverter(bean);
         
         if (fc != null)
         {
@@ -725,6 +734,58 @@ public class DataTableConversion
     return tbl;
   }
 
+  /**
+   * Creates beans of a class from data records. The way beans are instantiated and populated is resolved once for all records.
+   */
+  private static class BeanFactory<C>
+  {
+    private final Class<C> beanClass;
+    private final TableFormat format;
+    private final FormatConverter<C> converter;
+    private final Constructor<C> recordConstructor;
+    
+    private BeanMapping mapping;
+    
+    private BeanFactory(Class<C> beanClass, TableFormat format)
+    {
+      this.beanClass = beanClass;
+      this.format = format;
+      this.converter = getFormatConverter(beanClass);
+      this.recordConstructor = converter == null ? ConstructorUtils.getAccessibleConstructor(beanClass, DataRecord.class) : null;
+    }
+    
+    private C create(DataRecord rec, boolean setReadOnlyFields) throws DataTableException
+    {
+      try
+      {
+        if (converter != null)
+        {
+          return converter.instantiate(rec);
+        }
+        
+        if (recordConstructor != null)
+        {
+          return recordConstructor.newInstance(rec);
+        }
+        
+        C bean = beanClass.newInstance();
+        
+        if (mapping == null)
+        {
+          mapping = BeanMapping.of(beanClass, format);
+        }
+        
+        populateBeanFromRecord(bean, rec, format, setReadOnlyFields, Collections.<String> emptySet(), mapping);
+        
+        return bean;
+      }
+      catch (Exception ex)
+      {
+        throw new DataTableException("Error converting data record to the bean of type '" + beanClass.getName() + "': " + ex.getMessage(), ex);
+      }
+    }
+  }
+  
   public static Object[] toObjects(DataRecord rec)
   {
     if (rec == null || rec.getFieldCount() == 0)
@@ -0,0 +1,291 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.util.Element;
+
+/**
+ * Decoder of a table in the classic encoding that produces records one at a time.
+ * <p>
+ * Encoded data is read from a {@link Reader} element by element, so only the element being decoded resides in memory. Records are returned by
+ * {@link #next()} or passed to a consumer by {@link #decode(Consumer)} as soon as they are parsed. Format, ID and other attributes of the decoded table
+ * are applied to the table returned by {@link #getTable()}, which never receives records. Quality, timestamp and invalidation message follow the
+ * records in the encoding, so they are available once all records are decoded.
+ */
+public class DataTableDecoder
+{
+  private static final int READ_BUFFER_SIZE = 8192;
+  
+  private final AbstractDataTable table;
+  private final ClassicEncodingSettings settings;
+  private final boolean validate;
+  
+  private boolean formatFound;
+  private String encodedFormat;
+  private List<String> fieldNames;
+  
+  private final Reader reader;
+  private final char[] chars;
+  private int pos;
+  private int limit;
+  private long position;
+  
+  private final char elStart;
+  private final char elEnd;
+  private final char elNameValSep;
+  
+  private final StringBuilder element = new StringBuilder();
+  private int nameLength;
+  private int depth;
+  
+  private boolean finished;
+  
+  public DataTableDecoder(Reader reader, ClassicEncodingSettings settings, boolean validate)
+  {
+    this(new SimpleDataTable(), reader, settings, validate);
+    
+    if (settings != null && settings.getFormat() != null)
+    {
+      table.setFormat(settings.getFormat());
+    }
+  }
+  
+  /**
+   * Creates decoder that applies elements passed to {@link #decodeElement(Element)} to the table.
+   */
+  DataTableDecoder(AbstractDataTable table, ClassicEncodingSettings settings, boolean validate)
+  {
+    this(table, null, settings, validate);
+  }
+  
+  /**
+   * Creates decoder that reads elements from the reader and applies them to the table.
+   */
+  DataTableDecoder(AbstractDataTable table, Reader reader, ClassicEncodingSettings settings, boolean validate)
+  {
+    this.table = table;
+    this.reader = reader;
+    this.chars = reader != null ? new char[READ_BUFFER_SIZE] : null;
+    this.settings = settings;
+    this.validate = validate;
+    
+    boolean useVisibleSeparators = settings != null && settings.isUseVisibleSeparators();
+    
+    elStart = useVisibleSeparators ? DataTableUtils.ELEMENT_VISIBLE_START : DataTableUtils.ELEMENT_START;
+    elEnd = useVisibleSeparators ? DataTableUtils.ELEMENT_VISIBLE_END : DataTableUtils.ELEMENT_END;
+    elNameValSep = useVisibleSeparators ? DataTableUtils.ELEMENT_VISIBLE_NAME_VALUE_SEPARATOR : DataTableUtils.ELEMENT_NAME_VALUE_SEPARATOR;
+  }
+  
+  /**
+   * Returns table that holds format and attributes of the decoded table.
+   */
+  public DataTable getTable()
+  {
+    return table;
+  }
+  
+  /**
+   * Returns the next decoded record or null if there are no more records.
+   */
+  public DataRecord next() throws DataTableException
+  {
+    while (!finished)
+    {
+      Element el;
+      
+      try
+      {
+        el = nextElement();
+      }
+      catch (IOException ex)
+      {
+        throw new DataTableException(ex.getMessage(), ex);
+      }
+      
+      if (el == null)
+      {
+        finished = true;
+        break;
+      }
+      
+      DataRecord record = decodeElement(el);
+      
+      if (record != null)
+      {
+        return record;
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Passes all remaining records to the consumer.
+   */
+  public void decode(Consumer<DataRecord> consumer) throws DataTableException
+  {
+    DataRecord record;
+    
+    while ((record = next()) != null)
+    {
+      consumer.accept(record);
+    }
+  }
+  
+  /**
+   * Decodes an element of the encoded table. Returns decoded record for record elements, other elements are applied to the table and null is returned.
+   */
+  DataRecord decodeElement(Element el) throws DataTableException
+  {
+    String name = el.getName();
+    
+    if (name == null)
+    {
+      return null;
+    }
+    
+    if (name.equals(AbstractDataTable.ELEMENT_FORMAT_ID))
+    {
+      int formatId = Integer.valueOf(el.getValue());
+      
+      if (settings.getFormatCache() == null)
+      {
+        throw new IllegalStateException("Can't use format ID - format cache not found");
+      }
+      
+      if (encodedFormat != null) // If format was already found in the encoded data
+      {
+        TableFormat format = new TableFormat(encodedFormat, settings, validate);
+        settings.getFormatCache().put(formatId, format);
+        return null;
+      }
+      
+      TableFormat format = settings.getFormatCache().get(formatId);
+      
+      if (format == null)
+      {
+        throw new IllegalStateException("Format with specified ID not found in the cache: " + formatId);
+      }
+      
+      table.setFormat(format);
+      
+      formatFound = true;
+    }
+    else if (name.equals(AbstractDataTable.ELEMENT_FORMAT))
+    {
+      encodedFormat = el.getValue();
+      table.setFormat(new TableFormat(encodedFormat, settings, validate));
+      formatFound = true;
+    }
+    else if (name.equals(AbstractDataTable.ELEMENT_RECORD))
+    {
+      // Using table's format if encodedFormat is not NULL (i.e. was found in the encoded data)
+      TableFormat format = formatFound ? table.getFormat() : (settings != null ? settings.getFormat() : null);
+      
+      if (format == null)
+      {
+        throw new IllegalStateException("Table format is neither found in encoded table nor provided by decoding environment");
+      }
+      
+      return new DataRecord(format, el.getValue(), settings, validate, fieldNames);
+    }
+    else if (name.equals(AbstractDataTable.ELEMENT_FIELD_NAME))
+    {
+      if (fieldNames == null)
+      {
+        fieldNames = new ArrayList<>();
+      }
+      fieldNames.add(el.getValue());
+    }
+    else if (name.equals(AbstractDataTable.ELEMENT_ID))
+    {
+      table.id = Long.valueOf(el.getValue());
+    }
+    else
+    {
+      table.decodeAdvancedElement(el);
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Reads the next top-level element, splitting it like {@link com.tibbo.aggregate.common.util.StringUtils#elements(String, boolean)} does. Returns null
+   * at the end of data.
+   */
+  private Element nextElement() throws IOException
+  {
+    while (true)
+    {
+      if (pos == limit)
+      {
+        limit = reader.read(chars);
+        pos = 0;
+        
+        if (limit == -1)
+        {
+          limit = 0;
+          
+          if (depth >= 1)
+          {
+            throw new IllegalArgumentException("Missing closing element(s) at position " + position);
+          }
+          
+          return null;
+        }
+      }
+      
+      char c = chars[pos++];
+      position++;
+      
+      if (c == elStart)
+      {
+        depth++;
+        
+        if (depth == 1)
+        {
+          element.setLength(0);
+          nameLength = -1;
+          continue;
+        }
+      }
+      else if (c == elNameValSep)
+      {
+        if (depth == 1 && nameLength == -1)
+        {
+          nameLength = element.length();
+          continue;
+        }
+      }
+      else if (c == elEnd)
+      {
+        depth--;
+        
+        if (depth < 0)
+        {
+          throw new IllegalArgumentException("Invalid closing element at position " + (position - 1));
+        }
+        
+        if (depth == 0)
+        {
+          if (nameLength == -1)
+          {
+            return new Element(null, element.toString());
+          }
+          
+          return new Element(element.substring(0, nameLength), element.substring(nameLength));
+        }
+      }
+      
+      if (depth >= 1)
+      {
+        element.append(c);
+      }
+    }
+  }
+}
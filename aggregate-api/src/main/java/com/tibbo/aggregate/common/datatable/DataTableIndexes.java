@@ -0,0 +1,596 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes of a {@link SimpleDataTable}.
+ * <p>
+ * Each index maps values of its fields to ascending positions of records having these values. Hash index serves queries with equality conditions on
+ * all its fields, sorted index is built on a single field and also serves comparison conditions. Record IDs are indexed as well.
+ * <p>
+ * Indexes are updated incrementally when records are appended, replaced, removed from the end of the table or modified. Changes that shift positions
+ * of other records (insertion, removal from the middle, sorting, reordering) make indexes stale, they are rebuilt on next query. Methods are
+ * synchronized since immutable tables may be queried concurrently.
+ */
+class DataTableIndexes
+{
+  private final List<Index> indexes = new ArrayList<>();
+  
+  private final Map<DataRecord, Integer> positions = new IdentityHashMap<>();
+  private final Map<String, Positions> ids = new HashMap<>();
+  
+  private boolean stale = true;
+  
+  /**
+   * Adds an index unless an equal one exists.
+   */
+  synchronized void create(String[] fields, boolean sorted)
+  {
+    for (Index index : indexes)
+    {
+      if (index.sorted == sorted && Arrays.equals(index.fields, fields))
+      {
+        return;
+      }
+    }
+    
+    indexes.add(new Index(fields, sorted));
+    
+    invalidate();
+  }
+  
+  synchronized DataTableIndexes copy()
+  {
+    DataTableIndexes copy = new DataTableIndexes();
+    
+    for (Index index : indexes)
+    {
+      copy.indexes.add(new Index(index.fields, index.sorted));
+    }
+    
+    return copy;
+  }
+  
+  synchronized void invalidate()
+  {
+    if (!stale)
+    {
+      stale = true;
+      
+      positions.clear();
+      ids.clear();
+      
+      for (Index index : indexes)
+      {
+        index.clear();
+      }
+    }
+  }
+  
+  synchronized void recordAdded(DataRecord record, int position, boolean appended)
+  {
+    if (stale)
+    {
+      return;
+    }
+    
+    if (!appended)
+    {
+      invalidate();
+      return;
+    }
+    
+    add(record, position);
+  }
+  
+  synchronized void recordRemoved(DataRecord record, int position, boolean last)
+  {
+    if (stale)
+    {
+      return;
+    }
+    
+    if (!last)
+    {
+      invalidate();
+      return;
+    }
+    
+    remove(record, position);
+  }
+  
+  synchronized void recordReplaced(DataRecord oldRecord, DataRecord record, int position)
+  {
+    if (stale)
+    {
+      return;
+    }
+    
+    remove(oldRecord, position);
+    add(record, position);
+  }
+  
+  /**
+   * Removes the record from indexes covering the field before it is changed. Null field stands for the record ID. Returns position of the record that
+   * should be passed to {@link #recordChanged(DataRecord, String, int)} or -1 if the record is not indexed.
+   */
+  synchronized int recordChanging(DataRecord record, String field)
+  {
+    if (stale)
+    {
+      return -1;
+    }
+    
+    Integer position = positions.get(record);
+    
+    if (position == null)
+    {
+      return -1;
+    }
+    
+    if (field == null)
+    {
+      removeId(record, position);
+    }
+    
+    for (Index index : indexes)
+    {
+      if (index.covers(field))
+      {
+        index.remove(record, position);
+      }
+    }
+    
+    return position;
+  }
+  
+  synchronized void recordChanged(DataRecord record, String field, int position)
+  {
+    if (stale || position == -1)
+    {
+      return;
+    }
+    
+    if (field == null)
+    {
+      addId(record, position);
+    }
+    
+    for (Index index : indexes)
+    {
+      if (index.covers(field))
+      {
+        index.add(record, position);
+      }
+    }
+  }
+  
+  /**
+   * Returns position of the record with the ID or null if there is no such record.
+   */
+  synchronized Integer findRecordById(SimpleDataTable table, String id)
+  {
+    ensureBuilt(table);
+    
+    // First record with the ID is returned, like by the scan
+    Positions idPositions = ids.get(id);
+    
+    return idPositions != null ? idPositions.values[0] : null;
+  }
+  
+  /**
+   * Returns ascending positions of records that may meet the query or null if no index serves the query. Candidates must be checked against all
+   * conditions of the query.
+   */
+  synchronized int[] lookup(SimpleDataTable table, DataTableQuery query)
+  {
+    // Choice of the index depends on indexed values
+    ensureBuilt(table);
+    
+    Index best = null;
+    QueryCondition rangeCondition = null;
+    
+    for (Index index : indexes)
+    {
+      if (index.sorted)
+      {
+        if (best == null)
+        {
+          rangeCondition = index.findRangeCondition(query);
+          best = rangeCondition != null ? index : null;
+        }
+      }
+      else if (index.coversEqualities(query) && (best == null || best.sorted || best.fields.length < index.fields.length))
+      {
+        best = index;
+        rangeCondition = null;
+      }
+    }
+    
+    if (best == null)
+    {
+      return null;
+    }
+    
+    if (rangeCondition != null)
+    {
+      return best.comparable ? best.lookupRange(rangeCondition) : null;
+    }
+    
+    return best.lookupEqual(query);
+  }
+  
+  private void ensureBuilt(SimpleDataTable table)
+  {
+    if (!stale)
+    {
+      return;
+    }
+    
+    stale = false;
+    
+    for (int i = 0; i < table.getRecordCount(); i++)
+    {
+      add(table.peekRecord(i), i);
+    }
+  }
+  
+  private void add(DataRecord record, int position)
+  {
+    positions.put(record, position);
+    
+    addId(record, position);
+    
+    for (Index index : indexes)
+    {
+      index.add(record, position);
+    }
+  }
+  
+  private void remove(DataRecord record, int position)
+  {
+    positions.remove(record);
+    
+    removeId(record, position);
+    
+    for (Index index : indexes)
+    {
+      index.remove(record, position);
+    }
+  }
+  
+  private void addId(DataRecord record, int position)
+  {
+    if (record.getId() != null)
+    {
+      ids.computeIfAbsent(record.getId(), id -> new Positions()).add(position);
+    }
+  }
+  
+  private void removeId(DataRecord record, int position)
+  {
+    Positions idPositions = record.getId() != null ? ids.get(record.getId()) : null;
+    
+    if (idPositions != null && idPositions.remove(position) && idPositions.size == 0)
+    {
+      ids.remove(record.getId());
+    }
+  }
+  
+  private static Object getValue(DataRecord record, String field)
+  {
+    int index = record.getFormat().getFieldIndex(field);
+    
+    return index != -1 ? record.peekValue(index) : Index.MISSING;
+  }
+  
+  private static class Index
+  {
+    // Key of records that lack an indexed field and never meet a condition on it
+    private static final Object MISSING = new Object();
+    
+    private final String[] fields;
+    private final boolean sorted;
+    
+    private final Map<Object, Positions> entries;
+    
+    // Sorted index keeps records with null value apart
+    private final Positions nulls = new Positions();
+    
+    // Sorted index is not used if field values are not mutually comparable
+    private boolean comparable = true;
+    
+    private Index(String[] fields, boolean sorted)
+    {
+      this.fields = fields;
+      this.sorted = sorted;
+      this.entries = sorted ? new TreeMap<>() : new HashMap<>();
+    }
+    
+    private boolean covers(String field)
+    {
+      if (field == null)
+      {
+        return false;
+      }
+      
+      for (String f : fields)
+      {
+        if (f.equals(field))
+        {
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    private boolean coversEqualities(DataTableQuery query)
+    {
+      for (String field : fields)
+      {
+        if (findCondition(query, field, true) == null)
+        {
+          return false;
+        }
+      }
+      
+      return true;
+    }
+    
+    private QueryCondition findRangeCondition(DataTableQuery query)
+    {
+      QueryCondition condition = findCondition(query, fields[0], false);
+      
+      if (condition == null || (condition.getValue() == null && condition.getOperator() != QueryCondition.EQ))
+      {
+        return null;
+      }
+      
+      // Comparing null values fails, such queries are left to the scan
+      return condition.getOperator() == QueryCondition.EQ || nulls.size == 0 ? condition : null;
+    }
+    
+    private static QueryCondition findCondition(DataTableQuery query, String field, boolean equality)
+    {
+      for (QueryCondition condition : query.getConditions())
+      {
+        if (condition.getField().equals(field) && (condition.getOperator() == QueryCondition.EQ || (!equality && condition.getOperator() != QueryCondition.NE)))
+        {
+          return condition;
+        }
+      }
+      
+      return null;
+    }
+    
+    private Object key(DataRecord record)
+    {
+      if (fields.length == 1)
+      {
+        return getValue(record, fields[0]);
+      }
+      
+      Object[] values = new Object[fields.length];
+      
+      for (int i = 0; i < fields.length; i++)
+      {
+        values[i] = getValue(record, fields[i]);
+        
+        if (values[i] == MISSING)
+        {
+          return MISSING;
+        }
+      }
+      
+      return Arrays.asList(values);
+    }
+    
+    private void add(DataRecord record, int position)
+    {
+      Object key = key(record);
+      
+      if (key == MISSING)
+      {
+        return;
+      }
+      
+      if (sorted && key == null)
+      {
+        nulls.add(position);
+        return;
+      }
+      
+      if (!comparable)
+      {
+        return;
+      }
+      
+      try
+      {
+        entries.computeIfAbsent(key, k -> new Positions()).add(position);
+      }
+      catch (ClassCastException ex)
+      {
+        comparable = false;
+        entries.clear();
+      }
+    }
+    
+    private void remove(DataRecord record, int position)
+    {
+      Object key = key(record);
+      
+      if (key == MISSING)
+      {
+        return;
+      }
+      
+      if (sorted && key == null)
+      {
+        nulls.remove(position);
+        return;
+      }
+      
+      if (!comparable)
+      {
+        return;
+      }
+      
+      Positions keyPositions = entries.get(key);
+      
+      if (keyPositions != null && keyPositions.remove(position) && keyPositions.size == 0)
+      {
+        entries.remove(key);
+      }
+    }
+    
+    private void clear()
+    {
+      entries.clear();
+      nulls.clear();
+      comparable = true;
+    }
+    
+    private int[] lookupEqual(DataTableQuery query)
+    {
+      Object key;
+      
+      if (fields.length == 1)
+      {
+        key = findCondition(query, fields[0], true).getValue();
+      }
+      else
+      {
+        Object[] values = new Object[fields.length];
+        
+        for (int i = 0; i < fields.length; i++)
+        {
+          values[i] = findCondition(query, fields[i], true).getValue();
+        }
+        
+        key = Arrays.asList(values);
+      }
+      
+      Positions keyPositions = entries.get(key);
+      
+      return keyPositions != null ? keyPositions.toArray() : new int[0];
+    }
+    
+    private int[] lookupRange(QueryCondition condition)
+    {
+      Object value = condition.getValue();
+      int operator = condition.getOperator();
+      
+      NavigableMap<Object, Positions> map = (NavigableMap<Object, Positions>) entries;
+      
+      try
+      {
+        if (operator == QueryCondition.EQ)
+        {
+          Positions keyPositions = value != null ? map.get(value) : nulls;
+          
+          return keyPositions != null ? keyPositions.toArray() : new int[0];
+        }
+        
+        boolean inclusive = (operator & QueryCondition.EQ) > 0;
+        
+        Collection<Positions> matching = (operator & QueryCondition.GT) > 0 ? map.tailMap(value, inclusive).values() : map.headMap(value, inclusive).values();
+        
+        return merge(matching);
+      }
+      catch (ClassCastException ex)
+      {
+        // Value is not comparable with indexed values, scan reports the error or finds no records
+        return null;
+      }
+    }
+    
+    private static int[] merge(Collection<Positions> matching)
+    {
+      int count = 0;
+      
+      for (Positions p : matching)
+      {
+        count += p.size;
+      }
+      
+      int[] result = new int[count];
+      int offset = 0;
+      
+      for (Positions p : matching)
+      {
+        System.arraycopy(p.values, 0, result, offset, p.size);
+        offset += p.size;
+      }
+      
+      Arrays.sort(result);
+      
+      return result;
+    }
+  }
+  
+  /**
+   * Ascending list of record positions.
+   */
+  private static class Positions
+  {
+    private int[] values = new int[1];
+    private int size;
+    
+    private void add(int position)
+    {
+      if (size == values.length)
+      {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      
+      // Records are usually appended, so the position is usually the greatest one
+      int index = size == 0 || values[size - 1] < position ? size : -Arrays.binarySearch(values, 0, size, position) - 1;
+      
+      if (index < 0)
+      {
+        // Position is already present
+        return;
+      }
+      
+      System.arraycopy(values, index, values, index + 1, size - index);
+      values[index] = position;
+      size++;
+    }
+    
+    private boolean remove(int position)
+    {
+      int index = Arrays.binarySearch(values, 0, size, position);
+      
+      if (index < 0)
+      {
+        return false;
+      }
+      
+      System.arraycopy(values, index + 1, values, index, size - index - 1);
+      size--;
+      
+      return true;
+    }
+    
+    private void clear()
+    {
+      values = new int[1];
+      size = 0;
+    }
+    
+    private int[] toArray()
+    {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.tibbo.aggregate.common.datatable;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -35,4 +36,55 @@ public class DataTableSorter implements Iterable<SortOrder>
     return orders.iterator();
   }
   
+  /**
+   * Returns comparator of records having the specified format. Sort fields are resolved once, so records are compared without field name lookups.
+   */
+  Comparator<DataRecord> comparator(TableFormat format)
+  {
+    final SortOrder[] sortOrders = orders.toArray(new SortOrder[orders.size()]);
+    final FieldAccessor[] accessors = new FieldAccessor[sortOrders.length];
+    
+    for (int i = 0; i < sortOrders.length; i++)
+    {
+      accessors[i] = format != null && format.hasField(sortOrders[i].getField()) ? format.getAccessor(sortOrders[i].getField()) : null;
+    }
+    
+    return new Comparator<DataRecord>()
+    {
+      @Override
+      public int compare(DataRecord r1, DataRecord r2)
+      {
+        for (int i = 0; i < sortOrders.length; i++)
+        {
+          SortOrder order = sortOrders[i];
+          FieldAccessor accessor = accessors[i];
+          
+          Object v1 = accessor != null ? accessor.get(r1) : r1.getValue(order.getField());
+          Object v2 = accessor != null ? accessor.get(r2) : r2.getValue(order.getField());
+          
+          if (v1 == null && v2 != null)
+          {
+            return order.isAscending() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+          }
+          
+          if (v2 == null && v1 != null)
+          {
+            return order.isAscending() ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+          }
+          
+          if (v1 instanceof Comparable && v2 instanceof Comparable)
+          {
+            int res = ((Comparable) v1).compareTo(v2);
+            if (res != 0)
+            {
+              return order.isAscending() ? res : -res;
+            }
+          }
+        }
+        
+        return 0;
+      }
+    };
+  }
+  
 }
@@ -0,0 +1,150 @@
+package com.tibbo.aggregate.common.datatable;
+
+import java.awt.*;
+import java.util.*;
+
+import com.tibbo.aggregate.common.data.*;
+
+/**
+ * <code>FieldAccessor</code> is a handle for reading and writing a single field of records, resolved once from a <code>TableFormat</code>.
+ * <p>
+ * Records having the same format instance the accessor was obtained from are accessed by field index without name lookups. Records having another
+ * format are accessed by field name. Accessors are immutable and may be shared between threads.
+ * <p>
+ * Typical usage:
+ *
+ * <pre>
+ * FieldAccessor value = table.getFormat().getAccessor(&quot;value&quot;);
+ * for (DataRecord rec : table)
+ * {
+ *   sum += value.getDouble(rec);
+ * }
+ * </pre>
+ */
+public final class FieldAccessor
+{
+  private final TableFormat format;
+  private final FieldFormat field;
+  private final String name;
+  private final int index;
+  
+  FieldAccessor(TableFormat format, int index)
+  {
+    this.format = format;
+    this.field = format.getField(index);
+    this.name = field.getName();
+    this.index = index;
+  }
+  
+  /**
+   * Returns format the accessor was obtained from.
+   */
+  public TableFormat getTableFormat()
+  {
+    return format;
+  }
+  
+  /**
+   * Returns format of the accessed field.
+   */
+  public FieldFormat getField()
+  {
+    return field;
+  }
+  
+  /**
+   * Returns name of the accessed field.
+   */
+  public String getName()
+  {
+    return name;
+  }
+  
+  /**
+   * Returns index of the accessed field in the format the accessor was obtained from.
+   */
+  public int getIndex()
+  {
+    return index;
+  }
+  
+  /**
+   * Returns field value of the record.
+   */
+  public Object get(DataRecord rec)
+  {
+    return rec.getFormat() == format ? rec.getValue(index) : rec.getValue(name);
+  }
+  
+  /**
+   * Sets field value of the record.
+   */
+  public DataRecord set(DataRecord rec, Object value)
+  {
+    return set(rec, value, true);
+  }
+  
+  /**
+   * Sets field value of the record.
+   */
+  public DataRecord set(DataRecord rec, Object value, boolean validate)
+  {
+    return rec.getFormat() == format ? rec.setValue(index, value, validate) : rec.setValue(name, value, validate);
+  }
+  
+  public String getString(DataRecord rec)
+  {
+    return (String) get(rec);
+  }
+  
+  public Integer getInt(DataRecord rec)
+  {
+    return (Integer) get(rec);
+  }
+  
+  public Boolean getBoolean(DataRecord rec)
+  {
+    return (Boolean) get(rec);
+  }
+  
+  public Long getLong(DataRecord rec)
+  {
+    return (Long) get(rec);
+  }
+  
+  public Float getFloat(DataRecord rec)
+  {
+    return (Float) get(rec);
+  }
+  
+  public Double getDouble(DataRecord rec)
+  {
+    return (Double) get(rec);
+  }
+  
+  public Date getDate(DataRecord rec)
+  {
+    return (Date) get(rec);
+  }
+  
+  public DataTable getDataTable(DataRecord rec)
+  {
+    return (DataTable) get(rec);
+  }
+  
+  public Color getColor(DataRecord rec)
+  {
+    return (Color) get(rec);
+  }
+  
+  public Data getData(DataRecord rec)
+  {
+    return (Data) get(rec);
+  }
+  
+  @Override
+  public String toString()
+  {
+    return name + "#" + index;
+  }
+}
@@ -1,11 +1,14 @@
 package com.tibbo.aggregate.common.datatable;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
+import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.expression.BatchFilter;
 import com.tibbo.aggregate.common.expression.DefaultReferenceResolver;
 import com.tibbo.aggregate.common.expression.EvaluationEnvironment;
 import com.tibbo.aggregate.common.expression.Evaluator;
@@ -16,10 +19,13 @@ import com.tibbo.aggregate.common.util.Util;
 
 public class FilteringDataTable extends AbstractUnmodifiableDataTable
 {
+  private static final int BATCH_SIZE = 1024;
+  
   private final DataTable source;
   private final Expression filterExpression;
   private final Evaluator localEvaluator;
   private final EvaluationEnvironment localEnvironment;
+  private final BatchFilter batchFilter;
 
   private final IndexTableCache<Integer> indexTableCache;
   
@@ -55,6 +61,30 @@ public class FilteringDataTable extends AbstractUnmodifiableDataTable
     indexTableCache = new IndexTableCache<>(this);
 
     localEnvironment = environment != null ? environment.clone() : null;
+    
+    batchFilter = createBatchFilter();
+  }
+  
+  /**
+   * Batch evaluation is used only for sources providing random access to their records.
+   */
+  private BatchFilter createBatchFilter()
+  {
+    if (!(source instanceof SimpleDataTable) && !(source instanceof ColumnarDataTable))
+    {
+      return null;
+    }
+    
+    try
+    {
+      return BatchFilter.compile(filterExpression, localEvaluator, localEnvironment, source);
+    }
+    catch (Exception ex)
+    {
+      // Error will be reported by row-by-row evaluation
+      Log.DATATABLE.debug("Filter expression cannot be evaluated in batches: " + filterExpression, ex);
+      return null;
+    }
   }
   
   public FilteringDataTable(DataTable source, Expression filterExpression)
@@ -209,6 +239,30 @@ public class FilteringDataTable extends AbstractUnmodifiableDataTable
     }
   }
   
+  /**
+   * Evaluates the filter for a batch of source records starting from the specified one. Returns null if the batch should be evaluated record by record.
+   */
+  private BitSet selectBatch(int from)
+  {
+    if (batchFilter == null)
+    {
+      return null;
+    }
+    
+    int to = Math.min(from + BATCH_SIZE, source.getRecordCount());
+    
+    try
+    {
+      return batchFilter.select(localEvaluator, localEnvironment, source, from, to);
+    }
+    catch (Exception ex)
+    {
+      // Records are evaluated one by one to report the error for the record that caused it. Parts of the filter already evaluated for other records of
+      // the batch are evaluated for them again, so functions having side effects are called twice for such records.
+      return null;
+    }
+  }
+  
   private final class Iter implements Iterator<DataRecord>
   {
     private final List<Integer> indexes = indexTableCache.getIndexTable();
@@ -217,6 +271,9 @@ public class FilteringDataTable extends AbstractUnmodifiableDataTable
     private DataRecord nextRecord;
     private boolean isNextRecordSet;
     private int cursor;
+    private BitSet selection;
+    private int selectionStart;
+    private int selectionEnd;
     
     Iter()
     {
@@ -276,7 +333,7 @@ public class FilteringDataTable extends AbstractUnmodifiableDataTable
       while (recsIter.hasNext())
       {
         final DataRecord nextRecordInSource = recsIter.next();
-        if (passing(nextIndexInSource))
+        if (passingInBatch(nextIndexInSource))
         {
           nextRecord = nextRecordInSource;
           isNextRecordSet = true;
@@ -291,5 +348,17 @@ public class FilteringDataTable extends AbstractUnmodifiableDataTable
       }
       return false;
     }
+    
+    private boolean passingInBatch(int recordIndex)
+    {
+      if (recordIndex < selectionStart || recordIndex >= selectionEnd)
+      {
+        selection = selectBatch(recordIndex);
+        selectionStart = recordIndex;
+        selectionEnd = recordIndex + BATCH_SIZE;
+      }
+      
+      return selection != null ? selection.get(recordIndex - selectionStart) : passing(recordIndex);
+    }
   }
 }
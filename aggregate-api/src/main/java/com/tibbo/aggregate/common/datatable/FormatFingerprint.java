@@ -0,0 +1,87 @@
+package com.tibbo.aggregate.common.datatable;
+
+/**
+ * 128-bit structural fingerprint of a {@link TableFormat}, see {@link TableFormat#getFingerprint()}. Equal formats have equal fingerprints, while
+ * different formats have equal fingerprints with negligible probability.
+ */
+public final class FormatFingerprint
+{
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+  
+  private final long high;
+  private final long low;
+  
+  private FormatFingerprint(long high, long low)
+  {
+    this.high = high;
+    this.low = low;
+  }
+  
+  /**
+   * Computes fingerprint of the format encoding. Two independent 64-bit hashes are mixed into the halves of the fingerprint.
+   */
+  static FormatFingerprint of(CharSequence encoding)
+  {
+    long h1 = FNV_OFFSET;
+    long h2 = 0;
+    
+    int length = encoding.length();
+    
+    for (int i = 0; i < length; i++)
+    {
+      char c = encoding.charAt(i);
+      
+      h1 = (h1 ^ c) * FNV_PRIME;
+      h2 = Long.rotateLeft(h2 ^ (c * C1), 31) * C2;
+    }
+    
+    h1 ^= length;
+    h2 ^= length;
+    
+    h1 += h2;
+    h2 += h1;
+    
+    return new FormatFingerprint(mix(h1), mix(h2));
+  }
+  
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+  
+  @Override
+  public int hashCode()
+  {
+    return (int) (low ^ (low >>> 32));
+  }
+  
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+    if (!(obj instanceof FormatFingerprint))
+    {
+      return false;
+    }
+    FormatFingerprint other = (FormatFingerprint) obj;
+    return high == other.high && low == other.low;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return String.format("%016x%016x", high, low);
+  }
+}
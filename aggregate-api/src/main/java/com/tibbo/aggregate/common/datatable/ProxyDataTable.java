@@ -192,17 +192,7 @@ public class ProxyDataTable extends AbstractUnmodifiableDataTable
     int index = 0;
     for (DataRecord record : this)
     {
-      boolean meet = true;
-      
-      for (QueryCondition cond : query.getConditions())
-      {
-        if (!record.meetToCondition(cond))
-        {
-          meet = false;
-        }
-      }
-      
-      if (meet)
+      if (meetsQuery(record, query))
       {
         return index;
       }
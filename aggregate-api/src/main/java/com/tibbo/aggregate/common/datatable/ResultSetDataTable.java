@@ -577,14 +577,7 @@ public class ResultSetDataTable extends AbstractBigDataTable
       int index = 0;
       for (DataRecord record : this)
       {
-        boolean meet = true;
-        
-        for (QueryCondition cond : query.getConditions())
-        {
-          if (!record.meetToCondition(cond))
-            meet = false;
-        }
-        if (meet)
+        if (meetsQuery(record, query))
         {
           resultSet.absolute(initialPosition);
           return index;
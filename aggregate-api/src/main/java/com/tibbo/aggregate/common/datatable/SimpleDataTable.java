@@ -1,6 +1,10 @@
 package com.tibbo.aggregate.common.datatable;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -8,12 +12,14 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
-import com.tibbo.aggregate.common.util.CloneUtils;
+import com.tibbo.aggregate.common.datatable.encoding.EncodingStream;
 import com.tibbo.aggregate.common.util.Element;
 import com.tibbo.aggregate.common.util.ElementList;
 import com.tibbo.aggregate.common.util.StringUtils;
@@ -28,7 +34,16 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
 {
   public static final DataTable EMPTY_TABLE = new SimpleDataTable(TableFormat.EMPTY_FORMAT).makeImmutable();
 
-  private List<DataRecord> records = new ArrayList<>();
+  // Null while the table reads records shared by the table it was cloned from
+  private volatile List<DataRecord> records = new ArrayList<>();
+  
+  // Records shared with clones of the table or with the table it was cloned from
+  private transient volatile SharedRecords shared;
+  
+  // Number of records that belong to other tables and are copied when accessed
+  private transient volatile int borrowed;
+  
+  private transient DataTableIndexes indexes;
   
   /**
    * Constructs a default <code>DataTable</code> with empty <code>TableFormat</code> and zero records.
@@ -145,7 +160,15 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   
   public SimpleDataTable(String data, ClassicEncodingSettings settings, boolean validate) throws DataTableException
   {
-    this((data != null ? StringUtils.elements(data, settings != null && settings.isUseVisibleSeparators()) : null), settings, validate);
+    if (DataTableBinaryCodec.isBinary(data, settings))
+    {
+      DataTableBinaryCodec.decode(this, ByteBuffer.wrap(data.getBytes(StandardCharsets.ISO_8859_1)), settings, validate, this::addRecord);
+    }
+    else if (data != null)
+    {
+      // Records are decoded one by one without splitting the whole string into elements first
+      new DataTableDecoder(this, new StringReader(data), settings, validate).decode(this::addRecord);
+    }
   }
   
   public SimpleDataTable(ElementList elements, ClassicEncodingSettings settings, boolean validate) throws DataTableException
@@ -159,7 +182,7 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public Integer getRecordCount()
   {
-    return records.size();
+    return readRecords().size();
   }
   
   private void checkOrSetFormat(DataRecord record)
@@ -263,6 +286,8 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
       throw new IllegalStateException(ex.getMessage(), ex);
     }
     
+    unshare();
+    
     if (index != null)
     {
       records.add(index, record);
@@ -273,6 +298,12 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     }
     
     record.setTable(this);
+    
+    if (indexes != null)
+    {
+      int position = index != null ? index : records.size() - 1;
+      indexes.recordAdded(record, position, position == records.size() - 1);
+    }
   }
   
   /**
@@ -284,9 +315,17 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     ensureMutable();
     
     checkOrSetFormat(record);
-    records.get(index).setTable(null);
+    unshare();
+    DataRecord oldRecord = records.get(index);
+    release(oldRecord);
     records.set(index, record);
     record.setTable(this);
+    
+    if (indexes != null)
+    {
+      indexes.recordReplaced(oldRecord, record, index);
+    }
+    
     return this;
   }
   
@@ -300,11 +339,15 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   {
     ensureMutable();
     
+    unshare();
+    
     DataRecord r1 = records.get(index1);
     DataRecord r2 = records.get(index2);
     
     records.set(index1, r2);
     records.set(index2, r1);
+    
+    invalidateIndexes();
   }
   
   /**
@@ -313,7 +356,7 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public List<DataRecord> getRecords()
   {
-    return Collections.unmodifiableList(records);
+    return new RecordList();
   }
   
   /**
@@ -322,7 +365,22 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public DataRecord getRecord(int number)
   {
-    return records.get(number);
+    List<DataRecord> list = records;
+    
+    if (list != null && borrowed == 0)
+    {
+      return list.get(number);
+    }
+    
+    return adoptRecord(number);
+  }
+  
+  /**
+   * Returns record for reading only. Unlike {@link #getRecord(int)}, the record may belong to the table this table was cloned from.
+   */
+  DataRecord peekRecord(int number)
+  {
+    return readRecords().get(number);
   }
   
   @Override
@@ -335,14 +393,27 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
       throw new IllegalStateException("Cannot remove record: minimum number of records is reached: " + format.getMinRecords());
     }
     
-    return records.remove(index);
+    // Removed record is returned to the caller, so it must belong to the table
+    adoptRecord(index);
+    
+    DataRecord removed = records.remove(index);
+    
+    if (indexes != null)
+    {
+      indexes.recordRemoved(removed, index, index == records.size());
+    }
+    
+    return removed;
   }
   
   @Override
   public void removeRecordsByIds(Collection<String> ids)
   {
     ensureMutable();
+    unshare();
     records = records.stream().filter(it -> !ids.contains(it.getId())).collect(Collectors.toList());
+    countBorrowed();
+    invalidateIndexes();
   }
   
   /**
@@ -351,9 +422,9 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public void removeRecords(DataRecord rec)
   {
-    for (int i = records.size() - 1; i >= 0; i--)
+    for (int i = getRecordCount() - 1; i >= 0; i--)
     {
-      if (Util.equals(rec, records.get(i)))
+      if (Util.equals(rec, peekRecord(i)))
       {
         removeRecordImpl(i);
       }
@@ -370,6 +441,8 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   {
     ensureMutable();
     
+    unshare();
+    
     int oi = records.indexOf(record);
     
     if (oi == -1)
@@ -381,6 +454,8 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     {
       records.add(index - (oi < index ? 1 : 0), record);
     }
+    
+    invalidateIndexes();
   }
   
   @Override
@@ -415,7 +490,7 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     
     for (int i = 0; i < getRecordCount(); i++)
     {
-      if (!getRecord(i).equals(other.getRecord(i)))
+      if (!peekRecord(i).equals(other.peekRecord(i)))
       {
         return false;
       }
@@ -430,7 +505,7 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     final int prime = 31;
     int result = 1;
     result = prime * result + ((format == null) ? 0 : format.hashCode());
-    result = prime * result + ((records == null) ? 0 : records.hashCode());
+    result = prime * result + readRecords().hashCode();
     result = prime * result + ((quality == null) ? 0 : quality.hashCode());
     return result;
   }
@@ -438,9 +513,16 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   void getEncodedRecordsOrTableID(StringBuilder finalSB, ClassicEncodingSettings settings, Boolean isTransferEncode, Integer encodeLevel)
   {
+    EncodingStream stream = settings != null ? settings.getEncodingStream() : null;
+    
     for (int i = 0; i < getRecordCount(); i++)
     {
-      new Element(ELEMENT_RECORD, getRecord(i)).encode(finalSB, settings, isTransferEncode, encodeLevel);
+      new Element(ELEMENT_RECORD, peekRecord(i)).encode(finalSB, settings, isTransferEncode, encodeLevel);
+      
+      if (stream != null)
+      {
+        stream.flushIfFull(finalSB);
+      }
     }
   }
   
@@ -477,7 +559,7 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
         res.append(recordSeparator);
       }
       
-      DataRecord rec = getRecord(i);
+      DataRecord rec = peekRecord(i);
       
       res.append(rec.dataAsString(showFieldNames, showHiddenFields, showPasswords));
     }
@@ -513,21 +595,26 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public Integer findIndex(DataTableQuery query)
   {
-    for (int i = 0; i < this.getRecordCount(); i++)
+    List<DataRecord> records = readRecords();
+    
+    int[] candidates = indexes != null ? indexes.lookup(this, query) : null;
+    
+    if (candidates != null)
     {
-      boolean meet = true;
-      
-      DataRecord rec = this.getRecord(i);
-      
-      for (QueryCondition cond : query.getConditions())
+      for (int position : candidates)
       {
-        if (!rec.meetToCondition(cond))
+        if (meetsQuery(records.get(position), query))
         {
-          meet = false;
+          return position;
         }
       }
       
-      if (meet)
+      return null;
+    }
+    
+    for (int i = 0; i < records.size(); i++)
+    {
+      if (meetsQuery(records.get(i), query))
       {
         return i;
       }
@@ -537,43 +624,156 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   }
   
   @Override
-  public void sort(final DataTableSorter sorter)
+  public List<DataRecord> selectAll(DataTableQuery query)
   {
-    ensureMutable();
+    List<DataRecord> records = readRecords();
     
-    Collections.sort(records, new Comparator<DataRecord>()
+    int[] candidates = indexes != null ? indexes.lookup(this, query) : null;
+    
+    if (candidates == null)
+    {
+      return super.selectAll(query);
+    }
+    
+    List<DataRecord> result = new ArrayList<>();
+    
+    for (int position : candidates)
     {
-      @Override
-      public int compare(DataRecord r1, DataRecord r2)
+      if (meetsQuery(records.get(position), query))
       {
-        for (SortOrder order : sorter)
-        {
-          Object v1 = r1.getValue(order.getField());
-          Object v2 = r2.getValue(order.getField());
-          
-          if (v1 == null && v2 != null)
-          {
-            return order.isAscending() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
-          }
-          
-          if (v2 == null && v1 != null)
-          {
-            return order.isAscending() ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-          }
-          
-          if (v1 instanceof Comparable && v2 instanceof Comparable)
-          {
-            int res = ((Comparable) v1).compareTo(v2);
-            if (res != 0)
-            {
-              return order.isAscending() ? res : -res;
-            }
-          }
-        }
-        
-        return 0;
+        result.add(getRecord(position));
       }
-    });
+    }
+    
+    return result;
+  }
+  
+  @Override
+  public DataRecord select(DataTableQuery query)
+  {
+    Integer index = findIndex(query);
+    
+    return index != null ? getRecord(index) : null;
+  }
+  
+  @Override
+  public DataRecord getRecordById(String id)
+  {
+    if (id == null || indexes == null)
+    {
+      return super.getRecordById(id);
+    }
+    
+    readRecords();
+    
+    Integer position = indexes.findRecordById(this, id);
+    
+    return position != null ? getRecord(position) : null;
+  }
+  
+  /**
+   * Creates hash index on the fields, see {@link DataTableIndexes}.
+   */
+  @Override
+  public void createIndex(String... fields)
+  {
+    if (fields.length == 0)
+    {
+      throw new IllegalArgumentException("No fields to index");
+    }
+    
+    for (String field : fields)
+    {
+      checkIndexedField(field);
+    }
+    
+    getIndexes().create(fields.clone(), false);
+  }
+  
+  /**
+   * Creates sorted index on the field, see {@link DataTableIndexes}.
+   */
+  @Override
+  public void createSortedIndex(String field)
+  {
+    checkIndexedField(field);
+    
+    getIndexes().create(new String[] { field }, true);
+  }
+  
+  @Override
+  public void dropIndexes()
+  {
+    indexes = null;
+  }
+  
+  private DataTableIndexes getIndexes()
+  {
+    if (indexes == null)
+    {
+      indexes = new DataTableIndexes();
+    }
+    
+    return indexes;
+  }
+  
+  private void checkIndexedField(String field)
+  {
+    FieldFormat ff = format.getField(field);
+    
+    if (ff == null)
+    {
+      throw new IllegalArgumentException("Field not found: " + field);
+    }
+    
+    // Nested tables may be modified without notifying the table
+    if (ff.getType() == FieldFormat.DATATABLE_FIELD)
+    {
+      throw new IllegalArgumentException("Cannot index field of type " + FieldFormat.DATATABLE_FIELD + ": " + field);
+    }
+  }
+  
+  private void invalidateIndexes()
+  {
+    if (indexes != null)
+    {
+      indexes.invalidate();
+    }
+  }
+  
+  int recordChanging(DataRecord record, String field)
+  {
+    return indexes != null ? indexes.recordChanging(record, field) : -1;
+  }
+  
+  void recordChanged(DataRecord record, String field, int position)
+  {
+    if (indexes != null)
+    {
+      indexes.recordChanged(record, field, position);
+    }
+  }
+  
+  @Override
+  public DataTable setFormat(TableFormat format)
+  {
+    super.setFormat(format);
+    
+    invalidateIndexes();
+    
+    return this;
+  }
+  
+  @Override
+  public void sort(final DataTableSorter sorter)
+  {
+    ensureMutable();
+    
+    unshare();
+    
+    Collections.sort(records, sorter.comparator(getFormat()));
+    
+    invalidateIndexes();
   }
   
   @Override
@@ -581,7 +781,11 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   {
     ensureMutable();
     
+    unshare();
+    
     Collections.sort(records, comparator);
+    
+    invalidateIndexes();
   }
   
   @Override
@@ -594,18 +798,22 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public void splitFormat()
   {
-    for (DataRecord rec : records)
+    unshare();
+    
+    for (int i = 0; i < records.size(); i++)
     {
-      rec.cloneFormatFromTable();
+      getRecord(i).cloneFormatFromTable();
     }
   }
   
   @Override
   public void joinFormats()
   {
-    for (DataRecord rec : records)
+    unshare();
+    
+    for (int i = 0; i < records.size(); i++)
     {
-      rec.setFormat(this.getFormat());
+      getRecord(i).setFormat(this.getFormat());
     }
   }
   
@@ -626,20 +834,200 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   {
     SimpleDataTable cl = (SimpleDataTable) super.clone();
     
-    cl.records = (List) CloneUtils.deepClone(records);
-    
-    for (DataRecord rec : cl.records)
-    {
-      rec.setTable(cl);
-    }
+    // Clone reads records of this table until it accesses them, see SharedRecords
+    cl.shared = share();
+    cl.records = null;
+    cl.borrowed = 0;
     
     cl.namingEvaluator = null;
     
+    cl.indexes = indexes != null ? indexes.copy() : null;
+    
     cl.immutable = false;
     
     return cl;
   }
   
+  /**
+   * Called before a record of the table is modified or returns a mutable value. Clones sharing records of the table get copies of them first.
+   */
+  void recordModifying()
+  {
+    if (shared != null && !immutable)
+    {
+      unshare();
+    }
+  }
+  
+  /**
+   * Returns records for reading. A table reading records of the table it was cloned from takes its own list first.
+   */
+  private List<DataRecord> readRecords()
+  {
+    List<DataRecord> list = records;
+    
+    if (list == null)
+    {
+      unshare();
+      list = records;
+    }
+    
+    return list;
+  }
+  
+  /**
+   * Starts sharing records of the table with a new clone.
+   */
+  private synchronized SharedRecords share()
+  {
+    SharedRecords current = shared;
+    
+    if (current == null)
+    {
+      // Records of immutable tables are never modified, so clones need no copies of them
+      current = new SharedRecords(records, immutable ? null : this);
+      shared = current;
+    }
+    
+    synchronized (current)
+    {
+      current.tables++;
+    }
+    
+    return current;
+  }
+  
+  /**
+   * Stops sharing records, so that the table may modify its list and records. A table that owns the shared records leaves copies of them to other
+   * tables. A table that reads shared records copies the list, taking copies of the records that their owner may modify. Other records are borrowed
+   * and copied when accessed.
+   */
+  private synchronized void unshare()
+  {
+    SharedRecords current = shared;
+    
+    if (current == null)
+    {
+      return;
+    }
+    
+    synchronized (current)
+    {
+      List<DataRecord> list = current.records;
+      
+      if (records == null)
+      {
+        List<DataRecord> own = current.tables > 1 ? new ArrayList<>(list) : list;
+        
+        int count = 0;
+        
+        for (int i = 0; i < own.size(); i++)
+        {
+          DataRecord record = own.get(i);
+          
+          if (current.owner != null && record.getTable() == current.owner)
+          {
+            own.set(i, copyRecord(record, this));
+          }
+          else
+          {
+            count++;
+          }
+        }
+        
+        borrowed = count;
+        records = own;
+      }
+      else if (current.owner == this)
+      {
+        if (current.tables > 1)
+        {
+          List<DataRecord> copies = new ArrayList<>(list.size());
+          
+          for (DataRecord record : list)
+          {
+            copies.add(record.getTable() == this ? copyRecord(record, null) : record);
+          }
+          
+          current.records = copies;
+        }
+        
+        current.owner = null;
+      }
+      
+      current.tables--;
+    }
+    
+    shared = null;
+  }
+  
+  /**
+   * Replaces the borrowed record at the specified index with a copy that belongs to the table.
+   */
+  private synchronized DataRecord adoptRecord(int index)
+  {
+    unshare();
+    
+    DataRecord record = records.get(index);
+    
+    if (borrowed == 0 || record.getTable() == this)
+    {
+      return record;
+    }
+    
+    DataRecord copy = copyRecord(record, this);
+    
+    records.set(index, copy);
+    
+    borrowed--;
+    
+    if (indexes != null)
+    {
+      indexes.recordReplaced(record, copy, index);
+    }
+    
+    return copy;
+  }
+  
+  private static DataRecord copyRecord(DataRecord record, SimpleDataTable table)
+  {
+    DataRecord copy = record.clone();
+    copy.setTable(table);
+    return copy;
+  }
+  
+  private void release(DataRecord record)
+  {
+    if (record.getTable() == this)
+    {
+      record.setTable(null);
+    }
+    else if (borrowed > 0)
+    {
+      borrowed--;
+    }
+  }
+  
+  private void countBorrowed()
+  {
+    if (borrowed == 0)
+    {
+      return;
+    }
+    
+    int count = 0;
+    
+    for (DataRecord record : records)
+    {
+      if (record.getTable() != this)
+      {
+        count++;
+      }
+    }
+    
+    borrowed = count;
+  }
+  
   @Override
   public int compareTo(DataTable other)
   {
@@ -654,6 +1042,14 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
       return this;
     }
     
+    // Records become immutable with the table, so all of them must belong to it
+    unshare();
+    
+    for (int i = 0; borrowed > 0 && i < records.size(); i++)
+    {
+      adoptRecord(i);
+    }
+    
     immutable = true;
     
     format.makeImmutable(this);
@@ -701,22 +1097,22 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
   @Override
   public Stream<DataRecord> stream()
   {
-    return records.stream();
+    return getRecords().stream();
   }
   
   private class Iter implements Iterator<DataRecord>
   {
-    private final Iterator<DataRecord> recsIter;
+    private final ListIterator<DataRecord> recsIter;
     private DataRecord rec;
     
     Iter()
     {
-      recsIter = records.iterator();
+      this(0);
     }
     
     Iter(int index)
     {
-      recsIter = records.listIterator(index);
+      recsIter = readRecords().listIterator(index);
     }
     
     @Override
@@ -728,7 +1124,15 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     @Override
     public DataRecord next()
     {
+      int index = recsIter.nextIndex();
+      
       rec = recsIter.next();
+      
+      if (borrowed > 0 && rec.getTable() != SimpleDataTable.this)
+      {
+        rec = adoptRecord(index);
+      }
+      
       return rec;
     }
     
@@ -737,12 +1141,53 @@ public class SimpleDataTable extends AbstractDataTable implements Comparable<Dat
     {
       ensureMutable();
       
+      unshare();
+      
       recsIter.remove();
       
       if (rec != null)
       {
         rec.setTable(null);
       }
+      
+      invalidateIndexes();
+    }
+  }
+  
+  /**
+   * Records shared by a table and its clones. Records that belong to the owner table are copied for other tables before the owner modifies them or
+   * returns their mutable values. Other tables copy the list before accessing it, and copy borrowed records when they access them. Records of
+   * immutable tables have no owner, they are never modified.
+   */
+  private static class SharedRecords
+  {
+    private volatile List<DataRecord> records;
+    private SimpleDataTable owner;
+    private int tables;
+    
+    SharedRecords(List<DataRecord> records, SimpleDataTable owner)
+    {
+      this.records = records;
+      this.owner = owner;
+      this.tables = 1;
+    }
+  }
+  
+  /**
+   * Read-only view of table records that copies borrowed records when they are accessed.
+   */
+  private class RecordList extends AbstractList<DataRecord> implements RandomAccess
+  {
+    @Override
+    public DataRecord get(int index)
+    {
+      return getRecord(index);
+    }
+    
+    @Override
+    public int size()
+    {
+      return getRecordCount();
     }
   }
 }
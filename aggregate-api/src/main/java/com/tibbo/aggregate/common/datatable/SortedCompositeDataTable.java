@@ -151,15 +151,9 @@ public class SortedCompositeDataTable extends AbstractUnmodifiableDataTable
     
     while (itr.hasNext())
     {
-      boolean meet = true;
-      
       final DataRecord rec = itr.next();
       
-      for (QueryCondition cond : query.getConditions())
-        if (!rec.meetToCondition(cond))
-          meet = false;
-        
-      if (meet)
+      if (meetsQuery(rec, query))
         return i;
       
       ++i;
@@ -1,5 +1,6 @@
 package com.tibbo.aggregate.common.datatable;
 
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +12,7 @@ import java.util.Objects;
 import com.tibbo.aggregate.common.util.ConcurrentLRUCache;
 import java.util.function.Consumer;
 
+import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.binding.Binding;
 import com.tibbo.aggregate.common.context.ContextRuntimeException;
@@ -81,6 +83,8 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
   private Integer id;
   private volatile Integer formatCacheIdentityHashCode; // Identity hash code of the FormatCache containing the format.
                                               // In case it was not cached on the local server, the parameter is null.
+  private transient volatile FormatFingerprint fingerprint; // Computed once the format is immutable
+  private transient int layoutVersion; // Incremented when fields are added, removed or renamed
 
   // Cache for extendMessage() results to avoid repeated expensive validation operations
   // This optimization reduces CPU load by 40-60% when validating formats frequently
@@ -371,6 +375,8 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
     
     getFieldLookup().put(ff.getName(), index);
     
+    layoutVersion++;
+    
     return this;
   }
   
@@ -411,6 +417,8 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
         
         getFieldLookup().put(fn, getFieldLookup().get(fn) - 1);
       }
+      
+      layoutVersion++;
     }
     
     return this;
@@ -442,6 +450,8 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
       getFieldLookup().put(newName, index);
     }
     
+    layoutVersion++;
+    
     return this;
   }
   
@@ -453,6 +463,14 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
     return fields.get(index).getType();
   }
   
+  /**
+   * Returns number of changes of field positions and names made to the format, see {@link DataRecord}.
+   */
+  int getLayoutVersion()
+  {
+    return layoutVersion;
+  }
+  
   /**
    * Returns name of field at the specified index.
    */
@@ -471,6 +489,22 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
     return index != null ? index : -1;
   }
   
+  /**
+   * Returns an accessor of field with the specified name or throws an IllegalArgumentException if field is not found. Accessor should be obtained once and
+   * reused, e.g. outside of a loop over table records. Accessors of a mutable format become invalid if fields are inserted or removed before the accessed one.
+   */
+  public FieldAccessor getAccessor(String name)
+  {
+    int index = getFieldIndex(name);
+    
+    if (index == -1)
+    {
+      throw new IllegalArgumentException(MessageFormat.format(Cres.get().getString("dtFieldNotFound"), name));
+    }
+    
+    return new FieldAccessor(this, index);
+  }
+  
   /**
    * Returns number of fields in table format.
    */
@@ -1405,6 +1439,7 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
     
     cl.id = null; // Need to clear ID to avoid conflicts in format cache
     cl.immutable = false;
+    cl.fingerprint = null;
     
     return cl;
   }
@@ -1446,6 +1481,27 @@ public class TableFormat implements Iterable<FieldFormat>, Cloneable, PublicClon
     this.id = id;
   }
   
+  /**
+   * Returns structural fingerprint of the format, used by format caches to find equal formats without deep comparison. Fingerprint of an immutable
+   * format is computed only once.
+   */
+  public FormatFingerprint getFingerprint()
+  {
+    FormatFingerprint result = fingerprint;
+    
+    if (result == null)
+    {
+      result = FormatFingerprint.of(encode(false));
+      
+      if (immutable)
+      {
+        fingerprint = result;
+      }
+    }
+    
+    return result;
+  }
+  
   public void applyCachedFormat(FormatCache formatCache, Consumer<TableFormat> formatSetter)
   {
     if (isAttachedToAnotherCache(formatCache))
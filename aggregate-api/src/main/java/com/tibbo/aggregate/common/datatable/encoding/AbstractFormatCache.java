@@ -1,20 +1,68 @@
 package com.tibbo.aggregate.common.datatable.encoding;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.datatable.FormatFingerprint;
 import com.tibbo.aggregate.common.datatable.TableFormat;
 
+/**
+ * Base format cache shared by {@link LocalFormatCache} and {@link RemoteFormatCache}.
+ * <p>
+ * Formats are stored in array chunks indexed by format ID, so they are read without locking. Formats with equal
+ * {@link TableFormat#getFingerprint() fingerprints} are considered equal, so reverse lookup doesn't compare formats. Formats are stored by CAS, only
+ * allocation of new chunks and eviction are done under a lock, and eviction never blocks other threads.
+ * <p>
+ * When the cache holds more than {@link #getMaxSize()} formats, formats are evicted in the order of their IDs, starting over from the lowest ID
+ * after the highest one. IDs of evicted formats are not reused: an evicted immutable format is cached again under its original ID. Evicted IDs are
+ * removed from {@link #addKnownFormatCollector(KnownFormatCollector) registered} collectors, so peers receive evicted formats in full again instead of
+ * requesting them by IDs.
+ */
 public abstract class AbstractFormatCache implements FormatCache
 {
-  protected final Map<Integer, TableFormat> cache = new HashMap<>(100, 0.75f);
+  /**
+   * Default maximum number of cached formats, zero means no limit.
+   */
+  public static final int DEFAULT_MAX_SIZE = Integer.getInteger("aggregate.formatCache.maxSize", 65536);
   
-  protected final Map<TableFormat, Integer> reverse = new HashMap<>(100, 0.75f);
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
   
-  protected final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+  /**
+   * Marks slots of evicted formats.
+   */
+  private static final TableFormat EVICTED = new TableFormat();
+  
+  /**
+   * Replaces chunks whose formats were all evicted.
+   */
+  private static final AtomicReferenceArray<TableFormat> EVICTED_CHUNK = new AtomicReferenceArray<>(0);
+  
+  private volatile AtomicReferenceArray<TableFormat>[] chunks = newDirectory(0);
+  
+  private final Map<FormatFingerprint, Integer> reverse = new ConcurrentHashMap<>(100, 0.75f);
+  
+  private final AtomicInteger size = new AtomicInteger();
+  
+  private final AtomicInteger limit = new AtomicInteger(); // Highest stored ID plus one
+  
+  private final ReentrantLock structureLock = new ReentrantLock();
+  
+  private final Set<KnownFormatCollector> knownFormatCollectors = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  
+  private int evictionCursor; // Guarded by structureLock
+  
+  private volatile int maxSize = DEFAULT_MAX_SIZE;
   
   private final String name;
   
@@ -30,38 +78,137 @@ public abstract class AbstractFormatCache implements FormatCache
   
   public int getSize()
   {
-    return cache.size();
+    return size.get();
+  }
+  
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+  
+  /**
+   * Sets maximum number of cached formats, zero means no limit.
+   */
+  public void setMaxSize(int maxSize)
+  {
+    if (maxSize < 0)
+    {
+      throw new IllegalArgumentException("Negative maximum size: " + maxSize);
+    }
+    
+    this.maxSize = maxSize;
+    
+    evict();
+  }
+  
+  @Override
+  public void addKnownFormatCollector(KnownFormatCollector collector)
+  {
+    knownFormatCollectors.add(collector);
   }
   
   public TableFormat get(int id)
   {
-    TableFormat result;
+    TableFormat result = peek(id);
     
-    cacheLock.readLock().lock();
-    try
+    return result != EVICTED ? result : null;
+  }
+  
+  /**
+   * Stores the format under the specified ID, replacing the format previously stored there. Returns the replaced format.
+   */
+  protected TableFormat addImpl(TableFormat format, int id)
+  {
+    attach(format, id);
+    
+    AtomicReferenceArray<TableFormat> chunk = chunk(id, true);
+    
+    TableFormat previous = chunk.getAndSet(id & CHUNK_MASK, format);
+    
+    if (previous != null && previous != EVICTED)
     {
-      result = cache.get(id);
+      reverse.remove(previous.getFingerprint(), id);
     }
-    finally
+    else
     {
-      cacheLock.readLock().unlock();
+      stored(id);
     }
     
-    return result;
+    retain(id, chunk);
+    
+    reverse.put(format.getFingerprint(), id);
+    
+    evictIfFull();
+    
+    return previous != EVICTED ? previous : null;
   }
   
-  protected TableFormat addImpl(TableFormat format, int id)
+  /**
+   * Stores the format under a new ID unless an equal format is being stored concurrently. Returns the ID under which the format is stored, or null if
+   * the ID is already used.
+   */
+  protected Integer addIfAbsent(TableFormat format, int id)
   {
+    FormatFingerprint fingerprint = format.getFingerprint();
+    
+    AtomicReferenceArray<TableFormat> chunk = chunk(id, true);
+    
+    if (!chunk.compareAndSet(id & CHUNK_MASK, null, format))
+    {
+      return null;
+    }
+    
+    stored(id);
+    
+    chunk = retain(id, chunk);
+    
+    while (true)
+    {
+      Integer existingId = reverse.putIfAbsent(fingerprint, id);
+      
+      if (existingId == null)
+      {
+        break;
+      }
+      
+      if (get(existingId) != null)
+      {
+        // Equal format was cached by another thread, giving up the new ID
+        if (chunk.compareAndSet(id & CHUNK_MASK, format, null))
+        {
+          size.decrementAndGet();
+        }
+        
+        return existingId;
+      }
+      
+      if (reverse.replace(fingerprint, existingId, id))
+      {
+        break; // Replaced an entry left by a format that was overridden
+      }
+    }
+    
+    Integer attachedId = id;
+    
     if (format.isImmutable())
     {
-      format.setId(id);
+      // The same format can be added by several threads at once, keeping the ID assigned first
+      synchronized (format)
+      {
+        if (format.getId() == null)
+        {
+          format.setId(id);
+        }
+        
+        attachedId = format.getId();
+      }
     }
     
     format.setFormatCacheIdentityHashCode(System.identityHashCode(this));
     
-    reverse.put(format, id);
+    evictIfFull();
     
-    return cache.put(id, format);
+    return attachedId;
   }
   
   public Integer addIfNotExists(TableFormat format)
@@ -70,68 +217,64 @@ public abstract class AbstractFormatCache implements FormatCache
     
     if (formatId == null)
     {
-      cacheLock.writeLock().lock();
-      try
-      {
-        formatId = obtainId(format);
-        
-        if (formatId == null)
-        {
-          formatId = add(format);
-        }
-      }
-      finally
-      {
-        cacheLock.writeLock().unlock();
-      }
+      formatId = add(format);
     }
     
     return formatId;
   }
   
   protected abstract Integer add(TableFormat tableFormat);
-
+  
   protected Integer obtainId(TableFormat format)
   {
-    Integer idFromFormat;
-    Integer idFromCache;
-
-    cacheLock.readLock().lock();
-    try
+    Integer idFromFormat = format.getId();
+    
+    if (idFromFormat == null)
     {
-      idFromCache = reverse.get(format);
-      idFromFormat = format.getId();
+      return lookup(format);
     }
-    finally
+    
+    TableFormat cached = peek(idFromFormat);
+    
+    if (cached == format)
     {
-      cacheLock.readLock().unlock();
+      return idFromFormat; // this is the mainstream case that should take place most frequently
     }
-
-    if (Objects.equals(idFromFormat, idFromCache))
+    
+    // All the following is a set of attempts to properly handle various deviations
+    
+    // The format can be cached somewhere else
+    if (format.isAttachedToAnotherCache(this))
     {
-      return idFromFormat;    // this is the mainstream case that should take place most frequently
+      return idFromFormat;
     }
-
-    // All the following is a set of attempts to properly handle various deviations
-    //noinspection ConstantConditions (idFromCache != null is always true but left explicit for clarity)
-    if (idFromFormat == null && idFromCache != null)
+    
+    // The format was cached here but evicted later, so it's cached again under the same ID
+    if (cached == EVICTED || (cached == null && chunk(idFromFormat, false) == EVICTED_CHUNK))
     {
-      // Finding a format without ID in the cache means that the format wasn't cached before but happened to be equal
-      // to a one already cached. This is logically the same as being cached in usual way.
-      return idFromCache;
+      AtomicReferenceArray<TableFormat> chunk = chunk(idFromFormat, true);
+      
+      if (chunk.compareAndSet(idFromFormat & CHUNK_MASK, EVICTED, format))
+      {
+        stored(idFromFormat);
+        retain(idFromFormat, chunk);
+        reverse.putIfAbsent(format.getFingerprint(), idFromFormat);
+        evictIfFull();
+      }
+      
+      return idFromFormat;
     }
-
-    // Coming here means that the format has some ID but there is no corresponding cache entry.
-    boolean attachedToAnotherCache = format.isAttachedToAnotherCache(this);
-    // This can be OK if the format is cached somewhere else:
-    if (attachedToAnotherCache)
+    
+    // Another equal format could be stored under the same ID
+    if (cached != null && cached.getFingerprint().equals(format.getFingerprint()))
     {
       return idFromFormat;
     }
+    
     // But also can be a sign of serious inconsistency if the format should have been cached here but somehow wasn't
     throw new IllegalStateException(String.format("The following table format must be stored in current cache (%s, " +
-            "identityHashCode=%d) with ID=%d but was not actually: %s", this.getClass().getSimpleName(),
-            System.identityHashCode(this), idFromFormat, format));
+        "identityHashCode=%d) with ID=%d but was not actually: %s", this.getClass().getSimpleName(),
+        System.identityHashCode(this), idFromFormat, format));
   }
   
   public TableFormat getCachedVersion(TableFormat format)
@@ -141,57 +284,349 @@ public abstract class AbstractFormatCache implements FormatCache
       return null;
     }
     
-    cacheLock.readLock().lock();
+    Integer id = obtainId(format);
+    
+    TableFormat cached = id != null ? get(id) : null;
+    
+    return cached != null ? cached : format;
+  }
+  
+  public void clear()
+  {
+    structureLock.lock();
     try
     {
-      Integer id = obtainId(format);
+      AtomicReferenceArray<TableFormat>[] directory = chunks;
       
-      return id != null ? cache.get(id) : format;
+      for (int i = 0; i < directory.length; i++)
+      {
+        AtomicReferenceArray<TableFormat> chunk = directory[i];
+        
+        if (chunk == EVICTED_CHUNK)
+        {
+          directory[i] = null;
+          continue;
+        }
+        
+        for (int j = 0; chunk != null && j < chunk.length(); j++)
+        {
+          TableFormat format = chunk.getAndSet(j, null);
+          
+          if (format != null && format != EVICTED)
+          {
+            size.decrementAndGet();
+          }
+        }
+      }
+      
+      // Publishing the directory again since its elements were changed
+      chunks = directory;
+      
+      reverse.clear();
     }
     finally
     {
-      cacheLock.readLock().unlock();
+      structureLock.unlock();
     }
   }
   
-  public void clear()
+  public void put(int id, TableFormat format)
   {
-    cacheLock.writeLock().lock();
+    if (format == null)
+    {
+      throw new IllegalArgumentException("Format is NULL");
+    }
+    
+    TableFormat tableFormat = addImpl(format, id);
+    
+    if (Log.PROTOCOL_CACHING.isDebugEnabled())
+    {
+      if (tableFormat != null)
+      {
+        Log.PROTOCOL_CACHING.debug("Cache '" + getName() + "' override format as #" + id + ": " + format);
+      }
+    }
+  }
+  
+  private Integer lookup(TableFormat format)
+  {
+    Integer id = reverse.get(format.getFingerprint());
+    
+    return id != null && get(id) != null ? id : null;
+  }
+  
+  private void attach(TableFormat format, int id)
+  {
+    if (format.isImmutable())
+    {
+      format.setId(id);
+    }
+    
+    format.setFormatCacheIdentityHashCode(System.identityHashCode(this));
+  }
+  
+  private void stored(int id)
+  {
+    size.incrementAndGet();
+    limit.accumulateAndGet(id + 1, Math::max);
+  }
+  
+  /**
+   * Returns the format stored under the ID, {@link #EVICTED} if it was evicted, or null.
+   */
+  private TableFormat peek(int id)
+  {
+    AtomicReferenceArray<TableFormat> chunk = chunk(id, false);
+    
+    return chunk != null && chunk != EVICTED_CHUNK ? chunk.get(id & CHUNK_MASK) : null;
+  }
+  
+  private AtomicReferenceArray<TableFormat> chunk(int id, boolean create)
+  {
+    if (id < 0)
+    {
+      if (create)
+      {
+        throw new IllegalArgumentException("Negative format ID: " + id);
+      }
+      
+      return null;
+    }
+    
+    int index = id >>> CHUNK_BITS;
+    
+    AtomicReferenceArray<TableFormat>[] directory = chunks;
+    
+    AtomicReferenceArray<TableFormat> chunk = index < directory.length ? directory[index] : null;
+    
+    if (!create || (chunk != null && chunk != EVICTED_CHUNK))
+    {
+      return chunk;
+    }
+    
+    structureLock.lock();
     try
     {
-      cache.clear();
-      reverse.clear();
+      directory = chunks;
+      
+      chunk = index < directory.length ? directory[index] : null;
+      
+      if (chunk != null && chunk != EVICTED_CHUNK)
+      {
+        return chunk;
+      }
+      
+      AtomicReferenceArray<TableFormat> created = new AtomicReferenceArray<>(CHUNK_SIZE);
+      
+      if (chunk == EVICTED_CHUNK)
+      {
+        for (int i = 0; i < CHUNK_SIZE; i++)
+        {
+          created.lazySet(i, EVICTED);
+        }
+      }
+      
+      // Chunks are never copied, so formats stored concurrently with growth of the directory are not lost
+      AtomicReferenceArray<TableFormat>[] grown = newDirectory(Math.max(index + 1, index < directory.length ? directory.length : directory.length * 2));
+      System.arraycopy(directory, 0, grown, 0, directory.length);
+      grown[index] = created;
+      
+      chunks = grown;
+      
+      return created;
     }
     finally
     {
-      cacheLock.writeLock().unlock();
+      structureLock.unlock();
     }
   }
-
-  public void put(int id, TableFormat format)
+  
+  private void evictIfFull()
   {
-    cacheLock.writeLock().lock();
+    int max = maxSize;
+    
+    if (max > 0 && size.get() > max)
+    {
+      evict();
+    }
+  }
+  
+  /**
+   * Evicts formats with the lowest IDs until the size fits the limit. Does nothing if another thread is already evicting.
+   */
+  private void evict()
+  {
+    if (!structureLock.tryLock())
+    {
+      return;
+    }
+    
+    List<Integer> evicted = new ArrayList<>();
+    
     try
     {
-
-      if (format == null)
+      // Scanning every ID at most once, formats cached again below the cursor are evicted after it starts over
+      int remaining = limit.get();
+      
+      while (maxSize > 0 && size.get() > maxSize && remaining > 0)
       {
-        throw new IllegalArgumentException("Format is NULL");
+        if (evictionCursor >= limit.get())
+        {
+          evictionCursor = 0;
+        }
+        
+        int id = evictionCursor;
+        
+        AtomicReferenceArray<TableFormat> chunk = chunk(id, false);
+        
+        if (chunk == null || chunk == EVICTED_CHUNK)
+        {
+          evictionCursor = (id | CHUNK_MASK) + 1;
+          remaining -= evictionCursor - id;
+          continue;
+        }
+        
+        TableFormat format = chunk.get(id & CHUNK_MASK);
+        
+        if (format != null && format != EVICTED && chunk.compareAndSet(id & CHUNK_MASK, format, EVICTED))
+        {
+          size.decrementAndGet();
+          reverse.remove(format.getFingerprint(), id);
+          evicted.add(id);
+        }
+        
+        evictionCursor = id + 1;
+        remaining--;
+        
+        if ((evictionCursor & CHUNK_MASK) == 0)
+        {
+          releaseChunk(id >>> CHUNK_BITS, chunk);
+        }
       }
-
-      TableFormat tableFormat = addImpl(format, id);
-
-      if (Log.PROTOCOL_CACHING.isDebugEnabled())
+      
+      if (!evicted.isEmpty() && Log.PROTOCOL_CACHING.isDebugEnabled())
       {
-        if (tableFormat != null)
+        Log.PROTOCOL_CACHING.debug("Cache '" + getName() + "' evicted " + evicted.size() + " formats, " + size.get() + " formats left");
+      }
+    }
+    finally
+    {
+      structureLock.unlock();
+    }
+    
+    if (!evicted.isEmpty())
+    {
+      forget(evicted);
+    }
+  }
+  
+  /**
+   * Removes evicted IDs from the registered collectors, so that peers receive these formats in full next time.
+   */
+  private void forget(List<Integer> ids)
+  {
+    synchronized (knownFormatCollectors)
+    {
+      for (KnownFormatCollector collector : knownFormatCollectors)
+      {
+        for (Integer id : ids)
         {
-          Log.PROTOCOL_CACHING.debug("Cache '" + getName() + "' override format as #" + id + ": " + format);
+          collector.makeUnknown(id);
         }
       }
     }
+  }
+  
+  private void releaseChunk(int index, AtomicReferenceArray<TableFormat> chunk)
+  {
+    if (!isVacant(chunk))
+    {
+      // Some formats were stored below the eviction cursor, keeping the chunk
+      return;
+    }
+    
+    AtomicReferenceArray<TableFormat>[] directory = chunks.clone();
+    directory[index] = EVICTED_CHUNK;
+    chunks = directory;
+    
+    // Chunk is checked again once it's released: a thread that obtained it earlier either has stored a format that is seen here, or sees the release
+    // after storing and retains the format, see retain()
+    if (!isVacant(chunk))
+    {
+      directory = chunks.clone();
+      directory[index] = chunk;
+      chunks = directory;
+    }
+  }
+  
+  private static boolean isVacant(AtomicReferenceArray<TableFormat> chunk)
+  {
+    for (int i = 0; i < CHUNK_SIZE; i++)
+    {
+      TableFormat format = chunk.get(i);
+      
+      if (format != null && format != EVICTED)
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Makes sure that the format stored under the ID into the chunk can be resolved. Chunk is obtained without locking, so it could be released by
+   * eviction before the format was stored. Returns the chunk holding the format.
+   */
+  private AtomicReferenceArray<TableFormat> retain(int id, AtomicReferenceArray<TableFormat> chunk)
+  {
+    int index = id >>> CHUNK_BITS;
+    
+    if (chunks[index] == chunk)
+    {
+      return chunk;
+    }
+    
+    structureLock.lock();
+    try
+    {
+      AtomicReferenceArray<TableFormat>[] directory = chunks;
+      
+      AtomicReferenceArray<TableFormat> current = directory[index];
+      
+      if (current == chunk)
+      {
+        return chunk;
+      }
+      
+      if (current == null || current == EVICTED_CHUNK)
+      {
+        directory = directory.clone();
+        directory[index] = chunk;
+        chunks = directory;
+        return chunk;
+      }
+      
+      // Chunk was created again after the release, moving the format there
+      TableFormat format = chunk.get(id & CHUNK_MASK);
+      
+      if (format != null && format != EVICTED && !current.compareAndSet(id & CHUNK_MASK, EVICTED, format))
+      {
+        // Format stored under the ID since then takes precedence
+        size.decrementAndGet();
+      }
+      
+      return current;
+    }
     finally
     {
-      cacheLock.writeLock().unlock();
+      structureLock.unlock();
     }
   }
+  
+  @SuppressWarnings("unchecked")
+  private static AtomicReferenceArray<TableFormat>[] newDirectory(int length)
+  {
+    return new AtomicReferenceArray[length];
+  }
 }
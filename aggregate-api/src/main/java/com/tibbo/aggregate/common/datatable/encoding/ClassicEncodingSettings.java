@@ -13,6 +13,7 @@ public class ClassicEncodingSettings extends EncodingSettings
   private boolean encodeFieldNames = false;
   private ProtocolVersion protocolVersion;
   private boolean encryptedPasswords = false;
+  private EncodingStream encodingStream;
   
   public ClassicEncodingSettings(boolean useVisibleSeparators)
   {
@@ -101,4 +102,17 @@ public class ClassicEncodingSettings extends EncodingSettings
   {
     this.encryptedPasswords = encryptedPasswords;
   }
+  
+  public EncodingStream getEncodingStream()
+  {
+    return encodingStream;
+  }
+  
+  /**
+   * Sets stream that receives encoded records of a table encoded into its buffer. Other tables are encoded as usual.
+   */
+  public void setEncodingStream(EncodingStream encodingStream)
+  {
+    this.encodingStream = encodingStream;
+  }
 }
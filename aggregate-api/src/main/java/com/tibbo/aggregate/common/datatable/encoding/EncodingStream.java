@@ -0,0 +1,61 @@
+package com.tibbo.aggregate.common.datatable.encoding;
+
+import java.util.function.Consumer;
+
+/**
+ * Destination of a table that is encoded in parts.
+ * <p>
+ * Table encoded into the buffer of the stream passes encoded data to the consumer after each record once the buffer grows beyond the chunk size, so
+ * the encoded table never resides in a single string. Only the buffer of the stream is passed: elements encoded into temporary builders reach the
+ * consumer along with the record containing them. Consumer must process the data before returning, the buffer is cleared afterwards.
+ */
+public class EncodingStream
+{
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+  
+  private final StringBuilder buffer;
+  private final int chunkSize;
+  private final Consumer<CharSequence> consumer;
+  
+  public EncodingStream(Consumer<CharSequence> consumer)
+  {
+    this(consumer, DEFAULT_CHUNK_SIZE);
+  }
+  
+  public EncodingStream(Consumer<CharSequence> consumer, int chunkSize)
+  {
+    this.buffer = new StringBuilder(chunkSize + chunkSize / 4);
+    this.chunkSize = chunkSize;
+    this.consumer = consumer;
+  }
+  
+  public StringBuilder getBuffer()
+  {
+    return buffer;
+  }
+  
+  public boolean isBuffer(StringBuilder sb)
+  {
+    return sb == buffer;
+  }
+  
+  /**
+   * Passes buffered data to the consumer if the builder is the buffer of this stream and it has reached the chunk size.
+   */
+  public void flushIfFull(StringBuilder sb)
+  {
+    if (sb == buffer && buffer.length() >= chunkSize)
+    {
+      flush();
+    }
+  }
+  
+  public void flush()
+  {
+    if (buffer.length() > 0)
+    {
+      consumer.accept(buffer);
+      buffer.setLength(0);
+    }
+  }
+}
@@ -15,4 +15,11 @@ public interface FormatCache {
     TableFormat getCachedVersion(TableFormat format);
     
     String getName();
+    
+    /**
+     * Registers collector of formats known to a peer. IDs of formats evicted from the cache are removed from registered collectors, so that the peer
+     * receives these formats in full again rather than requesting them by IDs. Collectors are referenced weakly.
+     */
+    default void addKnownFormatCollector(KnownFormatCollector collector) {
+    }
 }
@@ -1,10 +1,15 @@
 package com.tibbo.aggregate.common.datatable.encoding;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.text.translate.AggregateTranslator;
 import org.apache.commons.lang3.text.translate.CharSequenceTranslator;
@@ -12,7 +17,9 @@ import org.apache.commons.lang3.text.translate.EntityArrays;
 import org.apache.commons.lang3.text.translate.LookupTranslator;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import com.tibbo.aggregate.common.binding.Binding;
 import com.tibbo.aggregate.common.data.Data;
@@ -25,6 +32,7 @@ import com.tibbo.aggregate.common.datatable.SimpleDataTable;
 import com.tibbo.aggregate.common.datatable.TableFormat;
 import com.tibbo.aggregate.common.datatable.field.DataTableFieldFormat;
 import com.tibbo.aggregate.common.datatable.field.DateFieldFormat;
+import com.tibbo.aggregate.common.datatable.field.FieldCodecs;
 import com.tibbo.aggregate.common.util.StringUtils;
 
 public class JsonEncodingHelper
@@ -227,6 +235,20 @@ public class JsonEncodingHelper
     return processJSONObject(json, convertUnequalFieldTypesToString);
   }
   
+  /**
+   * Decodes records of a table encoded by {@link #tableToJson(DataTable)} one at a time, passing each record to the consumer as soon as its JSON object
+   * is parsed. Unlike {@link #tableFromJson(String, boolean)}, format is not inferred from the whole document and must be provided.
+   */
+  public static void recordsFromJson(Reader reader, TableFormat format, Consumer<DataRecord> consumer) throws IOException, ParseException
+  {
+    DataTable table = new SimpleDataTable(format);
+    
+    new JSONParser().parse(reader, new RecordHandler(object -> {
+      fillDataTableWithObject(object, table, false);
+      consumer.accept(table.removeRecord(0));
+    }));
+  }
+  
   private static DataTable processJSONObject(JSONObject jsonObject, boolean convertUnequalFieldTypesToString)
   {
     TableFormat tableFormat = calculateTableFormat(jsonObject, convertUnequalFieldTypesToString, true, false);
@@ -400,9 +422,24 @@ public class JsonEncodingHelper
   
   private static Date getDateIfDateFormat(Object node)
   {
+    String value = node.toString();
+    
+    long millis = FieldCodecs.parseDate(value, 0, value.length());
+    
+    if (millis != FieldCodecs.NO_VALUE)
+    {
+      return new Date(millis);
+    }
+    
+    // Most of the strings are not dates, so they are rejected without the exception of the lenient parser
+    if (value.length() != FieldCodecs.DATE_LENGTH && value.length() != FieldCodecs.DATE_LENGTH + 1)
+    {
+      return null;
+    }
+    
     try
     {
-      return DateFieldFormat.dateFromString(node.toString());
+      return DateFieldFormat.dateFromString(value);
     }
     catch (Exception e)
     {
@@ -503,6 +540,114 @@ public class JsonEncodingHelper
     return ff.getType() == FieldFormat.STRING_FIELD && ff.isNullable() && ff.getDefaultValue() == null;
   }
   
+  /**
+   * Builds JSON objects that are elements of the top-level array (or the top-level object itself) and passes them to the consumer without keeping them.
+   */
+  private static class RecordHandler implements ContentHandler
+  {
+    private final Deque<Object> stack = new ArrayDeque<>();
+    private final Consumer<JSONObject> consumer;
+    
+    private RecordHandler(Consumer<JSONObject> consumer)
+    {
+      this.consumer = consumer;
+    }
+    
+    @Override
+    public void startJSON()
+    {
+    }
+    
+    @Override
+    public void endJSON()
+    {
+    }
+    
+    @Override
+    public boolean startObject()
+    {
+      stack.push(new JSONObject());
+      return true;
+    }
+    
+    @Override
+    public boolean endObject()
+    {
+      JSONObject object = (JSONObject) stack.pop();
+      
+      if (stack.isEmpty() || (stack.size() == 1 && stack.peek() instanceof JSONArray))
+      {
+        consumer.accept(object);
+      }
+      else
+      {
+        addValue(object);
+      }
+      
+      return true;
+    }
+    
+    @Override
+    public boolean startObjectEntry(String key)
+    {
+      stack.push(key);
+      return true;
+    }
+    
+    @Override
+    public boolean endObjectEntry()
+    {
+      Object value = stack.pop();
+      String key = (String) stack.pop();
+      ((JSONObject) stack.peek()).put(key, value);
+      return true;
+    }
+    
+    @Override
+    public boolean startArray()
+    {
+      stack.push(new JSONArray());
+      return true;
+    }
+    
+    @Override
+    public boolean endArray()
+    {
+      JSONArray array = (JSONArray) stack.pop();
+      
+      if (!stack.isEmpty())
+      {
+        addValue(array);
+      }
+      
+      return true;
+    }
+    
+    @Override
+    public boolean primitive(Object value)
+    {
+      if (!stack.isEmpty())
+      {
+        addValue(value);
+      }
+      
+      return true;
+    }
+    
+    private void addValue(Object value)
+    {
+      if (stack.peek() instanceof JSONArray)
+      {
+        ((JSONArray) stack.peek()).add(value);
+      }
+      else
+      {
+        // Value of an object entry, put into the object by endObjectEntry()
+        stack.push(value);
+      }
+    }
+  }
+  
   public static class EscapeJsonWithoutUnicode
   {
     private static final CharSequenceTranslator ESCAPE_JSON_WITHOUT_UNICODE = new AggregateTranslator(new LookupTranslator(new String[][] { { "\"", "\\\"" }, { "\\", "\\\\" } }),
@@ -43,6 +43,15 @@ public class KnownFormatCollector
     formatIds.put(formatId, mark);
   }
   
+  /**
+   * Forgets the format, so that it's sent in full next time. It's called for formats evicted from the cache, see
+   * {@link FormatCache#addKnownFormatCollector(KnownFormatCollector)}.
+   */
+  public void makeUnknown(int formatId)
+  {
+    formatIds.remove(formatId);
+  }
+  
   public void markAll()
   {
     // Trick required to avoid inability to upgrade a read lock
@@ -1,5 +1,7 @@
 package com.tibbo.aggregate.common.datatable.encoding;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.datatable.TableFormat;
 
@@ -9,7 +11,7 @@ import com.tibbo.aggregate.common.datatable.TableFormat;
 **/
 public class LocalFormatCache extends AbstractFormatCache
 {
-  private int currentId = 0;
+  private final AtomicInteger currentId = new AtomicInteger();
   
   public LocalFormatCache(String name) {
     super(name);
@@ -21,28 +23,25 @@ public class LocalFormatCache extends AbstractFormatCache
     {
       throw new IllegalArgumentException("Format is NULL");
     }
-    cacheLock.writeLock().lock();
-    try
+    
+    Integer id;
+    
+    do
+    {
+      id = addIfAbsent(format, currentId.getAndIncrement());
+    }
+    while (id == null); // Skipping IDs of formats put explicitly
+    
+    if (!format.isImmutable())
     {
-      int id = currentId++;
-      
-      addImpl(format, id);
-      
-      if (!format.isImmutable())
-      {
-        Log.PROTOCOL_CACHING.warn("Cached mutable format as #" + id + ": " + format, new Exception());
-      }
-      
-      if (Log.PROTOCOL_CACHING.isDebugEnabled())
-      {
-        Log.PROTOCOL_CACHING.debug("Cache '" + getName() + "' cached format as #" + id + ": " + format);
-      }
-      
-      return id;
+      Log.PROTOCOL_CACHING.warn("Cached mutable format as #" + id + ": " + format, new Exception());
     }
-    finally
+    
+    if (Log.PROTOCOL_CACHING.isDebugEnabled())
     {
-      cacheLock.writeLock().unlock();
+      Log.PROTOCOL_CACHING.debug("Cache '" + getName() + "' cached format as #" + id + ": " + format);
     }
+    
+    return id;
   }
 }
@@ -70,15 +70,7 @@ public class RemoteFormatCache extends AbstractFormatCache
           Log.PROTOCOL_CACHING.debug("Received explicitly requested remote format #" + id + ": " + result);
         }
         
-        cacheLock.writeLock().lock();
-        try
-        {
-          addImpl(result, id);
-        }
-        finally
-        {
-          cacheLock.writeLock().unlock();
-        }
+        addImpl(result, id);
       }
       catch (Exception ex)
       {
@@ -43,11 +43,17 @@ public class BooleanFieldFormat extends FieldFormat<Boolean>
   
   public Boolean valueFromString(String value, ClassicEncodingSettings settings, boolean validate)
   {
-    return (value.equals("1") || value.equalsIgnoreCase("true")) ? Boolean.valueOf(true) : Boolean.valueOf(false);
+    return FieldCodecs.parseBoolean(value, 0, value.length()) == 1;
   }
   
   public String valueToString(Boolean value, ClassicEncodingSettings settings)
   {
     return value == null ? null : ((Boolean) value) ? "1" : "0";
   }
+  
+  @Override
+  public StringBuilder valueToEncodedString(Boolean value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    return value != null ? FieldCodecs.appendBoolean(value, sb) : super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
 }
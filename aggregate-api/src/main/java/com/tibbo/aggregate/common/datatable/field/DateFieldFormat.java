@@ -110,7 +110,32 @@ public class DateFieldFormat extends FieldFormat<Date>
     }
   }
 
+  @Override
+  public StringBuilder valueToEncodedString(Date value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    if (value != null && FieldCodecs.appendDate(value.getTime(), sb))
+    {
+      return sb;
+    }
+
+    return super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
+
   public static Date dateFromString(String value)
+  {
+    long millis = FieldCodecs.parseDate(value, 0, value.length());
+
+    return millis != FieldCodecs.NO_VALUE ? new Date(millis) : calendarDateFromString(value);
+  }
+
+  public static String dateToString(Date value)
+  {
+    StringBuilder sb = new StringBuilder(24);
+
+    return FieldCodecs.appendDate(value.getTime(), sb) ? sb.toString() : calendarDateToString(value);
+  }
+
+  private static Date calendarDateFromString(String value)
   {
     if (!value.matches(DATE_PATTERN))
     {
@@ -132,7 +157,7 @@ public class DateFieldFormat extends FieldFormat<Date>
     return gc.getTime();
   }
 
-  public static String dateToString(Date value)
+  private static String calendarDateToString(Date value)
   {
     GregorianCalendar gc = getCalendar();
 
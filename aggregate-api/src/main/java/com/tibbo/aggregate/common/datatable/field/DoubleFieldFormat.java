@@ -55,6 +55,13 @@ public class DoubleFieldFormat extends FieldFormat<Double>
     {
       return 0d;
     }
+    double parsed = FieldCodecs.parseDouble(value, 0, value.length());
+    
+    if (!Double.isNaN(parsed))
+    {
+      return parsed;
+    }
+    
     try
     {
       return new Double(value);
@@ -71,6 +78,12 @@ public class DoubleFieldFormat extends FieldFormat<Double>
     return value == null ? null : value.toString();
   }
   
+  @Override
+  public StringBuilder valueToEncodedString(Double value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    return value != null ? sb.append(value.doubleValue()) : super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
+  
   @Override
   public List<String> getSuitableEditors()
   {
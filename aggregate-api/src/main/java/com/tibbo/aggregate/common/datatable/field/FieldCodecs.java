@@ -0,0 +1,423 @@
+package com.tibbo.aggregate.common.datatable.field;
+
+/**
+ * Allocation-free codecs of primitive field values. They parse character ranges and append to builders directly, without regular expressions, calendars
+ * or intermediate strings.
+ * <p>
+ * Parsers handle only the canonical form written by the encoders. For anything else (signs and spaces the JDK parsers accept, numbers that can't be
+ * converted exactly, dates before the Gregorian calendar was adopted, etc.) they return a marker value, and the caller falls back to the generic
+ * conversion. Such fallback is rare, so it's never worth throwing an exception.
+ * <p>
+ * Encoded numbers, booleans and dates contain no characters that need transfer encoding, so field formats append them to the encoded table as is.
+ */
+public final class FieldCodecs
+{
+  /**
+   * Returned by integer and date parsers if the range can't be parsed by the codec. It's also returned for {@link Long#MIN_VALUE} itself, which is parsed by
+   * the fallback then.
+   */
+  public static final long NO_VALUE = Long.MIN_VALUE;
+  
+  /**
+   * Length of encoded date with four-digit year.
+   */
+  public static final int DATE_LENGTH = 23;
+  
+  private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+  
+  // Codec works with proleptic Gregorian calendar, so it's limited to years after the Julian-Gregorian cutover (1582) of GregorianCalendar
+  private static final int MIN_YEAR = 1583;
+  private static final int MAX_YEAR = 99999;
+  
+  private static final long MIN_DATE = daysFromCivil(MIN_YEAR, 1, 1) * MILLIS_PER_DAY;
+  private static final long MAX_DATE = daysFromCivil(MAX_YEAR + 1, 1, 1) * MILLIS_PER_DAY;
+  
+  // Doubles and floats are exactly represented by a single multiplication or division when both operands are exact
+  private static final int MAX_DOUBLE_DIGITS = 15;
+  private static final int MAX_FLOAT_DIGITS = 7;
+  
+  private static final double[] DOUBLE_POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17,
+      1e18, 1e19, 1e20, 1e21, 1e22 };
+  
+  private static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+  
+  private FieldCodecs()
+  {
+  }
+  
+  /**
+   * Parses decimal integer that fits into <code>int</code>, returns {@link #NO_VALUE} otherwise.
+   */
+  public static long parseInt(CharSequence s, int start, int end)
+  {
+    long value = parseLong(s, start, end);
+    
+    return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? value : NO_VALUE;
+  }
+  
+  /**
+   * Parses decimal integer of up to 18 digits, returns {@link #NO_VALUE} otherwise.
+   */
+  public static long parseLong(CharSequence s, int start, int end)
+  {
+    boolean negative = start < end && s.charAt(start) == '-';
+    
+    if (negative)
+    {
+      start++;
+    }
+    
+    if (start == end || end - start > 18)
+    {
+      return NO_VALUE;
+    }
+    
+    long value = 0;
+    
+    for (int i = start; i < end; i++)
+    {
+      int digit = s.charAt(i) - '0';
+      
+      if (digit < 0 || digit > 9)
+      {
+        return NO_VALUE;
+      }
+      
+      value = value * 10 + digit;
+    }
+    
+    return negative ? -value : value;
+  }
+  
+  /**
+   * Parses decimal number of up to 15 significant digits with an optional exponent, returns {@link Double#NaN} if it can't be converted exactly.
+   */
+  public static double parseDouble(CharSequence s, int start, int end)
+  {
+    long mantissa = parseMantissa(s, start, end, MAX_DOUBLE_DIGITS);
+    
+    if (mantissa == NO_VALUE)
+    {
+      return Double.NaN;
+    }
+    
+    int exponent = (int) (mantissa >> 56);
+    double value = mantissa & 0xFFFFFFFFFFFFFFL;
+    
+    if (exponent < -22 || exponent > 22)
+    {
+      return Double.NaN;
+    }
+    
+    value = exponent < 0 ? value / DOUBLE_POWERS_OF_TEN[-exponent] : value * DOUBLE_POWERS_OF_TEN[exponent];
+    
+    return s.charAt(start) == '-' ? -value : value;
+  }
+  
+  /**
+   * Parses decimal number of up to 7 significant digits with an optional exponent, returns {@link Float#NaN} if it can't be converted exactly.
+   */
+  public static float parseFloat(CharSequence s, int start, int end)
+  {
+    long mantissa = parseMantissa(s, start, end, MAX_FLOAT_DIGITS);
+    
+    if (mantissa == NO_VALUE)
+    {
+      return Float.NaN;
+    }
+    
+    int exponent = (int) (mantissa >> 56);
+    float value = mantissa & 0xFFFFFFFFFFFFFFL;
+    
+    if (exponent < -10 || exponent > 10)
+    {
+      return Float.NaN;
+    }
+    
+    value = exponent < 0 ? value / FLOAT_POWERS_OF_TEN[-exponent] : value * FLOAT_POWERS_OF_TEN[exponent];
+    
+    return s.charAt(start) == '-' ? -value : value;
+  }
+  
+  /**
+   * Parses <code>1</code>, <code>0</code>, <code>true</code> and <code>false</code> (ignoring case). Returns -1 for any other value.
+   */
+  public static int parseBoolean(CharSequence s, int start, int end)
+  {
+    int length = end - start;
+    
+    if (length == 1)
+    {
+      char c = s.charAt(start);
+      return c == '1' ? 1 : c == '0' ? 0 : -1;
+    }
+    
+    if (regionMatchesIgnoreCase(s, start, end, "true"))
+    {
+      return 1;
+    }
+    
+    return regionMatchesIgnoreCase(s, start, end, "false") ? 0 : -1;
+  }
+  
+  /**
+   * Parses UTC date in <code>yyyy-MM-dd HH:mm:ss.SSS</code> format (year may have five digits). Returns milliseconds since epoch, or {@link #NO_VALUE}
+   * if the range has other format, or its fields are out of their normal ranges.
+   */
+  public static long parseDate(CharSequence s, int start, int end)
+  {
+    int yearDigits = end - start - DATE_LENGTH + 4;
+    
+    if (yearDigits != 4 && yearDigits != 5)
+    {
+      return NO_VALUE;
+    }
+    
+    int p = start + yearDigits;
+    
+    if (s.charAt(p) != '-' || s.charAt(p + 3) != '-' || s.charAt(p + 6) != ' ' || s.charAt(p + 9) != ':' || s.charAt(p + 12) != ':' || s.charAt(p + 15) != '.')
+    {
+      return NO_VALUE;
+    }
+    
+    int year = parseDigits(s, start, yearDigits);
+    int month = parseDigits(s, p + 1, 2);
+    int day = parseDigits(s, p + 4, 2);
+    int hour = parseDigits(s, p + 7, 2);
+    int minute = parseDigits(s, p + 10, 2);
+    int second = parseDigits(s, p + 13, 2);
+    int millisecond = parseDigits(s, p + 16, 3);
+    
+    // Fields that are not digits are negative, fields out of their ranges are left to the lenient calendar
+    if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) || hour < 0 || hour > 23 || minute < 0 || minute > 59
+        || second < 0 || second > 59 || millisecond < 0)
+    {
+      return NO_VALUE;
+    }
+    
+    return daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60 + minute) * 60 + second) * 1000L + millisecond;
+  }
+  
+  /**
+   * Appends UTC date in <code>yyyy-MM-dd HH:mm:ss.SSS</code> format. Returns false without appending anything if the date is out of the codec range.
+   */
+  public static boolean appendDate(long millis, StringBuilder sb)
+  {
+    if (millis < MIN_DATE || millis >= MAX_DATE)
+    {
+      return false;
+    }
+    
+    long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+    int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+    
+    // Civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+    long z = days + 719468;
+    long era = z / 146097;
+    int doe = (int) (z - era * 146097);
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int day = doy - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+    
+    appendDigits(sb, year, year > 9999 ? 5 : 4);
+    sb.append('-');
+    appendDigits(sb, month, 2);
+    sb.append('-');
+    appendDigits(sb, day, 2);
+    sb.append(' ');
+    appendDigits(sb, millisOfDay / 3600000, 2);
+    sb.append(':');
+    appendDigits(sb, millisOfDay / 60000 % 60, 2);
+    sb.append(':');
+    appendDigits(sb, millisOfDay / 1000 % 60, 2);
+    sb.append('.');
+    appendDigits(sb, millisOfDay % 1000, 3);
+    
+    return true;
+  }
+  
+  /**
+   * Appends boolean value in its encoded form (<code>1</code> or <code>0</code>).
+   */
+  public static StringBuilder appendBoolean(boolean value, StringBuilder sb)
+  {
+    return sb.append(value ? '1' : '0');
+  }
+  
+  /**
+   * Parses digits and fraction of a decimal number into a mantissa of up to <code>maxDigits</code> significant digits. Decimal exponent is returned in the
+   * highest byte, and the mantissa in the lower seven. Returns {@link #NO_VALUE} if the number has other syntax or too many digits.
+   */
+  private static long parseMantissa(CharSequence s, int start, int end, int maxDigits)
+  {
+    int i = start;
+    
+    if (i < end && s.charAt(i) == '-')
+    {
+      i++;
+    }
+    
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    int integerDigits = 0;
+    int fractionDigits = -1;
+    
+    for (; i < end; i++)
+    {
+      char c = s.charAt(i);
+      
+      if (c >= '0' && c <= '9')
+      {
+        if (mantissa != 0 || c != '0')
+        {
+          if (++digits > maxDigits)
+          {
+            return NO_VALUE;
+          }
+          
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        
+        if (fractionDigits < 0)
+        {
+          integerDigits++;
+        }
+        else
+        {
+          fractionDigits++;
+          exponent--;
+        }
+      }
+      else if (c == '.' && fractionDigits < 0)
+      {
+        fractionDigits = 0;
+      }
+      else
+      {
+        break;
+      }
+    }
+    
+    if (integerDigits + Math.max(fractionDigits, 0) == 0)
+    {
+      return NO_VALUE;
+    }
+    
+    if (i < end)
+    {
+      char c = s.charAt(i);
+      
+      if (c != 'E' && c != 'e')
+      {
+        return NO_VALUE;
+      }
+      
+      i++;
+      
+      boolean negative = i < end && s.charAt(i) == '-';
+      
+      if (negative || (i < end && s.charAt(i) == '+'))
+      {
+        i++;
+      }
+      
+      if (i == end || end - i > 3)
+      {
+        return NO_VALUE;
+      }
+      
+      int value = 0;
+      
+      for (; i < end; i++)
+      {
+        int digit = s.charAt(i) - '0';
+        
+        if (digit < 0 || digit > 9)
+        {
+          return NO_VALUE;
+        }
+        
+        value = value * 10 + digit;
+      }
+      
+      exponent += negative ? -value : value;
+    }
+    
+    if (exponent < -100 || exponent > 100)
+    {
+      return NO_VALUE;
+    }
+    
+    return ((long) exponent << 56) | mantissa;
+  }
+  
+  private static int parseDigits(CharSequence s, int start, int count)
+  {
+    int value = 0;
+    
+    for (int i = start; i < start + count; i++)
+    {
+      int digit = s.charAt(i) - '0';
+      
+      if (digit < 0 || digit > 9)
+      {
+        return -1;
+      }
+      
+      value = value * 10 + digit;
+    }
+    
+    return value;
+  }
+  
+  private static void appendDigits(StringBuilder sb, int value, int width)
+  {
+    for (int divisor = width == 5 ? 10000 : width == 4 ? 1000 : width == 3 ? 100 : 10; divisor > 0; divisor /= 10)
+    {
+      sb.append((char) ('0' + value / divisor % 10));
+    }
+  }
+  
+  private static boolean regionMatchesIgnoreCase(CharSequence s, int start, int end, String expected)
+  {
+    if (end - start != expected.length())
+    {
+      return false;
+    }
+    
+    for (int i = 0; i < expected.length(); i++)
+    {
+      if (Character.toLowerCase(s.charAt(start + i)) != expected.charAt(i))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  private static int lengthOfMonth(int year, int month)
+  {
+    if (month == 2)
+    {
+      return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+    }
+    
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+  
+  private static long daysFromCivil(int year, int month, int day)
+  {
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yoe = y - era * 400;
+    int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    
+    return era * 146097L + doe - 719468;
+  }
+}
@@ -55,6 +55,13 @@ public class FloatFieldFormat extends FieldFormat<Float>
     {
       return 0f;
     }
+    float parsed = FieldCodecs.parseFloat(value, 0, value.length());
+    
+    if (!Float.isNaN(parsed))
+    {
+      return parsed;
+    }
+    
     try
     {
       return new Float(value);
@@ -71,6 +78,12 @@ public class FloatFieldFormat extends FieldFormat<Float>
     return value == null ? null : value.toString();
   }
   
+  @Override
+  public StringBuilder valueToEncodedString(Float value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    return value != null ? sb.append(value.floatValue()) : super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
+  
   @Override
   public List<String> getSuitableEditors()
   {
@@ -58,6 +58,13 @@ public class IntFieldFormat extends FieldFormat<Integer>
     {
       return 0;
     }
+    long parsed = FieldCodecs.parseInt(value, 0, value.length());
+    
+    if (parsed != FieldCodecs.NO_VALUE)
+    {
+      return (int) parsed;
+    }
+    
     try
     {
       return new Integer(value);
@@ -74,6 +81,12 @@ public class IntFieldFormat extends FieldFormat<Integer>
     return value == null ? null : value.toString();
   }
   
+  @Override
+  public StringBuilder valueToEncodedString(Integer value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    return value != null ? sb.append(value.intValue()) : super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
+  
   @Override
   public List<String> getSuitableEditors()
   {
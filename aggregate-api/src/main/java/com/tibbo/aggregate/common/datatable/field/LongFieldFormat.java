@@ -53,6 +53,13 @@ public class LongFieldFormat extends FieldFormat<Long>
   @Override
   public Long valueFromString(String value, ClassicEncodingSettings settings, boolean validate)
   {
+    long parsed = FieldCodecs.parseLong(value, 0, value.length());
+    
+    if (parsed != FieldCodecs.NO_VALUE)
+    {
+      return parsed;
+    }
+    
     try
     {
       return new Long(value);
@@ -69,6 +76,12 @@ public class LongFieldFormat extends FieldFormat<Long>
     return value == null ? null : value.toString();
   }
   
+  @Override
+  public StringBuilder valueToEncodedString(Long value, ClassicEncodingSettings settings, StringBuilder sb, Integer encodeLevel)
+  {
+    return value != null ? sb.append(value.longValue()) : super.valueToEncodedString(value, settings, sb, encodeLevel);
+  }
+  
   @Override
   public List<String> getSuitableEditors()
   {
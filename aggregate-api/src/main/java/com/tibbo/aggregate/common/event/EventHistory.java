@@ -0,0 +1,438 @@
+package com.tibbo.aggregate.common.event;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import com.tibbo.aggregate.common.data.Event;
+
+/**
+ * In-memory history of events of a single event definition.
+ * <p>
+ * Events are kept in a ring buffer ordered by creation time, together with a hash index on deduplication ID and a priority queue of expiration times.
+ * Storing an event, finding its duplicate, expiring events and trimming the history to its size limit therefore take constant or logarithmic time
+ * regardless of the history size.
+ * <p>
+ * Events without deduplication ID cannot have duplicates, so they are appended to a lock-free queue and moved to the buffer by the first thread that
+ * acquires the write lock. Range queries by time, level and context visit matching events under the read lock without copying the history.
+ */
+public class EventHistory
+{
+  private static final int INITIAL_CAPACITY = 16; // Must be power of 2
+  
+  private static final Comparator<Entry> EXPIRATION_ORDER = (e1, e2) -> Long.compare(e1.expiration, e2.expiration);
+  
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  
+  private final Queue<Event> pending = new ConcurrentLinkedQueue<>();
+  
+  private volatile int limit;
+  
+  // Entries ordered by time, including removed ones that were not compacted yet
+  private Entry[] ring = new Entry[INITIAL_CAPACITY];
+  private int head;
+  private int count;
+  
+  // Number of entries that were not removed
+  private int live;
+  
+  private final Map<String, Entry> deduplicationIndex = new HashMap<>();
+  
+  // May contain removed entries, that are skipped when polled
+  private PriorityQueue<Entry> expirations = new PriorityQueue<>(INITIAL_CAPACITY, EXPIRATION_ORDER);
+  
+  /**
+   * Adds event to the history, or returns an earlier event having the same deduplication ID. The duplicate is moved to the creation time of the new
+   * event, and the caller is responsible for merging the new event into it.
+   * <p>
+   * Expired events are removed, and the oldest events are removed if the history contains more than <code>limit</code> events.
+   */
+  public Event store(Event event, int limit)
+  {
+    this.limit = limit;
+    
+    if (event.getDeduplicationId() == null)
+    {
+      if (limit > 0)
+      {
+        pending.add(event);
+      }
+      
+      // If lock is busy, the event will be moved to the buffer by the lock owner or by the next operation
+      if (lock.writeLock().tryLock())
+      {
+        try
+        {
+          flush();
+        }
+        finally
+        {
+          lock.writeLock().unlock();
+        }
+      }
+      
+      return null;
+    }
+    
+    lock.writeLock().lock();
+    try
+    {
+      flush();
+      
+      Entry duplicate = deduplicationIndex.get(event.getDeduplicationId());
+      
+      if (duplicate != null)
+      {
+        remove(duplicate);
+        insert(new Entry(duplicate.event, time(event), duplicate.expiration));
+        compact();
+        return duplicate.event;
+      }
+      
+      if (limit > 0)
+      {
+        insert(new Entry(event, time(event), expiration(event)));
+        trim(limit);
+      }
+      
+      return null;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns number of events in the history.
+   */
+  public int size()
+  {
+    flushPending();
+    
+    lock.readLock().lock();
+    try
+    {
+      return live;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Returns list of all non-expired events ordered by creation time.
+   */
+  public List<Event> getEvents()
+  {
+    return find(null, null, null, null);
+  }
+  
+  /**
+   * Returns list of non-expired events matching the specified criteria. See {@link #forEach(Date, Date, Integer, String, Consumer)}.
+   */
+  public List<Event> find(Date from, Date to, Integer minLevel, String context)
+  {
+    List<Event> result = new ArrayList<>();
+    forEach(from, to, minLevel, context, result::add);
+    return result;
+  }
+  
+  /**
+   * Passes to <code>action</code> non-expired events created within the specified time range (both bounds inclusive), having level not lower than
+   * <code>minLevel</code> and belonging to the specified context. Null criteria are not checked. Events are visited in order of creation time under the
+   * read lock, so <code>action</code> must not modify the history.
+   */
+  public void forEach(Date from, Date to, Integer minLevel, String context, Consumer<? super Event> action)
+  {
+    flushPending();
+    
+    long now = System.currentTimeMillis();
+    long toTime = to != null ? to.getTime() : Long.MAX_VALUE;
+    
+    lock.readLock().lock();
+    try
+    {
+      for (int i = from != null ? search(from.getTime()) : 0; i < count; i++)
+      {
+        Entry entry = get(i);
+        
+        if (entry.time > toTime)
+        {
+          break;
+        }
+        
+        if (entry.removed || entry.expiration < now)
+        {
+          continue;
+        }
+        
+        Event event = entry.event;
+        
+        if (minLevel != null && event.getLevel() < minLevel)
+        {
+          continue;
+        }
+        
+        if (context != null && !context.equals(event.getContext()))
+        {
+          continue;
+        }
+        
+        action.accept(event);
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * Moves events of context <code>oldPath</code> to <code>newPath</code>.
+   */
+  public void updateContext(String oldPath, String newPath)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      flush();
+      
+      for (int i = 0; i < count; i++)
+      {
+        Entry entry = get(i);
+        
+        if (!entry.removed && entry.event.getContext().equals(oldPath))
+        {
+          entry.event.setContext(newPath);
+        }
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+  
+  private void flushPending()
+  {
+    if (!pending.isEmpty())
+    {
+      lock.writeLock().lock();
+      try
+      {
+        flush();
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+  
+  private void flush()
+  {
+    Event event;
+    while ((event = pending.poll()) != null)
+    {
+      insert(new Entry(event, time(event), expiration(event)));
+    }
+    
+    expire(System.currentTimeMillis());
+    
+    trim(limit);
+  }
+  
+  private void expire(long now)
+  {
+    while (!expirations.isEmpty() && expirations.peek().expiration < now)
+    {
+      Entry entry = expirations.poll();
+      
+      if (!entry.removed)
+      {
+        remove(entry);
+      }
+    }
+    
+    compact();
+  }
+  
+  private void trim(int limit)
+  {
+    while (live > Math.max(limit, 0))
+    {
+      compact();
+      remove(ring[head]);
+    }
+    
+    compact();
+  }
+  
+  private void insert(Entry entry)
+  {
+    if (count == ring.length)
+    {
+      resize(live < ring.length / 2 ? ring.length : ring.length * 2);
+    }
+    
+    // Events usually come in order of creation time, so the loop rarely shifts more than a few entries
+    int pos = count;
+    while (pos > 0 && get(pos - 1).time > entry.time)
+    {
+      set(pos, get(pos - 1));
+      pos--;
+    }
+    
+    set(pos, entry);
+    count++;
+    live++;
+    
+    if (entry.deduplicationId != null)
+    {
+      deduplicationIndex.put(entry.deduplicationId, entry);
+    }
+    
+    if (entry.expiration != Long.MAX_VALUE)
+    {
+      expirations.add(entry);
+    }
+  }
+  
+  private void remove(Entry entry)
+  {
+    entry.removed = true;
+    live--;
+    
+    if (entry.deduplicationId != null && deduplicationIndex.get(entry.deduplicationId) == entry)
+    {
+      deduplicationIndex.remove(entry.deduplicationId);
+    }
+  }
+  
+  /**
+   * Drops removed entries from the head of the buffer, and rebuilds the buffer and the expiration queue if most of their entries are removed.
+   */
+  private void compact()
+  {
+    while (count > 0 && ring[head].removed)
+    {
+      ring[head] = null;
+      head = (head + 1) & (ring.length - 1);
+      count--;
+    }
+    
+    if (count - live > live + INITIAL_CAPACITY)
+    {
+      resize(ring.length);
+    }
+    
+    if (expirations.size() > 2 * live + INITIAL_CAPACITY)
+    {
+      PriorityQueue<Entry> rebuilt = new PriorityQueue<>(Math.max(live, INITIAL_CAPACITY), EXPIRATION_ORDER);
+      for (Entry entry : expirations)
+      {
+        if (!entry.removed)
+        {
+          rebuilt.add(entry);
+        }
+      }
+      expirations = rebuilt;
+    }
+  }
+  
+  /**
+   * Copies entries that are not removed to a new buffer of the specified capacity.
+   */
+  private void resize(int capacity)
+  {
+    Entry[] resized = new Entry[capacity];
+    
+    int j = 0;
+    for (int i = 0; i < count; i++)
+    {
+      Entry entry = get(i);
+      if (!entry.removed)
+      {
+        resized[j++] = entry;
+      }
+    }
+    
+    ring = resized;
+    head = 0;
+    count = j;
+  }
+  
+  /**
+   * Returns position of the first entry with time not less than the specified one.
+   */
+  private int search(long time)
+  {
+    int low = 0;
+    int high = count;
+    
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      
+      if (get(mid).time < time)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    
+    return low;
+  }
+  
+  private Entry get(int index)
+  {
+    return ring[(head + index) & (ring.length - 1)];
+  }
+  
+  private void set(int index, Entry entry)
+  {
+    ring[(head + index) & (ring.length - 1)] = entry;
+  }
+  
+  private static long time(Event event)
+  {
+    Date time = event.getCreationtime() != null ? event.getCreationtime() : event.getInstantiationtime();
+    return time.getTime();
+  }
+  
+  private static long expiration(Event event)
+  {
+    return event.getExpirationtime() != null ? event.getExpirationtime().getTime() : Long.MAX_VALUE;
+  }
+  
+  private static class Entry
+  {
+    private final Event event;
+    private final String deduplicationId;
+    private final long time;
+    private final long expiration;
+    
+    private boolean removed;
+    
+    Entry(Event event, long time, long expiration)
+    {
+      this.event = event;
+      this.deduplicationId = event.getDeduplicationId();
+      this.time = time;
+      this.expiration = expiration;
+    }
+  }
+}
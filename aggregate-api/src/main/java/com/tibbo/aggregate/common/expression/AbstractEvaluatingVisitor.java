@@ -399,7 +399,7 @@ public abstract class AbstractEvaluatingVisitor implements ExpressionParserVisit
     Object right = ExpressionUtils.getValue(rao);
     if ((left == null) || (right == null))
     {
-      return ExpressionUtils.toAttributed(Boolean.FALSE, lao, rao);
+      return set(-1, ExpressionUtils.toAttributed(Boolean.FALSE, lao, rao));
     }
     return set(-1, ExpressionUtils.toAttributed(left.toString().matches(right.toString()), lao, rao));
   }
@@ -0,0 +1,563 @@
+package com.tibbo.aggregate.common.expression;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.tibbo.aggregate.common.datatable.ColumnarDataTable;
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.FieldFormat;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Compare;
+import com.tibbo.aggregate.common.expression.CompiledExpression.CompareWithLong;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Comparison;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Constant;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Equal;
+import com.tibbo.aggregate.common.expression.CompiledExpression.FunctionNode;
+import com.tibbo.aggregate.common.expression.CompiledExpression.LogicalAnd;
+import com.tibbo.aggregate.common.expression.CompiledExpression.LogicalNot;
+import com.tibbo.aggregate.common.expression.CompiledExpression.LogicalOr;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Node;
+import com.tibbo.aggregate.common.expression.CompiledExpression.ReferenceNode;
+import com.tibbo.aggregate.common.expression.function.DefaultFunctions;
+import com.tibbo.aggregate.common.util.SyntaxErrorException;
+import com.tibbo.aggregate.common.util.Util;
+
+/**
+ * Filter expression evaluated over ranges of rows of its default table at once.
+ * <p>
+ * Parts of the compiled expression comparing a field of the default table with a constant, or passing a field and constants to a string predicate
+ * function (<code>contains</code>, <code>startsWith</code>, <code>endsWith</code>), are evaluated column by column without resolving references.
+ * Integer and Long fields of a {@link ColumnarDataTable} are compared with integral constants without boxing. Logical operators combine selections of
+ * their operands as bitmaps, and the right operand of <code>&amp;&amp;</code> and <code>||</code> is evaluated only for rows whose selection is still
+ * undecided, like the interpreter does. All other parts of the expression are evaluated row by row.
+ */
+public final class BatchFilter
+{
+  private static final Set<String> STRING_PREDICATES = new HashSet<>(Arrays.asList(DefaultFunctions.CONTAINS.getName(), DefaultFunctions.STARTS_WITH.getName(),
+      DefaultFunctions.ENDS_WITH.getName()));
+  
+  private final Selector root;
+  
+  private BatchFilter(Selector root)
+  {
+    this.root = root;
+  }
+  
+  /**
+   * Compiles the filter for evaluation by the evaluator against the table. Returns null if the expression cannot be evaluated in batches without
+   * changing its results, e.g. if the environment substitutes the row of references or expression evaluation is being debugged.
+   */
+  public static BatchFilter compile(Expression expression, Evaluator evaluator, EvaluationEnvironment environment, DataTable table) throws SyntaxErrorException
+  {
+    if (!Evaluator.COMPILATION_ENABLED || expression.getText().isEmpty() || expression.obtainPinpoint().isPresent())
+    {
+      return null;
+    }
+    
+    if (environment != null && (environment.isDebug() || (environment.getCause() != null && environment.getCause().getRow() != null)))
+    {
+      return null;
+    }
+    
+    if (expression.getRootNode() == null)
+    {
+      expression.setRootNode(ExpressionCache.parse(expression));
+    }
+    
+    CompiledExpression compiled = expression.getCompiled();
+    
+    if (compiled == null)
+    {
+      compiled = ExpressionCache.compile(expression, expression.getRootNode());
+      expression.setCompiled(compiled);
+    }
+    
+    // Fields are read directly only if references are resolved from the table by the default resolver
+    ReferenceResolver resolver = evaluator.getResolver(Evaluator.DEFAULT_RESOLVER_KEY);
+    boolean direct = resolver != null && resolver.getClass() == DefaultReferenceResolver.class && resolver.getDefaultTable() == table
+        && (environment == null || !environment.getCustomResolvers().containsKey(Evaluator.DEFAULT_RESOLVER_KEY));
+    
+    return new BatchFilter(new Compiler(table, direct).compile(compiled.getRoot()));
+  }
+  
+  /**
+   * Returns true if at least a part of the filter is evaluated column by column.
+   */
+  public boolean isVectorized()
+  {
+    return root.isVectorized();
+  }
+  
+  /**
+   * Evaluates the filter for rows <code>from</code> (inclusive) to <code>to</code> (exclusive) of the table. Bit <code>i</code> of the result is set
+   * if row <code>from + i</code> passes the filter. If evaluation fails, sub-expressions may have already been evaluated for any of the rows.
+   */
+  public BitSet select(Evaluator evaluator, EvaluationEnvironment environment, DataTable table, int from, int to)
+  {
+    BitSet candidates = new BitSet(to - from);
+    candidates.set(0, to - from);
+    
+    BitSet result = new BitSet(to - from);
+    
+    root.select(new Batch(evaluator, environment, table, from), candidates, result);
+    
+    return result;
+  }
+  
+  private static final class Batch
+  {
+    private final Evaluator evaluator;
+    private final EvaluationEnvironment environment;
+    private final DataTable table;
+    private final ColumnarDataTable columnar;
+    private final int offset;
+    
+    private Batch(Evaluator evaluator, EvaluationEnvironment environment, DataTable table, int offset)
+    {
+      this.evaluator = evaluator;
+      this.environment = environment;
+      this.table = table;
+      this.columnar = table instanceof ColumnarDataTable ? (ColumnarDataTable) table : null;
+      this.offset = offset;
+    }
+    
+    private Object getValue(int row, int field)
+    {
+      return table.getRecord(offset + row).getValue(field);
+    }
+  }
+  
+  private static final class Compiler
+  {
+    private final DataTable table;
+    private final boolean direct;
+    
+    private Compiler(DataTable table, boolean direct)
+    {
+      this.table = table;
+      this.direct = direct;
+    }
+    
+    private Selector compile(Node node)
+    {
+      if (node instanceof LogicalAnd || node instanceof LogicalOr)
+      {
+        boolean and = node instanceof LogicalAnd;
+        
+        Selector left = compile(and ? ((LogicalAnd) node).left : ((LogicalOr) node).left);
+        Selector right = compile(and ? ((LogicalAnd) node).right : ((LogicalOr) node).right);
+        
+        if (!left.isVectorized() && !right.isVectorized())
+        {
+          return new Residual(node);
+        }
+        
+        return and ? new And(left, right) : new Or(left, right);
+      }
+      
+      if (node instanceof LogicalNot)
+      {
+        Selector operand = compile(((LogicalNot) node).operand);
+        
+        // Complement of a selection is the result of negation only if operand is never null
+        return operand.isBoolean() ? new Not(operand) : new Residual(node);
+      }
+      
+      if (node instanceof Equal || node instanceof Compare || node instanceof CompareWithLong)
+      {
+        Selector selector = compileComparison((CompiledExpression.Binary) node);
+        
+        if (selector != null)
+        {
+          return selector;
+        }
+      }
+      
+      if (node instanceof FunctionNode)
+      {
+        Selector selector = compileStringPredicate((FunctionNode) node);
+        
+        if (selector != null)
+        {
+          return selector;
+        }
+      }
+      
+      return new Residual(node);
+    }
+    
+    private Selector compileComparison(CompiledExpression.Binary node)
+    {
+      int leftField = getField(node.left);
+      int rightField = getField(node.right);
+      
+      boolean constantOnLeft;
+      int field;
+      Object constant;
+      
+      if (leftField != -1 && node.right instanceof Constant)
+      {
+        constantOnLeft = false;
+        field = leftField;
+        constant = ((Constant) node.right).value;
+      }
+      else if (rightField != -1 && node.left instanceof Constant)
+      {
+        constantOnLeft = true;
+        field = rightField;
+        constant = ((Constant) node.left).value;
+      }
+      else
+      {
+        return null;
+      }
+      
+      if (node instanceof Equal)
+      {
+        return new FieldComparison(field, constant, constantOnLeft, null, ((Equal) node).negate, isIntegralField(field));
+      }
+      
+      Comparison comparison = node instanceof Compare ? ((Compare) node).comparison : ((CompareWithLong) node).comparison;
+      
+      return new FieldComparison(field, constant, constantOnLeft, comparison, false, isIntegralField(field));
+    }
+    
+    private Selector compileStringPredicate(FunctionNode node)
+    {
+      if (node.function == null || !STRING_PREDICATES.contains(node.name))
+      {
+        return null;
+      }
+      
+      int argument = -1;
+      int field = -1;
+      
+      AttributedObject[] parameters = new AttributedObject[node.arguments.length];
+      
+      for (int i = 0; i < node.arguments.length; i++)
+      {
+        Node child = node.arguments[i];
+        
+        if (child instanceof Constant)
+        {
+          parameters[i] = ExpressionUtils.toAttributed(((Constant) child).value);
+        }
+        else if (argument == -1 && (field = getField(child)) != -1)
+        {
+          argument = i;
+        }
+        else
+        {
+          return null;
+        }
+      }
+      
+      return argument != -1 ? new StringPredicate(node, parameters, argument, field) : null;
+    }
+    
+    /**
+     * Returns index of the field if node is a plain reference to a field of the default table, or -1 otherwise.
+     */
+    private int getField(Node node)
+    {
+      if (!direct || !(node instanceof ReferenceNode))
+      {
+        return -1;
+      }
+      
+      Reference ref = ((ReferenceNode) node).reference;
+      
+      List<?> fields = ref.getFields();
+      
+      if (ref.getSchema() != null || ref.getServer() != null || ref.getContext() != null || ref.getEntity() != null || ref.getProperty() != null
+          || ref.getRow() != null || fields.size() != 1 || !ref.getParameters().isEmpty())
+      {
+        return -1;
+      }
+      
+      return table.getFormat().getFieldIndex(ref.getField());
+    }
+    
+    private boolean isIntegralField(int field)
+    {
+      char type = table.getFormat().getField(field).getType();
+      return type == FieldFormat.INTEGER_FIELD || type == FieldFormat.LONG_FIELD;
+    }
+  }
+  
+  private abstract static class Selector
+  {
+    /**
+     * Sets bits of candidate rows passing the filter in the result.
+     */
+    abstract void select(Batch batch, BitSet candidates, BitSet result);
+    
+    /**
+     * Returns true if selector or any of its operands is evaluated column by column.
+     */
+    boolean isVectorized()
+    {
+      return true;
+    }
+    
+    /**
+     * Returns true if the expression evaluated by the selector never produces null.
+     */
+    boolean isBoolean()
+    {
+      return true;
+    }
+  }
+  
+  private static final class And extends Selector
+  {
+    private final Selector left;
+    private final Selector right;
+    
+    private And(Selector left, Selector right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      BitSet passed = new BitSet(candidates.length());
+      
+      left.select(batch, candidates, passed);
+      right.select(batch, passed, result);
+    }
+  }
+  
+  private static final class Or extends Selector
+  {
+    private final Selector left;
+    private final Selector right;
+    
+    private Or(Selector left, Selector right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      left.select(batch, candidates, result);
+      
+      BitSet rest = (BitSet) candidates.clone();
+      rest.andNot(result);
+      
+      right.select(batch, rest, result);
+    }
+  }
+  
+  private static final class Not extends Selector
+  {
+    private final Selector operand;
+    
+    private Not(Selector operand)
+    {
+      this.operand = operand;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      BitSet passed = new BitSet(candidates.length());
+      
+      operand.select(batch, candidates, passed);
+      
+      passed.flip(0, candidates.length());
+      passed.and(candidates);
+      
+      result.or(passed);
+    }
+  }
+  
+  /**
+   * Comparison of a field with a constant, evaluated like {@link CompiledExpression.Equal} or {@link CompiledExpression.Compare}.
+   */
+  private static final class FieldComparison extends Selector
+  {
+    private final int field;
+    private final Object constant;
+    private final boolean constantOnLeft;
+    private final Comparison comparison; // Null for equality
+    private final boolean negate;
+    private final boolean integralField;
+    
+    private FieldComparison(int field, Object constant, boolean constantOnLeft, Comparison comparison, boolean negate, boolean integralField)
+    {
+      this.field = field;
+      this.constant = constant;
+      this.constantOnLeft = constantOnLeft;
+      this.comparison = comparison;
+      this.negate = negate;
+      this.integralField = integralField;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      if (batch.columnar != null && integralField && CompiledExpression.isIntegral(constant))
+      {
+        selectPrimitive(batch, candidates, result);
+        return;
+      }
+      
+      for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1))
+      {
+        if (test(batch.getValue(row, field)))
+        {
+          result.set(row);
+        }
+      }
+    }
+    
+    private void selectPrimitive(Batch batch, BitSet candidates, BitSet result)
+    {
+      ColumnarDataTable table = batch.columnar;
+      
+      long value = ((Number) constant).longValue();
+      boolean nullResult = test(null);
+      
+      for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1))
+      {
+        int index = batch.offset + row;
+        
+        boolean passed;
+        
+        if (table.isNull(index, field))
+        {
+          passed = nullResult;
+        }
+        else
+        {
+          long cell = table.getLongValue(index, field);
+          
+          if (comparison == null)
+          {
+            passed = (cell == value) != negate;
+          }
+          else
+          {
+            passed = comparison.test(constantOnLeft ? Long.compare(value, cell) : Long.compare(cell, value));
+          }
+        }
+        
+        if (passed)
+        {
+          result.set(row);
+        }
+      }
+    }
+    
+    private boolean test(Object value)
+    {
+      Object left = constantOnLeft ? constant : value;
+      Object right = constantOnLeft ? value : constant;
+      
+      if (comparison == null)
+      {
+        return AbstractEvaluatingVisitor.equal(left, right) != negate;
+      }
+      
+      return comparison.test(CompiledExpression.compare(left, right));
+    }
+  }
+  
+  /**
+   * String predicate function called with a field and constants. Only the field argument is prepared for every row.
+   */
+  private static final class StringPredicate extends Selector
+  {
+    private final FunctionNode node;
+    private final AttributedObject[] parameters;
+    private final int argument;
+    private final int field;
+    
+    private StringPredicate(FunctionNode node, AttributedObject[] parameters, int argument, int field)
+    {
+      this.node = node;
+      this.parameters = parameters;
+      this.argument = argument;
+      this.field = field;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      EvaluationEnvironment environment = batch.environment != null ? batch.environment : new EvaluationEnvironment();
+      
+      AttributedObject[] params = parameters.clone();
+      
+      for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1))
+      {
+        // Attributes are the same as the ones of values resolved by the default resolver
+        params[argument] = new DefaultAttributedObject(batch.getValue(row, field), batch.table.getTimestamp(), batch.table.getQuality());
+        
+        Object value = node.execute(node.function, batch.evaluator, environment, params);
+        
+        if (Util.convertToBoolean(CompiledExpression.value(value), true, false))
+        {
+          result.set(row);
+        }
+      }
+    }
+    
+    @Override
+    boolean isBoolean()
+    {
+      return false;
+    }
+  }
+  
+  /**
+   * Part of the expression evaluated row by row.
+   */
+  private static final class Residual extends Selector
+  {
+    private final Node node;
+    
+    private Residual(Node node)
+    {
+      this.node = node;
+    }
+    
+    @Override
+    void select(Batch batch, BitSet candidates, BitSet result)
+    {
+      ReferenceResolver resolver = batch.evaluator.getDefaultResolver();
+      
+      for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1))
+      {
+        resolver.setDefaultRow(batch.offset + row);
+        
+        EvaluationEnvironment environment = batch.environment != null ? batch.environment : new EvaluationEnvironment();
+        
+        Object value = node.evaluate(batch.evaluator, environment);
+        
+        if (Util.convertToBoolean(CompiledExpression.value(value), true, false))
+        {
+          result.set(row);
+        }
+      }
+    }
+    
+    @Override
+    boolean isVectorized()
+    {
+      return false;
+    }
+    
+    @Override
+    boolean isBoolean()
+    {
+      return false;
+    }
+  }
+}
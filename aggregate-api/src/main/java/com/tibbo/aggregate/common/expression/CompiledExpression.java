@@ -0,0 +1,1030 @@
+package com.tibbo.aggregate.common.expression;
+
+import java.text.MessageFormat;
+import java.util.Optional;
+
+import com.tibbo.aggregate.common.Cres;
+import com.tibbo.aggregate.common.expression.parser.SimpleNode;
+import com.tibbo.aggregate.common.structure.CallKind;
+import com.tibbo.aggregate.common.structure.CallLocation;
+import com.tibbo.aggregate.common.structure.Pinpoint;
+import com.tibbo.aggregate.common.util.Util;
+
+/**
+ * Expression compiled by {@link ExpressionCompiler} into a tree of closures.
+ * <p>
+ * Compiled nodes produce the same results as {@link DefaultEvaluatingVisitor}, but they pass plain values between each other instead of pushing
+ * <code>AttributedObject</code>s to the operand stack. Values are wrapped only if a reference or a function returned an attributed value having a
+ * timestamp or quality, so attribute propagation rules are preserved.
+ * <p>
+ * Compiled expressions are immutable and may be evaluated by several threads at once.
+ */
+public final class CompiledExpression
+{
+  private final Node root;
+  
+  CompiledExpression(Node root)
+  {
+    this.root = root;
+  }
+  
+  /**
+   * Evaluates the expression. Returns either a plain value or an <code>AttributedObject</code>.
+   */
+  public Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+  {
+    return root.evaluate(evaluator, environment);
+  }
+  
+  Node getRoot()
+  {
+    return root;
+  }
+  
+  static Object value(Object object)
+  {
+    return object instanceof AttributedObject ? ((AttributedObject) object).getValue() : object;
+  }
+  
+  /**
+   * Attaches attributes of the operand to the result, like {@link ExpressionUtils#toAttributed(Object, AttributedObject)} does.
+   */
+  static Object result(Object value, Object source)
+  {
+    if (source instanceof AttributedObject)
+    {
+      AttributedObject ao = (AttributedObject) source;
+      
+      if (ao.getTimestamp() != null || ao.getQuality() != null)
+      {
+        return ExpressionUtils.toAttributed(value, ao);
+      }
+    }
+    
+    return value;
+  }
+  
+  /**
+   * Attaches attributes of the operands to the result, like {@link ExpressionUtils#toAttributed(Object, AttributedObject, AttributedObject)} does.
+   */
+  static Object result(Object value, Object first, Object second)
+  {
+    AttributedObject fao = first instanceof AttributedObject ? (AttributedObject) first : null;
+    AttributedObject sao = second instanceof AttributedObject ? (AttributedObject) second : null;
+    
+    if ((fao != null && fao.getTimestamp() != null) || (sao != null && sao.getTimestamp() != null))
+    {
+      return ExpressionUtils.toAttributed(value, fao, sao);
+    }
+    
+    return value;
+  }
+  
+  static boolean isIntegral(Object value)
+  {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+  
+  static boolean isFloatingPoint(Object value)
+  {
+    return value instanceof Double || value instanceof Float;
+  }
+  
+  /**
+   * Same as {@link AbstractEvaluatingVisitor#compare(Object, Object)}, with fast paths for primitive wrappers.
+   */
+  static int compare(Object v1, Object v2)
+  {
+    if (isIntegral(v1) && isIntegral(v2))
+    {
+      return Long.compare(((Number) v1).longValue(), ((Number) v2).longValue());
+    }
+    
+    if (v1 instanceof Double && v2 instanceof Double)
+    {
+      return Double.compare((Double) v1, (Double) v2);
+    }
+    
+    if ((isFloatingPoint(v1) || isIntegral(v1)) && (isFloatingPoint(v2) || isIntegral(v2)))
+    {
+      return Float.compare(((Number) v1).floatValue(), ((Number) v2).floatValue());
+    }
+    
+    return AbstractEvaluatingVisitor.compare(v1, v2);
+  }
+  
+  abstract static class Node
+  {
+    abstract Object evaluate(Evaluator evaluator, EvaluationEnvironment environment);
+    
+    /**
+     * Returns true if node result depends only on results of its children, so the node may be folded if all children are constants.
+     */
+    boolean isPure()
+    {
+      return true;
+    }
+  }
+  
+  static final class Constant extends Node
+  {
+    final Object value;
+    
+    Constant(Object value)
+    {
+      this.value = value;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      return value;
+    }
+  }
+  
+  /**
+   * Evaluates all children and returns result of the last one.
+   */
+  static final class Sequence extends Node
+  {
+    private final Node[] children;
+    
+    Sequence(Node[] children)
+    {
+      this.children = children;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object result = null;
+      for (Node child : children)
+      {
+        result = child.evaluate(evaluator, environment);
+      }
+      return result;
+    }
+  }
+  
+  /**
+   * Evaluates a subtree that has no compiled counterpart by the interpreter.
+   */
+  static final class Interpreted extends Node
+  {
+    private final SimpleNode node;
+    
+    Interpreted(SimpleNode node)
+    {
+      this.node = node;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      DefaultEvaluatingVisitor visitor = new DefaultEvaluatingVisitor(evaluator);
+      node.jjtAccept(visitor, environment);
+      return visitor.getResult();
+    }
+    
+    @Override
+    boolean isPure()
+    {
+      return false;
+    }
+  }
+  
+  static final class ReferenceNode extends Node
+  {
+    final Reference reference;
+    private final String image;
+    private final int line;
+    private final int column;
+    
+    ReferenceNode(Reference reference, String image, int line, int column)
+    {
+      this.reference = reference;
+      this.image = image;
+      this.line = line;
+      this.column = column;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Optional<Pinpoint> pinpoint = environment.obtainPinpoint();
+      
+      try
+      {
+        // First, check for resolver in the current environment (i.e. on per-expression basis)
+        ReferenceResolver resolver = environment.getCustomResolvers().get(reference.getSchema());
+        // Then, if no, check for it outside (i.e. on evaluator-wide level)
+        if (resolver == null)
+        {
+          resolver = evaluator.getResolver(reference.getSchema());
+        }
+        
+        if (resolver == null)
+        {
+          throw new IllegalStateException(Cres.get().getString("exprNoResolverForSchema") + reference.getSchema());
+        }
+        
+        if (pinpoint.isPresent())
+        {
+          pinpoint.get().pushLocation(new CallLocation(CallKind.REFERENCE, line, column, image));
+        }
+        
+        return resolver.resolveReference(reference, environment);
+      }
+      catch (Exception ex)
+      {
+        throw new IllegalStateException(MessageFormat.format(Cres.get().getString("exprErrResolvingReference"), reference) + ex.getMessage(), ex);
+      }
+      finally
+      {
+        pinpoint.ifPresent(Pinpoint::popLocation);
+      }
+    }
+    
+    @Override
+    boolean isPure()
+    {
+      return false;
+    }
+  }
+  
+  static final class FunctionNode extends Node
+  {
+    final String name;
+    final Function function; // Default function resolved during compilation, if any
+    final Node[] arguments;
+    private final int line;
+    private final int column;
+    
+    FunctionNode(String name, Function function, Node[] arguments, int line, int column)
+    {
+      this.name = name;
+      this.function = function;
+      this.arguments = arguments;
+      this.line = line;
+      this.column = column;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Function fi = function;
+      
+      if (fi == null)
+      {
+        fi = AbstractEvaluatingVisitor.DEFAULT_FUNCTIONS.get(name);
+      }
+      
+      if (fi == null)
+      {
+        fi = evaluator.getCustomFunction(name);
+      }
+      
+      if (fi == null)
+      {
+        throw new IllegalStateException(Cres.get().getString("exprUnknownFunction") + name);
+      }
+      
+      AttributedObject[] parameters = new AttributedObject[arguments.length];
+      
+      for (int i = 0; i < arguments.length; i++)
+      {
+        parameters[i] = ExpressionUtils.toAttributed(arguments[i].evaluate(evaluator, environment));
+      }
+      
+      return execute(fi, evaluator, environment, parameters);
+    }
+    
+    Object execute(Function fi, Evaluator evaluator, EvaluationEnvironment environment, AttributedObject[] parameters)
+    {
+      Optional<Pinpoint> pinpoint = environment.obtainPinpoint();
+      
+      try
+      {
+        if (pinpoint.isPresent())
+        {
+          pinpoint.get().pushLocation(new CallLocation(CallKind.FUNCTION, line, column, name));
+        }
+        
+        return fi.executeAttributed(evaluator, environment, parameters);
+      }
+      catch (Exception ex)
+      {
+        throw new IllegalStateException(MessageFormat.format(Cres.get().getString("exprErrExecutingFunction"), name) + ex.getMessage(), ex);
+      }
+      finally
+      {
+        pinpoint.ifPresent(Pinpoint::popLocation);
+      }
+    }
+    
+    @Override
+    boolean isPure()
+    {
+      return false;
+    }
+  }
+  
+  static final class Catch extends Node
+  {
+    private final Node body;
+    private final Node handler;
+    
+    Catch(Node body, Node handler)
+    {
+      this.body = body;
+      this.handler = handler;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      try
+      {
+        return body.evaluate(evaluator, environment);
+      }
+      catch (Exception ex)
+      {
+        Evaluator.EvaluationStatistics.onErrorCatch();
+        
+        if (handler != null)
+        {
+          return handler.evaluate(evaluator, environment);
+        }
+        
+        return ex.getMessage() != null ? ex.getMessage() : ex.toString();
+      }
+    }
+    
+    @Override
+    boolean isPure()
+    {
+      return false;
+    }
+  }
+  
+  static final class Conditional extends Node
+  {
+    private final Node condition;
+    private final Node positive;
+    private final Node negative;
+    
+    Conditional(Node condition, Node positive, Node negative)
+    {
+      this.condition = condition;
+      this.positive = positive;
+      this.negative = negative;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      if (Util.convertToBoolean(value(condition.evaluate(evaluator, environment)), true, false))
+      {
+        return positive.evaluate(evaluator, environment);
+      }
+      else
+      {
+        return negative.evaluate(evaluator, environment);
+      }
+    }
+  }
+  
+  static final class LogicalOr extends Node
+  {
+    final Node left;
+    final Node right;
+    
+    LogicalOr(Node left, Node right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object lo = left.evaluate(evaluator, environment);
+      
+      if (Util.convertToBoolean(value(lo), true, false))
+      {
+        return result(Boolean.TRUE, lo);
+      }
+      
+      Object ro = right.evaluate(evaluator, environment);
+      
+      return result(Util.convertToBoolean(value(ro), true, false), lo, ro);
+    }
+  }
+  
+  static final class LogicalAnd extends Node
+  {
+    final Node left;
+    final Node right;
+    
+    LogicalAnd(Node left, Node right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object lo = left.evaluate(evaluator, environment);
+      
+      if (!Util.convertToBoolean(value(lo), true, false))
+      {
+        return result(Boolean.FALSE, lo);
+      }
+      
+      Object ro = right.evaluate(evaluator, environment);
+      
+      return result(Util.convertToBoolean(value(ro), true, false), lo, ro);
+    }
+  }
+  
+  /**
+   * Operator having a single operand. Null operand produces null result without attributes.
+   */
+  abstract static class Unary extends Node
+  {
+    final Node operand;
+    
+    Unary(Node operand)
+    {
+      this.operand = operand;
+    }
+    
+    @Override
+    final Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object source = operand.evaluate(evaluator, environment);
+      
+      Object value = apply(value(source));
+      
+      return value != null ? result(value, source) : null;
+    }
+    
+    abstract Object apply(Object value);
+  }
+  
+  /**
+   * Operator having two operands that are always evaluated. Null result is returned without attributes.
+   */
+  abstract static class Binary extends Node
+  {
+    final Node left;
+    final Node right;
+    
+    Binary(Node left, Node right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object lo = left.evaluate(evaluator, environment);
+      Object ro = right.evaluate(evaluator, environment);
+      
+      Object value = apply(value(lo), value(ro));
+      
+      return value != null ? result(value, lo, ro) : null;
+    }
+    
+    abstract Object apply(Object left, Object right);
+  }
+  
+  /**
+   * Arithmetic operator with fast paths for integral and floating point wrappers. Other operand types are converted to numbers like the interpreter
+   * does.
+   */
+  abstract static class Arithmetic extends Binary
+  {
+    Arithmetic(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      if (isIntegral(left) && isIntegral(right))
+      {
+        return applyLong(((Number) left).longValue(), ((Number) right).longValue());
+      }
+      
+      if ((isFloatingPoint(left) || isIntegral(left)) && (isFloatingPoint(right) || isIntegral(right)))
+      {
+        return applyDouble(((Number) left).doubleValue(), ((Number) right).doubleValue());
+      }
+      
+      Number ln = Util.convertToNumber(left, false, true);
+      Number rn = Util.convertToNumber(right, false, true);
+      
+      if (ln == null || rn == null)
+      {
+        return null;
+      }
+      
+      if (isFloatingPoint(ln) || isFloatingPoint(rn))
+      {
+        return applyDouble(ln.doubleValue(), rn.doubleValue());
+      }
+      
+      return applyLong(ln.longValue(), rn.longValue());
+    }
+    
+    abstract Object applyLong(long left, long right);
+    
+    abstract Object applyDouble(double left, double right);
+  }
+  
+  static final class Add extends Arithmetic
+  {
+    Add(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      if (left instanceof String || right instanceof String)
+      {
+        String s1 = left != null ? left.toString() : "";
+        String s2 = right != null ? right.toString() : "";
+        return s1 + s2;
+      }
+      
+      return super.apply(left, right);
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left + right;
+    }
+    
+    @Override
+    Object applyDouble(double left, double right)
+    {
+      return left + right;
+    }
+  }
+  
+  static final class Subtract extends Arithmetic
+  {
+    Subtract(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left - right;
+    }
+    
+    @Override
+    Object applyDouble(double left, double right)
+    {
+      return left - right;
+    }
+  }
+  
+  static final class Multiply extends Arithmetic
+  {
+    Multiply(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left * right;
+    }
+    
+    @Override
+    Object applyDouble(double left, double right)
+    {
+      return left * right;
+    }
+  }
+  
+  static final class Divide extends Arithmetic
+  {
+    Divide(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      // Integer division is used only if there is no remainder
+      if (left % right != 0)
+      {
+        return (double) left / (double) right;
+      }
+      
+      return left / right;
+    }
+    
+    @Override
+    Object applyDouble(double left, double right)
+    {
+      return left / right;
+    }
+  }
+  
+  static final class Modulo extends Binary
+  {
+    Modulo(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      if (isIntegral(left) && isIntegral(right))
+      {
+        return ((Number) left).longValue() % ((Number) right).longValue();
+      }
+      
+      Number ln = Util.convertToNumber(left, false, true);
+      Number rn = Util.convertToNumber(right, false, true);
+      
+      if (ln == null || rn == null)
+      {
+        return null;
+      }
+      
+      return ln.longValue() % rn.longValue();
+    }
+  }
+  
+  /**
+   * Bitwise and shift operators. Result is integer if both operands are integers, and long otherwise.
+   */
+  abstract static class Bitwise extends Binary
+  {
+    Bitwise(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      Number ln = Util.convertToNumber(left, false, true);
+      Number rn = Util.convertToNumber(right, false, true);
+      
+      if (ln == null || rn == null)
+      {
+        return null;
+      }
+      
+      if (ln instanceof Integer && rn instanceof Integer)
+      {
+        return applyInt(ln.intValue(), rn.intValue());
+      }
+      
+      return applyLong(ln.longValue(), rn.longValue());
+    }
+    
+    abstract Object applyInt(int left, int right);
+    
+    abstract Object applyLong(long left, long right);
+  }
+  
+  static final class BitwiseAnd extends Bitwise
+  {
+    BitwiseAnd(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left & right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left & right;
+    }
+  }
+  
+  static final class BitwiseOr extends Bitwise
+  {
+    BitwiseOr(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left | right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left | right;
+    }
+  }
+  
+  static final class BitwiseXor extends Bitwise
+  {
+    BitwiseXor(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left ^ right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left ^ right;
+    }
+  }
+  
+  static final class LeftShift extends Bitwise
+  {
+    LeftShift(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left << right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left << right;
+    }
+  }
+  
+  static final class RightShift extends Bitwise
+  {
+    RightShift(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left >> right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left >> right;
+    }
+  }
+  
+  static final class UnsignedRightShift extends Bitwise
+  {
+    UnsignedRightShift(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object applyInt(int left, int right)
+    {
+      return left >>> right;
+    }
+    
+    @Override
+    Object applyLong(long left, long right)
+    {
+      return left >>> right;
+    }
+  }
+  
+  static final class Equal extends Binary
+  {
+    final boolean negate;
+    
+    Equal(Node left, Node right, boolean negate)
+    {
+      super(left, right);
+      this.negate = negate;
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      return AbstractEvaluatingVisitor.equal(left, right) != negate;
+    }
+  }
+  
+  static final class RegexMatch extends Binary
+  {
+    RegexMatch(Node left, Node right)
+    {
+      super(left, right);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      if (left == null || right == null)
+      {
+        return Boolean.FALSE;
+      }
+      
+      return left.toString().matches(right.toString());
+    }
+  }
+  
+  enum Comparison
+  {
+    LT
+    {
+      @Override
+      boolean test(int result)
+      {
+        return result < 0;
+      }
+    },
+    GT
+    {
+      @Override
+      boolean test(int result)
+      {
+        return result > 0;
+      }
+    },
+    LE
+    {
+      @Override
+      boolean test(int result)
+      {
+        return result <= 0;
+      }
+    },
+    GE
+    {
+      @Override
+      boolean test(int result)
+      {
+        return result >= 0;
+      }
+    };
+    
+    abstract boolean test(int result);
+  }
+  
+  static final class Compare extends Binary
+  {
+    final Comparison comparison;
+    
+    Compare(Node left, Node right, Comparison comparison)
+    {
+      super(left, right);
+      this.comparison = comparison;
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      return comparison.test(compare(left, right));
+    }
+  }
+  
+  /**
+   * Comparison with an integral constant on the right side, e.g. <code>{value} &gt; 10</code>. Integral operands are compared without unboxing the
+   * constant.
+   */
+  static final class CompareWithLong extends Binary
+  {
+    final Comparison comparison;
+    final long constant;
+    
+    CompareWithLong(Node left, Constant right, Comparison comparison)
+    {
+      super(left, right);
+      this.comparison = comparison;
+      this.constant = ((Number) right.value).longValue();
+    }
+    
+    @Override
+    Object evaluate(Evaluator evaluator, EvaluationEnvironment environment)
+    {
+      Object lo = left.evaluate(evaluator, environment);
+      
+      Object value = value(lo);
+      
+      if (isIntegral(value))
+      {
+        return result(comparison.test(Long.compare(((Number) value).longValue(), constant)), lo, null);
+      }
+      
+      return result(comparison.test(compare(value, ((Constant) right).value)), lo, null);
+    }
+    
+    @Override
+    Object apply(Object left, Object right)
+    {
+      return comparison.test(compare(left, right));
+    }
+  }
+  
+  static final class Negate extends Unary
+  {
+    Negate(Node operand)
+    {
+      super(operand);
+    }
+    
+    @Override
+    Object apply(Object value)
+    {
+      if (value instanceof Long)
+      {
+        return -(Long) value;
+      }
+      
+      Number number = Util.convertToNumber(value, false, true);
+      
+      if (number == null)
+      {
+        return null;
+      }
+      
+      if (isFloatingPoint(number))
+      {
+        return -number.floatValue();
+      }
+      
+      return -number.longValue();
+    }
+  }
+  
+  static final class LogicalNot extends Unary
+  {
+    LogicalNot(Node operand)
+    {
+      super(operand);
+    }
+    
+    @Override
+    Object apply(Object value)
+    {
+      Boolean bool = Util.convertToBoolean(value, true, true);
+      
+      return bool != null ? !bool : null;
+    }
+  }
+  
+  static final class BitwiseNot extends Unary
+  {
+    BitwiseNot(Node operand)
+    {
+      super(operand);
+    }
+    
+    @Override
+    Object apply(Object value)
+    {
+      Number number = Util.convertToNumber(value, false, true);
+      
+      if (number == null)
+      {
+        return null;
+      }
+      
+      if (number instanceof Integer)
+      {
+        return ~number.intValue();
+      }
+      
+      return ~number.longValue();
+    }
+  }
+}
@@ -41,6 +41,11 @@ public class Evaluator
   private static final String ENVIRONMENT_PREVIOUS = "previous";
   private static final String ENVIRONMENT_COUNT = "count";
   
+  /**
+   * Expressions are compiled into closure trees on first evaluation unless this system property is set to <code>false</code>.
+   */
+  static final boolean COMPILATION_ENABLED = !"false".equalsIgnoreCase(System.getProperty("aggregate.expression.compilation"));
+  
   private final EnvironmentReferenceResolver environmentResolver = new LocalEnvironmentResolver();
   
   private final Map<String, ReferenceResolver> resolvers = new HashMap<>();
@@ -157,24 +162,37 @@ public class Evaluator
         environment.assignPinpoint(expressionPinpoint);
       }
 
-      ASTStart root;
+      // Syntax trees are shared and never modified, so concurrent evaluations need no locking
+      ASTStart root = expression.getRootNode();
+      
+      if (root == null)
+      {
+        root = ExpressionCache.parse(expression);
+        expression.setRootNode(root);
+      }
+      
+      Object result;
       
-      synchronized (expression)
+      // Debug evaluation collects details of every parser node, so it is performed by the interpreter
+      if (COMPILATION_ENABLED && !environment.isDebug())
       {
-        root = expression.getRootNode();
+        CompiledExpression compiled = expression.getCompiled();
         
-        if (root == null)
+        if (compiled == null)
         {
-          root = ExpressionUtils.parse(expression, true);
-          EvaluationStatistics.onExpressionParsed();
-          expression.setRootNode(root);
+          compiled = ExpressionCache.compile(expression, root);
+          expression.setCompiled(compiled);
         }
+        
+        result = compiled.evaluate(this, environment);
+      }
+      else
+      {
+        DefaultEvaluatingVisitor visitor = new DefaultEvaluatingVisitor(this);
+        
+        root.jjtAccept(visitor, environment);
+        result = visitor.getResult();
       }
-      
-      DefaultEvaluatingVisitor visitor = new DefaultEvaluatingVisitor(this);
-      
-      root.jjtAccept(visitor, environment);
-      Object result = visitor.getResult();
       
       if (!attributed && result instanceof AttributedObject)
       {
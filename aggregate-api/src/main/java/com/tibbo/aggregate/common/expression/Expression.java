@@ -19,7 +19,9 @@ public class Expression implements Cloneable, PublicCloneable, PinpointAware
   
   private final String text;
   
-  private transient ASTStart rootNode;
+  private transient volatile ASTStart rootNode;
+  
+  private transient volatile CompiledExpression compiled;
 
   @Nullable
   private transient Pinpoint pinpoint = null;
@@ -58,6 +60,17 @@ public class Expression implements Cloneable, PublicCloneable, PinpointAware
   public void setRootNode(ASTStart rootNode)
   {
     this.rootNode = rootNode;
+    this.compiled = null;
+  }
+  
+  public CompiledExpression getCompiled()
+  {
+    return compiled;
+  }
+  
+  public void setCompiled(CompiledExpression compiled)
+  {
+    this.compiled = compiled;
   }
 
   @Override
@@ -0,0 +1,172 @@
+package com.tibbo.aggregate.common.expression;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tibbo.aggregate.common.expression.parser.ASTStart;
+import com.tibbo.aggregate.common.expression.parser.ASTValueReferenceNode;
+import com.tibbo.aggregate.common.expression.parser.Node;
+import com.tibbo.aggregate.common.util.ConcurrentLRUCache;
+import com.tibbo.aggregate.common.util.SyntaxErrorException;
+
+/**
+ * Global cache of parsed and compiled expressions keyed by expression text.
+ * <p>
+ * Bindings, filters and validators create many <code>Expression</code> instances with the same text. Instead of parsing every instance separately,
+ * {@link Evaluator} takes the syntax tree and the compiled expression from this cache, so identical expressions share a single parse and a single
+ * compilation. The least recently used entries are evicted when the cache size exceeds <code>aggregate.expression.cacheSize</code> system property
+ * (10000 by default).
+ * <p>
+ * Cached syntax trees are shared between threads, so they are never modified after parsing: references are created during parsing rather than on
+ * first evaluation.
+ */
+public class ExpressionCache
+{
+  private static final int DEFAULT_SIZE = 10000;
+  
+  private static final ConcurrentLRUCache<String, Entry> CACHE = new ConcurrentLRUCache<>(getCacheSize());
+  
+  private static final AtomicLong HITS = new AtomicLong();
+  private static final AtomicLong MISSES = new AtomicLong();
+  
+  /**
+   * Returns syntax tree of the expression, parsing it only if an expression with the same text is not cached.
+   */
+  public static ASTStart parse(Expression expression) throws SyntaxErrorException
+  {
+    String text = expression.getText();
+    
+    Entry entry = CACHE.get(text);
+    
+    if (entry != null)
+    {
+      HITS.incrementAndGet();
+      return entry.root;
+    }
+    
+    MISSES.incrementAndGet();
+    
+    ASTStart root = ExpressionUtils.parse(expression, true);
+    Evaluator.EvaluationStatistics.onExpressionParsed();
+    
+    prepare(root);
+    
+    // Another thread may have parsed the same text concurrently, its tree is kept to let more expressions share it
+    synchronized (CACHE)
+    {
+      entry = CACHE.get(text);
+      
+      if (entry == null)
+      {
+        entry = new Entry(root);
+        CACHE.put(text, entry);
+      }
+    }
+    
+    return entry.root;
+  }
+  
+  /**
+   * Returns compiled form of the syntax tree. Trees obtained from {@link #parse(Expression)} are compiled once and shared.
+   */
+  public static CompiledExpression compile(Expression expression, ASTStart root)
+  {
+    Entry entry = CACHE.get(expression.getText());
+    
+    if (entry == null || entry.root != root)
+    {
+      return ExpressionCompiler.compile(root);
+    }
+    
+    CompiledExpression compiled = entry.compiled;
+    
+    if (compiled == null)
+    {
+      // Concurrent compilations produce equivalent results, so no locking is needed
+      compiled = ExpressionCompiler.compile(root);
+      entry.compiled = compiled;
+    }
+    
+    return compiled;
+  }
+  
+  public static long getHits()
+  {
+    return HITS.get();
+  }
+  
+  public static long getMisses()
+  {
+    return MISSES.get();
+  }
+  
+  public static int size()
+  {
+    return CACHE.size();
+  }
+  
+  public static void clear()
+  {
+    CACHE.clear();
+  }
+  
+  /**
+   * Creates references of all reference nodes, so that evaluation does not modify the tree.
+   */
+  private static void prepare(Node node)
+  {
+    if (node instanceof ASTValueReferenceNode)
+    {
+      ASTValueReferenceNode rn = (ASTValueReferenceNode) node;
+      
+      try
+      {
+        rn.reference = new Reference(rn.uriImage);
+      }
+      catch (RuntimeException ex)
+      {
+        // Malformed reference is reported during evaluation
+      }
+    }
+    
+    for (int i = 0; i < node.jjtGetNumChildren(); i++)
+    {
+      prepare(node.jjtGetChild(i));
+    }
+  }
+  
+  private static int getCacheSize()
+  {
+    String prop = System.getProperty("aggregate.expression.cacheSize");
+    
+    if (prop != null)
+    {
+      try
+      {
+        int size = Integer.parseInt(prop);
+        
+        if (size > 0)
+        {
+          return size;
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        // Default size is used
+      }
+    }
+    
+    return DEFAULT_SIZE;
+  }
+  
+  private static class Entry
+  {
+    private final ASTStart root;
+    
+    private volatile CompiledExpression compiled;
+    
+    Entry(ASTStart root)
+    {
+      this.root = root;
+    }
+  }
+}
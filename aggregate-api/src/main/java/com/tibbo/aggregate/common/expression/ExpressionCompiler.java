@@ -0,0 +1,371 @@
+package com.tibbo.aggregate.common.expression;
+
+import com.tibbo.aggregate.common.expression.CompiledExpression.Comparison;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Constant;
+import com.tibbo.aggregate.common.expression.CompiledExpression.Node;
+import com.tibbo.aggregate.common.expression.function.DefaultFunctions;
+import com.tibbo.aggregate.common.expression.parser.ASTAddNode;
+import com.tibbo.aggregate.common.expression.parser.ASTBitwiseAndNode;
+import com.tibbo.aggregate.common.expression.parser.ASTBitwiseNotNode;
+import com.tibbo.aggregate.common.expression.parser.ASTBitwiseOrNode;
+import com.tibbo.aggregate.common.expression.parser.ASTBitwiseXorNode;
+import com.tibbo.aggregate.common.expression.parser.ASTConditionalNode;
+import com.tibbo.aggregate.common.expression.parser.ASTDivNode;
+import com.tibbo.aggregate.common.expression.parser.ASTEQNode;
+import com.tibbo.aggregate.common.expression.parser.ASTFalseNode;
+import com.tibbo.aggregate.common.expression.parser.ASTFloatConstNode;
+import com.tibbo.aggregate.common.expression.parser.ASTFunctionNode;
+import com.tibbo.aggregate.common.expression.parser.ASTGENode;
+import com.tibbo.aggregate.common.expression.parser.ASTGTNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLENode;
+import com.tibbo.aggregate.common.expression.parser.ASTLTNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLeftShiftNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLogicalAndNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLogicalNotNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLogicalOrNode;
+import com.tibbo.aggregate.common.expression.parser.ASTLongConstNode;
+import com.tibbo.aggregate.common.expression.parser.ASTModNode;
+import com.tibbo.aggregate.common.expression.parser.ASTMulNode;
+import com.tibbo.aggregate.common.expression.parser.ASTNENode;
+import com.tibbo.aggregate.common.expression.parser.ASTNullNode;
+import com.tibbo.aggregate.common.expression.parser.ASTRegexMatchNode;
+import com.tibbo.aggregate.common.expression.parser.ASTRightShiftNode;
+import com.tibbo.aggregate.common.expression.parser.ASTStart;
+import com.tibbo.aggregate.common.expression.parser.ASTStringConstNode;
+import com.tibbo.aggregate.common.expression.parser.ASTSubtractNode;
+import com.tibbo.aggregate.common.expression.parser.ASTTrueNode;
+import com.tibbo.aggregate.common.expression.parser.ASTUnaryNode;
+import com.tibbo.aggregate.common.expression.parser.ASTUnsignedRightShiftNode;
+import com.tibbo.aggregate.common.expression.parser.ASTValueReferenceNode;
+import com.tibbo.aggregate.common.expression.parser.SimpleNode;
+import com.tibbo.aggregate.common.expression.parser.Token;
+import com.tibbo.aggregate.common.util.Util;
+
+/**
+ * Translates parsed expressions into {@link CompiledExpression}s.
+ * <p>
+ * Every parser node is replaced by a closure that evaluates its children directly. Operators whose operands are all constants are folded during
+ * compilation, default functions are resolved once, and comparisons with integral constants get a specialized node. Nodes that have no compiled
+ * counterpart are evaluated by the interpreter.
+ */
+public class ExpressionCompiler
+{
+  public static CompiledExpression compile(ASTStart root)
+  {
+    Node[] children = compileChildren(root);
+    
+    if (children.length == 0)
+    {
+      return new CompiledExpression(new Constant(null));
+    }
+    
+    return new CompiledExpression(children.length == 1 ? children[0] : new CompiledExpression.Sequence(children));
+  }
+  
+  private static Node compile(SimpleNode node)
+  {
+    if (node instanceof ASTLongConstNode)
+    {
+      return new Constant(((ASTLongConstNode) node).val);
+    }
+    
+    if (node instanceof ASTFloatConstNode)
+    {
+      ASTFloatConstNode fn = (ASTFloatConstNode) node;
+      return new Constant(fn.floatVal != null ? (Object) fn.floatVal : fn.doubleVal);
+    }
+    
+    if (node instanceof ASTStringConstNode)
+    {
+      return new Constant(((ASTStringConstNode) node).val);
+    }
+    
+    if (node instanceof ASTTrueNode)
+    {
+      return new Constant(Boolean.TRUE);
+    }
+    
+    if (node instanceof ASTFalseNode)
+    {
+      return new Constant(Boolean.FALSE);
+    }
+    
+    if (node instanceof ASTNullNode)
+    {
+      return new Constant(null);
+    }
+    
+    if (node instanceof ASTValueReferenceNode)
+    {
+      return compileReference((ASTValueReferenceNode) node);
+    }
+    
+    if (node instanceof ASTFunctionNode)
+    {
+      return compileFunction((ASTFunctionNode) node);
+    }
+    
+    if (node instanceof ASTConditionalNode && node.jjtGetNumChildren() == 3)
+    {
+      Node condition = compile(child(node, 0));
+      Node positive = compile(child(node, 1));
+      Node negative = compile(child(node, 2));
+      
+      if (condition instanceof Constant)
+      {
+        try
+        {
+          return Util.convertToBoolean(((Constant) condition).value, true, false) ? positive : negative;
+        }
+        catch (RuntimeException ex)
+        {
+          // Condition cannot be converted to boolean, the error will be reported during evaluation
+        }
+      }
+      
+      return new CompiledExpression.Conditional(condition, positive, negative);
+    }
+    
+    Node[] operands = compileChildren(node);
+    
+    Node result = null;
+    
+    if (operands.length == 1)
+    {
+      result = compileUnary(node, operands[0]);
+    }
+    else if (operands.length == 2)
+    {
+      result = compileBinary(node, operands[0], operands[1]);
+    }
+    
+    if (result == null)
+    {
+      return new CompiledExpression.Interpreted(node);
+    }
+    
+    return fold(result, operands);
+  }
+  
+  private static Node compileUnary(SimpleNode node, Node operand)
+  {
+    if (node instanceof ASTUnaryNode)
+    {
+      return new CompiledExpression.Negate(operand);
+    }
+    
+    if (node instanceof ASTLogicalNotNode)
+    {
+      return new CompiledExpression.LogicalNot(operand);
+    }
+    
+    if (node instanceof ASTBitwiseNotNode)
+    {
+      return new CompiledExpression.BitwiseNot(operand);
+    }
+    
+    return null;
+  }
+  
+  private static Node compileBinary(SimpleNode node, Node left, Node right)
+  {
+    if (node instanceof ASTLogicalOrNode)
+    {
+      return new CompiledExpression.LogicalOr(left, right);
+    }
+    
+    if (node instanceof ASTLogicalAndNode)
+    {
+      return new CompiledExpression.LogicalAnd(left, right);
+    }
+    
+    if (node instanceof ASTAddNode)
+    {
+      return new CompiledExpression.Add(left, right);
+    }
+    
+    if (node instanceof ASTSubtractNode)
+    {
+      return new CompiledExpression.Subtract(left, right);
+    }
+    
+    if (node instanceof ASTMulNode)
+    {
+      return new CompiledExpression.Multiply(left, right);
+    }
+    
+    if (node instanceof ASTDivNode)
+    {
+      return new CompiledExpression.Divide(left, right);
+    }
+    
+    if (node instanceof ASTModNode)
+    {
+      return new CompiledExpression.Modulo(left, right);
+    }
+    
+    if (node instanceof ASTBitwiseAndNode)
+    {
+      return new CompiledExpression.BitwiseAnd(left, right);
+    }
+    
+    if (node instanceof ASTBitwiseOrNode)
+    {
+      return new CompiledExpression.BitwiseOr(left, right);
+    }
+    
+    if (node instanceof ASTBitwiseXorNode)
+    {
+      return new CompiledExpression.BitwiseXor(left, right);
+    }
+    
+    if (node instanceof ASTLeftShiftNode)
+    {
+      return new CompiledExpression.LeftShift(left, right);
+    }
+    
+    if (node instanceof ASTRightShiftNode)
+    {
+      return new CompiledExpression.RightShift(left, right);
+    }
+    
+    if (node instanceof ASTUnsignedRightShiftNode)
+    {
+      return new CompiledExpression.UnsignedRightShift(left, right);
+    }
+    
+    if (node instanceof ASTEQNode)
+    {
+      return new CompiledExpression.Equal(left, right, false);
+    }
+    
+    if (node instanceof ASTNENode)
+    {
+      return new CompiledExpression.Equal(left, right, true);
+    }
+    
+    if (node instanceof ASTRegexMatchNode)
+    {
+      return new CompiledExpression.RegexMatch(left, right);
+    }
+    
+    if (node instanceof ASTLTNode)
+    {
+      return comparison(left, right, Comparison.LT);
+    }
+    
+    if (node instanceof ASTGTNode)
+    {
+      return comparison(left, right, Comparison.GT);
+    }
+    
+    if (node instanceof ASTLENode)
+    {
+      return comparison(left, right, Comparison.LE);
+    }
+    
+    if (node instanceof ASTGENode)
+    {
+      return comparison(left, right, Comparison.GE);
+    }
+    
+    return null;
+  }
+  
+  private static Node comparison(Node left, Node right, Comparison comparison)
+  {
+    if (!(left instanceof Constant) && right instanceof Constant && CompiledExpression.isIntegral(((Constant) right).value))
+    {
+      return new CompiledExpression.CompareWithLong(left, (Constant) right, comparison);
+    }
+    
+    return new CompiledExpression.Compare(left, right, comparison);
+  }
+  
+  private static Node compileReference(ASTValueReferenceNode node)
+  {
+    try
+    {
+      if (node.reference == null)
+      {
+        node.reference = new Reference(node.uriImage);
+      }
+    }
+    catch (RuntimeException ex)
+    {
+      // Malformed reference, the error will be reported by the interpreter during evaluation
+      return new CompiledExpression.Interpreted(node);
+    }
+    
+    Token token = node.jjtGetFirstToken();
+    
+    return new CompiledExpression.ReferenceNode(node.reference, node.uriImage, token.beginLine, token.beginColumn);
+  }
+  
+  private static Node compileFunction(ASTFunctionNode node)
+  {
+    if (DefaultFunctions.CATCH.getName().equals(node.name))
+    {
+      if (node.jjtGetNumChildren() == 0)
+      {
+        return new CompiledExpression.Interpreted(node);
+      }
+      
+      Node handler = node.jjtGetNumChildren() > 1 ? compile(child(node, 1)) : null;
+      
+      return new CompiledExpression.Catch(compile(child(node, 0)), handler);
+    }
+    
+    Token token = node.jjtGetFirstToken();
+    
+    Function function = AbstractEvaluatingVisitor.DEFAULT_FUNCTIONS.get(node.name);
+    
+    return new CompiledExpression.FunctionNode(node.name, function, compileChildren(node), token.beginLine, token.beginColumn);
+  }
+  
+  private static Node[] compileChildren(SimpleNode node)
+  {
+    Node[] children = new Node[node.jjtGetNumChildren()];
+    
+    for (int i = 0; i < children.length; i++)
+    {
+      children[i] = compile(child(node, i));
+    }
+    
+    return children;
+  }
+  
+  /**
+   * Replaces operator by its result if all operands are constants. Operators that fail on constant operands are kept to report the error during
+   * evaluation.
+   */
+  private static Node fold(Node node, Node[] operands)
+  {
+    if (!node.isPure())
+    {
+      return node;
+    }
+    
+    for (Node operand : operands)
+    {
+      if (!(operand instanceof Constant))
+      {
+        return node;
+      }
+    }
+    
+    try
+    {
+      return new Constant(CompiledExpression.value(node.evaluate(null, null)));
+    }
+    catch (RuntimeException ex)
+    {
+      return node;
+    }
+  }
+  
+  private static SimpleNode child(SimpleNode node, int index)
+  {
+    return (SimpleNode) node.jjtGetChild(index);
+  }
+}
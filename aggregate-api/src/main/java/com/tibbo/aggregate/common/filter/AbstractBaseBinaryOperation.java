@@ -5,10 +5,11 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 import com.tibbo.aggregate.common.util.DateUtils;
 
-public abstract class AbstractBaseBinaryOperation extends BinaryOperation {
+public abstract class AbstractBaseBinaryOperation extends BinaryOperation implements ColumnOperation {
     public AbstractBaseBinaryOperation(String name, Expression operand1, Expression operand2) {
         super(name, operand1, operand2);
     }
@@ -20,9 +21,47 @@ public abstract class AbstractBaseBinaryOperation extends BinaryOperation {
 
     @Override
     protected final List<Object> evaluateOperands() {
-        Object value1 = operand1.evaluate();
-        Object value2 = operand2.evaluate();
+        return prepareOperands(operand1.evaluate(), operand2.evaluate());
+    }
+
+    @Override
+    public ColumnName getBatchColumn() {
+        if (operand1 instanceof ColumnName && ColumnOperation.isConstant(operand2)) {
+            return (ColumnName) operand1;
+        }
+        if (operand2 instanceof ColumnName && ColumnOperation.isConstant(operand1)) {
+            return (ColumnName) operand2;
+        }
+        return null;
+    }
+
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
+        boolean columnFirst = operand1 instanceof ColumnName;
+        Object constant = columnFirst ? operand2.evaluate() : operand1.evaluate();
+
+        if (constant instanceof Number) {
+            validateOperandType(constant);
+            // Numeric constant is converted once, integral column values are converted without formatting them
+            BigDecimal decimal = new BigDecimal(constant.toString());
+            return value -> {
+                if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                    BigDecimal columnDecimal = BigDecimal.valueOf(((Number) value).longValue());
+                    return columnFirst ? binaryEvaluation(columnDecimal, decimal) : binaryEvaluation(decimal, columnDecimal);
+                }
+                return evaluateBatch(value, constant, columnFirst);
+            };
+        }
+
+        return value -> evaluateBatch(value, constant, columnFirst);
+    }
+
+    private Object evaluateBatch(Object value, Object constant, boolean columnFirst) {
+        List<Object> operands = columnFirst ? prepareOperands(value, constant) : prepareOperands(constant, value);
+        return binaryEvaluation(operands.get(0), operands.get(1));
+    }
 
+    private List<Object> prepareOperands(Object value1, Object value2) {
         validateOperandType(value1);
         validateOperandType(value2);
 
@@ -0,0 +1,242 @@
+package com.tibbo.aggregate.common.filter;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+
+/**
+ * Filter expression compiled for evaluation over batches of table records.
+ * <p>
+ * Operations on a single column with constant operands (comparisons, <code>in</code>, substring and period functions) are evaluated
+ * column-at-a-time: their constant operands are evaluated and converted once per batch and the operation is applied to the column values directly.
+ * Logical operations combine selection bitmaps of their operands. Other parts of the expression are evaluated record by record.
+ * <p>
+ * Results follow the three-valued logic of {@link LogicalAndOperation}, {@link LogicalOrOperation} and {@link LogicalNotOperation}.
+ */
+final class BatchPredicate {
+
+    private final Selector root;
+
+    private BatchPredicate(Selector root) {
+        this.root = root;
+    }
+
+    static BatchPredicate compile(Expression expression) {
+        return new BatchPredicate(compile(expression, null));
+    }
+
+    /**
+     * Returns bitmap of records between from (inclusive) and to (exclusive) the expression is true for, bit indexes are relative to from. Records
+     * evaluated one by one are made current through the cursor first.
+     */
+    BitSet select(DataTable table, int from, int to, IntConsumer cursor) {
+        int size = to - from;
+
+        BitSet rows = new BitSet(size);
+        rows.set(0, size);
+
+        BitSet trueRows = new BitSet(size);
+        BitSet nullRows = new BitSet(size);
+
+        root.select(new Batch(table, from, cursor), rows, trueRows, nullRows);
+
+        return trueRows;
+    }
+
+    private static Selector compile(Expression expression, Operation parent) {
+        if (expression instanceof LogicalAndOperation || expression instanceof LogicalOrOperation) {
+            Operation operation = (Operation) expression;
+            Selector left = compile(expression.getChildren()[0], operation);
+            Selector right = compile(expression.getChildren()[1], operation);
+
+            if (left instanceof Residual && right instanceof Residual) {
+                return new Residual(expression, parent);
+            }
+
+            return expression instanceof LogicalAndOperation ? new And(left, right) : new Or(left, right);
+        }
+
+        if (expression instanceof LogicalNotOperation) {
+            Selector operand = compile(expression.getChildren()[0], null);
+            return operand instanceof Residual ? new Residual(expression, parent) : new Not(operand);
+        }
+
+        if (expression instanceof ColumnOperation) {
+            ColumnName column = ((ColumnOperation) expression).getBatchColumn();
+
+            if (column != null) {
+                return new ColumnSelector((ColumnOperation) expression, column, new Residual(expression, parent));
+            }
+        }
+
+        return new Residual(expression, parent);
+    }
+
+    private static final class Batch {
+        private final DataTable table;
+        private final int from;
+        private final IntConsumer cursor;
+
+        private Batch(DataTable table, int from, IntConsumer cursor) {
+            this.table = table;
+            this.from = from;
+            this.cursor = cursor;
+        }
+    }
+
+    private interface Selector {
+        /**
+         * Evaluates the expression for the rows, setting bits of rows it is true for and of rows it is null for.
+         */
+        void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows);
+    }
+
+    private static final class And implements Selector {
+        private final Selector left;
+        private final Selector right;
+
+        private And(Selector left, Selector right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows) {
+            Operands operands = new Operands(batch, rows, left, right);
+
+            // Result is true only if both operands are true and null if any of them is null
+            BitSet result = operands.leftTrue;
+            result.and(operands.rightTrue);
+            result.andNot(operands.nullRows);
+
+            trueRows.or(result);
+            nullRows.or(operands.nullRows);
+        }
+    }
+
+    private static final class Or implements Selector {
+        private final Selector left;
+        private final Selector right;
+
+        private Or(Selector left, Selector right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows) {
+            Operands operands = new Operands(batch, rows, left, right);
+
+            // Result is null if any of the operands is null, even if the other one is true
+            BitSet result = operands.leftTrue;
+            result.or(operands.rightTrue);
+            result.andNot(operands.nullRows);
+
+            trueRows.or(result);
+            nullRows.or(operands.nullRows);
+        }
+    }
+
+    /**
+     * Selections of both operands of a binary logical operation. Like {@link BinaryOperation}, both operands are evaluated for every row, so errors of
+     * the right operand are not hidden by the value of the left one.
+     */
+    private static final class Operands {
+        private final BitSet leftTrue = new BitSet();
+        private final BitSet rightTrue = new BitSet();
+        private final BitSet nullRows = new BitSet();
+
+        private Operands(Batch batch, BitSet rows, Selector left, Selector right) {
+            left.select(batch, rows, leftTrue, nullRows);
+            right.select(batch, rows, rightTrue, nullRows);
+        }
+    }
+
+    private static final class Not implements Selector {
+        private final Selector operand;
+
+        private Not(Selector operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows) {
+            BitSet operandTrue = new BitSet();
+            BitSet operandNull = new BitSet();
+            operand.select(batch, rows, operandTrue, operandNull);
+
+            if (!operandNull.isEmpty()) {
+                throw new NullPointerException("Operand of " + LogicalNotOperation.class.getSimpleName() + " is null");
+            }
+
+            BitSet result = (BitSet) rows.clone();
+            result.andNot(operandTrue);
+            trueRows.or(result);
+        }
+    }
+
+    private static final class ColumnSelector implements Selector {
+        private final ColumnOperation operation;
+        private final ColumnName column;
+        private final Residual residual;
+
+        private ColumnSelector(ColumnOperation operation, ColumnName column, Residual residual) {
+            this.operation = operation;
+            this.column = column;
+            this.residual = residual;
+        }
+
+        @Override
+        public void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows) {
+            int index = batch.table.getFormat().getFieldIndex(column.getName());
+
+            if (index == -1) {
+                // Record access reports the missing field
+                residual.select(batch, rows, trueRows, nullRows);
+                return;
+            }
+
+            UnaryOperator<Object> function = operation.prepareBatch();
+
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                Object value = batch.table.getRecord(batch.from + row).getValue(index);
+                classify(function.apply(value), row, trueRows, nullRows, residual.parent);
+            }
+        }
+    }
+
+    private static final class Residual implements Selector {
+        private final Expression expression;
+        private final Operation parent;
+
+        private Residual(Expression expression, Operation parent) {
+            this.expression = expression;
+            this.parent = parent;
+        }
+
+        @Override
+        public void select(Batch batch, BitSet rows, BitSet trueRows, BitSet nullRows) {
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                batch.cursor.accept(batch.from + row);
+                classify(expression.evaluate(), row, trueRows, nullRows, parent);
+            }
+        }
+    }
+
+    private static void classify(Object value, int row, BitSet trueRows, BitSet nullRows, Operation parent) {
+        if (value == null) {
+            nullRows.set(row);
+        } else if (value instanceof Boolean) {
+            if ((Boolean) value) {
+                trueRows.set(row);
+            }
+        } else if (parent != null) {
+            // Logical operations validate their operands
+            throw new SmartFilterIllegalOperandException(parent, Boolean.class);
+        } else {
+            throw new ClassCastException(value.getClass().getName() + " cannot be cast to " + Boolean.class.getName());
+        }
+    }
+}
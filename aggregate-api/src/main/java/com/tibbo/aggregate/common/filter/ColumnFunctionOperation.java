@@ -12,4 +12,13 @@ public abstract class ColumnFunctionOperation extends FunctionOperation {
     public ColumnName getColumn() {
         return (ColumnName) operands[0];
     }
+
+    public ColumnName getBatchColumn() {
+        for (int i = 1; i < operands.length; i++) {
+            if (!ColumnOperation.isConstant(operands[i])) {
+                return null;
+            }
+        }
+        return getColumn();
+    }
 }
@@ -0,0 +1,23 @@
+package com.tibbo.aggregate.common.filter;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Operation that may be evaluated column-at-a-time, i.e. prepared once and then applied to values of a column, see {@link BatchPredicate}.
+ */
+interface ColumnOperation {
+
+    /**
+     * Returns the column if it is the only operand that is not a constant, or null otherwise.
+     */
+    ColumnName getBatchColumn();
+
+    /**
+     * Evaluates constant operands and returns function computing result of the operation for a value of the column.
+     */
+    UnaryOperator<Object> prepareBatch();
+
+    static boolean isConstant(Expression expression) {
+        return expression instanceof Literal || expression instanceof Constant;
+    }
+}
@@ -8,12 +8,16 @@ import com.tibbo.aggregate.common.expression.parser.ASTStart;
 import com.tibbo.aggregate.common.expression.parser.ExpressionParser;
 import com.tibbo.aggregate.common.expression.parser.ParseException;
 import java.io.CharArrayReader;
+import java.util.BitSet;
 import java.util.function.Supplier;
 
 public class FilterEvaluator {
 
+    private static final int BATCH_SIZE = 1024;
+
     private final TableFormat tableFormat;
     private final Expression rootExpression;
+    private final BatchPredicate batchPredicate;
     private final DataSupplier dataSupplier = new DataSupplierImpl();
     private DataTable dataTable;
     private int cursor = 0;
@@ -28,6 +32,7 @@ public class FilterEvaluator {
         this.tableFormat = tableFormat;
         this.rootExpression = visitor.getRootExpression();
         bindReferences(rootExpression);
+        this.batchPredicate = BatchPredicate.compile(rootExpression);
     }
 
     public FilterEvaluator(String filterExpression) throws ParseException {
@@ -37,6 +42,7 @@ public class FilterEvaluator {
         root.jjtAccept(visitor, null);
         this.rootExpression = visitor.getRootExpression();
         this.tableFormat = null;
+        this.batchPredicate = null;
     }
 
     public Expression getRootExpression() {
@@ -53,6 +59,19 @@ public class FilterEvaluator {
 
     public DataTable filterTable() {
         DataTable result = new SimpleDataTable(tableFormat);
+
+        if (batchPredicate != null) {
+            int count = dataTable.getRecordCount();
+            for (int from = 0; from < count; from += BATCH_SIZE) {
+                int to = Math.min(from + BATCH_SIZE, count);
+                BitSet selection = batchPredicate.select(dataTable, from, to, row -> cursor = row);
+                for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+                    result.addRecord(dataTable.getRecord(from + i));
+                }
+            }
+            return result;
+        }
+
         for (cursor = 0; cursor < dataTable.getRecordCount(); cursor++) {
             Boolean predicate = (Boolean) rootExpression.evaluate();
             if (predicate != null && predicate) {
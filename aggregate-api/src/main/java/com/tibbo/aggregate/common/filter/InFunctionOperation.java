@@ -5,9 +5,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
-public class InFunctionOperation extends ColumnFunctionOperation {
+public class InFunctionOperation extends ColumnFunctionOperation implements ColumnOperation {
 
     public InFunctionOperation(Expression[] operands) {
         super(FilterFunctions.IN.getName(), operands);
@@ -24,29 +25,56 @@ public class InFunctionOperation extends ColumnFunctionOperation {
         }
         List<Object> value2 = Arrays.stream(operands).skip(1).map(Expression::evaluate).collect(Collectors.toList());
 
-        if (value1 != null && !(value1 instanceof Number)
-                && !(value1 instanceof String) && !(value1 instanceof Date)) {
-            throw new SmartFilterIllegalOperandException(this, Number.class, String.class, Date.class);
+        List<Object> inListValues = new ArrayList<>(value2);
+        boolean validList = isValidList(inListValues);
+        if (validList) {
+            cast(value1, inListValues);
         }
 
-        List<Object> inListValues = new ArrayList<>(value2);
+        return evaluate(value1, validList, inListValues);
+    }
 
-        if (inListValues.stream()
-                .filter(v -> !(v instanceof Number))
-                .filter(v -> !(v instanceof String)).anyMatch(v -> !(v instanceof Date))) {
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
+        List<Object> values = Arrays.stream(operands).skip(1).map(Expression::evaluate).collect(Collectors.toList());
+        boolean validList = isValidList(values);
+
+        // Numbers of the list are converted once for all numeric column values
+        List<Object> decimalValues = new ArrayList<>(values);
+        if (validList) {
+            cast(BigDecimal.ZERO, decimalValues);
+        }
+
+        return value -> value instanceof Number ? evaluate(value, validList, decimalValues) : evaluate(value, validList, values);
+    }
 
+    private Object evaluate(Object value1, boolean validList, List<Object> inListValues) {
+        if (value1 == null) {
+            return null;
+        }
+
+        if (!(value1 instanceof Number) && !(value1 instanceof String) && !(value1 instanceof Date)) {
             throw new SmartFilterIllegalOperandException(this, Number.class, String.class, Date.class);
         }
 
-        cast(value1, inListValues);
+        if (!validList) {
+            throw new SmartFilterIllegalOperandException(this, Number.class, String.class, Date.class);
+        }
 
         if (value1 instanceof Number)
         {
-            return inListValues.stream().anyMatch(o -> ((BigDecimal) o).compareTo(new BigDecimal(value1.toString())) == 0);
+            BigDecimal decimal = new BigDecimal(value1.toString());
+            return inListValues.stream().anyMatch(o -> ((BigDecimal) o).compareTo(decimal) == 0);
         }
         return inListValues.stream().anyMatch(o -> o.equals(value1));
     }
 
+    private static boolean isValidList(List<Object> inListValues) {
+        return inListValues.stream()
+                .filter(v -> !(v instanceof Number))
+                .filter(v -> !(v instanceof String)).allMatch(v -> v instanceof Date);
+    }
+
     private void cast(Object operand, List<Object> listOfValues) {
         if (operand instanceof Number) {
             // cast
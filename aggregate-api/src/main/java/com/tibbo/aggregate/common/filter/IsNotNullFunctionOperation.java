@@ -1,6 +1,8 @@
 package com.tibbo.aggregate.common.filter;
 
-public class IsNotNullFunctionOperation extends ColumnFunctionOperation {
+import java.util.function.UnaryOperator;
+
+public class IsNotNullFunctionOperation extends ColumnFunctionOperation implements ColumnOperation {
 
     public IsNotNullFunctionOperation(Expression[] operands) {
         super(FilterFunctions.IS_NOT_NULL.getName(), operands);
@@ -11,4 +13,8 @@ public class IsNotNullFunctionOperation extends ColumnFunctionOperation {
         return getColumn().evaluate() != null;
     }
 
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
+        return value -> value != null;
+    }
 }
@@ -1,6 +1,8 @@
 package com.tibbo.aggregate.common.filter;
 
-public class IsNullFunctionOperation extends ColumnFunctionOperation {
+import java.util.function.UnaryOperator;
+
+public class IsNullFunctionOperation extends ColumnFunctionOperation implements ColumnOperation {
 
     public IsNullFunctionOperation(Expression[] operands) {
         super(FilterFunctions.IS_NULL.getName(), operands);
@@ -10,4 +12,9 @@ public class IsNullFunctionOperation extends ColumnFunctionOperation {
     public Object evaluate() {
         return getColumn().evaluate() == null;
     }
+
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
+        return value -> value == null;
+    }
 }
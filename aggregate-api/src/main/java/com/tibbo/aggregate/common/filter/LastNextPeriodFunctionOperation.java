@@ -1,10 +1,12 @@
 package com.tibbo.aggregate.common.filter;
 
 import java.util.Date;
+import java.util.function.UnaryOperator;
 
 import com.tibbo.aggregate.common.Cres;
+import com.tibbo.aggregate.common.util.DateUtils;
 
-public abstract class LastNextPeriodFunctionOperation extends ColumnFunctionOperation{
+public abstract class LastNextPeriodFunctionOperation extends ColumnFunctionOperation implements ColumnOperation {
 
     public LastNextPeriodFunctionOperation(String name, Expression... operands) {
         super(name, operands);
@@ -12,25 +14,50 @@ public abstract class LastNextPeriodFunctionOperation extends ColumnFunctionOper
 
     @Override
     public Object evaluate() {
-        ColumnName columnName = getColumn();
-        Object columnValue = columnName.evaluate();
+        return evaluate(getColumn().evaluate(), operands[1].evaluate(), null, null);
+    }
+
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
         Object operandValue = operands[1].evaluate();
 
+        // Period is computed once for all column values
+        Date end = DateUtils.getStartOfHour(new Date());
+        Date start = operandValue instanceof Number ? getStart(end, (Number) operandValue) : null;
+
+        return value -> evaluate(value, operandValue, start, end);
+    }
+
+    private Object evaluate(Object columnValue, Object operandValue, Date start, Date end) {
         if (columnValue == null || operandValue == null) {
             return null;
         }
 
         if (!(columnValue instanceof Date)) {
-            throw new SmartFilterEvaluationException(Cres.get().getString("smartFilterIllegalColumnTypeDateExpected") + ": " + columnName.getName());
+            throw new SmartFilterEvaluationException(Cres.get().getString("smartFilterIllegalColumnTypeDateExpected") + ": " + getColumn().getName());
         }
 
         if (!(operandValue instanceof Number)) {
             throw new SmartFilterEvaluationException(Cres.get().getString("smartFilterOperandNotValidDate") + ": Number");
         }
         Date column = (Date) columnValue;
-        Number operand = (Number) operandValue;
-        return checkDate(column, operand);
+        if (start == null) {
+            return checkDate(column, (Number) operandValue);
+        }
+        return isInPeriod(column, start, end);
+    }
+
+    protected Object checkDate(Date column, Number operand) {
+        Date end = DateUtils.getStartOfHour(new Date());
+        return isInPeriod(column, getStart(end, operand), end);
     }
 
-    protected abstract Object checkDate(Date column, Number operand);
+    /**
+     * Returns beginning of the period ending at the specified date.
+     */
+    protected abstract Date getStart(Date end, Number operand);
+
+    private static boolean isInPeriod(Date column, Date start, Date end) {
+        return column.compareTo(start) >= 0 && column.compareTo(end) <= 0;
+    }
 }
@@ -4,8 +4,6 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Date;
 
-import com.tibbo.aggregate.common.util.DateUtils;
-
 public class LastYearsFunctionOperation extends LastNextPeriodFunctionOperation {
 
     public LastYearsFunctionOperation(Expression[] operands) {
@@ -13,12 +11,11 @@ public class LastYearsFunctionOperation extends LastNextPeriodFunctionOperation
     }
 
     @Override
-    protected Object checkDate(Date column, Number operand) {
+    protected Date getStart(Date end, Number operand) {
         LocalDate date = LocalDate.now();
-        Date end = DateUtils.getStartOfHour(new Date());
         date = date.minusYears(operand.intValue());
-        return column.compareTo(Date.from(date.atStartOfDay()
+        return Date.from(date.atStartOfDay()
                 .atZone(ZoneId.systemDefault())
-                .toInstant())) >= 0 && column.compareTo(end) <= 0;
+                .toInstant());
     }
 }
@@ -4,8 +4,6 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Date;
 
-import com.tibbo.aggregate.common.util.DateUtils;
-
 public class NextWeeksFunctionOperation extends LastNextPeriodFunctionOperation
 {
   public NextWeeksFunctionOperation(Expression[] operands)
@@ -14,13 +12,12 @@ public class NextWeeksFunctionOperation extends LastNextPeriodFunctionOperation
   }
   
   @Override
-  protected Object checkDate(Date column, Number operand)
+  protected Date getStart(Date end, Number operand)
   {
     LocalDate date = LocalDate.now();
-    Date end = DateUtils.getStartOfHour(new Date());
     date = date.plusWeeks(operand.intValue());
-    return column.compareTo(Date.from(date.atStartOfDay()
+    return Date.from(date.atStartOfDay()
         .atZone(ZoneId.systemDefault())
-        .toInstant())) >= 0 && column.compareTo(end) <= 0;
+        .toInstant());
   }
 }
@@ -1,9 +1,11 @@
 package com.tibbo.aggregate.common.filter;
 
+import java.util.function.UnaryOperator;
+
 import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.expression.Function;
 
-public abstract class SubstringFunctionOperation extends ColumnFunctionOperation {
+public abstract class SubstringFunctionOperation extends ColumnFunctionOperation implements ColumnOperation {
 
     private final Function func;
 
@@ -17,8 +19,16 @@ public abstract class SubstringFunctionOperation extends ColumnFunctionOperation
 
     @Override
     public final Object evaluate() {
-        Object columnValue = getColumn().evaluate();
+        return evaluate(getColumn().evaluate(), operands[1].evaluate());
+    }
+
+    @Override
+    public UnaryOperator<Object> prepareBatch() {
         Object operandValue = operands[1].evaluate();
+        return value -> evaluate(value, operandValue);
+    }
+
+    private Object evaluate(Object columnValue, Object operandValue) {
         if (columnValue == null || operandValue == null)
         {
             return false;
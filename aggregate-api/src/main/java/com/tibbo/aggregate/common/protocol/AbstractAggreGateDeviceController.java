@@ -1,16 +1,23 @@
 package com.tibbo.aggregate.common.protocol;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
@@ -20,16 +27,22 @@ import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.action.ProtocolHandler;
 import com.tibbo.aggregate.common.communication.AbstractDeviceController;
+import com.tibbo.aggregate.common.communication.AsyncCommandProcessor;
+import com.tibbo.aggregate.common.communication.BufferedCommandParser;
 import com.tibbo.aggregate.common.communication.CommandParser;
+import com.tibbo.aggregate.common.communication.SelectorCommandProcessor;
 import com.tibbo.aggregate.common.context.CallerController;
 import com.tibbo.aggregate.common.context.Context;
 import com.tibbo.aggregate.common.context.ContextException;
 import com.tibbo.aggregate.common.context.ContextSecurityException;
+import com.tibbo.aggregate.common.context.EntityReference;
 import com.tibbo.aggregate.common.context.EventDefinition;
 import com.tibbo.aggregate.common.data.Event;
 import com.tibbo.aggregate.common.datatable.AbstractDataTable;
 import com.tibbo.aggregate.common.datatable.DataRecord;
 import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.DataTableBinaryCodec;
+import com.tibbo.aggregate.common.datatable.DataTableDecoder;
 import com.tibbo.aggregate.common.datatable.DataTableException;
 import com.tibbo.aggregate.common.datatable.FieldFormat;
 import com.tibbo.aggregate.common.datatable.ProxyDataTable;
@@ -46,6 +59,7 @@ import com.tibbo.aggregate.common.server.ServerContextConstants;
 import com.tibbo.aggregate.common.util.Element;
 import com.tibbo.aggregate.common.util.ElementList;
 import com.tibbo.aggregate.common.util.StringUtils;
+import com.tibbo.aggregate.common.util.SyntaxErrorException;
 import com.tibbo.aggregate.common.util.UserSettings;
 
 public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevice, C extends RemoteContextManager> extends AbstractDeviceController<IncomingAggreGateCommand, OutgoingAggreGateCommand>
@@ -80,6 +94,8 @@ public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevic
   private final ProtocolCommandBuilder commandBuilder;
   
   private final List<AbstractAggreGateDeviceControllerDisconnectListener> disconnectListeners = new LinkedList<>();
+  
+  private SelectorEventLoopGroup selectorGroup;
 
   public AbstractAggreGateDeviceController(D device, Logger logger, int maxEventQueueLength)
   {
@@ -265,8 +281,47 @@ public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevic
   public IncomingAggreGateCommand sendCommandAndCheckReplyCode(OutgoingAggreGateCommand cmd) throws DisconnectionException, ContextException, IOException, InterruptedException,
       RemoteDeviceErrorException
   {
-    IncomingAggreGateCommand ans = sendCommand(cmd);
+    return checkReplyCode(sendCommand(cmd));
+  }
+  
+  /**
+   * Pipelined version of {@link #sendCommandAndCheckReplyCode(OutgoingAggreGateCommand)}. The returned future is completed exceptionally (with the
+   * cause wrapped into {@link CompletionException}) if the reply code indicates an error.
+   */
+  public CompletableFuture<IncomingAggreGateCommand> sendCommandAndCheckReplyCodeAsync(OutgoingAggreGateCommand cmd) throws DisconnectionException, ContextException,
+      IOException, InterruptedException, RemoteDeviceErrorException
+  {
+    return sendCommandsAndCheckReplyCodesAsync(Collections.singletonList(cmd)).get(0);
+  }
+  
+  /**
+   * Sends several commands in one pipelined batch, checking reply code of each reply as {@link #sendCommandAndCheckReplyCodeAsync(OutgoingAggreGateCommand)}
+   * does.
+   */
+  public List<CompletableFuture<IncomingAggreGateCommand>> sendCommandsAndCheckReplyCodesAsync(List<OutgoingAggreGateCommand> commands) throws DisconnectionException,
+      ContextException, IOException, InterruptedException, RemoteDeviceErrorException
+  {
+    List<CompletableFuture<IncomingAggreGateCommand>> res = new ArrayList<>(commands.size());
     
+    for (CompletableFuture<IncomingAggreGateCommand> reply : sendCommandsAsync(commands))
+    {
+      res.add(reply.thenApply(ans -> {
+        try
+        {
+          return checkReplyCode(ans);
+        }
+        catch (ContextException | RemoteDeviceErrorException ex)
+        {
+          throw new CompletionException(ex);
+        }
+      }));
+    }
+    
+    return res;
+  }
+  
+  protected IncomingAggreGateCommand checkReplyCode(IncomingAggreGateCommand ans) throws ContextException, RemoteDeviceErrorException
+  {
     if (ans == null)
       return null;
     
@@ -429,6 +484,33 @@ public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevic
     eventPreprocessor.allowCoreThreadTimeOut(true);
   }
   
+  @Override
+  protected AsyncCommandProcessor createCommandProcessor()
+  {
+    CommandParser parser = getCommandParser();
+    
+    if (parser instanceof BufferedCommandParser && ((BufferedCommandParser) parser).getChannel() instanceof SelectorChannel)
+    {
+      return new SelectorCommandProcessor(this, (SelectorChannel) ((BufferedCommandParser) parser).getChannel());
+    }
+    
+    return super.createCommandProcessor();
+  }
+  
+  /**
+   * Sets the group of selector event loops used to serve plain (non-SSL) connections of this controller. If not set, every connection is served by a
+   * dedicated {@link AsyncCommandProcessor} thread.
+   */
+  public void setSelectorGroup(SelectorEventLoopGroup selectorGroup)
+  {
+    this.selectorGroup = selectorGroup;
+  }
+  
+  public SelectorEventLoopGroup getSelectorGroup()
+  {
+    return selectorGroup;
+  }
+  
   @Override
   public String toString()
   {
@@ -456,19 +538,164 @@ public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevic
       IncomingAggreGateCommand ans = sendCommandAndCheckReplyCode(cmd);
       return ans != null ? decodeRemoteDataTable(outputFormat, ans.getEncodedDataTableFromReply()) : new SimpleDataTable(outputFormat);
     }
-    catch (ContextException ex)
+    catch (Exception ex)
     {
-      throw ex;
+      throw toContextException(ex);
+    }
+  }
+  
+  /**
+   * Calls remote function and passes records of its output to the consumer as soon as they are decoded, so the output table is never built as a whole.
+   * Returns table without records that holds format and attributes of the output, see {@link DataTableDecoder#getTable()}.
+   */
+  public DataTable callRemoteFunction(String context, String name, TableFormat outputFormat, DataTable parameters, String queueName, Consumer<DataRecord> consumer)
+      throws ContextException
+  {
+    try
+    {
+      final StringBuilder encodedParameters = parameters.encode(new StringBuilder(), createClassicEncodingSettings(true), false, 0);
+      Boolean isShallowDataReleased = releaseShallowData(parameters);
+      OutgoingAggreGateCommand cmd = commandBuilder.callFunctionOperation(context, name, encodedParameters.toString(), queueName, null);
+      
+      if (isShallowDataReleased)
+        cmd.setTimeout(ProxyContext.DURABLE_OPERATIONS_TIMEOUT);
+      IncomingAggreGateCommand ans = sendCommandAndCheckReplyCode(cmd);
+      return decodeRemoteRecords(outputFormat, ans, consumer);
     }
     catch (Exception ex)
     {
-      ContextException ce = new ContextException(ex.getMessage(), ex);
-      if (ex instanceof AggreGateException)
+      throw toContextException(ex);
+    }
+  }
+  
+  /**
+   * Non-blocking version of {@link #callRemoteFunction(String, String, TableFormat, DataTable, String)}. The returned future is completed exceptionally
+   * with {@link ContextException} (wrapped into {@link CompletionException}) on failure.
+   */
+  public CompletableFuture<DataTable> callRemoteFunctionAsync(String context, String name, TableFormat outputFormat, DataTable parameters, String queueName)
+  {
+    try
+    {
+      final StringBuilder encodedParameters = parameters.encode(new StringBuilder(), createClassicEncodingSettings(true), false, 0);
+      Boolean isShallowDataReleased = releaseShallowData(parameters);
+      OutgoingAggreGateCommand cmd = commandBuilder.callFunctionOperation(context, name, encodedParameters.toString(), queueName, null);
+      
+      if (isShallowDataReleased)
+        cmd.setTimeout(ProxyContext.DURABLE_OPERATIONS_TIMEOUT);
+      
+      return sendCommandAndCheckReplyCodeAsync(cmd).handle((ans, error) -> {
+        try
+        {
+          if (error != null)
+          {
+            throw error;
+          }
+          return decodeRemoteDataTable(outputFormat, ans.getEncodedDataTableFromReply());
+        }
+        catch (Throwable ex)
+        {
+          throw new CompletionException(toContextException(ex));
+        }
+      });
+    }
+    catch (Exception ex)
+    {
+      return failedFuture(toContextException(ex));
+    }
+  }
+  
+  /**
+   * Reads variables of several proxy contexts in one pipelined batch: all get-variable operations are written back-to-back and replies are awaited
+   * together, so the whole batch costs a single round trip. Values that are still valid in variable caches of proxy contexts are returned without
+   * remote requests.
+   * 
+   * @param variables
+   *          variable references, where context paths are local paths of proxy contexts served by this controller
+   * @return futures of variable values, completed exceptionally with {@link ContextException} (wrapped into {@link CompletionException}) on failure
+   */
+  public Map<EntityReference, CompletableFuture<DataTable>> getVariablesAsync(Collection<EntityReference> variables)
+  {
+    Map<EntityReference, CompletableFuture<DataTable>> res = new LinkedHashMap<>();
+    
+    final List<OutgoingAggreGateCommand> commands = new ArrayList<>();
+    final List<CompletableFuture<IncomingAggreGateCommand>> replies = new ArrayList<>();
+    
+    for (EntityReference ref : variables)
+    {
+      List<ProxyContext> contexts = getProxyContexts(ref.getContext());
+      
+      if (contexts.isEmpty())
       {
-        ce.setCode(((AggreGateException) ex).getCode());
+        res.put(ref, failedFuture(new ContextException(Cres.get().getString("conNotAvail") + ref.getContext())));
+        continue;
       }
-      throw ce;
+      
+      ProxyContext<?> context = contexts.get(0);
+      
+      // Operations are only collected here and sent together below
+      res.put(ref, context.getVariableAsync(ref.getEntity(), cmd -> {
+        CompletableFuture<IncomingAggreGateCommand> reply = new CompletableFuture<>();
+        commands.add(cmd);
+        replies.add(reply);
+        return reply;
+      }));
+    }
+    
+    if (commands.isEmpty())
+    {
+      return res;
+    }
+    
+    try
+    {
+      List<CompletableFuture<IncomingAggreGateCommand>> sent = sendCommandsAndCheckReplyCodesAsync(commands);
+      
+      for (int i = 0; i < sent.size(); i++)
+      {
+        final CompletableFuture<IncomingAggreGateCommand> reply = replies.get(i);
+        
+        sent.get(i).whenComplete((ans, error) -> {
+          if (error != null)
+          {
+            reply.completeExceptionally(error);
+          }
+          else
+          {
+            reply.complete(ans);
+          }
+        });
+      }
+    }
+    catch (Exception ex)
+    {
+      replies.forEach(reply -> reply.completeExceptionally(ex));
+    }
+    
+    return res;
+  }
+  
+  static ContextException toContextException(Throwable error)
+  {
+    Throwable ex = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    
+    if (ex instanceof ContextException)
+    {
+      return (ContextException) ex;
     }
+    
+    ContextException ce = new ContextException(ex.getMessage(), ex);
+    if (ex instanceof AggreGateException)
+    {
+      ce.setCode(((AggreGateException) ex).getCode());
+    }
+    return ce;
+  }
+  
+  static <T> CompletableFuture<T> failedFuture(Throwable ex)
+  {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(ex);
+    return future;
   }
   
   private Boolean releaseShallowData(DataTable parameters)
@@ -535,8 +762,50 @@ public abstract class AbstractAggreGateDeviceController<D extends AggreGateDevic
     }
   }
   
+  protected DataTable decodeRemoteRecords(TableFormat format, IncomingAggreGateCommand reply, Consumer<DataRecord> consumer) throws ContextException,
+      SyntaxErrorException
+  {
+    final ClassicEncodingSettings settings;
+    
+    if (isAvoidSendingFormats())
+    {
+      settings = new ClassicEncodingSettings(false, format);
+      settings.setProtocolVersion(protocolVersion);
+      settings.setFormatCache(formatCache);
+    }
+    else
+    {
+      settings = createClassicEncodingSettings(false);
+    }
+    
+    if (reply.isBinaryDataTableInReply())
+    {
+      return DataTableBinaryCodec.decode(reply.getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).toByteBuffer(), settings, isAvoidSendingFormats(),
+          consumer);
+    }
+    
+    DataTableDecoder decoder = new DataTableDecoder(reply.getEncodedDataTableReaderFromReply(), settings, isAvoidSendingFormats());
+    decoder.decode(consumer);
+    
+    if (decoder.getTable().getId() != null)
+    {
+      // Reply refers to a table kept by the server, its records are fetched by the proxy table in batches
+      for (DataRecord record : decodeRemoteDataTable(format, reply.getEncodedDataTableFromReply()))
+      {
+        consumer.accept(record);
+      }
+    }
+    
+    return decoder.getTable();
+  }
+  
   private DataTable choseAppropriateDataTable(String encodedReply, ClassicEncodingSettings settings, boolean validate) throws DataTableException
   {
+    if (DataTableBinaryCodec.isBinary(encodedReply, settings))
+    {
+      return new SimpleDataTable(encodedReply, settings, validate);
+    }
+    
     final ElementList elements = StringUtils.elements(encodedReply, settings.isUseVisibleSeparators());
     final boolean containsID = elements.stream().map(Element::getName).anyMatch(AbstractDataTable.ELEMENT_ID::equals);
     return containsID ? new ProxyDataTable(elements, settings, validate, this) : new SimpleDataTable(elements, settings, validate);
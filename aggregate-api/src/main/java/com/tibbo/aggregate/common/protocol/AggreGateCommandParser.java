@@ -11,6 +11,7 @@ import com.tibbo.aggregate.common.util.*;
 public class AggreGateCommandParser extends SimpleCommandParser<IncomingAggreGateCommand>
 {
   private static final byte TYPE_COMPRESSED = 1;
+  private static final byte TYPE_STREAM_COMPRESSED = 2;
   
   /**
    * Максимальный размер команды.
@@ -60,6 +61,11 @@ public class AggreGateCommandParser extends SimpleCommandParser<IncomingAggreGat
   private final ThreadLocal<Inflater> decompressor = 
       ThreadLocal.withInitial(Inflater::new);
   
+  /**
+   * Контекст декомпрессии, общий для всех команд соединения (протокол V6). Создаётся при получении первой такой команды.
+   */
+  private ConnectionInflater connectionInflater;
+  
   protected CommandData commandData;
   private ProtocolVersion version = ProtocolVersion.V2;
   
@@ -81,6 +87,12 @@ public class AggreGateCommandParser extends SimpleCommandParser<IncomingAggreGat
       return super.buildCommand();
     
     IncomingAggreGateCommand commandFrom = buildCommandFrom(commandData);
+    
+    if (commandFrom != null)
+    {
+      commandFrom.setProtocolVersion(version);
+    }
+    
     reset();
     return commandFrom;
   }
@@ -106,12 +118,19 @@ public class AggreGateCommandParser extends SimpleCommandParser<IncomingAggreGat
   @Override
   protected IncomingAggreGateCommand createCommandFromBufferContent() throws SyntaxErrorException
   {
-    return new IncomingAggreGateCommand(clearData());
+    return new IncomingAggreGateCommand(detachData());
   }
   
   public void setVersion(ProtocolVersion version)
   {
     this.version = version;
+    
+    // Connection starts over with compatibility version, so the shared decompression context of the previous one is dropped
+    if (version.ordinal() < ProtocolVersion.V6.ordinal() && connectionInflater != null)
+    {
+      connectionInflater.end();
+      connectionInflater = null;
+    }
   }
   
   protected IncomingAggreGateCommand buildCommandFrom(CommandData commandData) throws SyntaxErrorException
@@ -138,6 +157,16 @@ public class AggreGateCommandParser extends SimpleCommandParser<IncomingAggreGat
     
     byte[] data = body.getContents();
     
+    if (Util.equals(body.getType(), TYPE_STREAM_COMPRESSED))
+    {
+      if (connectionInflater == null)
+      {
+        connectionInflater = new ConnectionInflater();
+      }
+      
+      return new IncomingAggreGateCommand(connectionInflater.inflate(data));
+    }
+    
     boolean usesCompression = Util.equals(body.getType(), TYPE_COMPRESSED);
     
     if (usesCompression)
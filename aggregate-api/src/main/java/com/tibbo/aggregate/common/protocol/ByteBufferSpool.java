@@ -0,0 +1,137 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.tibbo.aggregate.common.util.BlockingChannel;
+
+/**
+ * Output stream that collects data into a list of pooled buffers. Unlike {@link java.io.ByteArrayOutputStream}, it never copies collected data when
+ * growing, and its buffers are reused once the data is written to a channel.
+ */
+class ByteBufferSpool extends OutputStream
+{
+  static final int CHUNK_SIZE = 64 * 1024;
+  
+  private final ByteBufferPool pool;
+  
+  private final List<ByteBuffer> buffers = new ArrayList<>();
+  
+  private ByteBuffer current;
+  
+  private long size;
+  
+  ByteBufferSpool(ByteBufferPool pool)
+  {
+    this.pool = pool;
+  }
+  
+  @Override
+  public void write(int b)
+  {
+    nextBuffer().put((byte) b);
+    size++;
+  }
+  
+  @Override
+  public void write(byte[] b, int off, int len)
+  {
+    while (len > 0)
+    {
+      ByteBuffer buffer = nextBuffer();
+      
+      int length = Math.min(len, buffer.remaining());
+      
+      buffer.put(b, off, length);
+      
+      off += length;
+      len -= length;
+      size += length;
+    }
+  }
+  
+  /**
+   * Deflates input of the deflater directly into the pooled buffers. All pending output is written unless the flush mode is
+   * {@link Deflater#NO_FLUSH}, in which case deflating stops once the deflater needs more input.
+   */
+  void deflate(Deflater deflater, int flush)
+  {
+    while (true)
+    {
+      ByteBuffer buffer = nextBuffer();
+      
+      int remaining = buffer.remaining();
+      int length = deflater.deflate(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining, flush);
+      
+      buffer.position(buffer.position() + length);
+      size += length;
+      
+      if (length < remaining && (flush != Deflater.NO_FLUSH || deflater.needsInput()))
+      {
+        return;
+      }
+    }
+  }
+  
+  long size()
+  {
+    return size;
+  }
+  
+  /**
+   * Writes collected data to the channel. Caller must hold the channel lock.
+   */
+  void writeTo(BlockingChannel channel) throws IOException
+  {
+    for (ByteBuffer buffer : buffers)
+    {
+      buffer.flip();
+      
+      do
+      {
+        channel.write(buffer);
+      }
+      while (buffer.hasRemaining());
+    }
+  }
+  
+  /**
+   * Copies collected data to the stream. It can't be combined with {@link #writeTo(BlockingChannel)}, which flips the buffers.
+   */
+  void writeTo(OutputStream out) throws IOException
+  {
+    for (ByteBuffer buffer : buffers)
+    {
+      out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+  }
+  
+  /**
+   * Returns buffers to the pool, the spool must not be used afterwards.
+   */
+  void release()
+  {
+    for (ByteBuffer buffer : buffers)
+    {
+      pool.release(buffer);
+    }
+    
+    buffers.clear();
+    current = null;
+  }
+  
+  private ByteBuffer nextBuffer()
+  {
+    if (current == null || !current.hasRemaining())
+    {
+      current = pool.acquire(CHUNK_SIZE);
+      buffers.add(current);
+    }
+    
+    return current;
+  }
+}
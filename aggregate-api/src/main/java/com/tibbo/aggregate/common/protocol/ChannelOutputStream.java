@@ -0,0 +1,92 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.tibbo.aggregate.common.util.BlockingChannel;
+
+/**
+ * Output stream writing data to a channel through a single pooled buffer. Caller must hold the channel lock until the stream is closed.
+ */
+class ChannelOutputStream extends OutputStream
+{
+  private final BlockingChannel channel;
+  private final ByteBufferPool pool;
+  
+  private ByteBuffer buffer;
+  
+  ChannelOutputStream(BlockingChannel channel, ByteBufferPool pool)
+  {
+    this.channel = channel;
+    this.pool = pool;
+    this.buffer = pool.acquire(ByteBufferSpool.CHUNK_SIZE);
+  }
+  
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (!buffer.hasRemaining())
+    {
+      drain();
+    }
+    
+    buffer.put((byte) b);
+  }
+  
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException
+  {
+    while (len > 0)
+    {
+      if (!buffer.hasRemaining())
+      {
+        drain();
+      }
+      
+      int length = Math.min(len, buffer.remaining());
+      
+      buffer.put(b, off, length);
+      
+      off += length;
+      len -= length;
+    }
+  }
+  
+  @Override
+  public void flush() throws IOException
+  {
+    drain();
+  }
+  
+  @Override
+  public void close() throws IOException
+  {
+    if (buffer == null)
+    {
+      return;
+    }
+    
+    try
+    {
+      drain();
+    }
+    finally
+    {
+      pool.release(buffer);
+      buffer = null;
+    }
+  }
+  
+  private void drain() throws IOException
+  {
+    buffer.flip();
+    
+    while (buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    
+    buffer.clear();
+  }
+}
@@ -0,0 +1,93 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.tibbo.aggregate.common.Log;
+
+/**
+ * Drives a {@link DefaultClientController} from a {@link SelectorEventLoop} instead of a dedicated thread calling {@link DefaultClientController#run()}
+ * in a loop. Incoming data is parsed on the loop thread, while commands are still executed by the controller's command execution service.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * SelectorChannel channel = group.register(acceptedSocketChannel);
+ * DefaultClientController controller = createController(channel);
+ * channel.activate(new ClientControllerSelectorHandler(controller));
+ * </pre>
+ */
+public class ClientControllerSelectorHandler implements SelectorChannelHandler
+{
+  private final DefaultClientController<?> controller;
+
+  private final CountDownLatch closed = new CountDownLatch(1);
+
+  public ClientControllerSelectorHandler(DefaultClientController<?> controller)
+  {
+    this.controller = controller;
+  }
+
+  @Override
+  public void channelReadable(SelectorChannel channel) throws Exception
+  {
+    process(channel);
+  }
+
+  @Override
+  public void channelIdle(SelectorChannel channel) throws Exception
+  {
+    process(channel); // Checks keepalive timeout
+  }
+
+  private void process(SelectorChannel channel)
+  {
+    if (!controller.runAvailable())
+    {
+      channel.closeQuietly();
+    }
+  }
+
+  @Override
+  public void channelClosed(SelectorChannel channel)
+  {
+    closed.countDown();
+
+    try
+    {
+      connectionClosed();
+    }
+    catch (Exception ex)
+    {
+      Log.CLIENTS.warn("Error closing client connection " + channel.getChannelAddress(), ex);
+    }
+  }
+
+  /**
+   * Called once the connection is closed. Shuts down the controller by default.
+   */
+  protected void connectionClosed()
+  {
+    controller.shutdown();
+  }
+
+  /**
+   * Waits until the connection is closed or the timeout expires.
+   *
+   * @return true if the connection was closed
+   */
+  public boolean awaitClosed(long timeout) throws InterruptedException
+  {
+    return closed.await(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  public boolean isClosed()
+  {
+    return closed.getCount() == 0;
+  }
+
+  public DefaultClientController<?> getController()
+  {
+    return controller;
+  }
+}
@@ -5,6 +5,8 @@ import java.util.concurrent.*;
 /**
  * Менеджер очередей команд.
  * Оптимизирован для многопоточного использования через ConcurrentHashMap.
+ * Очереди обрабатываются в переданном исполнителе, поэтому при исполнителе на основе
+ * {@link com.tibbo.aggregate.common.util.VirtualThreads} каждая очередь обслуживается виртуальным потоком.
  */
 public class CommandQueueManager
 {
@@ -4,22 +4,39 @@ import static com.tibbo.aggregate.common.protocol.ProtocolVersion.V2;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
+import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.communication.SocketDisconnectionException;
 import com.tibbo.aggregate.common.device.DisconnectionException;
 import com.tibbo.aggregate.common.util.BlockingChannel;
+import com.tibbo.aggregate.common.util.StringUtils;
 
 public class CompressedCommandWriter<C extends OutgoingAggreGateCommand> extends DefaultCommandWriter<C>
 {
   public static final byte TYPE_RAW = 0;
   public static final byte TYPE_COMPRESSED = 1;
   
+  /**
+   * Command compressed by the deflate stream shared by all commands of the connection (protocol version {@link ProtocolVersion#V6} and later). Unlike
+   * {@link #TYPE_COMPRESSED} commands, which are compressed on their own, such commands refer to data of the previous ones, so small and similar
+   * commands (e.g. events) are compressed well.
+   */
+  public static final byte TYPE_STREAM_COMPRESSED = 2;
+  
   // Tested that commands more than 128 bytes usually has at least 1.2 compression ratio. Smaller commands could have negative compression effect.
   public static final int MINIMAL_COMMAND_SIZE_TO_COMPRESS = 128;
   
   private final ThreadLocal<Deflater> compressor = ThreadLocal.withInitial(Deflater::new);
+  
+  // Connection-level compression context, it's used under the channel lock only. Writer serves a single connection at a time
+  private ConnectionDeflater connectionDeflater;
 
   private volatile ProtocolVersion version = V2; //volatile to let neighbour threads to know of version change instantly
   private volatile ProtocolVersion versionAfterNextWrite = version;
@@ -39,6 +56,20 @@ public class CompressedCommandWriter<C extends OutgoingAggreGateCommand> extends
       default:
         command.complete();
 
+        if (version.ordinal() >= ProtocolVersion.V6.ordinal() && channel != null && channel.isUsesCompression())
+        {
+          writeConnectionCompressed(command, channel, needsFlushing);
+          log(command, version);
+          break;
+        }
+
+        if (command.isStreamed())
+        {
+          writeStreamed(command, channel, needsFlushing);
+          log(command, version);
+          break;
+        }
+
         ByteBuffer byteBuffer = composeByteBuffer(command, channel, cmd -> extractCommandBody(cmd, channel));
 
         try
@@ -104,6 +135,218 @@ public class CompressedCommandWriter<C extends OutgoingAggreGateCommand> extends
     }
   }
   
+  /**
+   * Writes a command with streamed tables. Frame starts with the length of its body, so the body is compressed into pooled buffers before the channel
+   * is locked. Compressed body is held along with the encoded tables of the command until the frame is written.
+   */
+  private void writeStreamed(C command, BlockingChannel channel, boolean needsFlushing) throws IOException, DisconnectionException
+  {
+    checkChannel(channel);
+
+    boolean compress = channel.isUsesCompression();
+
+    ByteBufferSpool spool = new ByteBufferSpool(getBufferPool());
+
+    try
+    {
+      if (compress)
+      {
+        Deflater localCompressor = compressor.get();
+        localCompressor.reset();
+
+        DeflaterOutputStream stream = new DeflaterOutputStream(spool, localCompressor, ByteBufferSpool.CHUNK_SIZE);
+        command.writeTo(stream);
+        stream.finish();
+
+        if (Log.COMMANDS.isTraceEnabled())
+        {
+          Log.COMMANDS.trace("Raw size: " + localCompressor.getBytesRead() + ". \tCompressed size: " + spool.size() + ".");
+        }
+      }
+      else
+      {
+        command.writeTo(spool);
+      }
+
+      if (spool.size() >= Integer.MAX_VALUE)
+      {
+        throw new IOException("Command is too large: " + spool.size() + " bytes");
+      }
+
+      String header = command.header();
+      String footer = command.footer();
+
+      byte[] headerBytes = header != null ? header.getBytes(StringUtils.UTF8_CHARSET) : new byte[0];
+      byte[] footerBytes = footer != null ? footer.getBytes(StringUtils.UTF8_CHARSET) : new byte[0];
+
+      ByteBuffer prefix = ByteBuffer.allocate(headerBytes.length + 5);
+      prefix.put(headerBytes);
+      prefix.putInt(1 + (int) spool.size());
+      prefix.put(compress ? TYPE_COMPRESSED : TYPE_RAW);
+      prefix.flip();
+
+      ByteBuffer suffix = ByteBuffer.wrap(footerBytes);
+
+      writeToChannel(command, channel, needsFlushing, ch -> {
+        do
+        {
+          ch.write(prefix);
+        }
+        while (prefix.hasRemaining());
+
+        spool.writeTo(ch);
+
+        while (suffix.hasRemaining())
+        {
+          ch.write(suffix);
+        }
+      });
+    }
+    finally
+    {
+      spool.release();
+    }
+  }
+
+  /**
+   * Writes commands as a single batch: their frames are coalesced into a pooled buffer that is written to the channel under one lock acquisition, and
+   * the channel is flushed once after the last command. It's meant for streams of small commands (e.g. events), streamed tables of the commands are
+   * encoded into them.
+   */
+  public void writeBatch(List<C> commands, BlockingChannel channel) throws IOException, DisconnectionException
+  {
+    checkChannel(channel);
+
+    try
+    {
+      // syncing is needed to keep frames of the batch together and in the order of the connection-level compression
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter
+      synchronized (channel)
+      {
+        try (ChannelOutputStream out = new ChannelOutputStream(channel, getBufferPool()))
+        {
+          for (C command : commands)
+          {
+            writeFrame(command, channel, out);
+            log(command, version);
+            version = versionAfterNextWrite;
+          }
+        }
+
+        channel.flush();
+      }
+    }
+    catch (SocketDisconnectionException | ClosedChannelException ex)
+    {
+      throw new DisconnectionException(Cres.get().getString("disconnected"), ex);
+    }
+  }
+
+  private void writeFrame(C command, BlockingChannel channel, OutputStream out) throws IOException
+  {
+    command.complete();
+
+    if (version.ordinal() >= ProtocolVersion.V6.ordinal() && channel.isUsesCompression())
+    {
+      writeConnectionCompressedFrame(command, channel, out);
+      return;
+    }
+
+    // Body is prepared before anything is written, so that a failure doesn't leave a partial frame in the batch
+    byte[] body = version == V2 ? command.toByteArray() : extractCommandBody(command, channel);
+
+    String header = command.header();
+    String footer = command.footer();
+
+    if (header != null)
+    {
+      out.write(header.getBytes(StringUtils.UTF8_CHARSET));
+    }
+    out.write(body);
+    if (footer != null)
+    {
+      out.write(footer.getBytes(StringUtils.UTF8_CHARSET));
+    }
+  }
+
+  /**
+   * Compresses the command with the connection-level context directly into pooled buffers, and writes them to the channel. Command is compressed under
+   * the channel lock, so that commands are compressed in the order they are sent.
+   */
+  private void writeConnectionCompressed(C command, BlockingChannel channel, boolean needsFlushing) throws IOException, DisconnectionException
+  {
+    checkChannel(channel);
+
+    writeToChannel(command, channel, needsFlushing, ch -> {
+      try (ChannelOutputStream out = new ChannelOutputStream(ch, getBufferPool()))
+      {
+        writeConnectionCompressedFrame(command, ch, out);
+      }
+    });
+  }
+
+  /**
+   * Writes frame of a command compressed with the connection-level context. Caller must hold the channel lock.
+   */
+  private void writeConnectionCompressedFrame(C command, BlockingChannel channel, OutputStream out) throws IOException
+  {
+    String header = command.header();
+    String footer = command.footer();
+
+    ByteBufferSpool spool = new ByteBufferSpool(getBufferPool());
+
+    try
+    {
+      if (connectionDeflater == null)
+      {
+        connectionDeflater = new ConnectionDeflater();
+      }
+
+      long bytesRead = connectionDeflater.getBytesRead();
+
+      try
+      {
+        connectionDeflater.compress(command, spool);
+
+        if (spool.size() >= Integer.MAX_VALUE)
+        {
+          throw new IOException("Command is too large: " + spool.size() + " bytes");
+        }
+      }
+      catch (IOException | RuntimeException ex)
+      {
+        // Context has consumed data that will never reach the peer, so the connection can't be continued
+        connectionDeflater.end();
+        connectionDeflater = null;
+        channel.close();
+        throw ex;
+      }
+
+      if (Log.COMMANDS.isTraceEnabled())
+      {
+        Log.COMMANDS.trace("Raw size: " + (connectionDeflater.getBytesRead() - bytesRead) + ". \tCompressed size: " + spool.size() + ".");
+      }
+
+      if (header != null)
+      {
+        out.write(header.getBytes(StringUtils.UTF8_CHARSET));
+      }
+
+      out.write(ByteBuffer.allocate(5).putInt(1 + (int) spool.size()).put(TYPE_STREAM_COMPRESSED).array());
+
+      spool.writeTo(out);
+
+      if (footer != null)
+      {
+        out.write(footer.getBytes(StringUtils.UTF8_CHARSET));
+      }
+    }
+    finally
+    {
+      spool.release();
+    }
+  }
+
   private byte[] getContents(OutgoingAggreGateCommand command, boolean compress)
   {
     byte[] commandBytes = command.toByteArray();
@@ -149,6 +392,13 @@ public class CompressedCommandWriter<C extends OutgoingAggreGateCommand> extends
   {
     this.version = version;
     versionAfterNextWrite = version;
+    
+    // Connection starts over with compatibility version, so the shared compression context of the previous one is dropped
+    if (version.ordinal() < ProtocolVersion.V6.ordinal() && connectionDeflater != null)
+    {
+      connectionDeflater.end();
+      connectionDeflater = null;
+    }
   }
   
   @Override
@@ -0,0 +1,91 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import com.tibbo.aggregate.common.datatable.DataTableUtils;
+import com.tibbo.aggregate.common.util.StringUtils;
+
+/**
+ * Compression context shared by all commands sent over a connection, see {@link CompressedCommandWriter#TYPE_STREAM_COMPRESSED}.
+ * <p>
+ * Commands are deflated into a single stream that is flushed with {@link Deflater#SYNC_FLUSH} after each command, so every command can be inflated as
+ * soon as it's received while referring to the data of previous ones. Stream starts with {@link #DICTIONARY} preset. Commands must be compressed in the
+ * order they are written to the channel, so the caller must hold the channel lock.
+ */
+class ConnectionDeflater extends OutputStream
+{
+  /**
+   * Preset dictionary of common protocol tokens. The most frequent tokens are at the end, where they are the cheapest to refer to.
+   */
+  static final byte[] DICTIONARY = createDictionary();
+  
+  private final Deflater deflater = new Deflater();
+  
+  private ByteBufferSpool spool;
+  
+  ConnectionDeflater()
+  {
+    deflater.setDictionary(DICTIONARY);
+  }
+  
+  /**
+   * Compresses contents of the command into the spool and flushes the stream.
+   */
+  void compress(OutgoingAggreGateCommand command, ByteBufferSpool spool) throws IOException
+  {
+    this.spool = spool;
+    
+    try
+    {
+      command.writeTo(this);
+      spool.deflate(deflater, Deflater.SYNC_FLUSH);
+    }
+    finally
+    {
+      this.spool = null;
+    }
+  }
+  
+  long getBytesRead()
+  {
+    return deflater.getBytesRead();
+  }
+  
+  long getBytesWritten()
+  {
+    return deflater.getBytesWritten();
+  }
+  
+  @Override
+  public void write(int b)
+  {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+  
+  @Override
+  public void write(byte[] b, int off, int len)
+  {
+    deflater.setInput(b, off, len);
+    spool.deflate(deflater, Deflater.NO_FLUSH);
+  }
+  
+  /**
+   * Releases the native resources of the context, it must not be used afterwards.
+   */
+  void end()
+  {
+    deflater.end();
+  }
+  
+  private static byte[] createDictionary()
+  {
+    String tokens = "<D=><H=><V=><G=><A=><M=1><X=1><<description><S><<name><S><<time><D><<value><E><<value><L><<value><B><<value><T><<value><I><<value><S>"
+        + "users.admin.devices.events.alerts.models./O/S//O/C//O/G//O/L/M//E/R//A/<F=N><A=<NULL>><F=<R=<<NULL>>";
+    
+    return tokens.replace('<', DataTableUtils.ELEMENT_START).replace('>', DataTableUtils.ELEMENT_END)
+        .replace('=', DataTableUtils.ELEMENT_NAME_VALUE_SEPARATOR).replace('/', AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0))
+        .getBytes(StringUtils.UTF8_CHARSET);
+  }
+}
@@ -0,0 +1,71 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.tibbo.aggregate.common.util.SyntaxErrorException;
+
+/**
+ * Decompression context shared by all commands received over a connection, counterpart of {@link ConnectionDeflater}. Commands must be inflated in the
+ * order they are received.
+ */
+class ConnectionInflater
+{
+  private static final int MIN_BUFFER_SIZE = 1024;
+  
+  private final Inflater inflater = new Inflater();
+  
+  /**
+   * Inflates body of a command. Returned buffer wraps a new array holding the command, so it can be adopted by {@link IncomingAggreGateCommand}.
+   */
+  ByteBuffer inflate(byte[] data) throws SyntaxErrorException
+  {
+    inflater.setInput(data);
+    
+    byte[] result = new byte[Math.max(MIN_BUFFER_SIZE, data.length * 4)];
+    int length = 0;
+    
+    try
+    {
+      while (true)
+      {
+        if (length == result.length)
+        {
+          result = Arrays.copyOf(result, result.length * 2);
+        }
+        
+        int inflated = inflater.inflate(result, length, result.length - length);
+        
+        length += inflated;
+        
+        if (inflated == 0)
+        {
+          if (inflater.needsDictionary())
+          {
+            inflater.setDictionary(ConnectionDeflater.DICTIONARY);
+          }
+          else if (inflater.needsInput() || inflater.finished())
+          {
+            break;
+          }
+        }
+      }
+    }
+    catch (DataFormatException ex)
+    {
+      throw new SyntaxErrorException("Error decompressing command: " + ex.getMessage(), ex);
+    }
+    
+    return ByteBuffer.wrap(result, 0, length);
+  }
+  
+  /**
+   * Releases the native resources of the context, it must not be used afterwards.
+   */
+  void end()
+  {
+    inflater.end();
+  }
+}
@@ -5,19 +5,33 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.SocketException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 import com.tibbo.aggregate.common.AggreGateException;
 import com.tibbo.aggregate.common.Cres;
 import com.tibbo.aggregate.common.Log;
 import com.tibbo.aggregate.common.SoftwareVersion;
 import com.tibbo.aggregate.common.communication.CommandParserListener;
-import com.tibbo.aggregate.common.communication.CommandWriter;
 import com.tibbo.aggregate.common.context.AbstractContext;
 import com.tibbo.aggregate.common.context.CallerController;
 import com.tibbo.aggregate.common.context.CallerData;
@@ -49,10 +63,31 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
 {
   public static final int KEEP_ALIVE_PERIOD = 10000; // Ms
   private static final int KEEP_ALIVE_MULTIPLIER = 10;
+  
+  /**
+   * Maximum size of event commands sent to the client as a single batch, in bytes. Set -Daggregate.events.batchSize=0 to send events one by one.
+   */
+  private static final int EVENT_BATCH_SIZE = getIntProperty("aggregate.events.batchSize", ByteBufferSpool.CHUNK_SIZE);
+  
+  /**
+   * Time an incomplete batch waits for more events, in microseconds. Zero (default) sends a batch as soon as the queue is drained.
+   */
+  private static final long EVENT_BATCH_LINGER = TimeUnit.MICROSECONDS.toNanos(getIntProperty("aggregate.events.batchLinger", 0));
+  
+  /**
+   * Comma-separated names of events conflated by forwarding listeners by default, see {@link ForwardingEventListener#setConflatedEvents(Collection)}.
+   */
+  private static final Set<String> CONFLATED_EVENTS = StringUtils.split(System.getProperty("aggregate.events.conflate", ""), ',').stream()
+      .map(String::trim).filter(name -> !name.isEmpty()).collect(Collectors.toSet());
+  
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<DefaultClientController> DISCARDED_EVENTS_COUNT = AtomicLongFieldUpdater.newUpdater(DefaultClientController.class,
+      "discardedEventsCount");
+  
   protected final boolean json;
   private final BlockingChannel dataChannel;
   private final AggreGateCommandParser commandParser;
-  private final CommandWriter<OutgoingAggreGateCommand> commandWriter;
+  private final CompressedCommandWriter<OutgoingAggreGateCommand> commandWriter;
   private final ContextEventListener defaultEventListener;
   
   private final ExecutorService commandExecutionService;
@@ -61,9 +96,15 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   private final boolean useCompression;
   
-  private final BlockingQueue<OutgoingAggreGateCommand> pendingEventCommandsQueue;
+  // Events are offered by any thread and drained by a single one at a time, see processPendingEvents()
+  private final Queue<PendingEvent> pendingEventCommandsQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingEventsCount = new AtomicInteger();
+  private final int pendingEventsQueueCapacity;
+  private final AtomicBoolean pendingEventsDraining = new AtomicBoolean();
+  private final AtomicBoolean pendingEventProcessingScheduled = new AtomicBoolean();
+  private volatile int eventBatchSize = EVENT_BATCH_SIZE;
   private final DataTableRegistry globalDataTableRegistry;
-  protected long discardedEventsCount;
+  protected volatile long discardedEventsCount; // Events are discarded by any thread, so it's updated by DISCARDED_EVENTS_COUNT
   protected KnownFormatCollector knownFormatCollector;
   private FormatCache formatCache;
   private boolean shutDown = false;
@@ -108,9 +149,14 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
     
     queueManager = new CommandQueueManager(commandExecutionService);
     
-    pendingEventCommandsQueue = new LinkedBlockingQueue(pendingEventsQueueCapacity);
+    this.pendingEventsQueueCapacity = pendingEventsQueueCapacity;
     
     knownFormatCollector = new KnownFormatCollector();
+    
+    if (formatCache != null)
+    {
+      formatCache.addKnownFormatCollector(knownFormatCollector);
+    }
   }
   
   public static String searchForCode(Throwable ex)
@@ -127,9 +173,38 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
     return ex.getCause() != null ? searchForCode(ex.getCause()) : AggreGateCodes.REPLY_CODE_ERROR;
   }
   
+  private static int getIntProperty(String name, int defaultValue)
+  {
+    String prop = System.getProperty(name);
+    
+    if (prop != null)
+    {
+      try
+      {
+        int value = Integer.parseInt(prop.trim());
+        
+        if (value >= 0)
+        {
+          return value;
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        Log.CLIENTS.warn("Invalid value of " + name + ": " + prop + ", using default " + defaultValue);
+      }
+    }
+    
+    return defaultValue;
+  }
+  
   public void setKnownFormatCollector(KnownFormatCollector knownFormatCollector)
   {
     this.knownFormatCollector = knownFormatCollector;
+    
+    if (formatCache != null && knownFormatCollector != null)
+    {
+      formatCache.addKnownFormatCollector(knownFormatCollector);
+    }
   }
   
   public void processOperationGetVar(String id, Context con, String name, OutgoingAggreGateCommand ans) throws ContextException
@@ -163,7 +238,7 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
     
     ans.constructReply(id, AggreGateCodes.REPLY_CODE_OK);
     
-    ans.addParam(result.encode(createClassicEncodingSettings(vd.getFormat() != null)));
+    ans.addParam(result, createClassicEncodingSettings(vd.getFormat() != null));
   }
   
   protected DataTable getVariable(Context con, String name) throws ContextException
@@ -238,7 +313,7 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
       }
       
       ans.constructReply(id, AggreGateCodes.REPLY_CODE_OK);
-      return ans.addParam(result.encode(createClassicEncodingSettings(fd.getOutputFormat() != null)));
+      return ans.addParam(result, createClassicEncodingSettings(fd.getOutputFormat() != null));
     }
     catch (OutOfMemoryError ex)
     {
@@ -539,10 +614,36 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   @Override
   public boolean run()
+  {
+    return run(false);
+  }
+  
+  /**
+   * Processes all commands that can be parsed from the data channel without blocking. Intended for selector-driven channels (see
+   * {@link SelectorChannel}), whose event loop calls this method when new data arrives and periodically to check the keepalive timeout.
+   * 
+   * @return false if the connection is broken and the controller should be shut down
+   */
+  public boolean runAvailable()
+  {
+    return run(true);
+  }
+  
+  private boolean run(boolean drain)
   {
     try
     {
-      runImpl();
+      if (drain)
+      {
+        while (processNextCommand())
+        {
+          // Commands already received are dispatched one by one, since the selector will not report them again
+        }
+      }
+      else
+      {
+        runImpl();
+      }
       
       // Unified Operations Console uses start messages as keepalive messages, sending them periodically
       // Thus, if there were more than one start message, we're analyzing time of last data sample
@@ -585,6 +686,11 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   }
   
   public void runImpl() throws IOException, DisconnectionException, SyntaxErrorException
+  {
+    processNextCommand();
+  }
+  
+  private boolean processNextCommand() throws IOException, DisconnectionException, SyntaxErrorException
   {
     IncomingAggreGateCommand command = commandParser.readCommand();
     
@@ -616,6 +722,8 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
         sendCommand(reply);
       }
     }
+    
+    return command != null;
   }
   
   protected String getErrorDetails(Throwable error)
@@ -654,36 +762,150 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   private void processPendingEvents()
   {
+    // Only one thread drains the queue at a time, so events are sent in the order they were queued
+    while (pendingEventsDraining.compareAndSet(false, true))
+    {
+      boolean drained;
+      
+      try
+      {
+        drained = drainPendingEvents();
+      }
+      finally
+      {
+        pendingEventsDraining.set(false);
+      }
+      
+      // Events queued while the flag was being released would be left in the queue otherwise
+      if (!drained || pendingEventCommandsQueue.isEmpty())
+      {
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Sends pending events in batches. Returns false if draining was stopped before the queue became empty.
+   */
+  private boolean drainPendingEvents()
+  {
+    List<OutgoingAggreGateCommand> batch = new ArrayList<>();
+    
     while (!Thread.currentThread().isInterrupted())
     {
-      OutgoingAggreGateCommand current;
+      collectPendingEvents(batch);
       
-      synchronized (pendingEventCommandsQueue)
+      if (batch.isEmpty())
       {
-        current = pendingEventCommandsQueue.poll();
-        
-        if (current == null)
-        {
-          return;
-        }
+        return true;
       }
       
       try
       {
-        sendCommand(current);
+        if (eventBatchSize > 0)
+        {
+          sendCommands(batch);
+        }
+        else
+        {
+          sendCommand(batch.get(0));
+        }
       }
       catch (DisconnectionException ex)
       {
         Log.CLIENTS.debug("Disconnection detected while forwarding event to client: " + ex.getMessage(), ex);
-        return;
+        return false;
       }
       catch (Throwable ex)
       {
-        String msg = "Exception while forwarding event to client: ";
-        Log.CLIENTS.info(msg + ex.toString());
+        // Part of the batch may have been written already, so events are not resent to avoid duplicates
+        String msg = "Exception while forwarding " + batch.size() + " event(s) to client, they are dropped: ";
+        Log.CLIENTS.warn(msg + ex.toString());
         Log.CLIENTS.debug(msg + ex.getMessage(), ex);
       }
+      finally
+      {
+        batch.clear();
+      }
+    }
+    
+    return false;
+  }
+  
+  private void collectPendingEvents(List<OutgoingAggreGateCommand> batch)
+  {
+    long deadline = System.nanoTime() + EVENT_BATCH_LINGER;
+    int size = 0;
+    
+    do
+    {
+      PendingEvent pending = pendingEventCommandsQueue.poll();
+      
+      if (pending == null)
+      {
+        long remaining = deadline - System.nanoTime();
+        
+        if (batch.isEmpty() || remaining <= 0 || Thread.currentThread().isInterrupted())
+        {
+          return;
+        }
+        
+        LockSupport.parkNanos(remaining);
+        continue;
+      }
+      
+      pendingEventsCount.decrementAndGet();
+      
+      OutgoingAggreGateCommand cmd = pending.take();
+      
+      batch.add(cmd);
+      size += cmd.size();
+    }
+    while (size < eventBatchSize);
+  }
+  
+  /**
+   * Sends commands as a single batch with one flush of the channel.
+   */
+  public void sendCommands(List<OutgoingAggreGateCommand> commands) throws DisconnectionException, IOException
+  {
+    commandWriter.writeBatch(commands, dataChannel);
+    
+    if (Log.COMMANDS_CLIENT.isDebugEnabled())
+    {
+      for (OutgoingAggreGateCommand cmd : commands)
+      {
+        Log.COMMANDS_CLIENT.debug("Sent: " + cmd);
+      }
+    }
+  }
+  
+  private boolean queuePendingEvent(PendingEvent pending)
+  {
+    if (pendingEventsCount.incrementAndGet() > pendingEventsQueueCapacity)
+    {
+      pendingEventsCount.decrementAndGet();
+      discardEvent();
+      return false;
+    }
+    
+    pendingEventCommandsQueue.offer(pending);
+    
+    // Active drainer will pick the event up
+    if (!pendingEventsDraining.get() && pendingEventProcessingScheduled.compareAndSet(false, true))
+    {
+      try
+      {
+        pendingEventProcessingTask = commandExecutionService.submit(new PendingEventProcessingTask());
+      }
+      catch (RejectedExecutionException ex)
+      {
+        pendingEventProcessingScheduled.set(false);
+        Log.CLIENTS.warn("Cannot schedule new event delivery since command processing pool is overloaded");
+      }
     }
+    
+    return true;
   }
   
   protected Context getContext(String path)
@@ -695,10 +917,7 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   public int getPendingEventsCount()
   {
-    synchronized (pendingEventCommandsQueue)
-    {
-      return pendingEventCommandsQueue.size();
-    }
+    return pendingEventsCount.get();
   }
   
   public long getDiscardedEventsCount()
@@ -708,7 +927,7 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   protected void discardEvent()
   {
-    discardedEventsCount++;
+    DISCARDED_EVENTS_COUNT.incrementAndGet(this);
     
     if (Log.CLIENTS.isDebugEnabled())
     {
@@ -716,6 +935,20 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
     }
   }
   
+  public int getEventBatchSize()
+  {
+    return eventBatchSize;
+  }
+  
+  /**
+   * Sets maximum size of event commands sent to the client as a single batch, in bytes. Zero makes events sent one by one. Default is taken from
+   * aggregate.events.batchSize system property.
+   */
+  public void setEventBatchSize(int eventBatchSize)
+  {
+    this.eventBatchSize = eventBatchSize;
+  }
+  
   public ContextEventListener getDefaultEventListener()
   {
     return defaultEventListener;
@@ -748,6 +981,11 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   public void setFormatCache(FormatCache formatCache)
   {
     this.formatCache = formatCache;
+    
+    if (formatCache != null && knownFormatCollector != null)
+    {
+      formatCache.addKnownFormatCollector(knownFormatCollector);
+    }
   }
   
   public boolean isConnected()
@@ -783,6 +1021,11 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
   
   public class ForwardingEventListener extends DefaultContextEventListener
   {
+    private volatile Set<String> conflatedEvents = CONFLATED_EVENTS;
+    
+    // Queued occurrences of conflated events by context and event name
+    private final Map<String, PendingEvent> conflatedPendingEvents = new ConcurrentHashMap<>();
+    
     public ForwardingEventListener(ContextManager contextManager, Integer listenerCode, Expression filter, String fingerprint)
     {
       super(null, contextManager, listenerCode, filter, fingerprint);
@@ -847,26 +1090,28 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
         
         OutgoingAggreGateCommand cmd = constructEventCommand(event, getListenerCode());
         
-        synchronized (pendingEventCommandsQueue)
+        if (!conflatedEvents.contains(event.getName()))
         {
-          boolean added = pendingEventCommandsQueue.offer(cmd);
-          
-          if (!added)
-          {
-            discardEvent();
-          }
-          
-          if (pendingEventProcessingTask == null || pendingEventProcessingTask.isDone())
-          {
-            try
-            {
-              pendingEventProcessingTask = commandExecutionService.submit(new PendingEventProcessingTask());
-            }
-            catch (RejectedExecutionException ex)
-            {
-              Log.CLIENTS.warn("Cannot schedule new event delivery since command processing pool is overloaded");
-            }
-          }
+          queuePendingEvent(new PendingEvent(cmd, null, null));
+          return;
+        }
+        
+        String key = event.getContext() + AggreGateCommand.CLIENT_COMMAND_SEPARATOR + event.getName();
+        
+        PendingEvent pending = conflatedPendingEvents.get(key);
+        
+        if (pending != null && pending.replace(cmd))
+        {
+          return; // Previous occurrence is still in the queue, so it's just superseded
+        }
+        
+        pending = new PendingEvent(cmd, conflatedPendingEvents, key);
+        
+        conflatedPendingEvents.put(key, pending);
+        
+        if (!queuePendingEvent(pending))
+        {
+          conflatedPendingEvents.remove(key, pending);
         }
       }
       catch (Exception ex)
@@ -875,6 +1120,20 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
       }
     }
     
+    /**
+     * Sets names of events that are conflated by the listener. While an occurrence of such event waits for delivery, newer occurrences of the event in
+     * the same context replace it, so the client gets only the latest one. It suits change events whose intermediate values may be skipped.
+     */
+    public void setConflatedEvents(Collection<String> eventNames)
+    {
+      conflatedEvents = Collections.unmodifiableSet(new HashSet<>(eventNames));
+    }
+    
+    public Set<String> getConflatedEvents()
+    {
+      return conflatedEvents;
+    }
+    
     @Override
     public String toString()
     {
@@ -1022,7 +1281,53 @@ public abstract class DefaultClientController<T extends CallerData> extends Abst
     @Override
     public void run()
     {
+      // Events queued from now on schedule another task if this one misses them
+      pendingEventProcessingScheduled.set(false);
       processPendingEvents();
     }
   }
+  
+  /**
+   * Event command waiting for delivery. Command of a conflated event is replaced by newer occurrences of the event until it's taken from the queue.
+   */
+  private static class PendingEvent extends AtomicReference<OutgoingAggreGateCommand>
+  {
+    private final Map<String, PendingEvent> conflated;
+    private final String key;
+    
+    private PendingEvent(OutgoingAggreGateCommand cmd, Map<String, PendingEvent> conflated, String key)
+    {
+      super(cmd);
+      this.conflated = conflated;
+      this.key = key;
+    }
+    
+    /**
+     * Replaces the command unless it was already taken from the queue.
+     */
+    private boolean replace(OutgoingAggreGateCommand cmd)
+    {
+      OutgoingAggreGateCommand current;
+      
+      while ((current = get()) != null)
+      {
+        if (compareAndSet(current, cmd))
+        {
+          return true;
+        }
+      }
+      
+      return false;
+    }
+    
+    private OutgoingAggreGateCommand take()
+    {
+      if (conflated != null)
+      {
+        conflated.remove(key, this);
+      }
+      
+      return getAndSet(null);
+    }
+  }
 }
@@ -38,6 +38,13 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
   {
     command.complete();
 
+    if (isStreamed(command))
+    {
+      writeStreamed(command, channel, needsFlushing);
+      log(command, ProtocolVersion.V2);
+      return;
+    }
+
     ByteBuffer byteBuffer = composeByteBuffer(command, channel, C::toByteArray);
 
     try
@@ -58,10 +65,7 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
                                          Function<C, byte[]> commandBodyExtractor)
           throws DisconnectionException
   {
-    if (channel == null || !channel.isOpen())
-    {
-      throw new DisconnectionException(Cres.get().getString("disconnected"));
-    }
+    checkChannel(channel);
 
     String header = command.header();
     String footer = command.footer();
@@ -89,6 +93,51 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
 
   public void writeBufferToChannel(ByteBuffer buff, C command, BlockingChannel channel, boolean needsFlushing)
           throws DisconnectionException, IOException
+  {
+    writeToChannel(command, channel, needsFlushing, ch -> {
+      // Pooled buffers may be larger than the command, so only the bytes up to the limit are sent
+      do
+      {
+        ch.write(buff);
+      }
+      while (buff.hasRemaining());
+    });
+  }
+
+  protected static boolean isStreamed(Command command)
+  {
+    return command instanceof OutgoingAggreGateCommand && ((OutgoingAggreGateCommand) command).isStreamed();
+  }
+
+  /**
+   * Writes the command buffer spliced with its encoded tables through a single pooled buffer, so the command is never copied as a whole. Tables are
+   * encoded when they are added to the command, so nothing but channel writes happens under the lock.
+   */
+  private void writeStreamed(C command, BlockingChannel channel, boolean needsFlushing) throws DisconnectionException, IOException
+  {
+    checkChannel(channel);
+
+    String header = command.header();
+    String footer = command.footer();
+
+    writeToChannel(command, channel, needsFlushing, ch -> {
+      try (ChannelOutputStream out = new ChannelOutputStream(ch, bufferPool))
+      {
+        if (header != null)
+        {
+          out.write(header.getBytes(StringUtils.UTF8_CHARSET));
+        }
+        command.writeTo(out);
+        if (footer != null)
+        {
+          out.write(footer.getBytes(StringUtils.UTF8_CHARSET));
+        }
+      }
+    });
+  }
+
+  protected void writeToChannel(C command, BlockingChannel channel, boolean needsFlushing, ChannelWriter writer)
+          throws DisconnectionException, IOException
   {
     try
     {
@@ -96,12 +145,7 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
       //noinspection SynchronizationOnLocalVariableOrMethodParameter
       synchronized (channel)
       {
-        int sent = 0;
-        do
-        {
-          sent += channel.write(buff);
-        }
-        while (sent < buff.capacity());
+        writer.write(channel);
 
         if (needsFlushing && !command.isAsync())
         {
@@ -115,6 +159,14 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
     }
   }
 
+  protected static void checkChannel(BlockingChannel channel) throws DisconnectionException
+  {
+    if (channel == null || !channel.isOpen())
+    {
+      throw new DisconnectionException(Cres.get().getString("disconnected"));
+    }
+  }
+
   @Override
   public void setVersion(ProtocolVersion version)
   {
@@ -132,4 +184,10 @@ public class DefaultCommandWriter<C extends Command> implements CommandWriter<C>
       Log.COMMANDS.trace("Use " + protocolVersion + " protocol version to send: " + command);
     }
   }
+  
+  @FunctionalInterface
+  protected interface ChannelWriter
+  {
+    void write(BlockingChannel channel) throws IOException;
+  }
 }
@@ -28,10 +28,15 @@ public class IncomingAggreGateCommand extends AggreGateCommand
   
   private boolean jsonBody = false;
   
+  private ProtocolVersion protocolVersion;
+  
+  /**
+   * Creates command from its body. The array is used as command storage without copying and must not be modified afterwards.
+   */
   public IncomingAggreGateCommand(byte[] data) throws SyntaxErrorException
   {
     super();
-    write(data, 0, data.length);
+    adopt(data, data.length);
     parse();
   }
   
@@ -40,17 +45,44 @@ public class IncomingAggreGateCommand extends AggreGateCommand
     super();
     // Оптимизация: избегаем двойного вызова getBytes()
     byte[] bytes = str.getBytes(StringUtils.UTF8_CHARSET);
-    write(bytes, 0, bytes.length);
+    adopt(bytes, bytes.length);
     parse();
   }
   
   public IncomingAggreGateCommand(ByteArrayOutputStream s) throws SyntaxErrorException
   {
     super();
-    write(s.toByteArray(), 0, s.size());
+    byte[] bytes = s.toByteArray();
+    adopt(bytes, bytes.length);
+    parse();
+  }
+  
+  /**
+   * Creates command from the remaining content of a buffer. Heap buffers starting at the beginning of their backing array (e.g. detached from a command
+   * parser) are used as command storage without copying and must not be modified afterwards. Other buffers are copied once.
+   */
+  public IncomingAggreGateCommand(ByteBuffer data) throws SyntaxErrorException
+  {
+    super();
+    if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0)
+    {
+      adopt(data.array(), data.limit());
+    }
+    else
+    {
+      byte[] bytes = new byte[data.remaining()];
+      data.duplicate().get(bytes);
+      adopt(bytes, bytes.length);
+    }
     parse();
   }
   
+  private void adopt(byte[] data, int length)
+  {
+    buf = data;
+    count = length;
+  }
+  
   protected void parse() throws SyntaxErrorException
   {
     if (isContentEmpty())
@@ -58,24 +90,56 @@ public class IncomingAggreGateCommand extends AggreGateCommand
       throw new SyntaxErrorException("Zero length command received");
     }
     
-    if (buf.length > 0 && buf[0] == JSON_START_ARRAY_SEPARATOR)
+    if (buf[0] == JSON_START_ARRAY_SEPARATOR)
     {
       jsonBody = true;
       parseJsonCommand();
     }
     else
     {
-      if (buf.length < TransferEncodingHelper.LARGE_DATA_SIZE)
+      tokenize();
+    }
+  }
+  
+  @Override
+  public boolean isContentEmpty()
+  {
+    return count <= 0;
+  }
+  
+  /**
+   * Splits command body into parameters in a single pass over the command storage. Parameters are exposed as byte slices that are decoded lazily, so
+   * parameters that are never read as strings (e.g. large data tables that are only forwarded) are never decoded. The separator is an ASCII character,
+   * so it cannot occur inside UTF-8 multibyte sequences.
+   */
+  private void tokenize()
+  {
+    final byte separator = (byte) AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0);
+    final byte[] data = buf;
+    final int length = count;
+    
+    parameters = new ArrayList<StringWrapper>();
+    
+    int begin = 0;
+    int highBits = 0;
+    
+    for (int i = 0; i < length; i++)
+    {
+      byte b = data[i];
+      
+      if (b == separator)
       {
-        // Оптимизация: кэшируем результат getContent() для избежания повторных вызовов
-        String content = getContent();
-        parameters = StringWrapper.split(content, AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0));
+        parameters.add(StringWrapper.valueOf(data, begin, i, highBits >= 0));
+        begin = i + 1;
+        highBits = 0;
       }
       else
       {
-        parseBigCommand();
+        highBits |= b; // Becomes negative if a non-ASCII byte occurs
       }
     }
+    
+    parameters.add(StringWrapper.valueOf(data, begin, length, highBits >= 0));
   }
   
   private void parseJsonCommand() throws SyntaxErrorException
@@ -123,84 +187,6 @@ public class IncomingAggreGateCommand extends AggreGateCommand
     }
   }
   
-  private void parseBigCommand()
-  {
-    ByteBuffer b = ByteBuffer.wrap(buf);
-    // Оцениваем примерное количество параметров для предварительного резервирования
-    // Предполагаем, что средний параметр ~100 байт
-    int estimatedParams = Math.max(10, buf.length / 100);
-    parameters = new ArrayList<StringWrapper>(estimatedParams);
-    
-    int position = 0;
-    Integer end = null;
-    
-    while (b.hasRemaining())
-    {
-      char currentChar = (char) b.get();
-      if (currentChar == AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0))
-      {
-        // Оптимизация: используем StringWrapper с индексами вместо создания String
-        int paramEnd = b.position() - 1;
-        if (paramEnd > position)
-        {
-          parameters.add(StringWrapper.valueOf(new String(buf, position, paramEnd - position, StringUtils.UTF8_CHARSET)));
-        }
-        else
-        {
-          parameters.add(StringWrapper.valueOf(""));
-        }
-        position = b.position();
-      }
-      else
-      {
-        if (currentChar == Character.MIN_VALUE && end == null)
-        {
-          end = b.position() - 1;
-        }
-        
-        if (currentChar != Character.MIN_VALUE && end != null)
-        {
-          end = null;
-        }
-      }
-      
-      if (!b.hasRemaining())
-      {
-        if (end == null)
-          end = buf.length;
-  
-        parseDataUpdated(position, end);
-      }
-    }
-  }
-  
-  /**
-   * Обновить данные параметра.
-   * Оптимизированная версия, которая принимает конечную позицию.
-   * 
-   * @param position начальная позиция в буфере
-   * @param end конечная позиция в буфере
-   */
-  private void parseDataUpdated(int position, int end)
-  {
-    try
-    {
-      if (end > position)
-      {
-        String parameter = new String(buf, position, end - position, StandardCharsets.UTF_8);
-        parameters.add(StringWrapper.valueOf(parameter));
-      }
-      else
-      {
-        parameters.add(StringWrapper.valueOf(""));
-      }
-    }
-    catch (OutOfMemoryError | Exception ex)
-    {
-      Log.COMMANDS.warn(ex.getMessage(), ex);
-    }
-  }
-  
   public int getNumberOfParameters()
   {
     return parameters != null ? parameters.size() : 0;
@@ -277,9 +263,43 @@ public class IncomingAggreGateCommand extends AggreGateCommand
       throw new UnsupportedOperationException("Command is not a reply");
     }
     
+    if (isBinaryDataTableInReply())
+    {
+      return getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).getBinaryString();
+    }
+    
     return getEncodedDataTable(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY);
   }
   
+  /**
+   * Returns true if the table in the reply is encoded by {@link com.tibbo.aggregate.common.datatable.DataTableBinaryCodec}. Such tables are sent only in
+   * replies received over {@link ProtocolVersion#V5} and later connections.
+   */
+  public boolean isBinaryDataTableInReply()
+  {
+    return isReply() && protocolVersion != null && protocolVersion.ordinal() >= ProtocolVersion.V5.ordinal()
+        && hasParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY) && getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).isBinary();
+  }
+  
+  /**
+   * Returns reader of the table encoded in the reply, so that the table can be decoded by {@link com.tibbo.aggregate.common.datatable.DataTableDecoder}
+   * without creating a string of the whole table.
+   */
+  public Reader getEncodedDataTableReaderFromReply()
+  {
+    if (!isReply())
+    {
+      throw new UnsupportedOperationException("Command is not a reply");
+    }
+    
+    if (isBinaryDataTableInReply())
+    {
+      return new StringReader(getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).getBinaryString());
+    }
+    
+    return getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).getReader();
+  }
+  
   public String getEncodedDataTableFromOperationMessage() throws ContextException, SyntaxErrorException
   {
     if (!isMessage())
@@ -358,4 +378,17 @@ public class IncomingAggreGateCommand extends AggreGateCommand
   {
     return jsonBody;
   }
+  
+  public ProtocolVersion getProtocolVersion()
+  {
+    return protocolVersion;
+  }
+  
+  /**
+   * Sets version of the protocol used by the connection the command was received from.
+   */
+  public void setProtocolVersion(ProtocolVersion protocolVersion)
+  {
+    this.protocolVersion = protocolVersion;
+  }
 }
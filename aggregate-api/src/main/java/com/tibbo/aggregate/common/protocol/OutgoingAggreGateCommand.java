@@ -4,6 +4,7 @@ import java.io.*;
 import java.util.*;
 
 import com.tibbo.aggregate.common.*;
+import com.tibbo.aggregate.common.datatable.*;
 import com.tibbo.aggregate.common.datatable.encoding.*;
 import com.tibbo.aggregate.common.util.*;
 
@@ -11,8 +12,17 @@ public class OutgoingAggreGateCommand extends AggreGateCommand
 {
   private static final byte[] CLIENT_COMMAND_SEPARATOR = AggreGateCommand.CLIENT_COMMAND_SEPARATOR.getBytes();
   
+  /**
+   * Tables having at least this number of records are encoded into pooled buffers instead of the command buffer, see
+   * {@link #addParam(DataTable, ClassicEncodingSettings)}.
+   */
+  public static final int STREAMED_TABLE_MIN_RECORDS = 1000;
+  
   protected int paramCount = 0;
   
+  // Tables encoded into pooled buffers, ordered by their positions in the command buffer
+  private List<StreamedTable> streamedTables;
+  
   protected String id;
   
   protected boolean async;
@@ -55,7 +65,7 @@ public class OutgoingAggreGateCommand extends AggreGateCommand
       else
       {
         byte[] paramBytes = param.getBytes(StringUtils.UTF8_CHARSET);
-        ensureCapacity(size() + paramBytes.length);
+        ensureCapacity(count + paramBytes.length);
         write(paramBytes);
       }
     }
@@ -68,6 +78,241 @@ public class OutgoingAggreGateCommand extends AggreGateCommand
     return this;
   }
   
+  /**
+   * Adds encoded table as a parameter. Large tables are encoded record by record into pooled buffers that are spliced with the command buffer when the
+   * command is written, so the encoded table never resides in a single string or array. Table is encoded right away, so it may change once the
+   * parameter is added, and encoding errors are thrown here rather than while the command is written.
+   * <p>
+   * Note that the whole encoded table is still held by the command until it's written, so memory used by the command grows with the size of the table.
+   * Frames of the protocol start with the length of their body, so the table can't be sent before it's encoded completely.
+   * <p>
+   * Table is encoded in binary form if the settings refer to a protocol version supporting it, see {@link DataTableBinaryCodec}.
+   */
+  public OutgoingAggreGateCommand addParam(DataTable table, ClassicEncodingSettings settings)
+  {
+    boolean binary = DataTableBinaryCodec.isApplicable(table, settings);
+    
+    if (!binary && (table.getRecordCount() < STREAMED_TABLE_MIN_RECORDS || paramCount == AggreGateCommand.INDEX_ID))
+    {
+      return addParam(table.encode(settings));
+    }
+    
+    if (paramCount != 0)
+    {
+      write(CLIENT_COMMAND_SEPARATOR, 0, CLIENT_COMMAND_SEPARATOR.length);
+    }
+    
+    if (table.getRecordCount() < STREAMED_TABLE_MIN_RECORDS)
+    {
+      try
+      {
+        DataTableBinaryCodec.encode(table, settings, this);
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException(ex.getMessage(), ex);
+      }
+    }
+    else
+    {
+      if (streamedTables == null)
+      {
+        streamedTables = new ArrayList<>();
+      }
+      
+      ByteBufferSpool spool = new ByteBufferSpool(DefaultCommandWriter.getBufferPool());
+      
+      boolean encoded = false;
+      
+      try
+      {
+        encode(table, settings, binary, spool);
+        encoded = true;
+      }
+      catch (IOException ex)
+      {
+        throw new IllegalStateException(ex.getMessage(), ex);
+      }
+      finally
+      {
+        if (!encoded)
+        {
+          spool.release();
+        }
+      }
+      
+      streamedTables.add(new StreamedTable(count, spool));
+    }
+    
+    paramCount++;
+    return this;
+  }
+  
+  /**
+   * Returns true if the command contains tables kept in pooled buffers, which are spliced with the command buffer by {@link #writeTo(OutputStream)}.
+   */
+  public synchronized boolean isStreamed()
+  {
+    return streamedTables != null;
+  }
+  
+  /**
+   * Writes contents of the command to the stream, splicing the command buffer with the encoded tables.
+   */
+  @Override
+  public synchronized void writeTo(OutputStream out) throws IOException
+  {
+    if (streamedTables == null)
+    {
+      super.writeTo(out);
+      return;
+    }
+    
+    int offset = 0;
+    
+    for (StreamedTable streamed : streamedTables)
+    {
+      out.write(buf, offset, streamed.offset - offset);
+      offset = streamed.offset;
+      
+      streamed.spool.writeTo(out);
+    }
+    
+    out.write(buf, offset, count - offset);
+  }
+  
+  @Override
+  public synchronized byte[] toByteArray()
+  {
+    materialize();
+    return super.toByteArray();
+  }
+  
+  /**
+   * Returns size of the command contents including encoded tables, which are not copied into the buffer for that.
+   */
+  @Override
+  public synchronized int size()
+  {
+    if (streamedTables == null)
+    {
+      return count;
+    }
+    
+    long size = count;
+    
+    for (StreamedTable streamed : streamedTables)
+    {
+      size += streamed.spool.size();
+    }
+    
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+  
+  @Override
+  public String getContent()
+  {
+    materialize();
+    return super.getContent();
+  }
+  
+  @Override
+  public synchronized void reset()
+  {
+    releaseStreamedTables();
+    super.reset();
+  }
+  
+  /**
+   * Copies encoded tables into the buffer for consumers that need contents of the command as a whole.
+   */
+  private synchronized void materialize()
+  {
+    if (streamedTables == null)
+    {
+      return;
+    }
+    
+    int size = size();
+    
+    if (size > Integer.MAX_VALUE - 8)
+    {
+      throw new IllegalStateException("Command is too large: " + size + " bytes");
+    }
+    
+    ByteArrayOutputStream contents = new ByteArrayOutputStream(size);
+    
+    try
+    {
+      writeTo(contents);
+    }
+    catch (IOException ex)
+    {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+    
+    releaseStreamedTables();
+    
+    buf = contents.toByteArray();
+    count = buf.length;
+  }
+  
+  private void releaseStreamedTables()
+  {
+    if (streamedTables != null)
+    {
+      for (StreamedTable streamed : streamedTables)
+      {
+        streamed.spool.release();
+      }
+      
+      streamedTables = null;
+    }
+  }
+  
+  /**
+   * Encodes the table into the stream, in binary form or as text passed to the stream in chunks.
+   */
+  private static void encode(DataTable table, ClassicEncodingSettings settings, boolean binary, OutputStream out) throws IOException
+  {
+    if (binary)
+    {
+      DataTableBinaryCodec.encode(table, settings, out);
+      return;
+    }
+    
+    Writer writer = new OutputStreamWriter(out, StringUtils.UTF8_CHARSET);
+    
+    EncodingStream stream = new EncodingStream(chunk -> {
+      try
+      {
+        writer.append(chunk);
+      }
+      catch (IOException ex)
+      {
+        throw new UncheckedIOException(ex);
+      }
+    });
+    
+    settings.setEncodingStream(stream);
+    
+    try
+    {
+      table.encode(stream.getBuffer(), settings, false, 0);
+      stream.flush();
+    }
+    catch (UncheckedIOException ex)
+    {
+      throw ex.getCause();
+    }
+    finally
+    {
+      settings.setEncodingStream(null);
+    }
+    
+    writer.flush();
+  }
+  
   /**
    * Обеспечить достаточную емкость буфера.
    * Использует стратегию удвоения размера для минимизации количества копирований.
@@ -96,7 +341,7 @@ public class OutgoingAggreGateCommand extends AggreGateCommand
     // Приблизительная оценка: UTF-8 может быть до 4 байт на символ, но для ASCII это 1 байт
     // Используем консервативную оценку: 2 байта на символ для смешанного контента
     int estimatedSize = param.length() * 2;
-    ensureCapacity(size() + estimatedSize);
+    ensureCapacity(count + estimatedSize);
     
     // Оптимизация: работаем напрямую с байтами, избегая множественных substring
     byte[] paramBytes = param.getBytes(StringUtils.UTF8_CHARSET);
@@ -176,4 +421,16 @@ public class OutgoingAggreGateCommand extends AggreGateCommand
     addParam(encodedDataTable);
     addParam(creationtime != null ? String.valueOf(creationtime.getTime()) : "");
   }
+  
+  private static class StreamedTable
+  {
+    private final int offset;
+    private final ByteBufferSpool spool;
+    
+    private StreamedTable(int offset, ByteBufferSpool spool)
+    {
+      this.offset = offset;
+      this.spool = spool;
+    }
+  }
 }
@@ -6,6 +6,8 @@ import java.util.*;
 import org.json.simple.*;
 
 import com.tibbo.aggregate.common.*;
+import com.tibbo.aggregate.common.datatable.*;
+import com.tibbo.aggregate.common.datatable.encoding.*;
 import com.tibbo.aggregate.common.util.*;
 
 public class OutgoingJsonCommand extends OutgoingAggreGateCommand
@@ -34,6 +36,13 @@ public class OutgoingJsonCommand extends OutgoingAggreGateCommand
     return this;
   }
   
+  @Override
+  public OutgoingJsonCommand addParam(DataTable table, ClassicEncodingSettings settings)
+  {
+    // Parameters are serialized into a JSON array when the command is completed
+    return addParam(table.encode(settings));
+  }
+  
   @Override
   public void complete()
   {
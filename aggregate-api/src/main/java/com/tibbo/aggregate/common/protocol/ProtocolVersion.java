@@ -6,7 +6,9 @@ public enum ProtocolVersion
 {
   V2("2"),
   V3("3"), // Length-byte added to commands. Compression can be used.
-  V4("4"); // Embedded DataFable fields escaping reduced. Add/remove listener commands extended by fingerprint parameter (AGG-8259)
+  V4("4"), // Embedded DataFable fields escaping reduced. Add/remove listener commands extended by fingerprint parameter (AGG-8259)
+  V5("5"), // Data tables in replies may be encoded in binary form, see DataTableBinaryCodec
+  V6("6"); // Compressed commands share a connection-level deflate stream, see CompressedCommandWriter.TYPE_STREAM_COMPRESSED
   
   private static Map<String, ProtocolVersion> MAPPING = new HashMap<>();
   static
@@ -11,8 +11,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -1545,54 +1548,12 @@ public class ProxyContext<C extends Context> extends AbstractContext<C>
     try
     {
       String variableName = def.getName();
-      boolean cleanup = false;
       
       // Проверка кэша с оптимистичной блокировкой
-      if (def.getRemoteCacheTime() != null)
+      DataTable cachedValue = getCachedVariableValue(def);
+      if (cachedValue != null)
       {
-        variableCacheLock.readLock().lock();
-        try
-        {
-          SoftReference<CachedVariableValue> ref = variableCache.get(variableName);
-          if (ref != null)
-          {
-            CachedVariableValue cachedValue = ref.get();
-            if (cachedValue != null)
-            {
-              long cacheAge = System.currentTimeMillis() - cachedValue.getTimestamp().getTime();
-              if (cacheAge < def.getRemoteCacheTime())
-              {
-                // Кэш валиден, возвращаем значение
-                return cachedValue.getValue();
-              }
-              else
-              {
-                cleanup = true;
-              }
-            }
-            else
-            {
-              cleanup = true;
-            }
-          }
-        }
-        finally
-        {
-          variableCacheLock.readLock().unlock();
-        }
-        
-        if (cleanup)
-        {
-          variableCacheLock.writeLock().lock();
-          try
-          {
-            variableCache.remove(variableName);
-          }
-          finally
-          {
-            variableCacheLock.writeLock().unlock();
-          }
-        }
+        return cachedValue;
       }
       
       // Оптимистичная блокировка: проверяем, есть ли уже запрос в процессе
@@ -1692,6 +1653,254 @@ public class ProxyContext<C extends Context> extends AbstractContext<C>
     }
   }
 
+  /**
+   * Returns value of the variable from the variable cache, or {@code null} if caching is disabled for the variable or cached value is missing or stale.
+   */
+  private DataTable getCachedVariableValue(VariableDefinition def)
+  {
+    if (def.getRemoteCacheTime() == null)
+    {
+      return null;
+    }
+    
+    String variableName = def.getName();
+    boolean cleanup = false;
+    
+    variableCacheLock.readLock().lock();
+    try
+    {
+      SoftReference<CachedVariableValue> ref = variableCache.get(variableName);
+      if (ref != null)
+      {
+        CachedVariableValue cachedValue = ref.get();
+        if (cachedValue != null)
+        {
+          long cacheAge = System.currentTimeMillis() - cachedValue.getTimestamp().getTime();
+          if (cacheAge < def.getRemoteCacheTime())
+          {
+            // Кэш валиден, возвращаем значение
+            return cachedValue.getValue();
+          }
+          else
+          {
+            cleanup = true;
+          }
+        }
+        else
+        {
+          cleanup = true;
+        }
+      }
+    }
+    finally
+    {
+      variableCacheLock.readLock().unlock();
+    }
+    
+    if (cleanup)
+    {
+      variableCacheLock.writeLock().lock();
+      try
+      {
+        variableCache.remove(variableName);
+      }
+      finally
+      {
+        variableCacheLock.writeLock().unlock();
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Non-blocking version of {@link #getVariable(String)}: the remote operation is pipelined and the calling thread is never parked for the round trip.
+   * Variable cache and pending requests for the same variable are shared with blocking reads.
+   * <p>
+   * To read many variables of different contexts in one batch, use {@link AbstractAggreGateDeviceController#getVariablesAsync(Collection)}.
+   * 
+   * @return future of the variable value, completed exceptionally with {@link ContextException} (wrapped into {@link CompletionException}) on failure
+   */
+  public CompletableFuture<DataTable> getVariableAsync(String name)
+  {
+    return getVariableAsync(name, this::sendCommandAsync);
+  }
+  
+  CompletableFuture<DataTable> getVariableAsync(String name, Function<OutgoingAggreGateCommand, CompletableFuture<IncomingAggreGateCommand>> sender)
+  {
+    VariableDefinition def = getVariableDefinition(name);
+    
+    if (def == null)
+    {
+      return AbstractAggreGateDeviceController.failedFuture(new ContextException(MessageFormat.format(Cres.get().getString("conVarNotAvailExt"), name, getPath())));
+    }
+    
+    return getRemoteVariableAsync(def, sender);
+  }
+  
+  private CompletableFuture<DataTable> getRemoteVariableAsync(final VariableDefinition def, Function<OutgoingAggreGateCommand, CompletableFuture<IncomingAggreGateCommand>> sender)
+  {
+    final String variableName = def.getName();
+    
+    DataTable cachedValue = getCachedVariableValue(def);
+    if (cachedValue != null)
+    {
+      return CompletableFuture.completedFuture(cachedValue);
+    }
+    
+    final CompletableFuture<DataTable> pending = new CompletableFuture<>();
+    CompletableFuture<DataTable> existing = pendingVariableRequests.putIfAbsent(variableName, pending);
+    
+    if (existing != null && existing.isDone() && pendingVariableRequests.replace(variableName, existing, pending))
+    {
+      existing = null;
+    }
+    
+    if (existing != null)
+    {
+      // Запрос уже в процессе; если он отменен из-за инвалидации кэша, делаем новый запрос
+      return existing.handle((value, error) -> {
+        if (error instanceof CancellationException)
+        {
+          return getRemoteVariableAsync(def, this::sendCommandAsync);
+        }
+        return error != null ? AbstractAggreGateDeviceController.<DataTable> failedFuture(AbstractAggreGateDeviceController.toContextException(error))
+            : CompletableFuture.completedFuture(value);
+      }).thenCompose(Function.identity());
+    }
+    
+    OutgoingAggreGateCommand cmd = controller.getCommandBuilder().getVariableOperation(getPeerPath(), variableName);
+    
+    CompletableFuture<DataTable> result = sender.apply(cmd).handle((ans, error) -> {
+      try
+      {
+        if (error != null)
+        {
+          throw error;
+        }
+        
+        DataTable value = controller.decodeRemoteDataTable(def.getFormat(), ans.getEncodedDataTableFromReply());
+        
+        if (def.getRemoteCacheTime() != null)
+        {
+          cacheVariableValue(variableName, value);
+        }
+        
+        return value;
+      }
+      catch (Throwable ex)
+      {
+        Log.CONTEXT_VARIABLES.debug("Error getting variable '" + variableName + "' from context '" + getPathDescription() + "'", ex);
+        throw new CompletionException(AbstractAggreGateDeviceController.toContextException(ex));
+      }
+    });
+    
+    result.whenComplete((value, error) -> {
+      if (error != null)
+      {
+        pending.completeExceptionally(error.getCause() != null ? error.getCause() : error);
+      }
+      else
+      {
+        pending.complete(value);
+      }
+      pendingVariableRequests.remove(variableName, pending);
+    });
+    
+    return result;
+  }
+  
+  /**
+   * Non-blocking version of {@link #setVariable(String, DataTable)}. Unlike the blocking version, the value is not validated locally against the
+   * variable format, leaving validation to the remote side.
+   * 
+   * @return future completed when the value is set, or exceptionally with {@link ContextException} (wrapped into {@link CompletionException}) on failure
+   */
+  public CompletableFuture<Void> setVariableAsync(final String name, DataTable value)
+  {
+    VariableDefinition def = getVariableDefinition(name);
+    
+    if (def == null)
+    {
+      return AbstractAggreGateDeviceController.failedFuture(new ContextException(MessageFormat.format(Cres.get().getString("conVarNotAvailExt"), name, getPath())));
+    }
+    
+    try
+    {
+      final String encoded = value.encode(controller.createClassicEncodingSettings(true));
+      OutgoingAggreGateCommand operation = controller.getCommandBuilder().setVariableOperation(getPeerPath(), name, encoded, null);
+      
+      return sendCommandAsync(operation).handle((ans, error) -> {
+        if (error != null)
+        {
+          Log.CONTEXT_VARIABLES.debug("Error setting variable '" + name + "' of context '" + getPathDescription() + "'", error);
+          throw new CompletionException(AbstractAggreGateDeviceController.toContextException(error));
+        }
+        
+        // Инвалидируем кэш после успешной установки переменной
+        invalidateVariableCache(name);
+        
+        return null;
+      });
+    }
+    catch (Exception ex)
+    {
+      return AbstractAggreGateDeviceController.failedFuture(AbstractAggreGateDeviceController.toContextException(ex));
+    }
+  }
+  
+  /**
+   * Non-blocking version of {@link #callFunction(String, DataTable)}. Unlike the blocking version, parameters are not validated locally against the
+   * input format, leaving validation to the remote side.
+   * 
+   * @return future of the function output, completed exceptionally with {@link ContextException} (wrapped into {@link CompletionException}) on failure
+   */
+  public CompletableFuture<DataTable> callFunctionAsync(final String name, DataTable parameters)
+  {
+    FunctionDefinition def = getFunctionDefinition(name);
+    
+    if (def == null)
+    {
+      return AbstractAggreGateDeviceController.failedFuture(new ContextException(MessageFormat.format(Cres.get().getString("conFuncNotAvailExt"), name, getPath())));
+    }
+    
+    if (name.equals(F_LOCAL_REINITIALIZE))
+    {
+      try
+      {
+        reinitialize();
+        return CompletableFuture.completedFuture(new SimpleDataTable(def.getOutputFormat(), true));
+      }
+      catch (ContextException ex)
+      {
+        return AbstractAggreGateDeviceController.failedFuture(ex);
+      }
+    }
+    
+    DataTable input = parameters != null ? parameters : new SimpleDataTable(def.getInputFormat(), true);
+    
+    CompletableFuture<DataTable> result = controller.callRemoteFunctionAsync(getPeerPath(), name, def.getOutputFormat(), input, null);
+    
+    return result.whenComplete((output, error) -> {
+      if (error != null)
+      {
+        Log.CONTEXT_FUNCTIONS.debug("Error calling function '" + name + "' of context '" + getPathDescription() + "'", error);
+      }
+    });
+  }
+  
+  private CompletableFuture<IncomingAggreGateCommand> sendCommandAsync(OutgoingAggreGateCommand cmd)
+  {
+    try
+    {
+      return controller.sendCommandAndCheckReplyCodeAsync(cmd);
+    }
+    catch (Exception ex)
+    {
+      return AbstractAggreGateDeviceController.failedFuture(ex);
+    }
+  }
+  
   protected DataTable getRemoteVariableImpl(VariableDefinition def)
       throws ContextException, RemoteDeviceErrorException, InterruptedException, DisconnectionException, IOException, SyntaxErrorException
   {
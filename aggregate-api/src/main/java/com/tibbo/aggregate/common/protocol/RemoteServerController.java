@@ -103,6 +103,13 @@ public class RemoteServerController extends AbstractAggreGateDeviceController<Re
             socket = sslSocket;
             Log.PROTOCOL.debug("Using SSL connection to " + getDevice().getAddress() + ":" + getDevice().getPort());
           }
+          else if (getSelectorGroup() != null)
+          {
+            // Plain connection served by a shared selector event loop instead of a dedicated reader thread
+            socket = null;
+            dataChannel = getSelectorGroup().connect(new InetSocketAddress(getDevice().getAddress(), getDevice().getPort()), timeout);
+            Log.PROTOCOL.debug("Using non-secure selector-driven connection to " + getDevice().getAddress() + ":" + getDevice().getPort());
+          }
           else
           {
             // Use plain socket for non-secure port (default: 6461)
@@ -125,7 +132,10 @@ public class RemoteServerController extends AbstractAggreGateDeviceController<Re
           }
         }
         
-        dataChannel = new SocketBlockingChannel(socket);
+        if (socket != null)
+        {
+          dataChannel = new SocketBlockingChannel(socket);
+        }
       }
       
       if (dataChannel != null)
@@ -0,0 +1,365 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.tibbo.aggregate.common.Log;
+import com.tibbo.aggregate.common.util.BlockingChannel;
+import com.tibbo.aggregate.common.util.TimeHelper;
+
+/**
+ * {@link BlockingChannel} backed by a non-blocking {@link SocketChannel} that is multiplexed by a {@link SelectorEventLoop}.
+ * <p>
+ * Reads never block: {@link #read(ByteBuffer)} returns zero when no data is available, which makes command parsers return {@code null} instead of
+ * parking the calling thread. Parsing is driven by the event loop through {@link SelectorChannelHandler#channelReadable(SelectorChannel)}.
+ * <p>
+ * If the socket send buffer is full, the rest of the data is queued and written by the event loop once the channel becomes writable. Writers other
+ * than the event loop thread then wait until the queue is drained, so they keep blocking semantics, while writes issued from the event loop thread
+ * (e.g. by a {@link SelectorChannelHandler}) return immediately and never stall other connections of the loop. This keeps the wire format and
+ * {@link com.tibbo.aggregate.common.communication.CommandWriter} implementations unchanged.
+ */
+public class SelectorChannel implements BlockingChannel
+{
+  private static final long WRITE_TIMEOUT = TimeHelper.MINUTE_IN_MS;
+
+  private final SocketChannel socketChannel;
+  private final SelectorEventLoop eventLoop;
+  private final String address;
+
+  private final Object writeMonitor = new Object();
+  private final Queue<ByteBuffer> pending = new ArrayDeque<>(); // Guarded by writeMonitor
+
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private volatile SelectionKey key;
+  private volatile SelectorChannelHandler handler;
+  private volatile boolean usesCompression;
+
+  SelectorChannel(SocketChannel socketChannel, SelectorEventLoop eventLoop)
+  {
+    this.socketChannel = socketChannel;
+    this.eventLoop = eventLoop;
+
+    SocketAddress remote = socketChannel.socket().getRemoteSocketAddress();
+    this.address = remote instanceof InetSocketAddress ? ((InetSocketAddress) remote).getAddress().getHostAddress() : String.valueOf(remote);
+  }
+
+  /**
+   * Starts delivering readiness notifications to the given handler. Data received before activation is kept in the socket buffer and reported
+   * immediately after it.
+   */
+  public void activate(SelectorChannelHandler handler)
+  {
+    this.handler = handler;
+
+    eventLoop.execute(() -> {
+      if (key != null && key.isValid())
+      {
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+      }
+    });
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException
+  {
+    return socketChannel.read(dst);
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException
+  {
+    int written = src.remaining();
+
+    synchronized (writeMonitor)
+    {
+      if (!isOpen())
+      {
+        throw new ClosedChannelException();
+      }
+
+      if (pending.isEmpty())
+      {
+        socketChannel.write(src);
+
+        if (!src.hasRemaining())
+        {
+          return written;
+        }
+      }
+
+      // Socket send buffer is full: the rest is written by the event loop once the socket becomes writable
+      ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+      copy.put(src).flip();
+      pending.add(copy);
+
+      requestWrite();
+
+      if (!eventLoop.inEventLoop())
+      {
+        awaitPendingWritten();
+      }
+    }
+
+    return written;
+  }
+
+  /**
+   * Makes the event loop report the channel as writable. If the channel is not registered yet, this is done upon registration.
+   */
+  private void requestWrite()
+  {
+    if (eventLoop.inEventLoop())
+    {
+      SelectionKey current = key;
+
+      if (current != null && current.isValid())
+      {
+        current.interestOps(current.interestOps() | SelectionKey.OP_WRITE);
+      }
+
+      return;
+    }
+
+    eventLoop.execute(() -> {
+      SelectionKey current = key;
+
+      if (current != null && current.isValid())
+      {
+        current.interestOps(current.interestOps() | SelectionKey.OP_WRITE);
+      }
+    });
+  }
+
+  /**
+   * Blocks a writer that is not the event loop thread until the queued data is sent, which throttles writers to the speed of the peer.
+   */
+  private void awaitPendingWritten() throws IOException
+  {
+    long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+
+    while (!pending.isEmpty())
+    {
+      if (!isOpen())
+      {
+        throw new ClosedChannelException();
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+
+      if (remaining <= 0)
+      {
+        throw new SocketTimeoutException("Timeout writing to " + address);
+      }
+
+      try
+      {
+        writeMonitor.wait(remaining);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(ex.getMessage());
+      }
+    }
+  }
+
+  void readable()
+  {
+    SelectorChannelHandler current = handler;
+
+    if (current == null)
+    {
+      return;
+    }
+
+    try
+    {
+      current.channelReadable(this);
+    }
+    catch (Throwable ex)
+    {
+      Log.PROTOCOL.debug("Error processing data received from " + address, ex);
+      closeQuietly();
+    }
+  }
+
+  /**
+   * Sends queued data, called by the event loop when the socket is writable. Returns true if some data is still queued.
+   */
+  boolean writable()
+  {
+    synchronized (writeMonitor)
+    {
+      try
+      {
+        ByteBuffer buffer;
+
+        while ((buffer = pending.peek()) != null)
+        {
+          socketChannel.write(buffer);
+
+          if (buffer.hasRemaining())
+          {
+            return true;
+          }
+
+          pending.poll();
+        }
+      }
+      catch (IOException ex)
+      {
+        Log.PROTOCOL.debug("Error writing to " + address, ex);
+        pending.clear();
+        closeQuietly();
+      }
+      finally
+      {
+        if (pending.isEmpty())
+        {
+          writeMonitor.notifyAll();
+        }
+      }
+
+      return false;
+    }
+  }
+
+  private void releaseWriters()
+  {
+    synchronized (writeMonitor)
+    {
+      pending.clear();
+      writeMonitor.notifyAll();
+    }
+  }
+
+  void idle()
+  {
+    SelectorChannelHandler current = handler;
+
+    if (current == null)
+    {
+      return;
+    }
+
+    try
+    {
+      current.channelIdle(this);
+    }
+    catch (Throwable ex)
+    {
+      Log.PROTOCOL.debug("Error checking idle connection " + address, ex);
+      closeQuietly();
+    }
+  }
+
+  void setKey(SelectionKey key)
+  {
+    this.key = key;
+
+    synchronized (writeMonitor)
+    {
+      if (!pending.isEmpty())
+      {
+        // Data was queued before registration
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    // Data is written directly to the socket, nothing to flush
+  }
+
+  @Override
+  public boolean isUsesCompression()
+  {
+    return usesCompression;
+  }
+
+  @Override
+  public void setUsesCompression(boolean usesCompression)
+  {
+    this.usesCompression = usesCompression;
+  }
+
+  @Override
+  public boolean isOpen()
+  {
+    return !closed.get() && socketChannel.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (!closed.compareAndSet(false, true))
+    {
+      return;
+    }
+
+    try
+    {
+      socketChannel.close(); // Also cancels the selection key
+    }
+    finally
+    {
+      eventLoop.channelClosed(this);
+
+      releaseWriters(); // Releases writers waiting for the send buffer
+
+      SelectorChannelHandler current = handler;
+
+      if (current != null)
+      {
+        current.channelClosed(this);
+      }
+    }
+  }
+
+  void closeQuietly()
+  {
+    try
+    {
+      close();
+    }
+    catch (IOException ex)
+    {
+      Log.PROTOCOL.debug("Error closing connection " + address, ex);
+    }
+  }
+
+  @Override
+  public String getChannelAddress()
+  {
+    return address;
+  }
+
+  public SocketChannel getSocketChannel()
+  {
+    return socketChannel;
+  }
+
+  public SelectorEventLoop getEventLoop()
+  {
+    return eventLoop;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "SelectorChannel: " + address;
+  }
+}
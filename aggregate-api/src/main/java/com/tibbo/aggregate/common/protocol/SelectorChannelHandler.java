@@ -0,0 +1,24 @@
+package com.tibbo.aggregate.common.protocol;
+
+/**
+ * Receives readiness notifications for a {@link SelectorChannel}. All methods are invoked from the thread of the {@link SelectorEventLoop} that owns the
+ * channel, so implementations must never block on remote I/O: they should read what is available, hand off the work to an executor and return.
+ */
+public interface SelectorChannelHandler
+{
+  /**
+   * Called when the channel has data available for reading. The handler should consume all data that can be parsed without blocking, since the loop
+   * will not report the same bytes twice.
+   */
+  void channelReadable(SelectorChannel channel) throws Exception;
+
+  /**
+   * Called periodically for every channel of the loop. Allows the handler to detect connections that are silent for too long.
+   */
+  void channelIdle(SelectorChannel channel) throws Exception;
+
+  /**
+   * Called once after the channel was closed, either locally or by the peer.
+   */
+  void channelClosed(SelectorChannel channel);
+}
@@ -0,0 +1,249 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tibbo.aggregate.common.Log;
+
+/**
+ * Single thread multiplexing many {@link SelectorChannel}s with one {@link Selector}. Instances are normally obtained from a
+ * {@link SelectorEventLoopGroup}.
+ * <p>
+ * Selector state (registration and interest operations) is only modified from the loop thread. Other threads submit such changes through
+ * {@link #execute(Runnable)}, which wakes up the selector.
+ */
+public class SelectorEventLoop extends Thread
+{
+  private static final long SELECT_TIMEOUT = 1000;
+
+  private final Selector selector;
+
+  private final long idleCheckPeriod;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger channelCount = new AtomicInteger();
+
+  private volatile boolean shutdown;
+
+  private long lastIdleCheck = System.currentTimeMillis();
+
+  public SelectorEventLoop(String name, long idleCheckPeriod) throws IOException
+  {
+    super(name);
+    this.idleCheckPeriod = idleCheckPeriod;
+    this.selector = Selector.open();
+    setDaemon(true);
+  }
+
+  /**
+   * Switches the connected socket to non-blocking mode and registers it with this loop. The returned channel does not receive read notifications until
+   * {@link SelectorChannel#activate(SelectorChannelHandler)} is called.
+   */
+  public SelectorChannel register(SocketChannel socketChannel) throws IOException
+  {
+    socketChannel.configureBlocking(false);
+    socketChannel.socket().setTcpNoDelay(true);
+
+    final SelectorChannel channel = new SelectorChannel(socketChannel, this);
+
+    channelCount.incrementAndGet();
+
+    execute(() -> {
+      try
+      {
+        channel.setKey(socketChannel.register(selector, 0, channel));
+      }
+      catch (IOException ex)
+      {
+        Log.PROTOCOL.warn("Error registering " + channel + " in " + getName(), ex);
+        channel.closeQuietly();
+      }
+    });
+
+    return channel;
+  }
+
+  public boolean inEventLoop()
+  {
+    return Thread.currentThread() == this;
+  }
+
+  public void execute(Runnable task)
+  {
+    tasks.add(task);
+
+    if (Thread.currentThread() != this)
+    {
+      selector.wakeup();
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      while (!shutdown)
+      {
+        selector.select(SELECT_TIMEOUT);
+
+        runTasks();
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+        while (it.hasNext())
+        {
+          SelectionKey key = it.next();
+          it.remove();
+          processKey(key);
+        }
+
+        checkIdleChannels();
+      }
+    }
+    catch (ClosedSelectorException ex)
+    {
+      Log.PROTOCOL.debug("Selector of " + getName() + " closed");
+    }
+    catch (Throwable ex)
+    {
+      Log.PROTOCOL.error("Error in " + getName(), ex);
+    }
+    finally
+    {
+      closeChannels();
+    }
+  }
+
+  private void runTasks()
+  {
+    Runnable task;
+
+    while ((task = tasks.poll()) != null)
+    {
+      try
+      {
+        task.run();
+      }
+      catch (CancelledKeyException ex)
+      {
+        // Channel was closed before the task was executed
+      }
+      catch (Throwable ex)
+      {
+        Log.PROTOCOL.warn("Error executing task in " + getName(), ex);
+      }
+    }
+  }
+
+  private void processKey(SelectionKey key)
+  {
+    SelectorChannel channel = (SelectorChannel) key.attachment();
+
+    try
+    {
+      if (!key.isValid())
+      {
+        channel.closeQuietly();
+        return;
+      }
+
+      if (key.isWritable() && !channel.writable() && key.isValid())
+      {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+
+      if (key.isReadable())
+      {
+        channel.readable();
+      }
+    }
+    catch (CancelledKeyException ex)
+    {
+      channel.closeQuietly();
+    }
+  }
+
+  private void checkIdleChannels()
+  {
+    long now = System.currentTimeMillis();
+
+    if (now - lastIdleCheck < idleCheckPeriod)
+    {
+      return;
+    }
+
+    lastIdleCheck = now;
+
+    for (SelectionKey key : new ArrayList<>(selector.keys()))
+    {
+      if (key.isValid())
+      {
+        ((SelectorChannel) key.attachment()).idle();
+      }
+    }
+  }
+
+  private void closeChannels()
+  {
+    List<SelectorChannel> channels = new ArrayList<>();
+
+    try
+    {
+      for (SelectionKey key : selector.keys())
+      {
+        channels.add((SelectorChannel) key.attachment());
+      }
+    }
+    catch (ClosedSelectorException ex)
+    {
+      // Nothing to close
+    }
+
+    for (SelectorChannel channel : channels)
+    {
+      channel.closeQuietly();
+    }
+
+    try
+    {
+      selector.close();
+    }
+    catch (IOException ex)
+    {
+      Log.PROTOCOL.debug("Error closing selector of " + getName(), ex);
+    }
+  }
+
+  void channelClosed(SelectorChannel channel)
+  {
+    channelCount.decrementAndGet();
+
+    if (Thread.currentThread() != this)
+    {
+      selector.wakeup(); // Lets the selector flush the cancelled key
+    }
+  }
+
+  public int getChannelCount()
+  {
+    return channelCount.get();
+  }
+
+  public void shutdown()
+  {
+    shutdown = true;
+    selector.wakeup();
+  }
+}
@@ -0,0 +1,106 @@
+package com.tibbo.aggregate.common.protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of {@link SelectorEventLoop}s serving any number of connections. This is an alternative to the thread-per-connection model, where every
+ * connection owns a thread blocked in {@link com.tibbo.aggregate.common.communication.CommandParser#readCommand()}.
+ * <p>
+ * The wire format is not affected: channels created by the group are regular {@link com.tibbo.aggregate.common.util.BlockingChannel}s and can be
+ * passed to {@link DefaultClientController} (together with {@link ClientControllerSelectorHandler}) or to a {@link RemoteServerController} via
+ * {@link AbstractAggreGateDeviceController#setSelectorGroup(SelectorEventLoopGroup)}.
+ * <p>
+ * Secure connections are not supported by this transport and keep using {@link com.tibbo.aggregate.common.util.SocketBlockingChannel}.
+ */
+public class SelectorEventLoopGroup
+{
+  public static final int DEFAULT_LOOP_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  private final SelectorEventLoop[] loops;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  public SelectorEventLoopGroup(String name) throws IOException
+  {
+    this(name, DEFAULT_LOOP_COUNT, DefaultClientController.KEEP_ALIVE_PERIOD);
+  }
+
+  public SelectorEventLoopGroup(String name, int loopCount, long idleCheckPeriod) throws IOException
+  {
+    if (loopCount <= 0)
+    {
+      throw new IllegalArgumentException("Loop count must be positive: " + loopCount);
+    }
+
+    loops = new SelectorEventLoop[loopCount];
+
+    for (int i = 0; i < loopCount; i++)
+    {
+      loops[i] = new SelectorEventLoop("SelectorEventLoop/" + name + "/" + i, idleCheckPeriod);
+      loops[i].start();
+    }
+  }
+
+  /**
+   * Registers an already connected socket (e.g. accepted by a server socket channel) with one of the loops.
+   */
+  public SelectorChannel register(SocketChannel socketChannel) throws IOException
+  {
+    return nextLoop().register(socketChannel);
+  }
+
+  /**
+   * Opens a plain TCP connection, blocking the calling thread until it is established or the timeout expires, and registers it with one of the loops.
+   */
+  public SelectorChannel connect(InetSocketAddress address, int timeout) throws IOException
+  {
+    SocketChannel socketChannel = SocketChannel.open();
+
+    try
+    {
+      socketChannel.socket().connect(address, timeout);
+      return register(socketChannel);
+    }
+    catch (IOException ex)
+    {
+      socketChannel.close();
+      throw ex;
+    }
+  }
+
+  private SelectorEventLoop nextLoop()
+  {
+    return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+  }
+
+  public int getLoopCount()
+  {
+    return loops.length;
+  }
+
+  public int getChannelCount()
+  {
+    int count = 0;
+
+    for (SelectorEventLoop loop : loops)
+    {
+      count += loop.getChannelCount();
+    }
+
+    return count;
+  }
+
+  /**
+   * Stops all loops. Channels that are still open get closed and their handlers are notified.
+   */
+  public void shutdown()
+  {
+    for (SelectorEventLoop loop : loops)
+    {
+      loop.shutdown();
+    }
+  }
+}
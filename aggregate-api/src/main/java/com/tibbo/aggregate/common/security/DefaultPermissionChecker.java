@@ -80,6 +80,13 @@ public abstract class DefaultPermissionChecker implements PermissionChecker
         return false;
       }
       
+      PermissionCache permissionCache = caller.getPermissionCache();
+      
+      if (permissionCache != null)
+      {
+        permissionCache.bind(existingPermissions);
+      }
+      
       if (existingPermissions.isUseRoleBasedPermissions())
       {
         return hasWithRoles(requiredPermissions, accessedContext, accessedEntityDefinition, caller);
@@ -383,61 +390,14 @@ public abstract class DefaultPermissionChecker implements PermissionChecker
   public LevelInfo getLevelInfo(Permissions existingPermissions, String accessedContext, Integer accessedEntityType, String accessedEntity, String accessedEntityGroup, ContextManager cm)
       throws SecurityException
   {
-    boolean hasPermissionsForEntities = false;
-    Integer permissionIndex = 0;
-    
     try
     {
       if (existingPermissions == null)
       {
-        return new LevelInfo(NULL_PERMISSIONS, hasPermissionsForEntities, permissionIndex);
+        return new LevelInfo(NULL_PERMISSIONS, false, 0);
       }
       
-      for (Permission permission : existingPermissions)
-      {
-        if (permission.getContext() == null)
-        {
-          return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
-        }
-        
-        for (String allowedPath : getAllowedPaths(permission.getContext(), cm))
-        {
-          if(!permissionMatchesToMask(allowedPath, accessedContext))
-          {
-            continue;
-          }
-          
-          int allowedEntityType = permission.getEntityType();
-          
-          if (allowedEntityType == ContextUtils.ENTITY_ANY_TYPE)
-          {
-            return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
-          }
-          
-          hasPermissionsForEntities = true;
-          
-          String allowedEntity = permission.getEntity();
-          
-          boolean entityTypeMatch = accessedEntityType != null && accessedEntityType == allowedEntityType;
-          boolean entityMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntity, allowedEntity);
-          
-          if (entityTypeMatch && entityMatch)
-          {
-            return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
-          }
-          
-          boolean entityTypeMatchByGroup = accessedEntityType != null && accessedEntityType + ContextUtils.ENTITY_GROUP_SHIFT == allowedEntityType;
-          boolean groupMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntityGroup, allowedEntity);
-          
-          if (entityTypeMatchByGroup && groupMatch)
-          {
-            return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
-          }
-        }
-        permissionIndex++;
-      }
-      
-      return new LevelInfo(NULL_PERMISSIONS, hasPermissionsForEntities, permissionIndex);
+      return PermissionMatcher.get(existingPermissions).match(existingPermissions, accessedContext, accessedEntityType, accessedEntity, accessedEntityGroup, this, cm);
     }
     catch (Exception ex)
     {
@@ -445,11 +405,6 @@ public abstract class DefaultPermissionChecker implements PermissionChecker
     }
   }
   
-   private boolean permissionMatchesToMask(String allowedPath, String accessedContext)
-  {
-    return ContextUtils.matchesToMask(allowedPath, accessedContext, true, false);
-  }
-
   @Override
   public boolean canSee(Permissions permissions, String context, ContextManager cm)
   {
@@ -2,38 +2,98 @@ package com.tibbo.aggregate.common.security;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 import com.tibbo.aggregate.common.context.*;
 
+/**
+ * Bounded cache of effective permission levels of a caller.
+ * <p>
+ * Levels are grouped by context path: an entry keeps levels of the context itself and of its entities. Entries are kept in a segmented LRU: new
+ * entries enter the probation segment and are moved to the protected segment when accessed again, so that one-off accesses (e.g. tree traversals)
+ * do not evict frequently checked contexts. The total number of entries is limited by <code>aggregate.security.permissionCacheSize</code> system
+ * property (10000 by default).
+ * <p>
+ * Lookups don't lock: entries are found in a concurrent map, and accesses are queued and applied to the LRU segments by the next thread that
+ * modifies the cache or finds the queue long enough. Accesses are dropped if the queue is full, which only affects the eviction order.
+ * <p>
+ * Every entry is stamped with the generation of the cache it was created in. {@link #invalidate()} starts a new generation, making all older entries
+ * stale in O(1), so lookups check validity by comparing two numbers. {@link #removeContext(String)} removes entries of a context subtree right away,
+ * finding them in an index of cached paths sorted by name. Cache bound to a permission set by {@link #bind(Permissions)} is invalidated automatically
+ * when the caller gets other permissions.
+ */
 public class PermissionCache
 {
-  private final Map<String, String> levelByContext = new ConcurrentHashMap(16, 0.75f, 16); // Levels for contexts without permissions for entities
-  private final Map<String, String> levelByEntity = new ConcurrentHashMap(16, 0.75f, 16); // Levels for contexts with permissions for entities
+  private static final int DEFAULT_SIZE = 10000;
   
-  private final Map<String, Integer> roleBasedLevelByContext = new ConcurrentHashMap(16, 0.75f, 16); // Levels for contexts without permissions for entities
-  private final Map<String, Integer> roleBasedLevelByEntity = new ConcurrentHashMap(16, 0.75f, 16); // Levels for contexts with permissions for entities
+  private static final int PROTECTED_PERCENT = 80;
   
-  public String getLevel(String accessedPath, Integer accessedEntityType, String accessedEntity)
+  private static final int ACCESS_DRAIN_THRESHOLD = 64;
+  private static final int MAX_PENDING_ACCESSES = 1024;
+  
+  private static final String SUBTREE_SEPARATOR = ContextUtils.CONTEXT_NAME_SEPARATOR;
+  
+  private final int maximumSize;
+  private final int protectedSize;
+  
+  private final ConcurrentHashMap<String, PathEntry> entries = new ConcurrentHashMap<>();
+  
+  // Eviction order and path index, guarded by the lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<String, PathEntry> probation = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, PathEntry> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private final TreeSet<String> paths = new TreeSet<>();
+  
+  private final Queue<PathEntry> accesses = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingAccesses = new AtomicInteger();
+  
+  private volatile Permissions permissions;
+  
+  private long generation; // Guarded by the lock
+  private volatile long validSince;
+  
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  
+  public PermissionCache()
   {
-    String level = levelByContext.get(accessedPath);
-    
-    if (level != null)
+    this(getDefaultSize());
+  }
+  
+  public PermissionCache(int maximumSize)
+  {
+    if (maximumSize <= 0)
     {
-      return level;
+      throw new IllegalArgumentException("Cache size should be positive: " + maximumSize);
     }
     
-    return levelByEntity.get(createCacheId(accessedPath, accessedEntityType, accessedEntity));
+    this.maximumSize = maximumSize;
+    this.protectedSize = Math.max(1, maximumSize * PROTECTED_PERCENT / 100);
+  }
+  
+  public String getLevel(String accessedPath, Integer accessedEntityType, String accessedEntity)
+  {
+    PathEntry entry = find(accessedPath);
+    
+    String level = entry != null ? entry.levels.get(accessedEntityType, accessedEntity) : null;
+    
+    count(level != null);
+    
+    return level;
   }
   
   public void cacheLevel(String accessedPath, Integer accessedEntityType, String accessedEntity, String level, boolean hasPermissionsForEntities)
   {
-    if (hasPermissionsForEntities)
+    lock.lock();
+    try
     {
-      levelByEntity.put(createCacheId(accessedPath, accessedEntityType, accessedEntity), level);
+      obtain(accessedPath).levels.put(accessedEntityType, accessedEntity, level, hasPermissionsForEntities);
     }
-    else
+    finally
     {
-      levelByContext.put(accessedPath, level);
+      lock.unlock();
     }
   }
   
@@ -48,88 +108,533 @@ public class PermissionCache
       accessedEntity = accessedEntityDefinition.getName();
     }
     
-    Integer level = roleBasedLevelByContext.get(accessedPath);
+    PathEntry entry = find(accessedPath);
+    
+    Integer level = entry != null ? entry.roleBasedLevels.get(accessedEntityType, accessedEntity) : null;
+    
+    count(level != null);
     
-    if (level != null)
+    return level;
+  }
+  
+  public void cacheRoleBasedLevel(String accessedPath, Integer accessedEntityType, String accessedEntity, Integer level, boolean hasPermissionsForEntities)
+  {
+    lock.lock();
+    try
     {
-      return level;
+      obtain(accessedPath).roleBasedLevels.put(accessedEntityType, accessedEntity, level, hasPermissionsForEntities);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Invalidates levels of the context and all its children. Should be called when the context is removed or moved.
+   */
+  public void removeContext(String path)
+  {
+    lock.lock();
+    try
+    {
+      drainAccesses();
+      
+      remove(entries.get(path));
+      
+      String prefix = path + SUBTREE_SEPARATOR;
+      
+      for (String child : new ArrayList<>(paths.subSet(prefix, prefix + Character.MAX_VALUE)))
+      {
+        remove(entries.get(child));
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Invalidates all cached levels. Should be called when permissions of the caller are changed.
+   */
+  public void invalidate()
+  {
+    lock.lock();
+    try
+    {
+      generation++;
+      validSince = generation;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Invalidates all cached levels if they were calculated for another permission set.
+   */
+  public void bind(Permissions permissions)
+  {
+    if (this.permissions == permissions)
+    {
+      return;
     }
     
-    return roleBasedLevelByEntity.get(createCacheId(accessedPath, accessedEntityType, accessedEntity));
+    lock.lock();
+    try
+    {
+      if (this.permissions != permissions)
+      {
+        if (this.permissions != null)
+        {
+          invalidate();
+        }
+        
+        this.permissions = permissions;
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
   
-  public void cacheRoleBasedLevel(String accessedPath, Integer accessedEntityType, String accessedEntity, Integer level, boolean hasPermissionsForEntities)
+  public int size()
   {
-    if (hasPermissionsForEntities)
+    return entries.size();
+  }
+  
+  public int getMaximumSize()
+  {
+    return maximumSize;
+  }
+  
+  public long getHits()
+  {
+    return hits.sum();
+  }
+  
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+  
+  public long getEvictions()
+  {
+    return evictions.sum();
+  }
+  
+  public double getHitRate()
+  {
+    long hitCount = hits.sum();
+    long requests = hitCount + misses.sum();
+    return requests > 0 ? (double) hitCount / requests : 0;
+  }
+  
+  /**
+   * Returns snapshot of cached context levels.
+   */
+  public Map<String, String> getLevelByContext()
+  {
+    Map<String, String> result = new HashMap<>();
+    
+    for (PathEntry entry : validEntries())
     {
-      roleBasedLevelByEntity.put(createCacheId(accessedPath, accessedEntityType, accessedEntity), level);
+      String level = entry.levels.contextLevel;
+      
+      if (level != null)
+      {
+        result.put(entry.path, level);
+      }
     }
-    else
+    
+    return result;
+  }
+  
+  /**
+   * Returns snapshot of cached entity levels keyed by <code>path:entityType:entity</code> identifiers.
+   */
+  public Map<String, String> getLevelByEntity()
+  {
+    Map<String, String> result = new HashMap<>();
+    
+    for (PathEntry entry : validEntries())
     {
-      roleBasedLevelByContext.put(accessedPath, level);
+      entry.levels.export(entry.path, result);
     }
+    
+    return result;
   }
   
-  private String createCacheId(String accessedPath, Integer accessedEntityType, String accessedEntity)
+  /**
+   * Returns snapshot of cached role-based context levels.
+   */
+  public Map<String, Integer> getRoleBasedlevelByContext()
   {
-    String cacheId = accessedPath;
+    Map<String, Integer> result = new HashMap<>();
     
-    if (accessedEntityType != null && !accessedEntityType.equals(ContextUtils.ENTITY_ANY_TYPE))
+    for (PathEntry entry : validEntries())
     {
-      cacheId = cacheId + Permission.PERMISSION_FIELDS_SEPARATOR + accessedEntityType;
+      Integer level = entry.roleBasedLevels.contextLevel;
       
-      if (accessedEntity != null && !accessedEntity.equals(ContextUtils.ENTITY_ANY))
+      if (level != null)
       {
-        cacheId = cacheId + Permission.PERMISSION_FIELDS_SEPARATOR + accessedEntity;
+        result.put(entry.path, level);
       }
     }
     
-    return cacheId;
+    return result;
   }
-
-  public void removeContext(String path)
+  
+  /**
+   * Returns snapshot of cached role-based entity levels keyed by <code>path:entityType:entity</code> identifiers.
+   */
+  public Map<String, Integer> getRoleBasedlevelByEntity()
   {
-    levelByContext.remove(path);
-
-    for(Iterator<String> iter = levelByEntity.keySet().iterator(); iter.hasNext();)
+    Map<String, Integer> result = new HashMap<>();
+    
+    for (PathEntry entry : validEntries())
+    {
+      entry.roleBasedLevels.export(entry.path, result);
+    }
+    
+    return result;
+  }
+  
+  private List<PathEntry> validEntries()
+  {
+    List<PathEntry> result = new ArrayList<>();
+    
+    for (PathEntry entry : entries.values())
     {
-      String cacheId = iter.next();
-      if (cacheId.startsWith(path + Permission.PERMISSION_FIELDS_SEPARATOR))
+      if (isValid(entry))
       {
-        iter.remove();
+        result.add(entry);
       }
     }
-
-    roleBasedLevelByContext.remove(path);
-
-    for(Iterator<String> iter = roleBasedLevelByEntity.keySet().iterator(); iter.hasNext();)
+    
+    return result;
+  }
+  
+  private void count(boolean hit)
+  {
+    if (hit)
+    {
+      hits.increment();
+    }
+    else
     {
-      String cacheId = iter.next();
-      if (cacheId.startsWith(path + Permission.PERMISSION_FIELDS_SEPARATOR))
+      misses.increment();
+    }
+  }
+  
+  /**
+   * Returns valid entry of the path without locking. Access is queued to be applied to the LRU segments later.
+   */
+  private PathEntry find(String path)
+  {
+    PathEntry entry = entries.get(path);
+    
+    if (entry == null || !isValid(entry))
+    {
+      return null;
+    }
+    
+    recordAccess(entry);
+    
+    return entry;
+  }
+  
+  private void recordAccess(PathEntry entry)
+  {
+    int pending = pendingAccesses.incrementAndGet();
+    
+    if (pending > MAX_PENDING_ACCESSES)
+    {
+      pendingAccesses.decrementAndGet();
+    }
+    else
+    {
+      accesses.offer(entry);
+    }
+    
+    if (pending >= ACCESS_DRAIN_THRESHOLD && lock.tryLock())
+    {
+      try
+      {
+        drainAccesses();
+      }
+      finally
       {
-        iter.remove();
+        lock.unlock();
       }
     }
   }
-
-  public Map<String, String> getLevelByContext()
+  
+  /**
+   * Applies queued accesses to the LRU segments, promoting entries accessed in the probation segment. Caller must hold the lock.
+   */
+  private void drainAccesses()
+  {
+    PathEntry entry;
+    
+    while ((entry = accesses.poll()) != null)
+    {
+      pendingAccesses.decrementAndGet();
+      
+      if (entry.removed)
+      {
+        continue;
+      }
+      
+      if (protectedEntries.get(entry.path) == entry)
+      {
+        continue; // Moved to the most recently used position by the access-ordered map
+      }
+      
+      if (probation.remove(entry.path) == null)
+      {
+        continue;
+      }
+      
+      protectedEntries.put(entry.path, entry);
+      
+      if (protectedEntries.size() > protectedSize)
+      {
+        // Least recently used protected entry gets another chance in the probation segment
+        Iterator<Map.Entry<String, PathEntry>> eldest = protectedEntries.entrySet().iterator();
+        Map.Entry<String, PathEntry> demoted = eldest.next();
+        eldest.remove();
+        probation.put(demoted.getKey(), demoted.getValue());
+      }
+    }
+  }
+  
+  /**
+   * Returns valid entry of the path, creating it if needed. Caller must hold the lock.
+   */
+  private PathEntry obtain(String path)
   {
-    return levelByContext;
+    drainAccesses();
+    
+    PathEntry entry = entries.get(path);
+    
+    if (entry != null)
+    {
+      if (isValid(entry))
+      {
+        return entry;
+      }
+      
+      remove(entry);
+    }
+    
+    entry = new PathEntry(path, generation);
+    
+    entries.put(path, entry);
+    probation.put(path, entry);
+    paths.add(path);
+    
+    while (entries.size() > maximumSize)
+    {
+      Map<String, PathEntry> segment = probation.size() > 0 ? probation : protectedEntries;
+      
+      remove(segment.values().iterator().next());
+      
+      evictions.increment();
+    }
+    
+    return entry;
   }
   
-  public Map<String, String> getLevelByEntity()
+  /**
+   * Removes the entry from the cache. Caller must hold the lock.
+   */
+  private void remove(PathEntry entry)
   {
-    return levelByEntity;
+    if (entry == null)
+    {
+      return;
+    }
+    
+    entry.removed = true;
+    
+    entries.remove(entry.path, entry);
+    probation.remove(entry.path);
+    protectedEntries.remove(entry.path);
+    paths.remove(entry.path);
   }
   
-  public Map<String, Integer> getRoleBasedlevelByContext()
+  private boolean isValid(PathEntry entry)
   {
-    return roleBasedLevelByContext;
+    return entry.generation >= validSince;
   }
   
-  public Map<String, Integer> getRoleBasedlevelByEntity()
+  private static int getDefaultSize()
+  {
+    String prop = System.getProperty("aggregate.security.permissionCacheSize");
+    
+    if (prop != null)
+    {
+      try
+      {
+        int size = Integer.parseInt(prop);
+        
+        if (size > 0)
+        {
+          return size;
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        // Default size is used
+      }
+    }
+    
+    return DEFAULT_SIZE;
+  }
+  
+  private static class PathEntry
+  {
+    private final String path;
+    private final long generation;
+    
+    private final Levels<String> levels = new Levels<>();
+    private final Levels<Integer> roleBasedLevels = new Levels<>();
+    
+    private boolean removed; // Guarded by the lock of the cache
+    
+    PathEntry(String path, long generation)
+    {
+      this.path = path;
+      this.generation = generation;
+    }
+  }
+  
+  /**
+   * Levels of a context and its entities. Levels are put under the lock of the cache and read without locking.
+   */
+  private static class Levels<V>
   {
-    return roleBasedLevelByEntity;
+    private volatile V contextLevel; // Level for context without permissions for entities
+    private volatile V anyEntityLevel; // Level for context with permissions for entities, when no entity is accessed
+    private volatile Map<EntityKey, V> entityLevels;
+    
+    private V get(Integer entityType, String entity)
+    {
+      V level = contextLevel;
+      
+      if (level != null)
+      {
+        return level;
+      }
+      
+      if (isAnyEntity(entityType))
+      {
+        return anyEntityLevel;
+      }
+      
+      Map<EntityKey, V> levels = entityLevels;
+      
+      return levels != null ? levels.get(new EntityKey(entityType, entity)) : null;
+    }
+    
+    private void put(Integer entityType, String entity, V level, boolean hasPermissionsForEntities)
+    {
+      if (!hasPermissionsForEntities)
+      {
+        contextLevel = level;
+      }
+      else if (isAnyEntity(entityType))
+      {
+        anyEntityLevel = level;
+      }
+      else
+      {
+        Map<EntityKey, V> levels = entityLevels;
+        
+        if (levels == null)
+        {
+          levels = new ConcurrentHashMap<>();
+          entityLevels = levels;
+        }
+        
+        EntityKey key = new EntityKey(entityType, entity);
+        
+        if (level != null)
+        {
+          levels.put(key, level);
+        }
+        else
+        {
+          levels.remove(key);
+        }
+      }
+    }
+    
+    private void export(String path, Map<String, V> target)
+    {
+      V level = anyEntityLevel;
+      
+      if (level != null)
+      {
+        target.put(path, level);
+      }
+      
+      Map<EntityKey, V> levels = entityLevels;
+      
+      if (levels != null)
+      {
+        for (Map.Entry<EntityKey, V> entry : levels.entrySet())
+        {
+          String cacheId = path + Permission.PERMISSION_FIELDS_SEPARATOR + entry.getKey().type;
+          
+          if (!ContextUtils.ENTITY_ANY.equals(entry.getKey().entity))
+          {
+            cacheId = cacheId + Permission.PERMISSION_FIELDS_SEPARATOR + entry.getKey().entity;
+          }
+          
+          target.put(cacheId, entry.getValue());
+        }
+      }
+    }
+    
+    private static boolean isAnyEntity(Integer entityType)
+    {
+      return entityType == null || entityType == ContextUtils.ENTITY_ANY_TYPE;
+    }
   }
   
+  private static class EntityKey
+  {
+    private final int type;
+    private final String entity;
+    
+    EntityKey(int type, String entity)
+    {
+      this.type = type;
+      this.entity = entity != null ? entity : ContextUtils.ENTITY_ANY;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+      return 31 * type + entity.hashCode();
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof EntityKey))
+      {
+        return false;
+      }
+      
+      EntityKey other = (EntityKey) obj;
+      
+      return type == other.type && entity.equals(other.entity);
+    }
+  }
 }
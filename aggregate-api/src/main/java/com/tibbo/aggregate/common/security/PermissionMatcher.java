@@ -0,0 +1,377 @@
+package com.tibbo.aggregate.common.security;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.tibbo.aggregate.common.context.ContextManager;
+import com.tibbo.aggregate.common.context.ContextUtils;
+import com.tibbo.aggregate.common.util.ConcurrentLRUCache;
+import com.tibbo.aggregate.common.util.StringUtils;
+
+/**
+ * Immutable matcher compiled from a permission set.
+ * <p>
+ * Context masks of all permissions are stored in a trie of path segments, where the <code>*</code> segment is a wildcard edge. Finding permissions
+ * applicable to a context walks the trie along the path, so its cost depends on path depth rather than on the number of permissions. Candidates are
+ * then checked in their original order, so the result is the same as checking permissions one by one.
+ * <p>
+ * Group masks (ending with <code>.*</code>) may be expanded to mapped children of the group context. Such permissions are checked using
+ * {@link DefaultPermissionChecker#getAllowedPaths(String, ContextManager)} whenever a context manager is available.
+ * <p>
+ * Matchers are cached by permission set content (up to <code>aggregate.security.matcherCacheSize</code> entries, 1000 by default), so all sessions
+ * having the same permissions share one matcher. The matcher reflects permissions at the moment of compilation: {@link Permissions#add(Permission)}
+ * and {@link Permissions#addAll(Permissions)} drop it, while modifying individual {@link Permission} objects afterwards is not supported.
+ */
+public class PermissionMatcher
+{
+  private static final int DEFAULT_CACHE_SIZE = 1000;
+  
+  private static final String GROUP_MASK_SUFFIX = ContextUtils.CONTEXT_NAME_SEPARATOR + ContextUtils.CONTEXT_GROUP_MASK;
+  
+  private static final int[] NO_ENTRIES = new int[0];
+  
+  private static final ConcurrentLRUCache<List<Permission>, PermissionMatcher> CACHE = new ConcurrentLRUCache<>(getCacheSize());
+  
+  private final Permission[] entries;
+  private final boolean[] groups;
+  private final int[] groupIndexes;
+  
+  private final Node root = new Node();
+  
+  /**
+   * Returns matcher of the permission set, compiling it only if no permission set with the same content was compiled before.
+   */
+  public static PermissionMatcher get(Permissions permissions)
+  {
+    PermissionMatcher matcher = permissions.getMatcher();
+    
+    if (matcher != null)
+    {
+      return matcher;
+    }
+    
+    // Permission objects are mutable, so the key holds their copies
+    List<Permission> key = new ArrayList<>(permissions.size());
+    
+    for (Permission permission : permissions)
+    {
+      key.add(permission.clone());
+    }
+    
+    matcher = CACHE.get(key);
+    
+    if (matcher == null)
+    {
+      PermissionMatcher compiled = new PermissionMatcher(key);
+      
+      synchronized (CACHE)
+      {
+        matcher = CACHE.get(key);
+        
+        if (matcher == null)
+        {
+          matcher = compiled;
+          CACHE.put(key, matcher);
+        }
+      }
+    }
+    
+    permissions.setMatcher(matcher);
+    
+    return matcher;
+  }
+  
+  public static int getCacheSize()
+  {
+    String prop = System.getProperty("aggregate.security.matcherCacheSize");
+    
+    if (prop != null)
+    {
+      try
+      {
+        int size = Integer.parseInt(prop);
+        
+        if (size > 0)
+        {
+          return size;
+        }
+      }
+      catch (NumberFormatException ex)
+      {
+        // Default size is used
+      }
+    }
+    
+    return DEFAULT_CACHE_SIZE;
+  }
+  
+  public static void clearCache()
+  {
+    CACHE.clear();
+  }
+  
+  private PermissionMatcher(List<Permission> permissions)
+  {
+    entries = permissions.toArray(new Permission[permissions.size()]);
+    groups = new boolean[entries.length];
+    
+    int groupCount = 0;
+    
+    for (int i = 0; i < entries.length; i++)
+    {
+      String context = entries[i].getContext();
+      
+      if (context == null)
+      {
+        // Permission without context applies to any path
+        root.add(i);
+        continue;
+      }
+      
+      Node node = root;
+      
+      for (String segment : StringUtils.split(context, ContextUtils.CONTEXT_NAME_SEPARATOR.charAt(0)))
+      {
+        node = node.child(segment);
+      }
+      
+      node.add(i);
+      
+      if (context.endsWith(GROUP_MASK_SUFFIX))
+      {
+        groups[i] = true;
+        groupCount++;
+      }
+    }
+    
+    groupIndexes = new int[groupCount];
+    
+    for (int i = 0, g = 0; i < entries.length; i++)
+    {
+      if (groups[i])
+      {
+        groupIndexes[g++] = i;
+      }
+    }
+  }
+  
+  /**
+   * Finds permission that defines access level for the context or entity. Gives the same result as checking every permission of the set in order.
+   */
+  LevelInfo match(Permissions permissions, String accessedContext, Integer accessedEntityType, String accessedEntity, String accessedEntityGroup,
+      DefaultPermissionChecker checker, ContextManager cm)
+  {
+    boolean expandGroups = cm != null && groupIndexes.length > 0;
+    
+    int[] candidates = findCandidates(accessedContext, expandGroups);
+    
+    boolean hasPermissionsForEntities = false;
+    
+    for (int i = 0, g = 0; i < candidates.length || (expandGroups && g < groupIndexes.length);)
+    {
+      int index;
+      
+      // Merging static candidates with group permissions, both are sorted by permission index
+      if (expandGroups && g < groupIndexes.length && (i == candidates.length || groupIndexes[g] < candidates[i]))
+      {
+        index = groupIndexes[g++];
+        
+        if (!matchesAllowedPaths(entries[index].getContext(), accessedContext, checker, cm))
+        {
+          continue;
+        }
+      }
+      else
+      {
+        index = candidates[i++];
+      }
+      
+      Permission permission = entries[index];
+      
+      if (permission.getContext() == null)
+      {
+        return new LevelInfo(permissions.get(index), hasPermissionsForEntities, index);
+      }
+      
+      int allowedEntityType = permission.getEntityType();
+      
+      if (allowedEntityType == ContextUtils.ENTITY_ANY_TYPE)
+      {
+        return new LevelInfo(permissions.get(index), hasPermissionsForEntities, index);
+      }
+      
+      hasPermissionsForEntities = true;
+      
+      String allowedEntity = permission.getEntity();
+      
+      boolean entityTypeMatch = accessedEntityType != null && accessedEntityType == allowedEntityType;
+      boolean entityMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntity, allowedEntity);
+      
+      if (entityTypeMatch && entityMatch)
+      {
+        return new LevelInfo(permissions.get(index), hasPermissionsForEntities, index);
+      }
+      
+      boolean entityTypeMatchByGroup = accessedEntityType != null && accessedEntityType + ContextUtils.ENTITY_GROUP_SHIFT == allowedEntityType;
+      boolean groupMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntityGroup, allowedEntity);
+      
+      if (entityTypeMatchByGroup && groupMatch)
+      {
+        return new LevelInfo(permissions.get(index), hasPermissionsForEntities, index);
+      }
+    }
+    
+    return new LevelInfo(DefaultPermissionChecker.NULL_PERMISSIONS, hasPermissionsForEntities, entries.length);
+  }
+  
+  public int size()
+  {
+    return entries.length;
+  }
+  
+  /**
+   * Returns sorted indexes of permissions whose masks match the path. Group permissions are excluded if they are checked separately.
+   */
+  private int[] findCandidates(String accessedContext, boolean expandGroups)
+  {
+    Candidates candidates = new Candidates();
+    
+    if (accessedContext == null)
+    {
+      // Any mask matches undefined path
+      for (int i = 0; i < entries.length; i++)
+      {
+        candidates.add(i);
+      }
+    }
+    else
+    {
+      collect(root, StringUtils.split(accessedContext, ContextUtils.CONTEXT_NAME_SEPARATOR.charAt(0)), 0, candidates);
+    }
+    
+    int[] result = candidates.toArray(expandGroups ? groups : null);
+    
+    Arrays.sort(result);
+    
+    return result;
+  }
+  
+  private void collect(Node node, List<String> segments, int depth, Candidates candidates)
+  {
+    // Path may extend the mask, so every node on the way contributes its permissions
+    for (int index : node.indexes)
+    {
+      candidates.add(index);
+    }
+    
+    if (depth == segments.size())
+    {
+      return;
+    }
+    
+    if (node.children != null)
+    {
+      Node child = node.children.get(segments.get(depth));
+      
+      if (child != null)
+      {
+        collect(child, segments, depth + 1, candidates);
+      }
+    }
+    
+    if (node.wildcard != null)
+    {
+      collect(node.wildcard, segments, depth + 1, candidates);
+    }
+  }
+  
+  private static boolean matchesAllowedPaths(String context, String accessedContext, DefaultPermissionChecker checker, ContextManager cm)
+  {
+    for (String allowedPath : checker.getAllowedPaths(context, cm))
+    {
+      if (ContextUtils.matchesToMask(allowedPath, accessedContext, true, false))
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  private static class Node
+  {
+    private Map<String, Node> children;
+    private Node wildcard;
+    private int[] indexes = NO_ENTRIES;
+    
+    private Node child(String segment)
+    {
+      if (ContextUtils.CONTEXT_GROUP_MASK.equals(segment))
+      {
+        if (wildcard == null)
+        {
+          wildcard = new Node();
+        }
+        
+        return wildcard;
+      }
+      
+      if (children == null)
+      {
+        children = new HashMap<>();
+      }
+      
+      Node child = children.get(segment);
+      
+      if (child == null)
+      {
+        child = new Node();
+        children.put(segment, child);
+      }
+      
+      return child;
+    }
+    
+    private void add(int index)
+    {
+      indexes = Arrays.copyOf(indexes, indexes.length + 1);
+      indexes[indexes.length - 1] = index;
+    }
+  }
+  
+  private static class Candidates
+  {
+    private int[] items = new int[8];
+    private int count;
+    
+    private void add(int index)
+    {
+      if (count == items.length)
+      {
+        items = Arrays.copyOf(items, count * 2);
+      }
+      
+      items[count++] = index;
+    }
+    
+    private int[] toArray(boolean[] excluded)
+    {
+      int[] result = new int[count];
+      int size = 0;
+      
+      for (int i = 0; i < count; i++)
+      {
+        if (excluded == null || !excluded[items[i]])
+        {
+          result[size++] = items[i];
+        }
+      }
+      
+      return size == count ? result : Arrays.copyOf(result, size);
+    }
+  }
+}
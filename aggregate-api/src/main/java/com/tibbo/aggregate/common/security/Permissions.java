@@ -9,9 +9,11 @@ public class Permissions implements Iterable<Permission>
 {
   public final static char PERMISSIONS_SEPARATOR = ',';
   
-  private final List<Permission> permissions = new LinkedList();
+  private final List<Permission> permissions = new ArrayList();
   private final ReentrantReadWriteLock permissionsLock = new ReentrantReadWriteLock();
   
+  private volatile PermissionMatcher matcher;
+  
   private Map<String, LinkedList<RoleRule>> roleBasedRXPermissions = new HashMap<String, LinkedList<RoleRule>>();
   private Map<String, LinkedList<RoleRule>> roleBasedRWXPermissions = new HashMap<String, LinkedList<RoleRule>>();
   private Map<String, LinkedList<RoleRule>> roleBasedProhibitions = new HashMap<String, LinkedList<RoleRule>>();
@@ -124,6 +126,7 @@ public class Permissions implements Iterable<Permission>
     try
     {
       permissions.add(permission);
+      matcher = null;
     }
     finally
     {
@@ -141,6 +144,7 @@ public class Permissions implements Iterable<Permission>
       {
         this.permissions.add(permission);
       }
+      matcher = null;
     }
     finally
     {
@@ -194,6 +198,16 @@ public class Permissions implements Iterable<Permission>
     this.roleBasedProhibitions = roleBasedProhibitions;
   }
   
+  PermissionMatcher getMatcher()
+  {
+    return matcher;
+  }
+  
+  void setMatcher(PermissionMatcher matcher)
+  {
+    this.matcher = matcher;
+  }
+  
   public boolean isUseRoleBasedPermissions()
   {
     return useRoleBasedPermissions;
@@ -91,58 +91,36 @@ public class SocketBlockingChannel implements BlockingChannel
   @Override
   public int write(ByteBuffer byteBuffer) throws IOException
   {
-    int startPosition;
-    
     int bytesWritten = 0;
     
-    int expectedWrite;
-    byte[] byteArray = byteBuffer.array();
-    
-    if (byteBuffer.remaining() == 0)
-    {
-      return 0;
-    }
-    
-    for (startPosition = 0; startPosition < byteArray.length; startPosition += sendBufferSize)
+    while (byteBuffer.hasRemaining())
     {
-      final int numberOfBytesToSend = byteArray.length - startPosition;
+      final int numberOfBytesToSend = Math.min(byteBuffer.remaining(), sendBufferSize);
       
-      buf.clear();
-      
-      if (numberOfBytesToSend < sendBufferSize)
-      {
-        buf.put(byteArray, startPosition, numberOfBytesToSend);
-        expectedWrite = numberOfBytesToSend;
-      }
-      else
-      {
-        buf.put(byteArray, startPosition, sendBufferSize);
-        expectedWrite = sendBufferSize;
-      }
+      ByteBuffer chunk = byteBuffer.duplicate();
+      chunk.limit(chunk.position() + numberOfBytesToSend);
       
+      buf.clear();
+      buf.put(chunk);
       buf.flip();
       
-      bytesWritten = wbc.write(buf);
+      int written = wbc.write(buf);
       
       if (bufferSize == 0)
       {
         os.flush();
       }
       
-      if (bytesWritten < expectedWrite)
+      byteBuffer.position(byteBuffer.position() + written);
+      bytesWritten += written;
+      
+      if (written < numberOfBytesToSend)
       {
         break;
       }
     }
     
-    if (startPosition > byteArray.length)
-    {
-      return byteArray.length;
-    }
-    else
-    {
-      return startPosition + bytesWritten;
-    }
+    return bytesWritten;
   }
   
   @Override
@@ -1,23 +1,55 @@
 package com.tibbo.aggregate.common.util;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 
+/**
+ * Lightweight string view used for protocol command parameters. Wraps either a whole string, a region of a string or a region of a UTF-8 encoded byte
+ * array. Substrings and decoded strings are created lazily on the first {@link #getString()} call.
+ * <p>
+ * Byte regions that contain only ASCII characters are inspected by {@link #length()}, {@link #charAt(int)} and {@link #equals(Object)} without decoding.
+ * Parameters holding binary data rather than UTF-8 text are exposed by {@link #getBinaryString()}.
+ */
 public class StringWrapper
 {
+  /**
+   * First byte of binary parameters. It is a valid UTF-8 byte (ASCII SUB control character), so a parameter starting with it is binary only at
+   * positions where the protocol allows binary data.
+   */
+  public static final byte BINARY_MARKER = 0x1A;
+  
   private final String source;
   private String result = null;
   
+  private final byte[] bytes;
+  private final boolean ascii;
+  
   private int beginIndex = -1;
   private int endIndex = -1;
   
   private StringWrapper(String source)
   {
     this.source = source;
+    this.bytes = null;
+    this.ascii = false;
   }
   
   private StringWrapper(String source, int beginIndex, int endIndex)
   {
     this.source = source;
+    this.bytes = null;
+    this.ascii = false;
+    this.beginIndex = beginIndex;
+    this.endIndex = endIndex;
+  }
+  
+  private StringWrapper(byte[] bytes, int beginIndex, int endIndex, boolean ascii)
+  {
+    this.source = null;
+    this.bytes = bytes;
+    this.ascii = ascii;
     this.beginIndex = beginIndex;
     this.endIndex = endIndex;
   }
@@ -32,11 +64,26 @@ public class StringWrapper
     return new StringWrapper(source, beginIndex, endIndex);
   }
   
+  /**
+   * Wraps a region of UTF-8 encoded bytes. The array is not copied and must not be modified afterwards.
+   * 
+   * @param ascii
+   *          {@code true} if the region is known to contain only ASCII characters
+   */
+  public static StringWrapper valueOf(byte[] bytes, int beginIndex, int endIndex, boolean ascii)
+  {
+    return new StringWrapper(bytes, beginIndex, endIndex, ascii);
+  }
+  
   public String getString()
   {
     if (result == null)
     {
-      if (beginIndex >= 0)
+      if (bytes != null)
+      {
+        result = new String(bytes, beginIndex, endIndex - beginIndex, StringUtils.UTF8_CHARSET);
+      }
+      else if (beginIndex >= 0)
       {
         result = source.substring(beginIndex, endIndex);
       }
@@ -65,14 +112,13 @@ public class StringWrapper
     {
       String anotherString = (String) obj;
       
-      int bi = (beginIndex >= 0) ? beginIndex : 0;
-      int l = (beginIndex >= 0) ? endIndex - beginIndex : source.length();
+      int l = length();
       
       if (anotherString.length() != l)
         return false;
       
       for (int i = 0; i < l; i++)
-        if (source.charAt(bi + i) != anotherString.charAt(i))
+        if (charAt(i) != anotherString.charAt(i))
           return false;
         
       return true;
@@ -82,14 +128,13 @@ public class StringWrapper
     {
       StringWrapper anotherString = (StringWrapper) obj;
       
-      int bi = (beginIndex >= 0) ? beginIndex : 0;
-      int l = (beginIndex >= 0) ? endIndex - beginIndex : source.length();
+      int l = length();
       
       if (anotherString.length() != l)
         return false;
       
       for (int i = 0; i < l; i++)
-        if (source.charAt(bi + i) != anotherString.charAt(i))
+        if (charAt(i) != anotherString.charAt(i))
           return false;
         
       return true;
@@ -100,6 +145,9 @@ public class StringWrapper
   
   public int length()
   {
+    if (bytes != null)
+      return ascii ? endIndex - beginIndex : getString().length();
+    
     if (beginIndex >= 0)
       return endIndex - beginIndex;
     else
@@ -108,12 +156,77 @@ public class StringWrapper
   
   public char charAt(int i)
   {
+    if (bytes != null)
+    {
+      if (!ascii)
+        return getString().charAt(i);
+      
+      if (i < 0 || i >= endIndex - beginIndex)
+        throw new StringIndexOutOfBoundsException(i);
+      
+      return (char) bytes[beginIndex + i];
+    }
+    
     if (beginIndex >= 0)
       return source.charAt(i + beginIndex);
     
     return source.charAt(i);
   }
   
+  /**
+   * Returns UTF-8 representation of the wrapped string. For byte regions this is a read-only view of the original bytes, so parameters that are only
+   * forwarded never get decoded.
+   */
+  public ByteBuffer toByteBuffer()
+  {
+    if (bytes != null)
+      return ByteBuffer.wrap(bytes, beginIndex, endIndex - beginIndex).slice().asReadOnlyBuffer();
+    
+    return ByteBuffer.wrap(getString().getBytes(StringUtils.UTF8_CHARSET));
+  }
+  
+  /**
+   * Returns reader of the wrapped string. Byte regions are decoded while being read, so a large parameter can be parsed without creating its string.
+   */
+  public Reader getReader()
+  {
+    if (bytes != null && result == null)
+      return new InputStreamReader(new ByteArrayInputStream(bytes, beginIndex, endIndex - beginIndex), StringUtils.UTF8_CHARSET);
+    
+    return new StringReader(getString());
+  }
+  
+  /**
+   * Returns {@code true} if the wrapped parameter starts with {@link #BINARY_MARKER}. Callers must check that binary data is allowed at the position of
+   * the parameter.
+   */
+  public boolean isBinary()
+  {
+    if (bytes != null)
+      return endIndex > beginIndex && bytes[beginIndex] == BINARY_MARKER;
+    
+    return length() > 0 && charAt(0) == BINARY_MARKER;
+  }
+  
+  /**
+   * Returns wrapped bytes of a binary parameter as ISO-8859-1 string, one char per byte. Wrapped strings are returned as is.
+   */
+  public String getBinaryString()
+  {
+    if (bytes != null)
+      return new String(bytes, beginIndex, endIndex - beginIndex, StandardCharsets.ISO_8859_1);
+    
+    return getString();
+  }
+  
+  /**
+   * Returns {@code true} if the wrapped string has already been materialized, i.e. no substring or decoding will be performed by {@link #getString()}.
+   */
+  public boolean isMaterialized()
+  {
+    return result != null || (bytes == null && beginIndex < 0);
+  }
+  
   public static List<StringWrapper> split(String str, char ch)
   {
     // Оптимизация: используем ArrayList вместо LinkedList для лучшей производительности
@@ -0,0 +1,155 @@
+package com.tibbo.aggregate.common.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.tibbo.aggregate.common.Log;
+
+/**
+ * Opt-in virtual thread mode for executors that run blocking remote I/O: agent command executors, command queues, concurrent event dispatchers and
+ * command senders.
+ * <p>
+ * The mode is enabled by the {@code aggregate.virtualThreads=true} system property and requires JDK 21 or later. On older JVMs the property is ignored
+ * and platform threads are used as before. Virtual threads are created reflectively, so the library still runs on Java 8.
+ * <p>
+ * Pinning diagnostics: a virtual thread that blocks inside a {@code synchronized} block pins its carrier thread. Setting
+ * {@code aggregate.virtualThreads.tracePinning} to {@code short} or {@code full} turns on JDK pinning traces ({@code jdk.tracePinnedThreads}), which print
+ * the stack of every pinned thread to the standard output. Pinning is also recorded by the {@code jdk.VirtualThreadPinned} JFR event.
+ */
+public final class VirtualThreads
+{
+  public static final String PROPERTY_ENABLED = "aggregate.virtualThreads";
+  public static final String PROPERTY_TRACE_PINNING = "aggregate.virtualThreads.tracePinning";
+
+  private static final String JDK_TRACE_PINNED_THREADS = "jdk.tracePinnedThreads";
+
+  private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+  private static final boolean ENABLED = init();
+
+  private VirtualThreads()
+  {
+  }
+
+  /**
+   * Returns true if the running JVM supports virtual threads.
+   */
+  public static boolean isSupported()
+  {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Returns true if virtual thread mode is enabled and supported by the running JVM.
+   */
+  public static boolean isEnabled()
+  {
+    return ENABLED;
+  }
+
+  /**
+   * Returns a factory of virtual threads named "name/N" if virtual thread mode is enabled, or a {@link NamedThreadFactory} otherwise.
+   */
+  public static ThreadFactory newThreadFactory(String name)
+  {
+    if (ENABLED)
+    {
+      try
+      {
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = OF_VIRTUAL.invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "/", 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      }
+      catch (Exception ex)
+      {
+        Log.CORE_THREAD.warn("Error creating virtual thread factory '" + name + "', using platform threads", ex);
+      }
+    }
+
+    return new NamedThreadFactory(name);
+  }
+
+  /**
+   * Returns an executor that starts a new virtual thread for each task if virtual thread mode is enabled, or a cached pool of platform threads otherwise.
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String name)
+  {
+    ThreadFactory factory = newThreadFactory(name);
+
+    if (ENABLED && !(factory instanceof NamedThreadFactory))
+    {
+      try
+      {
+        return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+      }
+      catch (Exception ex)
+      {
+        Log.CORE_THREAD.warn("Error creating virtual thread executor '" + name + "', using platform threads", ex);
+        factory = new NamedThreadFactory(name);
+      }
+    }
+
+    return Executors.newCachedThreadPool(factory);
+  }
+
+  /**
+   * Returns true if the given thread is virtual.
+   */
+  public static boolean isVirtual(Thread thread)
+  {
+    if (!isSupported())
+    {
+      return false;
+    }
+
+    try
+    {
+      return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+    catch (Exception ex)
+    {
+      return false;
+    }
+  }
+
+  private static boolean init()
+  {
+    if (!Boolean.getBoolean(PROPERTY_ENABLED))
+    {
+      return false;
+    }
+
+    if (!isSupported())
+    {
+      Log.CORE_THREAD.warn("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", using platform threads");
+      return false;
+    }
+
+    String tracePinning = System.getProperty(PROPERTY_TRACE_PINNING);
+
+    // Must be set before the first virtual thread is created
+    if (tracePinning != null && System.getProperty(JDK_TRACE_PINNED_THREADS) == null)
+    {
+      System.setProperty(JDK_TRACE_PINNED_THREADS, tracePinning);
+    }
+
+    Log.CORE_THREAD.info("Virtual thread mode enabled" + (tracePinning != null ? ", tracing pinned threads (" + tracePinning + ")" : ""));
+
+    return true;
+  }
+
+  private static Method findMethod(Class<?> cls, String name)
+  {
+    try
+    {
+      return cls.getMethod(name);
+    }
+    catch (NoSuchMethodException ex)
+    {
+      return null;
+    }
+  }
+}
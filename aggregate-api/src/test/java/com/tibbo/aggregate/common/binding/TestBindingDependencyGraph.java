@@ -0,0 +1,311 @@
+package com.tibbo.aggregate.common.binding;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.expression.Evaluator;
+import com.tibbo.aggregate.common.expression.ExpressionUtils;
+import com.tibbo.aggregate.common.expression.Reference;
+import com.tibbo.aggregate.common.structure.Pinpoint;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestBindingDependencyGraph extends CommonsTestCase
+{
+  @Test
+  public void testRanks() throws Exception
+  {
+    Binding x = new Binding("x", "{a}");
+    Binding b = new Binding("b", "{x} + 1");
+    Binding c = new Binding("c", "{x} + {b}");
+    Binding d = new Binding("d", "{c} * 2");
+    Binding p = new Binding("p", "{q} + 1");
+    Binding q = new Binding("q", "{p} + 1");
+    
+    Map<Binding, List<Reference>> references = new LinkedHashMap<>();
+    
+    for (Binding binding : new Binding[] { d, c, b, x, p, q })
+    {
+      references.put(binding, ExpressionUtils.findReferences(binding.getExpression()));
+    }
+    
+    BindingDependencyGraph graph = new BindingDependencyGraph(references);
+    
+    assertEquals(6, graph.size());
+    assertEquals(0, graph.getRank(x));
+    assertEquals(1, graph.getRank(b));
+    assertEquals(2, graph.getRank(c));
+    assertEquals(3, graph.getRank(d));
+    
+    // Bindings forming a cycle are evaluated last
+    assertEquals(4, graph.getRank(p));
+    assertEquals(4, graph.getRank(q));
+    
+    assertEquals(0, graph.getRank(new Binding("y", "{x}")));
+  }
+  
+  @Test
+  public void testBindingsEvaluatedOncePerChange()
+  {
+    TableBindingProvider provider = new TableBindingProvider("a", "x", "b", "c", "d");
+    
+    provider.addBinding("d", "{c} * 2");
+    provider.addBinding("c", "{x} + {b}");
+    provider.addBinding("b", "{x} + 1");
+    provider.addBinding("x", "{a}");
+    
+    new DefaultBindingProcessor(provider, new Evaluator(provider.table)).start();
+    
+    provider.table.rec().setValue("a", 5);
+    provider.fireChange("a");
+    
+    assertEquals(6, (int) provider.table.rec().getInt("b"));
+    assertEquals(11, (int) provider.table.rec().getInt("c"));
+    assertEquals(22, (int) provider.table.rec().getInt("d"));
+    
+    // Without coalescing "c" would be evaluated after changes of both "x" and "b", and "d" after each evaluation of "c"
+    for (String field : new String[] { "x", "b", "c", "d" })
+    {
+      assertEquals(1, (int) provider.evaluations.get(field), field);
+    }
+    
+    assertTrue(provider.errors.isEmpty());
+  }
+  
+  @Test
+  public void testCycleTerminates()
+  {
+    TableBindingProvider provider = new TableBindingProvider("p", "q");
+    
+    provider.addBinding("p", "{q} + 1");
+    provider.addBinding("q", "{p} + 1");
+    
+    new DefaultBindingProcessor(provider, new Evaluator(provider.table)).start();
+    
+    provider.fireChange("p");
+    
+    assertTrue(provider.evaluations.get("p") <= 100);
+    assertTrue(provider.evaluations.get("q") <= 100);
+  }
+  
+  @Test
+  public void testBindingAddedAfterStartIsRanked()
+  {
+    TableBindingProvider provider = new TableBindingProvider("a", "x", "c", "e");
+    
+    provider.addBinding("x", "{a}");
+    provider.addBinding("c", "{x} + 1");
+    
+    DefaultBindingProcessor processor = new DefaultBindingProcessor(provider, new Evaluator(provider.table));
+    processor.start();
+    
+    // Binding depends on both "x" and "c", so it has to be evaluated after "c" rather than right after "x"
+    processor.initBinding(new Binding("e", "{x} + {c}"), new EvaluationOptions(EvaluationOptions.EVENT));
+    
+    provider.table.rec().setValue("a", 5);
+    provider.fireChange("a");
+    
+    assertEquals(11, (int) provider.table.rec().getInt("e"));
+    assertEquals(1, (int) provider.evaluations.get("e"));
+  }
+  
+  @Test
+  public void testRejectedWaveReportsEveryBinding()
+  {
+    TableBindingProvider provider = new TableBindingProvider("a", "b", "x", "y");
+    
+    provider.addBinding("x", "{a}");
+    provider.addBinding("y", "{b}");
+    
+    // Change of "b" arrives while the wave started by the change of "a" is being submitted, so it joins that wave
+    RejectingExecutor executor = new RejectingExecutor(() -> provider.fireChange("b", true));
+    
+    DefaultBindingProcessor processor = new DefaultBindingProcessor(provider, new Evaluator(provider.table), executor);
+    processor.setDisableStartupConcurrency(true);
+    processor.start();
+    
+    provider.fireChange("a", true);
+    
+    assertEquals(2, provider.errors.size());
+    
+    processor.stop();
+  }
+  
+  /**
+   * Executor rejecting all tasks. The action runs once, when the first task is submitted.
+   */
+  private static class RejectingExecutor extends AbstractExecutorService
+  {
+    private Runnable action;
+    
+    private boolean shutdown;
+    
+    private RejectingExecutor(Runnable action)
+    {
+      this.action = action;
+    }
+    
+    @Override
+    public void execute(Runnable command)
+    {
+      if (action != null)
+      {
+        Runnable current = action;
+        action = null;
+        current.run();
+      }
+      
+      throw new RejectedExecutionException("Queue is full");
+    }
+    
+    @Override
+    public void shutdown()
+    {
+      shutdown = true;
+    }
+    
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+      shutdown = true;
+      return new ArrayList<>();
+    }
+    
+    @Override
+    public boolean isShutdown()
+    {
+      return shutdown;
+    }
+    
+    @Override
+    public boolean isTerminated()
+    {
+      return shutdown;
+    }
+    
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+    {
+      return true;
+    }
+  }
+  
+  /**
+   * Provider of bindings between fields of a single-record table that notifies listeners synchronously whenever a field is written.
+   */
+  private static class TableBindingProvider extends AbstractBindingProvider<Object>
+  {
+    private final DataTable table;
+    
+    private final Map<Binding, EvaluationOptions> bindings = new LinkedHashMap<>();
+    
+    private final Map<ReferenceListener<Object>, Reference> listeners = new LinkedHashMap<>();
+    
+    private final Map<String, Integer> evaluations = new HashMap<>();
+    
+    private final List<Exception> errors = new ArrayList<>();
+    
+    private TableBindingProvider(String... fields)
+    {
+      TableFormat format = new TableFormat(1, 1);
+      
+      for (String field : fields)
+      {
+        format.addField("<" + field + "><I>");
+      }
+      
+      table = new SimpleDataTable(format, 1);
+    }
+    
+    private void addBinding(String target, String expression)
+    {
+      bindings.put(new Binding(target, expression), new EvaluationOptions(EvaluationOptions.EVENT));
+    }
+    
+    private void fireChange(String field)
+    {
+      fireChange(field, false);
+    }
+    
+    private void fireChange(String field, boolean async)
+    {
+      for (Map.Entry<ReferenceListener<Object>, Reference> entry : new ArrayList<>(listeners.entrySet()))
+      {
+        if (field.equals(entry.getValue().getField()))
+        {
+          try
+          {
+            entry.getKey().referenceChanged(entry.getValue(), null, null, async);
+          }
+          catch (BindingException ex)
+          {
+            errors.add(ex);
+          }
+        }
+      }
+    }
+    
+    @Override
+    public Map<Binding, EvaluationOptions> createBindings()
+    {
+      return bindings;
+    }
+    
+    @Override
+    public void start()
+    {
+    }
+    
+    @Override
+    public void stop()
+    {
+    }
+    
+    @Override
+    public void writeReference(int method, Binding binding, Reference cause, Object value, ChangeCache cache, Pinpoint pinpoint)
+    {
+      String field = binding.getTarget().getField();
+      
+      table.rec().setValue(field, value);
+      
+      fireChange(field);
+    }
+    
+    @Override
+    public void addReferenceListener(Reference ref, ReferenceListener<Object> listener)
+    {
+      listeners.put(listener, ref);
+    }
+    
+    @Override
+    public void removeReferenceListener(ReferenceListener<Object> listener)
+    {
+      listeners.remove(listener);
+    }
+    
+    @Override
+    public void processExecution(int method, Binding binding, EvaluationOptions options, Reference cause, Object result)
+    {
+      evaluations.merge(binding.getTarget().getField(), 1, Integer::sum);
+    }
+    
+    @Override
+    public void processError(Binding binding, int method, Reference cause, Exception error)
+    {
+      errors.add(error);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.tibbo.aggregate.common.binding;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestTimerWheel extends CommonsTestCase
+{
+  @Test
+  public void testDeadlines()
+  {
+    TimerWheel wheel = new TimerWheel(10);
+    
+    List<Long> fired = new ArrayList<>();
+    
+    // Delays fall into all wheel levels and beyond the wheel range
+    long[] delays = { 10, 2550, 2570, 163840, 10000000, 700000000 };
+    
+    for (long delay : delays)
+    {
+      wheel.schedule(() -> fired.add(delay), delay, 0);
+    }
+    
+    assertEquals(delays.length, wheel.size());
+    
+    for (int i = 0; i < delays.length; i++)
+    {
+      wheel.advanceTo(delays[i] / 10 - 1);
+      
+      assertEquals(i, fired.size());
+      
+      wheel.advanceTo(delays[i] / 10);
+      
+      assertEquals(i + 1, fired.size());
+      assertEquals(delays[i], (long) fired.get(i));
+    }
+    
+    assertEquals(0, wheel.size());
+  }
+  
+  @Test
+  public void testPeriodic()
+  {
+    TimerWheel wheel = new TimerWheel(10);
+    
+    List<Long> fired = new ArrayList<>();
+    
+    wheel.schedule(() -> fired.add(wheel.getCurrentTick()), 1000, 1000);
+    
+    for (long tick = 1; tick <= 500; tick++)
+    {
+      wheel.advanceTo(tick);
+    }
+    
+    assertEquals(5, fired.size());
+    assertEquals(100L, (long) fired.get(0));
+    assertEquals(500L, (long) fired.get(4));
+    assertEquals(1, wheel.size());
+    
+    // Phase of tasks scheduled now matches the phase of the first task
+    assertEquals(0, wheel.getPhase(1000));
+  }
+  
+  @Test
+  public void testCancel()
+  {
+    TimerWheel wheel = new TimerWheel(10);
+    
+    List<Integer> fired = new ArrayList<>();
+    
+    TimerWheel.Timeout first = wheel.schedule(() -> fired.add(1), 100, 100);
+    wheel.schedule(() -> fired.add(2), 100, 100);
+    TimerWheel.Timeout third = wheel.schedule(() -> fired.add(3), 100000, 0);
+    
+    first.cancel();
+    third.cancel();
+    
+    assertTrue(first.isCancelled());
+    assertEquals(1, wheel.size());
+    
+    for (long tick = 1; tick <= 20000; tick++)
+    {
+      wheel.advanceTo(tick);
+    }
+    
+    assertEquals(2000, fired.size());
+    assertTrue(fired.stream().allMatch(i -> i == 2));
+  }
+}
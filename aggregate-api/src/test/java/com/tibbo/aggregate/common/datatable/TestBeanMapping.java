@@ -0,0 +1,196 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestBeanMapping extends CommonsTestCase
+{
+  private static final TableFormat FORMAT = new TableFormat("<<name><S>> <<value><I>> <<unknown><S>>", new ClassicEncodingSettings(true));
+  
+  @Test
+  public void testMapping() throws Exception
+  {
+    PrivateBean bean = new PrivateBean();
+    bean.setName("sensor");
+    bean.setValue(42);
+    
+    BeanMapping mapping = BeanMapping.of(bean, FORMAT);
+    
+    assertFalse(mapping.getField(0).isMissing());
+    assertTrue(mapping.getField(2).isMissing());
+    
+    assertEquals(int.class, mapping.getField(1).getType(bean));
+    assertEquals("sensor", mapping.getField(0).get(bean));
+    assertEquals(42, (int) (Integer) mapping.getField(1).get(bean));
+    
+    mapping.getField(1).set(bean, 7);
+    assertEquals(7, (int) bean.getValue());
+    
+    assertSame(mapping, BeanMapping.of(new PrivateBean(), FORMAT, mapping));
+    assertNull(BeanMapping.of(null, FORMAT));
+  }
+  
+  @Test
+  public void testMapBean() throws Exception
+  {
+    Map<String, Object> bean = new HashMap<>();
+    bean.put("name", "sensor");
+    
+    BeanMapping mapping = BeanMapping.of(bean, FORMAT);
+    
+    assertFalse(mapping.getField(2).isMissing());
+    assertEquals("sensor", mapping.getField(0).get(bean));
+  }
+  
+  @Test
+  public void testIndexedProperty() throws Exception
+  {
+    IndexedBean bean = new IndexedBean();
+    bean.setItems(new String[] { "a", "b" });
+    
+    BeanMapping mapping = BeanMapping.of(bean, new TableFormat("<<items><T>>", new ClassicEncodingSettings(true)));
+    
+    // Indexed property exists, it's accessed by PropertyUtils that reports type of its elements
+    assertFalse(mapping.getField(0).isMissing());
+    assertEquals(String.class, mapping.getField(0).getType(bean));
+    assertArrayEquals(new String[] { "a", "b" }, (String[]) mapping.getField(0).get(bean));
+    
+    mapping.getField(0).set(bean, new String[] { "c" });
+    assertEquals("c", bean.getItems(0));
+  }
+  
+  @Test
+  public void testAccessorErrors() throws Exception
+  {
+    FailingBean bean = new FailingBean();
+    
+    BeanMapping mapping = BeanMapping.of(bean, FORMAT);
+    
+    // Accessor errors are wrapped like by PropertyUtils
+    InvocationTargetException getError = assertThrows(InvocationTargetException.class, () -> mapping.getField(0).get(bean));
+    assertTrue(getError.getCause() instanceof IllegalStateException);
+    
+    InvocationTargetException setError = assertThrows(InvocationTargetException.class, () -> mapping.getField(1).set(bean, 1));
+    assertTrue(setError.getCause() instanceof AssertionError);
+    
+    assertThrows(IllegalArgumentException.class, () -> mapping.getField(1).set(bean, "text"));
+    assertThrows(IllegalArgumentException.class, () -> mapping.getField(1).set(bean, null));
+  }
+  
+  @Test
+  public void testGageBeanRoundTrip() throws DataTableException
+  {
+    DataTable source = TestEncodingUtils.createTestDataTable(false, 10);
+    
+    List<GageBean> beans = DataTableConversion.beansFromTable(source, GageBean.class, TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    
+    assertEquals(10, (int) beans.size());
+    
+    DataTable table = DataTableConversion.beansToTable(beans, TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    List<GageBean> copies = DataTableConversion.beansFromTable(table, GageBean.class, TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    
+    assertEquals(table, DataTableConversion.beansToTable(copies, TestEncodingUtils.TEST_TABLE_FORMAT, true));
+  }
+  
+  @Test
+  public void testMixedBeans() throws DataTableException
+  {
+    GageBean gage = TestDataTableConversion.getGageBean();
+    MegaGageBean mega = new MegaGageBean(gage);
+    
+    DataTable table = DataTableConversion.beansToTable(Arrays.asList(gage, mega, gage), TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    
+    assertEquals(3, (int) table.getRecordCount());
+    assertEquals(table.getRecord(0), table.getRecord(1));
+    assertEquals(table.getRecord(0), table.getRecord(2));
+  }
+  
+  public static class IndexedBean
+  {
+    private String[] items;
+    
+    public String[] getItems()
+    {
+      return items;
+    }
+    
+    public void setItems(String[] items)
+    {
+      this.items = items;
+    }
+    
+    public String getItems(int index)
+    {
+      return items[index];
+    }
+    
+    public void setItems(int index, String item)
+    {
+      items[index] = item;
+    }
+  }
+  
+  public static class FailingBean
+  {
+    public String getName()
+    {
+      throw new IllegalStateException("Not available");
+    }
+    
+    public void setName(String name)
+    {
+    }
+    
+    public int getValue()
+    {
+      return 0;
+    }
+    
+    public void setValue(int value)
+    {
+      throw new AssertionError("Read only");
+    }
+  }
+  
+  private static class PrivateBean
+  {
+    private String name;
+    private int value;
+    
+    public String getName()
+    {
+      return name;
+    }
+    
+    public void setName(String name)
+    {
+      this.name = name;
+    }
+    
+    public int getValue()
+    {
+      return value;
+    }
+    
+    public void setValue(int value)
+    {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestColumnarDataTable extends CommonsTestCase
+{
+  private static final TableFormat HISTORY_FORMAT = new TableFormat("<<time><D>> <<value><E><F=N>> <<quality><I>> <<state><S><F=N>>", new ClassicEncodingSettings(true));
+  
+  @Test
+  public void testEncodingRoundTrip() throws DataTableException
+  {
+    DataTable simple = TestEncodingUtils.createTestDataTable(false, 10);
+    
+    DataTable columnar = new ColumnarDataTable(simple);
+    
+    assertEquals(simple.getRecordCount(), columnar.getRecordCount());
+    assertEquals(simple.encode(), columnar.encode());
+    
+    DataTable decoded = new SimpleDataTable(columnar.encode());
+    assertEquals(simple, decoded);
+    
+    DataTable decodedColumnar = new ColumnarDataTable(simple.encode(), new ClassicEncodingSettings(false), true);
+    assertEquals(columnar, decodedColumnar);
+  }
+  
+  @Test
+  public void testBeanConversion() throws DataTableException
+  {
+    List<GageBean> beans = TestDataTableConversion.getGageBeanList(5);
+    
+    DataTable simple = DataTableConversion.beansToTable(beans, TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    DataTable columnar = new ColumnarDataTable(simple);
+    
+    List<GageBean> converted = DataTableConversion.beansFromTable(columnar, GageBean.class, TestEncodingUtils.TEST_TABLE_FORMAT, true);
+    
+    assertEquals(simple, DataTableConversion.beansToTable(converted, TestEncodingUtils.TEST_TABLE_FORMAT, true));
+  }
+  
+  @Test
+  public void testValuesAndNulls()
+  {
+    ColumnarDataTable table = new ColumnarDataTable(HISTORY_FORMAT);
+    
+    table.addRecord(new Date(1000), 1.5, 192, "ok");
+    table.addRecord(new Date(2000), null, 0, null);
+    
+    assertEquals(new Date(1000), table.getRecord(0).getDate("time"));
+    assertEquals(1.5, table.getDoubleValue(0, 1));
+    assertEquals(2000, table.getLongValue(1, 0));
+    assertEquals(192, table.getIntValue(0, 2));
+    
+    assertTrue(table.isNull(1, 1));
+    assertFalse(table.isNull(0, 1));
+    assertNull(table.getRecord(1).getDouble("value"));
+    assertNull(table.getRecord(1).getString("state"));
+    
+    table.getRecord(1).setValue("state", "ok");
+    table.getRecord(1).setValue("value", 2.5);
+    
+    assertEquals("ok", table.getRecord(1).getString("state"));
+    assertEquals(2.5, table.getRecord(1).getDouble("value"));
+    
+    assertThrows(IllegalArgumentException.class, () -> table.getIntValue(0, 1));
+  }
+  
+  @Test
+  public void testRecordOperations()
+  {
+    ColumnarDataTable table = new ColumnarDataTable(HISTORY_FORMAT);
+    
+    for (int i = 0; i < 5; i++)
+    {
+      table.addRecord(new Date(i), i % 2 == 0 ? null : (double) i, i, "s" + (i % 2)).setId("id" + i);
+    }
+    
+    table.addRecord(0, new DataRecord(HISTORY_FORMAT, new Date(100), 100.0, 100, "first"));
+    
+    assertEquals(6, (int) table.getRecordCount());
+    assertEquals("first", table.rec().getString("state"));
+    assertNull(table.rec().getId());
+    assertEquals("id0", table.getRecord(1).getId());
+    assertTrue(table.isNull(1, 1));
+    
+    DataRecord removed = table.removeRecord(0);
+    assertEquals(100, (int) removed.getInt("quality"));
+    assertEquals(0, (int) table.rec().getInt("quality"));
+    assertTrue(table.isNull(0, 1));
+    assertFalse(table.isNull(1, 1));
+    
+    table.sort("quality", false);
+    assertEquals(4, (int) table.rec().getInt("quality"));
+    assertEquals("id4", table.rec().getId());
+    assertTrue(table.isNull(0, 1));
+    
+    table.reorderRecord(table.getRecord(4), 0);
+    assertEquals(0, (int) table.rec().getInt("quality"));
+    assertEquals(4, (int) table.getRecord(1).getInt("quality"));
+    
+    table.swapRecords(0, 1);
+    assertEquals(4, (int) table.rec().getInt("quality"));
+    
+    Iterator<DataRecord> iterator = table.iterator();
+    while (iterator.hasNext())
+    {
+      if (iterator.next().getInt("quality") % 2 == 0)
+      {
+        iterator.remove();
+      }
+    }
+    
+    assertEquals(2, (int) table.getRecordCount());
+    assertEquals(3, (int) table.rec().getInt("quality"));
+    assertEquals("id3", table.rec().getId());
+  }
+  
+  @Test
+  public void testCloneAndImmutability()
+  {
+    ColumnarDataTable table = new ColumnarDataTable(HISTORY_FORMAT);
+    table.addRecord(new Date(0), 1.0, 1, "a");
+    
+    DataTable cl = table.clone();
+    cl.rec().setValue("state", "b");
+    
+    assertEquals("a", table.rec().getString("state"));
+    assertEquals("b", cl.rec().getString("state"));
+    
+    table.makeImmutable();
+    
+    assertThrows(IllegalStateException.class, () -> table.rec().setValue("state", "c"));
+    assertThrows(IllegalStateException.class, () -> table.addRecord());
+  }
+}
@@ -7,6 +7,8 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestDataRecord extends CommonsTestCase
@@ -195,4 +197,91 @@ public class TestDataRecord extends CommonsTestCase
     assertEquals(true, table1.getRecord(0).equals(table2.getRecord(0)));
   }
   
+  @Test
+  public void testFieldAccessor()
+  {
+    TableFormat format = createFormat("<<str><S>> <<int><I><F=N>>");
+    
+    FieldAccessor str = format.getAccessor("str");
+    FieldAccessor num = format.getAccessor("int");
+    
+    assertEquals(1, num.getIndex());
+    assertThrows(IllegalArgumentException.class, () -> format.getAccessor("missing"));
+    
+    rec = new DataRecord(format, "a", 1);
+    
+    assertEquals("a", str.getString(rec));
+    assertEquals(Integer.valueOf(1), num.getInt(rec));
+    
+    num.set(rec, null);
+    assertNull(num.getInt(rec));
+    
+    // Record of another format with the same fields is accessed by name
+    rec2 = new DataRecord(createFormat("<<int><I>> <<str><S>>"), 5, "b");
+    
+    assertEquals("b", str.getString(rec2));
+    str.set(rec2, "c");
+    assertEquals("c", rec2.getString(1));
+  }
+  
+  @Test
+  public void testFormatRemap()
+  {
+    TableFormat format = createFormat("<<str><S>> <<int><I>>");
+    
+    DataTable table = new SimpleDataTable(format);
+    table.addRecord("a", 1);
+    table.addRecord().addString("b");
+    
+    TableFormat extended = createFormat("<<int><I>> <<new><S><A=def>> <<str><S>>");
+    
+    table.setFormat(extended);
+    table.joinFormats();
+    
+    assertEquals("a", table.rec().getString("str"));
+    assertEquals(Integer.valueOf(1), table.rec().getInt(0));
+    assertEquals("def", table.rec().getString("new"));
+    assertEquals("b", table.getRecord(1).getString(2));
+    assertEquals(Integer.valueOf(0), table.getRecord(1).getInt("int"));
+    
+    DataRecord cl = table.rec().clone();
+    cl.setValue("str", "x");
+    
+    assertEquals("a", table.rec().getString("str"));
+    assertEquals("x", cl.getString("str"));
+  }
+  
+  @Test
+  public void testOwnFormatModification()
+  {
+    DataTable table = new SimpleDataTable(createFormat("<<str><S>> <<int><I>> <<tail><S>>"));
+    table.addRecord("a", 1, "z");
+    
+    table.splitFormat();
+    
+    DataRecord own = table.rec();
+    DataRecord cl = own.clone();
+    
+    own.getFormat().removeField("int");
+    
+    assertEquals("z", own.getString(1));
+    assertEquals("a", own.getString("str"));
+    
+    own.getFormat().addField(FieldFormat.create("first", FieldFormat.STRING_FIELD), 0);
+    own.setValue(0, "f");
+    
+    assertEquals("f", own.getString("first"));
+    assertEquals("a", own.getString(1));
+    assertEquals("z", own.getString("tail"));
+    
+    // Clone shares the modified format, but stores its own values
+    assertEquals("a", cl.getString("str"));
+    assertEquals("z", cl.getString("tail"));
+    
+    table.joinFormats();
+    
+    assertEquals("a", table.rec().getString(0));
+    assertEquals(Integer.valueOf(0), table.rec().getInt("int"));
+    assertEquals("z", table.rec().getString(2));
+  }
 }
@@ -7,11 +7,14 @@ import com.tibbo.aggregate.common.expression.*;
 import com.tibbo.aggregate.common.tests.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import org.junit.jupiter.api.Test;
+
 public class TestDataTable extends CommonsTestCase
 {
   private DataTable dt = null;
@@ -82,6 +85,203 @@ public class TestDataTable extends CommonsTestCase
     
   }
   
+  @Test
+  public void testCopyOnWriteClone()
+  {
+    TableFormat nestedFormat = createFormat("<<val><I>>");
+    TableFormat format = createFormat("<<str><S>> <<date><D>> <<nested><T>>");
+    
+    DataTable nested = new SimpleDataTable(nestedFormat);
+    nested.addRecord(1);
+    
+    Date date = new Date(1500000000000L);
+    
+    dt = new SimpleDataTable(format);
+    dt.addRecord("first", date, nested);
+    dt.addRecord("second", date, nested.clone());
+    
+    DataTable cl = dt.clone();
+    
+    assertEquals(dt, cl);
+    
+    // Writes to the clone do not affect the original
+    cl.getRecord(0).setValue("str", "changed");
+    assertEquals("first", dt.getRecord(0).getString("str"));
+    
+    // Mutable values returned by the clone are its own copies
+    cl.getRecord(1).getDate("date").setTime(0);
+    cl.getRecord(1).getDataTable("nested").addRecord(2);
+    assertEquals(1500000000000L, dt.getRecord(1).getDate("date").getTime());
+    assertEquals(1, (int) dt.getRecord(1).getDataTable("nested").getRecordCount());
+    assertEquals(2, (int) cl.getRecord(1).getDataTable("nested").getRecordCount());
+    
+    // Writes to the original do not affect the clone
+    dt.getRecord(0).getDataTable("nested").addRecord(3);
+    assertEquals(1, (int) cl.getRecord(0).getDataTable("nested").getRecordCount());
+    
+    // Clone of an immutable table is mutable
+    DataTable immutable = dt.clone().makeImmutable();
+    DataTable mutable = immutable.cloneIfImmutable();
+    mutable.getRecord(0).getDataTable("nested").addRecord(4);
+    assertEquals(2, (int) immutable.getRecord(0).getDataTable("nested").getRecordCount());
+    assertEquals(3, (int) mutable.getRecord(0).getDataTable("nested").getRecordCount());
+  }
+  
+  @Test
+  public void testCloneDoesNotAliasHeldValues()
+  {
+    TableFormat format = createFormat("<<str><S>> <<date><D>> <<nested><T>>");
+    
+    DataTable nested = new SimpleDataTable(createFormat("<<val><I>>"));
+    nested.addRecord(1);
+    
+    dt = new SimpleDataTable(format);
+    dt.addRecord("first", new Date(1500000000000L), nested);
+    
+    // Values obtained from the record before cloning it are modified after it
+    Date date = dt.rec().getDate("date");
+    DataTable table = dt.rec().getDataTable("nested");
+    
+    DataRecord cl = dt.rec().clone();
+    
+    date.setTime(0);
+    table.addRecord(2);
+    
+    assertEquals(1500000000000L, cl.getDate("date").getTime());
+    assertEquals(1, (int) cl.getDataTable("nested").getRecordCount());
+    
+    // Values obtained from the table after cloning it are modified
+    DataTable tableClone = dt.clone();
+    
+    dt.rec().getDate("date").setTime(1);
+    dt.rec().getDataTable("nested").addRecord(3);
+    
+    assertEquals(0, tableClone.rec().getDate("date").getTime());
+    assertEquals(2, (int) tableClone.rec().getDataTable("nested").getRecordCount());
+  }
+  
+  @Test
+  public void testCloneSharesRecords()
+  {
+    TableFormat format = createFormat("<<id><I>> <<str><S>> <<nested><T>>");
+    
+    dt = new SimpleDataTable(format);
+    
+    for (int i = 0; i < 10; i++)
+    {
+      DataTable nested = new SimpleDataTable(createFormat("<<val><I>>"));
+      nested.addRecord(i);
+      
+      dt.addRecord(i, "record" + i, nested);
+    }
+    
+    dt.createIndex("id");
+    
+    // Records held before cloning are modified after it, and records are added to the original before its clones are accessed
+    DataRecord held = dt.getRecord(3);
+    
+    DataTable cl = dt.clone();
+    DataTable second = cl.clone();
+    
+    held.setValue("str", "changed");
+    dt.addRecord(10, "record10", new SimpleDataTable(createFormat("<<val><I>>")));
+    
+    assertEquals("changed", dt.getRecord(3).getString("str"));
+    assertEquals(10, (int) cl.getRecordCount());
+    assertEquals("record3", cl.getRecord(3).getString("str"));
+    assertEquals("record3", second.select("id", 3).getString("str"));
+    
+    // Records are copied by the clone that accesses them
+    DataRecord selected = cl.select("id", 5);
+    
+    assertTrue(selected.getTable() == cl);
+    assertTrue(cl.getRecords().stream().allMatch(rec -> rec.getTable() == cl));
+    
+    selected.setValue("str", "clone");
+    cl.removeRecord(0);
+    cl.getRecord(1).getDataTable("nested").addRecord(100);
+    
+    assertEquals("record5", dt.getRecord(5).getString("str"));
+    assertEquals("record5", second.getRecord(5).getString("str"));
+    assertEquals(11, (int) dt.getRecordCount());
+    assertEquals(1, (int) dt.getRecord(2).getDataTable("nested").getRecordCount());
+    assertEquals(1, (int) second.getRecord(2).getDataTable("nested").getRecordCount());
+    assertEquals(2, (int) cl.select("id", 2).getDataTable("nested").getRecordCount());
+    
+    // Clones of an immutable table are never copied by it, each clone copies the records it modifies
+    DataTable immutable = second.makeImmutable();
+    DataTable first = immutable.clone();
+    DataTable other = immutable.clone();
+    
+    first.getRecord(7).setValue("str", "first");
+    other.sort("id", false);
+    
+    assertEquals("record7", immutable.getRecord(7).getString("str"));
+    assertEquals("record7", other.getRecord(2).getString("str"));
+    assertEquals("first", first.getRecord(7).getString("str"));
+    assertTrue(other.getRecord(2).getTable() == other);
+    assertTrue(immutable.getRecord(7).getTable() == immutable);
+  }
+  
+  @Test
+  public void testConcurrentReadsOfClones() throws Exception
+  {
+    TableFormat format = createFormat("<<str><S>> <<int><I>> <<date><D>>");
+    
+    dt = new SimpleDataTable(format);
+    
+    for (int i = 0; i < 1000; i++)
+    {
+      dt.addRecord("record" + i, i, new Date(i));
+    }
+    
+    DataTable cl = dt.clone();
+    
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    
+    try
+    {
+      List<Future<?>> futures = new ArrayList<>();
+      
+      for (int t = 0; t < 8; t++)
+      {
+        DataTable source = t % 2 == 0 ? dt : cl;
+        
+        futures.add(executor.submit(() -> {
+          for (int pass = 0; pass < 20; pass++)
+          {
+            for (int i = 0; i < source.getRecordCount(); i++)
+            {
+              DataRecord rec = source.getRecord(i);
+              DataRecord copy = rec.clone();
+              
+              assertEquals("record" + i, rec.getString("str"));
+              assertEquals(i, (int) rec.getInt("int"));
+              assertEquals(i, rec.getDate("date").getTime());
+              
+              copy.setValue("int", -i);
+              copy.getDate("date").setTime(-1);
+            }
+          }
+          
+          return null;
+        }));
+      }
+      
+      for (Future<?> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+    
+    assertEquals(dt, cl);
+    assertEquals(999, (int) cl.getRecord(999).getInt("int"));
+  }
+  
   public void testParameterizedReportThatWorksIncorrectly()
   {
     TableFormat format = createFormat("<<devices><T><A=<F=<<devicePath><S><A=><D=Device Path>>><R=<aaa>><R=<bbb>>>>");
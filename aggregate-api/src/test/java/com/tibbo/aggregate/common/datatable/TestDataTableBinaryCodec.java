@@ -0,0 +1,147 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.KnownFormatCollector;
+import com.tibbo.aggregate.common.datatable.encoding.LocalFormatCache;
+import com.tibbo.aggregate.common.protocol.AggreGateCommand;
+import com.tibbo.aggregate.common.protocol.ProtocolVersion;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestDataTableBinaryCodec extends CommonsTestCase
+{
+  private static final TableFormat NESTED_FORMAT = new TableFormat("<<value><I>>", new ClassicEncodingSettings(true));
+  
+  private static final TableFormat FORMAT = new TableFormat(
+      "<<int><I>> <<long><L>> <<bool><B>> <<float><F>> <<double><E>> <<date><D><F=N>> <<str><S><F=N>> <<nested><T>> <<color><C>>",
+      new ClassicEncodingSettings(true));
+  
+  private static ClassicEncodingSettings createSettings()
+  {
+    ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+    settings.setProtocolVersion(ProtocolVersion.V5);
+    return settings;
+  }
+  
+  private static DataTable createTable(int count)
+  {
+    DataTable table = new SimpleDataTable(FORMAT);
+    
+    for (int i = 0; i < count; i++)
+    {
+      DataRecord rec = table.addRecord();
+      rec.setValue("int", i - count / 2);
+      rec.setValue("long", (long) i << 40);
+      rec.setValue("bool", i % 2 == 0);
+      rec.setValue("float", i / 3f);
+      rec.setValue("double", -i / 7d);
+      rec.setValue("date", i % 10 == 0 ? null : new Date(1500000000000L + i));
+      rec.setValue("str", i % 10 == 1 ? null : "Строка " + i + AggreGateCommand.CLIENT_COMMAND_SEPARATOR + "\u0010");
+      rec.setValue("nested", new SimpleDataTable(NESTED_FORMAT, i));
+      
+      if (i % 5 == 0)
+      {
+        rec.setId("id" + i);
+      }
+    }
+    
+    table.setQuality(5);
+    table.setTimestamp(new Date(1000000));
+    
+    return table;
+  }
+  
+  private static byte[] encode(DataTable table, ClassicEncodingSettings settings) throws Exception
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataTableBinaryCodec.encode(table, settings, out);
+    return out.toByteArray();
+  }
+  
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    DataTable table = createTable(100);
+    
+    byte[] encoded = encode(table, createSettings());
+    
+    for (byte b : encoded)
+    {
+      assertTrue(b != AggreGateCommand.CLIENT_COMMAND_SEPARATOR.charAt(0));
+    }
+    
+    String parameter = new String(encoded, StandardCharsets.ISO_8859_1);
+    
+    assertTrue(DataTableBinaryCodec.isBinary(parameter, createSettings()));
+    assertFalse(DataTableBinaryCodec.isBinary(table.encode(), createSettings()));
+    
+    // Binary tables are recognized only on V5 and later connections
+    assertFalse(DataTableBinaryCodec.isBinary(parameter, new ClassicEncodingSettings(false)));
+    
+    DataTable decoded = new SimpleDataTable(parameter, createSettings(), true);
+    
+    assertEquals(table, decoded);
+    assertEquals("id5", decoded.getRecord(5).getId());
+    assertNull(decoded.getRecord(10).getDate("date"));
+    assertEquals(5, (int) decoded.getQuality());
+    assertEquals(new Date(1000000), decoded.getTimestamp());
+    
+    assertTrue(encoded.length < table.encode(createSettings()).length());
+  }
+  
+  @Test
+  public void testFormatCache() throws Exception
+  {
+    ClassicEncodingSettings settings = createSettings();
+    settings.setFormatCache(new LocalFormatCache("server"));
+    settings.setKnownFormatCollector(new KnownFormatCollector());
+    
+    DataTable table = createTable(1);
+    
+    byte[] first = encode(table, settings);
+    byte[] second = encode(table, settings);
+    
+    // Format is sent only once, then it's referred by its ID
+    assertTrue(second.length < first.length);
+    
+    ClassicEncodingSettings clientSettings = new ClassicEncodingSettings(false);
+    clientSettings.setFormatCache(new LocalFormatCache("client"));
+    
+    List<DataRecord> records = new ArrayList<>();
+    
+    DataTableBinaryCodec.decode(ByteBuffer.wrap(first), clientSettings, true, records::add);
+    DataTable decoded = DataTableBinaryCodec.decode(ByteBuffer.wrap(second), clientSettings, true, records::add);
+    
+    assertEquals(FORMAT, decoded.getFormat());
+    assertEquals(0, (int) decoded.getRecordCount());
+    assertEquals(2, records.size());
+    assertEquals(table.rec(), records.get(1));
+  }
+  
+  @Test
+  public void testApplicability()
+  {
+    DataTable table = createTable(1);
+    
+    assertTrue(DataTableBinaryCodec.isApplicable(table, createSettings()));
+    
+    ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+    settings.setProtocolVersion(ProtocolVersion.V4);
+    
+    assertFalse(DataTableBinaryCodec.isApplicable(table, settings));
+    assertFalse(DataTableBinaryCodec.isApplicable(table, null));
+  }
+}
@@ -0,0 +1,95 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.datatable.encoding.JsonEncodingHelper;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestDataTableDecoder extends CommonsTestCase
+{
+  private static final TableFormat NESTED_FORMAT = new TableFormat("<<value><I>>", new ClassicEncodingSettings(true));
+  
+  private static final TableFormat FORMAT = new TableFormat("<<name><S>> <<value><I>> <<nested><T>>", new ClassicEncodingSettings(true));
+  
+  private static DataTable createTable(int count)
+  {
+    DataTable table = new SimpleDataTable(FORMAT);
+    
+    for (int i = 0; i < count; i++)
+    {
+      table.addRecord("name" + i, i, new SimpleDataTable(NESTED_FORMAT, i * 2));
+    }
+    
+    table.setQuality(5);
+    table.setTimestamp(new Date(1000000));
+    
+    return table;
+  }
+  
+  @Test
+  public void testRecordAtATime() throws Exception
+  {
+    DataTable table = createTable(5000);
+    
+    DataTableDecoder decoder = new DataTableDecoder(new StringReader(table.encode()), new ClassicEncodingSettings(false), true);
+    
+    DataRecord first = decoder.next();
+    
+    assertEquals(FORMAT, decoder.getTable().getFormat());
+    assertEquals(table.getRecord(0), first);
+    
+    // Attributes encoded after the records are not decoded yet
+    assertNull(decoder.getTable().getQuality());
+    
+    List<DataRecord> rest = new ArrayList<>();
+    decoder.decode(rest::add);
+    
+    assertEquals(4999, rest.size());
+    assertEquals(table.getRecord(4999), rest.get(4998));
+    assertEquals(2 * 4999, (int) rest.get(4998).getDataTable("nested").rec().getInt("value"));
+    assertNull(decoder.next());
+    
+    assertEquals(0, (int) decoder.getTable().getRecordCount());
+    assertEquals(5, (int) decoder.getTable().getQuality());
+    assertEquals(new Date(1000000), decoder.getTable().getTimestamp());
+  }
+  
+  @Test
+  public void testVisibleSeparators() throws Exception
+  {
+    DataTable table = createTable(10);
+    
+    DataTable decoded = new SimpleDataTable(table.encode(true), new ClassicEncodingSettings(true), true);
+    
+    assertEquals(table, decoded);
+  }
+  
+  @Test
+  public void testJson() throws Exception
+  {
+    TableFormat format = new TableFormat("<<name><S>> <<value><I>>", new ClassicEncodingSettings(true));
+    
+    DataTable table = new SimpleDataTable(format);
+    
+    for (int i = 0; i < 100; i++)
+    {
+      table.addRecord("name" + i, i);
+    }
+    
+    List<DataRecord> records = new ArrayList<>();
+    JsonEncodingHelper.recordsFromJson(new StringReader(JsonEncodingHelper.tableToJson(table)), format, records::add);
+    
+    assertEquals(100, records.size());
+    assertEquals("name99", records.get(99).getString("name"));
+    assertEquals(99, (int) records.get(99).getInt("value"));
+  }
+}
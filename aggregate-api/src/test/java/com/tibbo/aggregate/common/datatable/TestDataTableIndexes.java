@@ -0,0 +1,138 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestDataTableIndexes extends CommonsTestCase
+{
+  private static final TableFormat FORMAT = new TableFormat("<<name><S>> <<group><I>> <<value><I><F=N>>", new ClassicEncodingSettings(true));
+  
+  private static DataTable createTable(int count)
+  {
+    DataTable table = new SimpleDataTable(FORMAT);
+    
+    for (int i = 0; i < count; i++)
+    {
+      table.addRecord("name" + i, i % 10, i);
+    }
+    
+    return table;
+  }
+  
+  @Test
+  public void testHashIndex()
+  {
+    DataTable table = createTable(1000);
+    table.createIndex("name");
+    table.createIndex("group", "value");
+    
+    assertEquals(500, (int) table.findIndex("name", "name500"));
+    assertEquals("name501", table.select(new DataTableQuery(new QueryCondition("group", 1), new QueryCondition("value", 501))).getString("name"));
+    assertNull(table.select("name", "missing"));
+    
+    // Index follows appended, modified and replaced records
+    table.addRecord("added", 3, 1000);
+    table.getRecord(10).setValue("name", "renamed");
+    table.setRecord(20, new DataRecord(FORMAT).addValue("replaced").addValue(0).addValue(20));
+    
+    assertEquals(1000, (int) table.findIndex("name", "added"));
+    assertEquals(10, (int) table.findIndex("name", "renamed"));
+    assertNull(table.findIndex("name", "name10"));
+    assertEquals(20, (int) table.findIndex("name", "replaced"));
+    
+    // Index is rebuilt after records are shifted
+    table.removeRecord(0);
+    table.addRecord(0, new DataRecord(FORMAT).addValue("first").addValue(0).addValue(null));
+    table.swapRecords(1, 2);
+    
+    assertEquals(0, (int) table.findIndex("name", "first"));
+    assertEquals(1, (int) table.findIndex("name", "name2"));
+    assertEquals(2, (int) table.findIndex("name", "name1"));
+    assertEquals(99, table.selectAll(new DataTableQuery(new QueryCondition("group", 5), new QueryCondition("value", 995, QueryCondition.LT))).size());
+  }
+  
+  @Test
+  public void testSortedIndex()
+  {
+    DataTable table = createTable(1000);
+    table.createSortedIndex("value");
+    
+    DataTableQuery range = new DataTableQuery(new QueryCondition("value", 900, QueryCondition.GE), new QueryCondition("group", 0));
+    
+    assertEquals(10, table.selectAll(range).size());
+    assertEquals(900, (int) table.findIndex(range));
+    assertEquals(5, table.selectAll(new DataTableQuery(new QueryCondition("value", 5, QueryCondition.LT))).size());
+    
+    table.getRecord(0).setValue("value", 2000);
+    
+    assertEquals(0, (int) table.findIndex(new DataTableQuery(new QueryCondition("value", 1500, QueryCondition.GT))));
+    
+    // Comparing null values fails like without the index
+    table.getRecord(1).setValue("value", null);
+    
+    assertEquals(1, (int) table.findIndex("value", null));
+    assertThrows(IllegalArgumentException.class, () -> table.selectAll(new DataTableQuery(new QueryCondition("value", 5, QueryCondition.LT))));
+  }
+  
+  @Test
+  public void testSortedIndexBuiltWithNulls()
+  {
+    DataTable table = createTable(100);
+    table.getRecord(1).setValue("value", null);
+    
+    // Index is built on the first query, before choosing whether it serves a comparison
+    table.createSortedIndex("value");
+    
+    assertThrows(IllegalArgumentException.class, () -> table.selectAll(new DataTableQuery(new QueryCondition("value", 5, QueryCondition.LT))));
+  }
+  
+  @Test
+  public void testUnsupportedIndexes()
+  {
+    DataTable table = new ColumnarDataTable(createTable(100));
+    
+    // Tables without indexes keep scanning
+    table.createIndex("name");
+    table.createSortedIndex("value");
+    
+    assertEquals(50, (int) table.findIndex("name", "name50"));
+    assertEquals(5, table.selectAll(new DataTableQuery(new QueryCondition("value", 5, QueryCondition.LT))).size());
+  }
+  
+  @Test
+  public void testRecordIds()
+  {
+    DataTable table = createTable(100);
+    table.createIndex("name");
+    
+    table.getRecord(50).setId("id50");
+    
+    assertSame(table.getRecord(50), table.getRecordById("id50"));
+    
+    table.getRecord(50).setId("other");
+    
+    assertNull(table.getRecordById("id50"));
+    assertSame(table.getRecord(50), table.getRecordById("other"));
+  }
+  
+  @Test
+  public void testClone()
+  {
+    DataTable table = createTable(100);
+    table.createIndex("name");
+    
+    DataTable clone = table.clone();
+    clone.getRecord(5).setValue("name", "changed");
+    
+    assertEquals(5, (int) table.findIndex("name", "name5"));
+    assertEquals(5, (int) clone.findIndex("name", "changed"));
+    assertNull(clone.findIndex("name", "name5"));
+  }
+}
@@ -0,0 +1,113 @@
+package com.tibbo.aggregate.common.datatable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.expression.Evaluator;
+import com.tibbo.aggregate.common.expression.Expression;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestFilteringDataTable extends CommonsTestCase
+{
+  private static final TableFormat FORMAT = new TableFormat("<<id><I>> <<value><I><F=N>> <<total><L><F=N>> <<name><S><F=N>> <<flag><B>>",
+      new ClassicEncodingSettings(true));
+  
+  // Records span several batches
+  private static final int RECORDS = 3000;
+  
+  private static final String[] FILTERS = { "{value} > 50", "{value} <= 20", "{value} == 30", "{value} != 30", "{total} >= 150000", "50 < {value}",
+      "{value} == null", "{name} == \"item77\"", "!({value} > 50)", "{value} > 50 && contains({name}, \"1\")", "{value} < 10 || endsWith({name}, \"7\")",
+      "startsWith({name}, \"item1\") || {total} > 200000", "!contains({name}, \"5\")", "{value} > 20 && {value} % 3 == 0", "{flag}",
+      "{flag} && {value} % 7 == 1 || {total} < 1000", "{value} + {total} > 1000 && !{flag}", "({value} > 90 || {value} < 10) && !({total} < 100000)" };
+  
+  @Test
+  public void testSimpleTable() throws Exception
+  {
+    DataTable table = createTable(new SimpleDataTable(FORMAT));
+    
+    for (String filter : FILTERS)
+    {
+      assertEquals(filterByRows(table, filter), filterByBatches(table, filter), filter);
+    }
+  }
+  
+  @Test
+  public void testColumnarTable() throws Exception
+  {
+    DataTable table = createTable(new ColumnarDataTable(FORMAT));
+    
+    for (String filter : FILTERS)
+    {
+      assertEquals(filterByRows(table, filter), filterByBatches(table, filter), filter);
+    }
+  }
+  
+  @Test
+  public void testFilterError() throws Exception
+  {
+    DataTable table = createTable(new ColumnarDataTable(FORMAT));
+    
+    // Right operand fails for records starting from the second batch, records before the failing one are returned
+    Iterator<DataRecord> iterator = new FilteringDataTable(table, "{id} < 1500 || {missing} == 1").iterator();
+    
+    for (int i = 0; i < 1500; i++)
+    {
+      assertEquals(i, (int) iterator.next().getInt("id"));
+    }
+    
+    assertThrows(RuntimeException.class, iterator::hasNext);
+  }
+  
+  private static DataTable createTable(DataTable table)
+  {
+    for (int i = 0; i < RECORDS; i++)
+    {
+      Integer value = i % 11 == 0 ? null : i % 100;
+      Long total = i % 13 == 0 ? null : i * 100L;
+      String name = i % 17 == 0 ? null : "item" + i;
+      
+      table.addRecord(i, value, total, name, i % 2 == 0);
+    }
+    
+    return table;
+  }
+  
+  private static List<Integer> filterByRows(DataTable table, String filter) throws Exception
+  {
+    Evaluator evaluator = new Evaluator(table);
+    Expression expression = new Expression(filter);
+    
+    List<Integer> ids = new ArrayList<>();
+    
+    for (int i = 0; i < table.getRecordCount(); i++)
+    {
+      evaluator.getDefaultResolver().setDefaultRow(i);
+      
+      if (evaluator.evaluateToBoolean(expression))
+      {
+        ids.add(table.getRecord(i).getInt("id"));
+      }
+    }
+    
+    return ids;
+  }
+  
+  private static List<Integer> filterByBatches(DataTable table, String filter)
+  {
+    List<Integer> ids = new ArrayList<>();
+    
+    for (DataRecord record : new FilteringDataTable(table, filter))
+    {
+      ids.add(record.getInt("id"));
+    }
+    
+    return ids;
+  }
+}
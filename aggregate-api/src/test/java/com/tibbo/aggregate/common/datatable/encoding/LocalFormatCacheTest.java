@@ -1,16 +1,33 @@
 package com.tibbo.aggregate.common.datatable.encoding;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.tibbo.aggregate.common.datatable.DataRecord;
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.DataTableBinaryCodec;
 import com.tibbo.aggregate.common.datatable.SimpleDataTable;
 import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.protocol.ProtocolVersion;
 
 /**
  * @author Vladimir Plizga
@@ -122,4 +139,193 @@ public class LocalFormatCacheTest
                 tableFormat.getId().intValue());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void evictedFormatIsCachedAgainWithOriginalId()
+    {
+        // given
+        sut.setMaxSize(2);
+        TableFormat first = createFormat("first");
+        sut.addIfNotExists(first);
+        sut.addIfNotExists(createFormat("second"));
+        sut.addIfNotExists(createFormat("third"));
+
+        // when
+        Integer id = sut.addIfNotExists(first);
+
+        // then
+        assertEquals(2, sut.getSize());
+        assertEquals(0, id.intValue(), "Evicted format must keep its ID");
+        assertSame(first, sut.get(0));
+        assertNull(sut.get(1), "Format with the lowest ID must be evicted");
+    }
+
+    @Test
+    public void formatEvictedByPeerIsRefetched() throws Exception
+    {
+        // given
+        PeerFormatCache peer = new PeerFormatCache(sut);
+        peer.setMaxSize(1);
+
+        ClassicEncodingSettings serverSettings = createSettings(sut);
+        serverSettings.setKnownFormatCollector(new KnownFormatCollector());
+
+        DataTable table = new SimpleDataTable(createFormat("first"));
+        table.addRecord(42);
+
+        List<DataRecord> records = new ArrayList<>();
+
+        byte[] full = encode(table, serverSettings);
+        DataTableBinaryCodec.decode(ByteBuffer.wrap(full), createSettings(peer), true, records::add);
+
+        // Peer evicts the first format when it receives the other ones
+        for (String field : new String[] { "second", "third" })
+        {
+            DataTable other = new SimpleDataTable(createFormat(field));
+            DataTableBinaryCodec.decode(ByteBuffer.wrap(encode(other, serverSettings)), createSettings(peer), true, records::add);
+        }
+
+        // when
+        byte[] idOnly = encode(table, serverSettings);
+        DataTableBinaryCodec.decode(ByteBuffer.wrap(idOnly), createSettings(peer), true, records::add);
+
+        // then
+        assertTrue(idOnly.length < full.length, "Format known by the peer must be referred by its ID");
+        assertEquals(table.rec(), records.get(1));
+        assertEquals(table.getFormat(), peer.get(table.getFormat().getId()));
+    }
+
+    @Test
+    public void formatEvictedByServerIsSentInFullAgain() throws Exception
+    {
+        // given
+        sut.setMaxSize(1);
+
+        KnownFormatCollector collector = new KnownFormatCollector();
+        sut.addKnownFormatCollector(collector);
+
+        ClassicEncodingSettings serverSettings = createSettings(sut);
+        serverSettings.setKnownFormatCollector(collector);
+
+        DataTable table = new SimpleDataTable(createFormat("first"));
+        table.addRecord(42);
+
+        byte[] full = encode(table, serverSettings);
+        byte[] idOnly = encode(table, serverSettings);
+
+        // when
+        encode(new SimpleDataTable(createFormat("second")), serverSettings);
+
+        // then
+        assertEquals(AbstractFormatCache.DEFAULT_MAX_SIZE, new LocalFormatCache("default").getMaxSize(), "Local cache must be bounded by default");
+        assertTrue(idOnly.length < full.length, "Format known by the peer must be referred by its ID");
+        assertFalse(collector.isKnown(table.getFormat().getId()), "Evicted format must be forgotten by the collector");
+        assertTrue(Arrays.equals(full, encode(table, serverSettings)), "Evicted format must be sent in full again");
+    }
+
+    @Test
+    public void equalFormatsHaveEqualFingerprints()
+    {
+        // given
+        TableFormat format = createFormat("value");
+
+        // when
+        TableFormat clone = format.clone();
+
+        // then
+        assertEquals(format.getFingerprint(), clone.getFingerprint());
+        assertNotEquals(format.getFingerprint(), createFormat("other").getFingerprint());
+    }
+
+    @Test
+    public void concurrentlyAddedEqualFormatsGetSameId() throws Exception
+    {
+        // given
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> ids = new ArrayList<>();
+
+        // when
+        try
+        {
+            for (int i = 0; i < threads; i++)
+            {
+                ids.add(executor.submit(() -> sut.addIfNotExists(createFormat("value"))));
+            }
+
+            // then
+            for (Future<Integer> id : ids)
+            {
+                assertEquals(ids.get(0).get(), id.get());
+            }
+            assertEquals(1, sut.getSize());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static ClassicEncodingSettings createSettings(FormatCache cache)
+    {
+        ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+        settings.setProtocolVersion(ProtocolVersion.V5);
+        settings.setFormatCache(cache);
+        return settings;
+    }
+
+    private static byte[] encode(DataTable table, ClassicEncodingSettings settings) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataTableBinaryCodec.encode(table, settings, out);
+        return out.toByteArray();
+    }
+
+    private static TableFormat createFormat(String field)
+    {
+        TableFormat format = new TableFormat("<<" + field + "><I>>", new ClassicEncodingSettings(true));
+        format.makeImmutable(new SimpleDataTable());
+        return format;
+    }
+
+    /**
+     * Cache of a peer that requests formats missing in it from the cache that assigned their IDs, like {@link RemoteFormatCache} does.
+     */
+    private static class PeerFormatCache extends AbstractFormatCache
+    {
+        private final FormatCache source;
+
+        private PeerFormatCache(FormatCache source)
+        {
+            super("peer");
+            this.source = source;
+        }
+
+        @Override
+        public TableFormat get(int id)
+        {
+            TableFormat result = super.get(id);
+
+            if (result == null)
+            {
+                TableFormat format = source.get(id);
+
+                if (format == null)
+                {
+                    throw new IllegalStateException("Format with requested ID does not exist: " + id);
+                }
+
+                result = new TableFormat(format.encode(new ClassicEncodingSettings(false)), new ClassicEncodingSettings(false));
+
+                addImpl(result, id);
+            }
+
+            return result;
+        }
+
+        @Override
+        protected Integer add(TableFormat tableFormat)
+        {
+            throw new UnsupportedOperationException("Cannot add format without defined index to the peer cache");
+        }
+    }
+}
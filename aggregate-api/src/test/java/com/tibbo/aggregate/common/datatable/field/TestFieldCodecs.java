@@ -0,0 +1,99 @@
+package com.tibbo.aggregate.common.datatable.field;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestFieldCodecs extends CommonsTestCase
+{
+  @Test
+  public void testDates()
+  {
+    Random random = new Random(1);
+    
+    for (int i = 0; i < 10000; i++)
+    {
+      // Years from 1500 to 3000, including the ones handled by calendar
+      Date date = new Date(-15000000000000L + (long) (random.nextDouble() * 47000000000000L));
+      
+      StringBuilder sb = new StringBuilder();
+      boolean appended = FieldCodecs.appendDate(date.getTime(), sb);
+      
+      String encoded = DateFieldFormat.dateToString(date);
+      
+      if (appended)
+      {
+        assertEquals(encoded, sb.toString());
+        assertEquals(date.getTime(), FieldCodecs.parseDate(encoded, 0, encoded.length()));
+      }
+      
+      assertEquals(date, DateFieldFormat.dateFromString(encoded));
+    }
+    
+    assertEquals("2000-02-01 12:00:00.000", DateFieldFormat.dateToString(new DateFieldFormat("date").getNotNullDefault()));
+    assertEquals(FieldCodecs.NO_VALUE, FieldCodecs.parseDate("2000-02-30 12:00:00.000", 0, 23));
+    
+    // Out of range fields are still parsed by the lenient calendar
+    assertEquals(DateFieldFormat.dateFromString("2000-03-01 12:00:00.000"), DateFieldFormat.dateFromString("2000-02-30 12:00:00.000"));
+  }
+  
+  @Test
+  public void testNumbers()
+  {
+    Random random = new Random(1);
+    
+    for (int i = 0; i < 10000; i++)
+    {
+      double d = i % 2 == 0 ? random.nextInt(1000000) / 1000.0 : Double.longBitsToDouble(random.nextLong());
+      String encoded = Double.toString(d);
+      double parsed = FieldCodecs.parseDouble(encoded, 0, encoded.length());
+      
+      assertTrue(Double.isNaN(parsed) || Double.compare(Double.parseDouble(encoded), parsed) == 0, encoded);
+      
+      float f = i % 2 == 0 ? random.nextInt(100000) / 100f : Float.intBitsToFloat(random.nextInt());
+      encoded = Float.toString(f);
+      float parsedFloat = FieldCodecs.parseFloat(encoded, 0, encoded.length());
+      
+      assertTrue(Float.isNaN(parsedFloat) || Float.compare(Float.parseFloat(encoded), parsedFloat) == 0, encoded);
+      
+      long l = random.nextLong() >> random.nextInt(64);
+      encoded = Long.toString(l);
+      
+      assertEquals(l, (long) new LongFieldFormat("long").valueFromString(encoded));
+    }
+    
+    assertEquals(-0.0, FieldCodecs.parseDouble("-0.0", 0, 4));
+    assertEquals(12.5, FieldCodecs.parseDouble("x1.25E1", 1, 7));
+    assertEquals(FieldCodecs.NO_VALUE, FieldCodecs.parseInt("2147483648", 0, 10));
+    assertEquals(Integer.MIN_VALUE, (int) new IntFieldFormat("int").valueFromString("-2147483648"));
+    assertEquals(Long.MIN_VALUE, (long) new LongFieldFormat("long").valueFromString(Long.toString(Long.MIN_VALUE)));
+    assertEquals(5, (int) new IntFieldFormat("int").valueFromString("+5"));
+    assertEquals(1, FieldCodecs.parseBoolean("True", 0, 4));
+    assertEquals(-1, FieldCodecs.parseBoolean("yes", 0, 3));
+  }
+  
+  @Test
+  public void testTableEncoding() throws Exception
+  {
+    TableFormat format = new TableFormat("<<int><I>> <<long><L>> <<float><F>> <<double><E>> <<bool><B>> <<date><D><F=N>>", new ClassicEncodingSettings(true));
+    
+    DataTable table = new SimpleDataTable(format);
+    
+    for (int i = 0; i < 100; i++)
+    {
+      table.addRecord(i - 50, (long) i << 35, i / 3f, -i / 7d, i % 2 == 0, i % 10 == 0 ? null : new Date(1500000000000L + i * 86400000L));
+    }
+    
+    assertEquals(table, new SimpleDataTable(table.encode(new ClassicEncodingSettings(false)), new ClassicEncodingSettings(false), true));
+  }
+}
@@ -0,0 +1,161 @@
+package com.tibbo.aggregate.common.event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.data.Event;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestEventHistory extends CommonsTestCase
+{
+  private static final long START = 1500000000000L;
+  
+  @Test
+  public void testTrimming()
+  {
+    EventHistory history = new EventHistory();
+    
+    for (int i = 0; i < 10; i++)
+    {
+      assertNull(history.store(createEvent("users.admin", EventLevel.INFO, START + i), 5));
+    }
+    
+    List<Event> events = history.getEvents();
+    
+    assertEquals(5, events.size());
+    assertEquals(START + 5, events.get(0).getCreationtime().getTime());
+    assertEquals(START + 9, events.get(4).getCreationtime().getTime());
+    
+    history.store(createEvent("users.admin", EventLevel.INFO, START + 10), 0);
+    
+    assertEquals(0, history.size());
+  }
+  
+  @Test
+  public void testDeduplication()
+  {
+    EventHistory history = new EventHistory();
+    
+    Event first = createEvent("users.admin", EventLevel.INFO, START);
+    first.setDeduplicationId("dup");
+    
+    assertNull(history.store(first, 100));
+    assertNull(history.store(createEvent("users.admin", EventLevel.INFO, START + 1), 100));
+    
+    Event second = createEvent("users.admin", EventLevel.INFO, START + 2);
+    second.setDeduplicationId("dup");
+    
+    assertSame(first, history.store(second, 100));
+    
+    // Duplicate is moved to the creation time of the new event
+    List<Event> events = history.find(new Date(START + 2), null, null, null);
+    assertEquals(1, events.size());
+    assertSame(first, events.get(0));
+    assertEquals(2, history.size());
+  }
+  
+  @Test
+  public void testExpiration()
+  {
+    EventHistory history = new EventHistory();
+    
+    Event expired = createEvent("users.admin", EventLevel.INFO, START);
+    expired.setExpirationtime(new Date(System.currentTimeMillis() - 1000));
+    expired.setDeduplicationId("dup");
+    
+    Event actual = createEvent("users.admin", EventLevel.INFO, START + 1);
+    actual.setExpirationtime(new Date(System.currentTimeMillis() + 60000));
+    
+    history.store(expired, 100);
+    history.store(actual, 100);
+    
+    assertEquals(1, history.size());
+    assertSame(actual, history.getEvents().get(0));
+    
+    Event next = createEvent("users.admin", EventLevel.INFO, START + 2);
+    next.setDeduplicationId("dup");
+    
+    // Expired event is not a duplicate any more
+    assertNull(history.store(next, 100));
+    assertEquals(2, history.size());
+  }
+  
+  @Test
+  public void testRangeQueries()
+  {
+    EventHistory history = new EventHistory();
+    
+    for (int i = 0; i < 100; i++)
+    {
+      history.store(createEvent(i % 2 == 0 ? "users.admin.devices.a" : "users.admin.devices.b", i % 5, START + i * 10), 1000);
+    }
+    
+    // Out-of-order event is placed by its creation time
+    history.store(createEvent("users.admin.devices.a", EventLevel.FATAL, START + 505), 1000);
+    
+    List<Event> range = history.find(new Date(START + 500), new Date(START + 590), null, null);
+    assertEquals(11, range.size());
+    assertEquals(START + 505, range.get(1).getCreationtime().getTime());
+    
+    assertEquals(6, history.find(new Date(START + 500), new Date(START + 590), null, "users.admin.devices.a").size());
+    assertEquals(3, history.find(new Date(START + 500), new Date(START + 590), EventLevel.ERROR, null).size());
+    assertEquals(21, history.find(null, null, EventLevel.ERROR, null).size());
+    
+    history.updateContext("users.admin.devices.a", "users.admin.devices.c");
+    
+    assertEquals(0, history.find(null, null, null, "users.admin.devices.a").size());
+    assertEquals(51, history.find(null, null, null, "users.admin.devices.c").size());
+  }
+  
+  @Test
+  public void testConcurrentAppends() throws Exception
+  {
+    final EventHistory history = new EventHistory();
+    
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    
+    try
+    {
+      List<Future<?>> futures = new ArrayList<>();
+      
+      for (int t = 0; t < 4; t++)
+      {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++)
+          {
+            history.store(createEvent("users.admin", EventLevel.INFO, START + i), 1000);
+          }
+        }));
+      }
+      
+      for (Future<?> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    
+    assertEquals(1000, history.size());
+    assertEquals(1000, history.getEvents().size());
+  }
+  
+  private static Event createEvent(String context, int level, long time)
+  {
+    Event event = new Event(context, "test", level, null, null);
+    event.setCreationtime(new Date(time));
+    return event;
+  }
+}
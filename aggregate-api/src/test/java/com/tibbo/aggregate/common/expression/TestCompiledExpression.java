@@ -0,0 +1,146 @@
+package com.tibbo.aggregate.common.expression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.tests.CommonsFixture;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestCompiledExpression extends CommonsTestCase
+{
+  private static final String[] EXPRESSIONS = {
+      "1 + 2 * 3",
+      "{int} + 1",
+      "{int} * 2.5",
+      "{int} / 2",
+      "{int} / 3",
+      "{int} % 5",
+      "-{int}",
+      "-1.5",
+      "7 / 2",
+      "{int} - 0.5",
+      "{int} > 100",
+      "{int} >= 123",
+      "{int} < 123.5",
+      "100 < {int}",
+      "{int} == 123",
+      "{int} != '123'",
+      "{str} + 1",
+      "1 + {str}",
+      "{str} == 'test'",
+      "{str} > 'abc'",
+      "{str} ~= 't.*'",
+      "null ~= 't.*'",
+      "{bool} && {int} > 0",
+      "!{bool} || {int} < 0",
+      "!{bool}",
+      "{bool} ? {str} : 'no'",
+      "false ? {str} : 'no'",
+      "~{int}",
+      "{int} & 7",
+      "{int} | 1024",
+      "{int} ^ {int}",
+      "{int} << 2",
+      "{int} >> 1",
+      "-{int} >>> 60",
+      "null + 1",
+      "null > 1",
+      "length({str}) * 2",
+      "catch(1 / 0)",
+      "catch(1 / 0, 'error')",
+      "catch({int} + 1, 'error')"
+  };
+  
+  @Test
+  public void testSameResultsAsInterpreter() throws Exception
+  {
+    Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    for (String text : EXPRESSIONS)
+    {
+      Object compiled = ev.evaluate(new Expression(text));
+      
+      EvaluationEnvironment debug = new EvaluationEnvironment();
+      debug.setDebug(true);
+      Object interpreted = ev.evaluate(new Expression(text), debug);
+      
+      assertEquals(interpreted, compiled, text);
+    }
+  }
+  
+  @Test
+  public void testCompilationIsCached() throws Exception
+  {
+    Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    Expression expression = new Expression("{int} * 2");
+    
+    assertEquals(246L, ev.evaluate(expression));
+    
+    CompiledExpression compiled = expression.getCompiled();
+    assertNotNull(compiled);
+    
+    assertEquals(246L, ev.evaluate(expression));
+    assertSame(compiled, expression.getCompiled());
+  }
+  
+  @Test
+  public void testConstantFolding() throws Exception
+  {
+    Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    CompiledExpression compiled = ExpressionCompiler.compile(ExpressionUtils.parse(new Expression("(1 + 2) * 3 > 8 ? 'yes' : 'no'"), true));
+    
+    // Folded expression needs neither evaluator nor environment
+    assertEquals("yes", compiled.evaluate(null, null));
+    
+    // Division by zero is not folded and fails during evaluation
+    try
+    {
+      ev.evaluate(new Expression("1 / 0"));
+      fail();
+    }
+    catch (EvaluationException ex)
+    {
+    }
+  }
+  
+  @Test
+  public void testAttributes() throws Exception
+  {
+    Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    Date timestamp = new Date(1500000000000L);
+    
+    EvaluationEnvironment environment = new EvaluationEnvironment();
+    environment.getCustomResolvers().put("attr", new AbstractReferenceResolver()
+    {
+      @Override
+      public Object resolveReference(Reference ref, EvaluationEnvironment environment)
+      {
+        return new DefaultAttributedObject(10L, timestamp, 192);
+      }
+    });
+    
+    AttributedObject result = ev.evaluateAttributed(new Expression("{attr/value} + 5"), environment);
+    
+    assertEquals(15L, result.getValue());
+    assertEquals(timestamp, result.getTimestamp());
+    assertEquals(192, (int) result.getQuality());
+    
+    result = ev.evaluateAttributed(new Expression("1 + 5"));
+    
+    assertEquals(6L, result.getValue());
+    assertNull(result.getTimestamp());
+    
+    assertTrue((Boolean) ev.evaluate(new Expression("{attr/value} > 5"), environment));
+  }
+}
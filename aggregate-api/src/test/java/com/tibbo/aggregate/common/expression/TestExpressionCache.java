@@ -0,0 +1,86 @@
+package com.tibbo.aggregate.common.expression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.expression.parser.ASTStart;
+import com.tibbo.aggregate.common.tests.CommonsFixture;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestExpressionCache extends CommonsTestCase
+{
+  @Test
+  public void testSharedParse() throws Exception
+  {
+    Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    String text = "{int} + " + System.nanoTime();
+    
+    Expression first = new Expression(text);
+    Expression second = new Expression(text);
+    
+    long misses = ExpressionCache.getMisses();
+    long hits = ExpressionCache.getHits();
+    
+    ev.evaluate(first);
+    ev.evaluate(second);
+    
+    assertEquals(misses + 1, ExpressionCache.getMisses());
+    assertTrue(ExpressionCache.getHits() > hits);
+    
+    assertNotNull(first.getRootNode());
+    assertSame(first.getRootNode(), second.getRootNode());
+    assertSame(first.getCompiled(), second.getCompiled());
+  }
+  
+  @Test
+  public void testConcurrentEvaluation() throws Exception
+  {
+    final Evaluator ev = CommonsFixture.createTestEvaluator();
+    
+    final Expression expression = new Expression("{int} * 2 + {str}");
+    
+    ASTStart root = ExpressionCache.parse(expression);
+    
+    Thread[] threads = new Thread[4];
+    final Throwable[] errors = new Throwable[threads.length];
+    
+    for (int t = 0; t < threads.length; t++)
+    {
+      final int index = t;
+      threads[t] = new Thread(() -> {
+        try
+        {
+          for (int i = 0; i < 1000; i++)
+          {
+            assertEquals("246test", ev.evaluate(new Expression("{int} * 2 + {str}")));
+          }
+        }
+        catch (Throwable ex)
+        {
+          errors[index] = ex;
+        }
+      });
+      threads[t].start();
+    }
+    
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+    
+    for (Throwable error : errors)
+    {
+      if (error != null)
+      {
+        throw new AssertionError(error);
+      }
+    }
+    
+    assertSame(root, ExpressionCache.parse(new Expression("{int} * 2 + {str}")));
+  }
+}
@@ -9,6 +9,8 @@ import com.tibbo.aggregate.common.filter.converter.ClassDteFilterConverter;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.function.IntPredicate;
+
 public class VisitorTest {
 
     public static final TableFormat tableFormat = new TableFormat();
@@ -140,4 +142,49 @@ public class VisitorTest {
         ClassDteFilterConverter.convertExpressionToClassFilter(e);
     }
 
+    @Test
+    public void testBatches() throws ParseException {
+        DataTable table = new SimpleDataTable(tableFormat);
+        for (int i = 0; i < 3000; i++) {
+            table.addRecord("NAME" + i, "LASTNAME" + i, i % 3 == 0, i % 100);
+        }
+
+        // Records span several batches, expressions mix column-at-a-time and logical operations
+        assertFiltered(table, "{AGE} > 55 && contains({FIRST_NAME}, \"1\")", i -> i % 100 > 55 && ("NAME" + i).contains("1"));
+        assertFiltered(table, "in({AGE}, 10, 20, 30) || {STATUS}", i -> i % 100 == 10 || i % 100 == 20 || i % 100 == 30 || i % 3 == 0);
+        assertFiltered(table, "!({AGE} < 50) && {STATUS}", i -> i % 100 >= 50 && i % 3 == 0);
+    }
+
+    @Test
+    public void testBatchNulls() throws ParseException {
+        TableFormat format = new TableFormat();
+        format.addField(FieldFormat.create("<FIRST_NAME><S>"));
+        format.addField(FieldFormat.create("<LAST_NAME><S>"));
+        format.addField(FieldFormat.create("<STATUS><B>"));
+        format.addField(FieldFormat.create("<AGE><I><F=N>"));
+
+        DataTable table = new SimpleDataTable(format);
+        for (int i = 0; i < 3000; i++) {
+            table.addRecord("NAME" + i, "LASTNAME" + i, i % 2 == 0, i % 5 == 0 ? null : i % 100);
+        }
+
+        // Logical operations are null if any operand is null, whatever the other operand is
+        assertFiltered(table, "({STATUS} && {AGE} > 50) || !{STATUS}", i -> i % 5 != 0 && (i % 2 == 0 && i % 100 > 50 || i % 2 != 0));
+        assertFiltered(table, "{AGE} > 50 || {STATUS}", i -> i % 5 != 0 && (i % 100 > 50 || i % 2 == 0));
+    }
+
+    private static void assertFiltered(DataTable table, String exp, IntPredicate expected) throws ParseException {
+        FilterEvaluator fe = new FilterEvaluator(table.getFormat(), exp);
+        fe.setDataTable(table);
+        DataTable dt = fe.filterTable();
+
+        int count = 0;
+        for (int i = 0; i < table.getRecordCount(); i++) {
+            if (expected.test(i)) {
+                Assertions.assertEquals("NAME" + i, dt.getRecord(count).getString("FIRST_NAME"));
+                count++;
+            }
+        }
+        Assertions.assertEquals(count, (int) dt.getRecordCount());
+    }
 }
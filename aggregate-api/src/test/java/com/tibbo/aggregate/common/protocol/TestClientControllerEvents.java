@@ -0,0 +1,386 @@
+package com.tibbo.aggregate.common.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.context.CallerData;
+import com.tibbo.aggregate.common.data.Event;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.device.DisconnectionException;
+import com.tibbo.aggregate.common.event.ContextEventListener;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+import com.tibbo.aggregate.common.util.BlockingChannel;
+
+public class TestClientControllerEvents extends CommonsTestCase
+{
+  private static final TableFormat FORMAT = new TableFormat("<<value><I>>", new ClassicEncodingSettings(true));
+  
+  private static final String UPDATED = "updated";
+  
+  private static Controller createController(MemoryChannel channel, ExecutorService executor, int capacity)
+  {
+    Controller controller = new Controller(channel, executor, capacity);
+    listener(controller).setConflatedEvents(Collections.singleton(UPDATED));
+    return controller;
+  }
+  
+  private static DefaultClientController.ForwardingEventListener listener(Controller controller)
+  {
+    return (DefaultClientController.ForwardingEventListener) controller.getDefaultEventListener();
+  }
+  
+  private static void fire(Controller controller, String context, String name, long id) throws Exception
+  {
+    listener(controller).handle(new Event(context, name, 1, new SimpleDataTable(FORMAT, (int) id), id));
+  }
+  
+  private static List<Long> receivedEventIds(MemoryChannel channel) throws Exception
+  {
+    AggreGateCommandParser parser = new AggreGateCommandParser(Channels.newChannel(new ByteArrayInputStream(channel.toByteArray())));
+    
+    List<Long> ids = new ArrayList<>();
+    
+    try
+    {
+      while (true)
+      {
+        ids.add(Long.valueOf(parser.readCommand().getParameter(AggreGateCommand.INDEX_EVENT_ID).toString()));
+      }
+    }
+    catch (DisconnectionException ex)
+    {
+      // End of data
+    }
+    
+    return ids;
+  }
+  
+  @Test
+  public void testConflatedEventsKeepLatestValueInQueueOrder() throws Exception
+  {
+    MemoryChannel channel = new MemoryChannel();
+    ManualExecutor executor = new ManualExecutor();
+    Controller controller = createController(channel, executor, 100);
+    
+    fire(controller, "sensor1", UPDATED, 1);
+    fire(controller, "sensor2", UPDATED, 2);
+    fire(controller, "sensor1", UPDATED, 3);
+    fire(controller, "sensor1", "alert", 4);
+    fire(controller, "sensor2", UPDATED, 5);
+    
+    // Superseded occurrences don't take places in the queue
+    assertEquals(3, controller.getPendingEventsCount());
+    
+    executor.runTasks();
+    
+    assertEquals(Arrays.asList(3L, 5L, 4L), receivedEventIds(channel));
+    
+    // Once delivered, occurrence doesn't absorb newer ones
+    fire(controller, "sensor1", UPDATED, 6);
+    executor.runTasks();
+    
+    assertEquals(Arrays.asList(3L, 5L, 4L, 6L), receivedEventIds(channel));
+    assertEquals(0, controller.getPendingEventsCount());
+  }
+  
+  @Test
+  public void testEventQueuedWhileDrainingIsDelivered() throws Exception
+  {
+    MemoryChannel channel = new MemoryChannel();
+    ManualExecutor executor = new ManualExecutor();
+    Controller controller = createController(channel, executor, 100);
+    
+    channel.onFlush = () -> {
+      channel.onFlush = null;
+      fire(controller, "sensor1", "alert", 2);
+    };
+    
+    fire(controller, "sensor1", "alert", 1);
+    executor.runTasks();
+    
+    assertEquals(Arrays.asList(1L, 2L), receivedEventIds(channel));
+    
+    // Active drain picked the event up, so no other delivery task was needed
+    assertEquals(1, executor.submitted);
+  }
+  
+  @Test
+  public void testConcurrentEventsAreDelivered() throws Exception
+  {
+    int threads = 4;
+    int eventsPerThread = 2000;
+    
+    MemoryChannel channel = new MemoryChannel();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Controller controller = createController(channel, executor, threads * eventsPerThread);
+    
+    List<Thread> producers = new ArrayList<>();
+    
+    for (int t = 0; t < threads; t++)
+    {
+      int first = t * eventsPerThread;
+      
+      Thread producer = new Thread(() -> {
+        try
+        {
+          for (int i = 0; i < eventsPerThread; i++)
+          {
+            fire(controller, "sensor1", "alert", first + i);
+          }
+        }
+        catch (Exception ex)
+        {
+          throw new IllegalStateException(ex);
+        }
+      });
+      
+      producers.add(producer);
+      producer.start();
+    }
+    
+    for (Thread producer : producers)
+    {
+      producer.join();
+    }
+    
+    // Every event is either taken by an active drain or schedules a task, so all of them are delivered once the tasks are done
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    
+    assertEquals(threads * eventsPerThread, receivedEventIds(channel).size());
+    assertEquals(0, controller.getPendingEventsCount());
+    assertEquals(0, controller.getDiscardedEventsCount());
+  }
+  
+  @Test
+  public void testEventsOverCapacityAreDiscarded() throws Exception
+  {
+    MemoryChannel channel = new MemoryChannel();
+    ManualExecutor executor = new ManualExecutor();
+    Controller controller = createController(channel, executor, 3);
+    
+    fire(controller, "sensor1", "alert", 1);
+    fire(controller, "sensor1", "alert", 2);
+    fire(controller, "sensor2", UPDATED, 3);
+    
+    // Replacing a queued occurrence of a conflated event doesn't take a place in the queue
+    fire(controller, "sensor2", UPDATED, 4);
+    
+    fire(controller, "sensor1", "alert", 5);
+    fire(controller, "sensor1", "alert", 6);
+    fire(controller, "sensor3", UPDATED, 7);
+    
+    assertEquals(3, controller.getPendingEventsCount());
+    assertEquals(3, controller.getDiscardedEventsCount());
+    
+    executor.runTasks();
+    
+    assertEquals(Arrays.asList(1L, 2L, 4L), receivedEventIds(channel));
+    
+    // Discarded conflated event is not left as a queued occurrence that would absorb the next one
+    fire(controller, "sensor3", UPDATED, 8);
+    executor.runTasks();
+    
+    assertEquals(Arrays.asList(1L, 2L, 4L, 8L), receivedEventIds(channel));
+  }
+  
+  @Test
+  public void testEventsSentOneByOneWithoutBatching() throws Exception
+  {
+    for (int batchSize : new int[] { 0, ByteBufferSpool.CHUNK_SIZE })
+    {
+      MemoryChannel channel = new MemoryChannel();
+      ManualExecutor executor = new ManualExecutor();
+      Controller controller = createController(channel, executor, 100);
+      controller.setEventBatchSize(batchSize);
+      
+      for (long id = 1; id <= 5; id++)
+      {
+        fire(controller, "sensor1", "alert", id);
+      }
+      
+      executor.runTasks();
+      
+      assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), receivedEventIds(channel));
+      
+      // Each event is written on its own, while a batch is written through a single buffer
+      assertEquals(batchSize == 0 ? 5 : 1, channel.writes);
+    }
+  }
+  
+  private static class Controller extends DefaultClientController<CallerData>
+  {
+    private Controller(BlockingChannel channel, ExecutorService executor, int pendingEventsQueueCapacity)
+    {
+      super(channel, null, executor, null, null, pendingEventsQueueCapacity);
+    }
+    
+    @Override
+    public boolean controllerShouldHandle(Event ev, ContextEventListener listener)
+    {
+      return true;
+    }
+    
+    @Override
+    public boolean run()
+    {
+      return true;
+    }
+  }
+  
+  /**
+   * Executor running submitted tasks only when asked, so that the test controls when events are drained.
+   */
+  private static class ManualExecutor extends AbstractExecutorService
+  {
+    private final List<Runnable> tasks = new ArrayList<>();
+    
+    private int submitted;
+    
+    @Override
+    public void execute(Runnable command)
+    {
+      tasks.add(command);
+      submitted++;
+    }
+    
+    private void runTasks()
+    {
+      while (!tasks.isEmpty())
+      {
+        tasks.remove(0).run();
+      }
+    }
+    
+    @Override
+    public void shutdown()
+    {
+    }
+    
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+      return Collections.emptyList();
+    }
+    
+    @Override
+    public boolean isShutdown()
+    {
+      return false;
+    }
+    
+    @Override
+    public boolean isTerminated()
+    {
+      return false;
+    }
+    
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+    {
+      return false;
+    }
+  }
+  
+  private interface FlushAction
+  {
+    void run() throws Exception;
+  }
+  
+  private static class MemoryChannel implements BlockingChannel
+  {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    
+    private int writes;
+    
+    private FlushAction onFlush;
+    
+    private synchronized byte[] toByteArray()
+    {
+      return data.toByteArray();
+    }
+    
+    @Override
+    public synchronized int write(ByteBuffer src)
+    {
+      int length = src.remaining();
+      writes++;
+      
+      while (src.hasRemaining())
+      {
+        data.write(src.get());
+      }
+      
+      return length;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst)
+    {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean isUsesCompression()
+    {
+      return false;
+    }
+    
+    @Override
+    public void setUsesCompression(boolean usesCompression)
+    {
+    }
+    
+    @Override
+    public void flush() throws IOException
+    {
+      FlushAction action = onFlush;
+      
+      if (action != null)
+      {
+        try
+        {
+          action.run();
+        }
+        catch (Exception ex)
+        {
+          throw new IOException(ex);
+        }
+      }
+    }
+    
+    @Override
+    public String getChannelAddress()
+    {
+      return "memory";
+    }
+    
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+    
+    @Override
+    public void close()
+    {
+    }
+  }
+}
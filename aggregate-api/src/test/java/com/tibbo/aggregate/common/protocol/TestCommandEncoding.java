@@ -1,5 +1,8 @@
 package com.tibbo.aggregate.common.protocol;
 
+import java.io.*;
+import java.util.*;
+
 import com.tibbo.aggregate.common.data.*;
 import com.tibbo.aggregate.common.datatable.*;
 import com.tibbo.aggregate.common.datatable.encoding.*;
@@ -55,6 +58,24 @@ public class TestCommandEncoding extends CommonsTestCase
     assertEquals(table, decoded);
   }
   
+  public void testParameterSlices() throws Exception
+  {
+    OutgoingAggreGateCommand outgoing = new OutgoingAggreGateCommand();
+    outgoing.addParam(String.valueOf(AggreGateCommand.COMMAND_CODE_REPLY));
+    outgoing.addParam("42");
+    outgoing.addParam("");
+    outgoing.addParam("\u043f\u0440\u0438\u0432\u0435\u0442");
+    
+    IncomingAggreGateCommand incoming = new IncomingAggreGateCommand(outgoing.toByteArray());
+    
+    assertEquals(4, incoming.getNumberOfParameters());
+    assertTrue(incoming.isReply());
+    assertEquals("42", incoming.getId());
+    assertEquals(0, incoming.getParameter(2).length());
+    assertFalse(incoming.getParameter(3).isMaterialized());
+    assertEquals("\u043f\u0440\u0438\u0432\u0435\u0442", incoming.getParameter(3).getString());
+  }
+  
   public void testDecodeBigCommand() throws Exception
   {
     DataTable table = new SimpleDataTable(VFT_TEST);
@@ -81,6 +102,88 @@ public class TestCommandEncoding extends CommonsTestCase
     assertEquals(table, decoded);
   }
   
+  public void testStreamedTable() throws Exception
+  {
+    DataTable table = new SimpleDataTable(VFT_TEST);
+    
+    for (int i = 0; i < OutgoingAggreGateCommand.STREAMED_TABLE_MIN_RECORDS * 10; i++)
+    {
+      table.addRecord("record" + i, (long) i, 0.5f);
+    }
+    
+    OutgoingAggreGateCommand encoded = new OutgoingAggreGateCommand();
+    encoded.constructReply("42", AggreGateCodes.REPLY_CODE_OK);
+    encoded.addParam(table.encode(new ClassicEncodingSettings(false)));
+    encoded.addParam("tail");
+    
+    OutgoingAggreGateCommand streamed = new OutgoingAggreGateCommand();
+    streamed.constructReply("42", AggreGateCodes.REPLY_CODE_OK);
+    streamed.addParam(table, new ClassicEncodingSettings(false));
+    streamed.addParam("tail");
+    
+    assertTrue(streamed.isStreamed());
+    
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    streamed.writeTo(contents);
+    
+    assertTrue(Arrays.equals(encoded.toByteArray(), contents.toByteArray()));
+    
+    // Consumers that need the whole command get tables encoded into it
+    assertTrue(Arrays.equals(encoded.toByteArray(), streamed.toByteArray()));
+    assertFalse(streamed.isStreamed());
+  }
+  
+  public void testBinaryTable() throws Exception
+  {
+    ClassicEncodingSettings settings = new ClassicEncodingSettings(false);
+    settings.setProtocolVersion(ProtocolVersion.V5);
+    
+    for (int count : new int[] { 10, OutgoingAggreGateCommand.STREAMED_TABLE_MIN_RECORDS * 2 })
+    {
+      DataTable table = new SimpleDataTable(VFT_TEST);
+      
+      for (int i = 0; i < count; i++)
+      {
+        table.addRecord("record" + i + AggreGateCommand.CLIENT_COMMAND_SEPARATOR, (long) i, 0.5f);
+      }
+      
+      OutgoingAggreGateCommand outgoing = new OutgoingAggreGateCommand();
+      outgoing.constructReply("42", AggreGateCodes.REPLY_CODE_OK);
+      outgoing.addParam(table, settings);
+      outgoing.addParam("tail");
+      
+      IncomingAggreGateCommand incoming = new IncomingAggreGateCommand(outgoing.toByteArray());
+      
+      assertEquals(5, incoming.getNumberOfParameters());
+      assertEquals("tail", incoming.getParameter(4).getString());
+      
+      // Parameter is binary only if the command was received over V5 or later connection
+      assertFalse(incoming.isBinaryDataTableInReply());
+      
+      incoming.setProtocolVersion(ProtocolVersion.V5);
+      
+      assertTrue(incoming.isBinaryDataTableInReply());
+      assertEquals(table, new SimpleDataTable(incoming.getEncodedDataTableFromReply(), settings, true));
+    }
+  }
+  
+  public void testTextStartingWithBinaryMarker() throws Exception
+  {
+    String text = (char) StringWrapper.BINARY_MARKER + "Строка";
+    
+    OutgoingAggreGateCommand outgoing = new OutgoingAggreGateCommand();
+    outgoing.constructReply("42", AggreGateCodes.REPLY_CODE_OK);
+    outgoing.addParam(text);
+    outgoing.addParam(text);
+    
+    IncomingAggreGateCommand incoming = new IncomingAggreGateCommand(outgoing.toByteArray());
+    incoming.setProtocolVersion(ProtocolVersion.V5);
+    
+    // Parameters are decoded as UTF-8 text, binary tables are read through getEncodedDataTableFromReply()
+    assertEquals(text, incoming.getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY + 1).getString());
+    assertEquals(text, incoming.getParameter(AggreGateCommand.INDEX_DATA_TABLE_IN_REPLY).getString());
+  }
+  
   public void testJsonCommand() throws Exception
   {
     DataTable table = new SimpleDataTable(VFT_TEST);
@@ -0,0 +1,178 @@
+package com.tibbo.aggregate.common.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.datatable.DataTable;
+import com.tibbo.aggregate.common.datatable.SimpleDataTable;
+import com.tibbo.aggregate.common.datatable.TableFormat;
+import com.tibbo.aggregate.common.datatable.encoding.ClassicEncodingSettings;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+import com.tibbo.aggregate.common.util.BlockingChannel;
+
+public class TestConnectionCompression extends CommonsTestCase
+{
+  private static final TableFormat FORMAT = new TableFormat("<<value><E>> <<quality><I>>", new ClassicEncodingSettings(true));
+  
+  private static final int EVENTS = 200;
+  
+  private static List<OutgoingAggreGateCommand> createCommands()
+  {
+    List<OutgoingAggreGateCommand> commands = new ArrayList<>();
+    
+    for (int i = 0; i < EVENTS; i++)
+    {
+      OutgoingAggreGateCommand event = new OutgoingAggreGateCommand();
+      String data = new SimpleDataTable(FORMAT, i * 0.5, 192).encode(new ClassicEncodingSettings(false));
+      event.constructEvent("users.admin.devices.sensor" + i % 5, "updated", 1, data, (long) i, new Date(1500000000000L + i), null);
+      commands.add(event);
+    }
+    
+    DataTable table = new SimpleDataTable(FORMAT);
+    
+    for (int i = 0; i < OutgoingAggreGateCommand.STREAMED_TABLE_MIN_RECORDS * 2; i++)
+    {
+      table.addRecord(i * 0.25, i);
+    }
+    
+    OutgoingAggreGateCommand reply = new OutgoingAggreGateCommand();
+    reply.constructReply("42", AggreGateCodes.REPLY_CODE_OK);
+    reply.addParam(table, new ClassicEncodingSettings(false));
+    commands.add(EVENTS / 2, reply);
+    
+    return commands;
+  }
+  
+  private static byte[] write(ProtocolVersion version) throws Exception
+  {
+    MemoryChannel channel = new MemoryChannel();
+    
+    CompressedCommandWriter<OutgoingAggreGateCommand> writer = new CompressedCommandWriter<>();
+    writer.setVersion(version);
+    
+    for (OutgoingAggreGateCommand command : createCommands())
+    {
+      writer.write(command, channel, true);
+    }
+    
+    return channel.data.toByteArray();
+  }
+  
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    byte[] data = write(ProtocolVersion.V6);
+    
+    AggreGateCommandParser parser = new AggreGateCommandParser(Channels.newChannel(new ByteArrayInputStream(data)));
+    parser.setVersion(ProtocolVersion.V6);
+    
+    List<OutgoingAggreGateCommand> expected = createCommands();
+    
+    for (OutgoingAggreGateCommand command : expected)
+    {
+      IncomingAggreGateCommand received = parser.readCommand();
+      assertEquals(command.getContent(), received.getContent());
+    }
+    
+    assertTrue(data.length < write(ProtocolVersion.V4).length);
+  }
+  
+  @Test
+  public void testBatch() throws Exception
+  {
+    for (ProtocolVersion version : new ProtocolVersion[] { ProtocolVersion.V4, ProtocolVersion.V6 })
+    {
+      MemoryChannel channel = new MemoryChannel();
+      
+      CompressedCommandWriter<OutgoingAggreGateCommand> writer = new CompressedCommandWriter<>();
+      writer.setVersion(version);
+      
+      List<OutgoingAggreGateCommand> commands = createCommands();
+      
+      writer.write(commands.get(0), channel, true);
+      writer.writeBatch(commands.subList(1, commands.size() - 1), channel);
+      writer.write(commands.get(commands.size() - 1), channel, true);
+      
+      // Batch is flushed once, while asynchronous events are not flushed at all
+      assertEquals(1, channel.flushes);
+      
+      AggreGateCommandParser parser = new AggreGateCommandParser(Channels.newChannel(new ByteArrayInputStream(channel.data.toByteArray())));
+      parser.setVersion(version);
+      
+      for (OutgoingAggreGateCommand command : createCommands())
+      {
+        assertEquals(command.getContent(), parser.readCommand().getContent());
+      }
+    }
+  }
+  
+  private static class MemoryChannel implements BlockingChannel
+  {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    
+    private int flushes;
+    
+    @Override
+    public int write(ByteBuffer src)
+    {
+      int length = src.remaining();
+      
+      while (src.hasRemaining())
+      {
+        data.write(src.get());
+      }
+      
+      return length;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst)
+    {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean isUsesCompression()
+    {
+      return true;
+    }
+    
+    @Override
+    public void setUsesCompression(boolean usesCompression)
+    {
+    }
+    
+    @Override
+    public void flush()
+    {
+      flushes++;
+    }
+    
+    @Override
+    public String getChannelAddress()
+    {
+      return "memory";
+    }
+    
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+    
+    @Override
+    public void close()
+    {
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package com.tibbo.aggregate.common.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.communication.AbstractDeviceController;
+import com.tibbo.aggregate.common.communication.CommandParser;
+import com.tibbo.aggregate.common.communication.CommandParserListener;
+import com.tibbo.aggregate.common.device.DisconnectionException;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+import com.tibbo.aggregate.common.util.SyntaxErrorException;
+
+public class TestPipelinedCommands extends CommonsTestCase
+{
+  private final ProtocolCommandBuilder builder = new ProtocolCommandBuilder(false);
+
+  private LoopbackController controller;
+
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    controller = new LoopbackController();
+    controller.connect();
+  }
+
+  @Override
+  protected void tearDown() throws Exception
+  {
+    controller.disconnect();
+    super.tearDown();
+  }
+
+  @Test
+  public void testOutOfOrderReplies() throws Exception
+  {
+    List<OutgoingAggreGateCommand> commands = new ArrayList<>();
+    List<CompletableFuture<IncomingAggreGateCommand>> futures = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++)
+    {
+      OutgoingAggreGateCommand cmd = builder.getVariableOperation("users.admin", "var" + i);
+      commands.add(cmd);
+      futures.add(controller.sendCommandAsync(cmd));
+    }
+
+    for (int i = commands.size() - 1; i >= 0; i--)
+    {
+      controller.reply(commands.get(i).getId());
+    }
+
+    for (int i = 0; i < commands.size(); i++)
+    {
+      assertEquals(commands.get(i).getId(), futures.get(i).get(5, TimeUnit.SECONDS).getId());
+    }
+
+    assertFalse(controller.isActive());
+  }
+
+  @Test
+  public void testBatch() throws Exception
+  {
+    List<OutgoingAggreGateCommand> commands = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++)
+    {
+      commands.add(builder.getVariableOperation("users.admin", "var" + i));
+    }
+
+    List<CompletableFuture<IncomingAggreGateCommand>> futures = controller.sendCommandsAsync(commands);
+
+    assertEquals(commands.size(), futures.size());
+
+    for (int i = commands.size() - 1; i >= 0; i--)
+    {
+      controller.reply(commands.get(i).getId());
+    }
+
+    for (int i = 0; i < commands.size(); i++)
+    {
+      assertEquals(commands.get(i).getId(), futures.get(i).get(5, TimeUnit.SECONDS).getId());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception
+  {
+    OutgoingAggreGateCommand cmd = builder.getVariableOperation("users.admin", "slow");
+    cmd.setTimeout(100L);
+
+    CompletableFuture<IncomingAggreGateCommand> future = controller.sendCommandAsync(cmd);
+
+    ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    assertTrue(ex.getCause() instanceof IOException);
+    assertFalse(controller.isActive());
+  }
+
+  @Test
+  public void testDisconnection() throws Exception
+  {
+    CompletableFuture<IncomingAggreGateCommand> future = controller.sendCommandAsync(builder.getVariableOperation("users.admin", "pending"));
+
+    controller.disconnect();
+
+    ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    assertTrue(ex.getCause() instanceof DisconnectionException);
+  }
+
+  private static class LoopbackController extends AbstractDeviceController<IncomingAggreGateCommand, OutgoingAggreGateCommand>
+  {
+    private final QueueParser parser = new QueueParser();
+
+    LoopbackController()
+    {
+      super(TimeUnit.MINUTES.toMillis(1), null);
+    }
+
+    void reply(String id) throws SyntaxErrorException
+    {
+      OutgoingAggreGateCommand reply = new OutgoingAggreGateCommand();
+      reply.constructReply(id, AggreGateCodes.REPLY_CODE_OK);
+      parser.queue.add(new IncomingAggreGateCommand(reply.toByteArray()));
+    }
+
+    @Override
+    protected boolean connectImpl()
+    {
+      setCommandParser(parser);
+      return true;
+    }
+
+    @Override
+    protected boolean loginImpl()
+    {
+      return true;
+    }
+
+    @Override
+    protected void disconnectImpl()
+    {
+    }
+
+    @Override
+    protected void send(OutgoingAggreGateCommand cmd)
+    {
+    }
+  }
+
+  private static class QueueParser implements CommandParser<IncomingAggreGateCommand>
+  {
+    private final BlockingQueue<IncomingAggreGateCommand> queue = new LinkedBlockingQueue<>();
+
+    @Override
+    public IncomingAggreGateCommand readCommand() throws DisconnectionException
+    {
+      try
+      {
+        return queue.poll(100, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new DisconnectionException(ex.getMessage());
+      }
+    }
+
+    @Override
+    public void addData(int dataByte)
+    {
+    }
+
+    @Override
+    public void reset()
+    {
+    }
+
+    @Override
+    public void setListener(CommandParserListener listener)
+    {
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package com.tibbo.aggregate.common.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+import com.tibbo.aggregate.common.util.SocketBlockingChannel;
+
+public class TestSelectorTransport extends CommonsTestCase
+{
+  private SelectorEventLoopGroup group;
+  private ServerSocketChannel server;
+
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    group = new SelectorEventLoopGroup("test", 2, 100);
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("127.0.0.1", 0));
+  }
+
+  @Override
+  protected void tearDown() throws Exception
+  {
+    server.close();
+    group.shutdown();
+    super.tearDown();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    try (Socket client = connect())
+    {
+      SelectorChannel channel = accept(new EchoHandler());
+
+      assertEquals(1, group.getChannelCount());
+
+      for (int i = 0; i < 3; i++)
+      {
+        OutgoingAggreGateCommand cmd = new ProtocolCommandBuilder(false).getVariableOperation("users.admin", "var" + i);
+        new DefaultCommandWriter<OutgoingAggreGateCommand>().write(cmd, new SocketBlockingChannel(client), true);
+
+        IncomingAggreGateCommand reply = readReply(client);
+        assertEquals(cmd.getId(), reply.getId());
+        assertEquals(AggreGateCodes.REPLY_CODE_OK, reply.getReplyCode());
+      }
+
+      assertTrue(channel.isOpen());
+    }
+  }
+
+  @Test
+  public void testFragmentedCommand() throws Exception
+  {
+    try (Socket client = connect())
+    {
+      accept(new EchoHandler());
+
+      OutgoingAggreGateCommand cmd = new ProtocolCommandBuilder(false).getVariableOperation("users.admin", "fragmented");
+      cmd.complete();
+
+      byte[] body = cmd.toByteArray();
+      OutputStream os = client.getOutputStream();
+
+      os.write(AggreGateCommand.START_CHAR);
+      os.write(body, 0, body.length / 2);
+      os.flush();
+      Thread.sleep(50);
+      os.write(body, body.length / 2, body.length - body.length / 2);
+      os.write(AggreGateCommand.END_CHAR);
+      os.flush();
+
+      assertEquals(cmd.getId(), readReply(client).getId());
+    }
+  }
+
+  @Test
+  public void testPeerDisconnection() throws Exception
+  {
+    EchoHandler handler = new EchoHandler();
+
+    SelectorChannel channel;
+    try (Socket client = connect())
+    {
+      channel = accept(handler);
+    }
+
+    assertTrue(handler.closed.await(5, TimeUnit.SECONDS));
+    assertFalse(channel.isOpen());
+    assertEquals(0, group.getChannelCount());
+  }
+
+  @Test
+  public void testLargeWriteFromHandler() throws Exception
+  {
+    SelectorEventLoopGroup single = new SelectorEventLoopGroup("single", 1, 100);
+
+    try (Socket bulkClient = connect(); Socket echoClient = connect())
+    {
+      bulkClient.setReceiveBufferSize(4096);
+
+      BulkHandler bulk = new BulkHandler(8 * 1024 * 1024);
+      single.register(server.accept()).activate(bulk);
+
+      EchoHandler echo = new EchoHandler();
+      SelectorChannel echoChannel = single.register(server.accept());
+      echo.parser = new AggreGateCommandParser(echoChannel);
+      echoChannel.activate(echo);
+
+      // Handler writes much more than the socket buffers can hold while the peer is not reading
+      bulkClient.getOutputStream().write(1);
+      bulkClient.getOutputStream().flush();
+      assertTrue(bulk.written.await(5, TimeUnit.SECONDS), "Write from the loop thread must not block");
+
+      // Another connection of the same loop is still served
+      OutgoingAggreGateCommand cmd = new ProtocolCommandBuilder(false).getVariableOperation("users.admin", "var");
+      new DefaultCommandWriter<OutgoingAggreGateCommand>().write(cmd, new SocketBlockingChannel(echoClient), true);
+      assertEquals(cmd.getId(), readReply(echoClient).getId());
+
+      // Queued data is delivered completely
+      InputStream is = bulkClient.getInputStream();
+      byte[] buffer = new byte[65536];
+      long received = 0;
+      int count;
+
+      while (received < bulk.size && (count = is.read(buffer)) > 0)
+      {
+        for (int i = 0; i < count; i++)
+        {
+          assertEquals((byte) (received + i), buffer[i]);
+        }
+
+        received += count;
+      }
+
+      assertEquals(bulk.size, received);
+    }
+    finally
+    {
+      single.shutdown();
+    }
+  }
+
+  private Socket connect() throws IOException
+  {
+    Socket socket = new Socket();
+    socket.connect(server.getLocalAddress(), 5000);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private SelectorChannel accept(EchoHandler handler) throws IOException
+  {
+    SocketChannel accepted = server.accept();
+    SelectorChannel channel = group.register(accepted);
+    handler.parser = new AggreGateCommandParser(channel);
+    channel.activate(handler);
+    return channel;
+  }
+
+  private IncomingAggreGateCommand readReply(Socket client) throws Exception
+  {
+    AggreGateCommandParser parser = new AggreGateCommandParser(new SocketBlockingChannel(client));
+
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (System.currentTimeMillis() < deadline)
+    {
+      IncomingAggreGateCommand reply = parser.readCommand();
+
+      if (reply != null)
+      {
+        return reply;
+      }
+    }
+
+    throw new AssertionError("No reply received");
+  }
+
+  private static class BulkHandler implements SelectorChannelHandler
+  {
+    private final int size;
+    private final CountDownLatch written = new CountDownLatch(1);
+
+    private BulkHandler(int size)
+    {
+      this.size = size;
+    }
+
+    @Override
+    public void channelReadable(SelectorChannel channel) throws Exception
+    {
+      ByteBuffer request = ByteBuffer.allocate(16);
+
+      if (channel.read(request) <= 0)
+      {
+        return;
+      }
+
+      ByteBuffer data = ByteBuffer.allocate(size);
+
+      for (int i = 0; i < size; i++)
+      {
+        data.put((byte) i);
+      }
+
+      data.flip();
+
+      channel.write(data);
+
+      written.countDown();
+    }
+
+    @Override
+    public void channelIdle(SelectorChannel channel)
+    {
+    }
+
+    @Override
+    public void channelClosed(SelectorChannel channel)
+    {
+    }
+  }
+
+  private static class EchoHandler implements SelectorChannelHandler
+  {
+    private volatile AggreGateCommandParser parser;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void channelReadable(SelectorChannel channel) throws Exception
+    {
+      IncomingAggreGateCommand cmd;
+
+      while ((cmd = parser.readCommand()) != null)
+      {
+        assertNotNull(cmd.getId());
+
+        OutgoingAggreGateCommand reply = new OutgoingAggreGateCommand();
+        reply.constructReply(cmd.getId(), AggreGateCodes.REPLY_CODE_OK);
+        new DefaultCommandWriter<OutgoingAggreGateCommand>().write(reply, channel, true);
+      }
+    }
+
+    @Override
+    public void channelIdle(SelectorChannel channel)
+    {
+    }
+
+    @Override
+    public void channelClosed(SelectorChannel channel)
+    {
+      closed.countDown();
+    }
+  }
+}
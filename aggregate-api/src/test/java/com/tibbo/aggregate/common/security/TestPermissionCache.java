@@ -0,0 +1,169 @@
+package com.tibbo.aggregate.common.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.context.ContextUtils;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestPermissionCache extends CommonsTestCase
+{
+  @Test
+  public void testLevels()
+  {
+    PermissionCache cache = new PermissionCache(100);
+    
+    cache.cacheLevel("users.admin", null, null, "admin", false);
+    cache.cacheLevel("users.operator", ContextUtils.ENTITY_VARIABLE, "status", "observer", true);
+    cache.cacheLevel("users.operator", null, null, "operator", true);
+    
+    assertEquals("admin", cache.getLevel("users.admin", ContextUtils.ENTITY_VARIABLE, "status"));
+    assertEquals("observer", cache.getLevel("users.operator", ContextUtils.ENTITY_VARIABLE, "status"));
+    assertEquals("operator", cache.getLevel("users.operator", null, null));
+    assertNull(cache.getLevel("users.operator", ContextUtils.ENTITY_VARIABLE, "other"));
+    assertNull(cache.getLevel("users.manager", null, null));
+    
+    assertEquals(3, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    
+    assertEquals("admin", cache.getLevelByContext().get("users.admin"));
+    assertEquals("observer", cache.getLevelByEntity().get("users.operator:1:status"));
+  }
+  
+  @Test
+  public void testSubtreeInvalidation()
+  {
+    PermissionCache cache = new PermissionCache(100);
+    
+    cache.cacheLevel("users.admin", null, null, "admin", false);
+    cache.cacheLevel("users.admin.devices.dev1", null, null, "admin", false);
+    cache.cacheLevel("users.admin2", null, null, "admin", false);
+    
+    cache.removeContext("users.admin");
+    
+    assertNull(cache.getLevel("users.admin", null, null));
+    assertNull(cache.getLevel("users.admin.devices.dev1", null, null));
+    assertEquals("admin", cache.getLevel("users.admin2", null, null));
+    
+    cache.cacheLevel("users.admin.devices.dev1", null, null, "observer", false);
+    
+    assertEquals("observer", cache.getLevel("users.admin.devices.dev1", null, null));
+  }
+  
+  @Test
+  public void testInvalidation()
+  {
+    PermissionCache cache = new PermissionCache(100);
+    
+    cache.cacheLevel("users.admin", null, null, "admin", false);
+    cache.cacheRoleBasedLevel("users.admin", null, null, ServerPermissionChecker.RWX_LEVEL, false);
+    
+    cache.invalidate();
+    
+    assertNull(cache.getLevel("users.admin", null, null));
+    assertNull(cache.getRoleBasedLevel("users.admin", null));
+  }
+  
+  @Test
+  public void testBinding()
+  {
+    PermissionCache cache = new PermissionCache(100);
+    
+    Permissions permissions = new Permissions("users.admin:admin");
+    
+    cache.bind(permissions);
+    cache.cacheLevel("users.admin", null, null, "admin", false);
+    cache.bind(permissions);
+    
+    assertEquals("admin", cache.getLevel("users.admin", null, null));
+    
+    cache.bind(new Permissions("users.admin:observer"));
+    
+    assertNull(cache.getLevel("users.admin", null, null));
+  }
+  
+  @Test
+  public void testBoundedSize()
+  {
+    PermissionCache cache = new PermissionCache(10);
+    
+    cache.cacheLevel("users.admin", null, null, "admin", false);
+    
+    for (int i = 0; i < 100; i++)
+    {
+      // Frequently used entry is protected from eviction by one-off accesses
+      assertEquals("admin", cache.getLevel("users.admin", null, null));
+      
+      cache.cacheLevel("users.user" + i, null, null, "observer", false);
+    }
+    
+    assertEquals(10, cache.size());
+    assertEquals(91, cache.getEvictions());
+    assertTrue(cache.getHitRate() > 0);
+  }
+  
+  @Test
+  public void testConcurrentAccess() throws Exception
+  {
+    PermissionCache cache = new PermissionCache(100);
+    
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    
+    try
+    {
+      List<Future<?>> futures = new ArrayList<>();
+      
+      for (int t = 0; t < 4; t++)
+      {
+        Random random = new Random(t);
+        
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 20000; i++)
+          {
+            String path = "users.user" + random.nextInt(200);
+            
+            String level = cache.getLevel(path, null, null);
+            
+            if (level == null)
+            {
+              cache.cacheLevel(path, null, null, path, false);
+            }
+            else
+            {
+              assertEquals(path, level);
+            }
+            
+            if (i % 1000 == 0)
+            {
+              cache.removeContext("users.user" + random.nextInt(10));
+            }
+          }
+          
+          return null;
+        }));
+      }
+      
+      for (Future<?> future : futures)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+    
+    assertTrue(cache.size() <= 100);
+    assertTrue(cache.getHits() > 0);
+  }
+}
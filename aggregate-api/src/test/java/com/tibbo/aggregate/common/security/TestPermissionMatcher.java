@@ -0,0 +1,147 @@
+package com.tibbo.aggregate.common.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+import com.tibbo.aggregate.common.context.ContextUtils;
+import com.tibbo.aggregate.common.tests.CommonsTestCase;
+
+public class TestPermissionMatcher extends CommonsTestCase
+{
+  private static final String PERMISSIONS = "users.admin.devices.dev1:1:status:admin," + "users.admin.devices.dev1:observer," + "users.*.devices.*:201:ds_settings:engineer,"
+      + "users.*.devices:operator," + "users.admin:manager," + "users.*.alerts.*:4::observer," + "users.admin2:admin," + "*:observer";
+  
+  private static final String[] PATHS = { "users", "users.admin", "users.admin2", "users.admin2.devices", "users.admin.devices", "users.admin.devices.dev1", "users.admin.devices.dev2",
+      "users.operator.devices.dev1", "users.operator.alerts.a1", "users.operator.alerts", "users.admin.devices.dev1.sub", "users.*", "system", "", null };
+  
+  private final ServerPermissionChecker checker = new ServerPermissionChecker();
+  
+  @Test
+  public void testSameResultsAsLinearCheck()
+  {
+    Permissions permissions = new Permissions(PERMISSIONS, checker);
+    
+    Integer[] entityTypes = { null, ContextUtils.ENTITY_VARIABLE, ContextUtils.ENTITY_EVENT, ContextUtils.ENTITY_FUNCTION };
+    String[] entities = { null, "status", "other" };
+    String[] groups = { null, "ds_settings" };
+    
+    for (String path : PATHS)
+    {
+      for (Integer entityType : entityTypes)
+      {
+        for (String entity : entities)
+        {
+          for (String group : groups)
+          {
+            LevelInfo expected = linearLevelInfo(permissions, path, entityType, entity, group);
+            LevelInfo actual = checker.getLevelInfo(permissions, path, entityType, entity, group, null);
+            
+            String message = path + ":" + entityType + ":" + entity + ":" + group;
+            
+            assertEquals(expected.getLevel(), actual.getLevel(), message);
+            assertEquals(expected.hasPermissionsForEntities(), actual.hasPermissionsForEntities(), message);
+            assertEquals(expected.getPermissionIndex(), actual.getPermissionIndex(), message);
+            assertSame(expected.getPermission(), actual.getPermission(), message);
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testLevels()
+  {
+    Permissions permissions = new Permissions(PERMISSIONS, checker);
+    
+    assertEquals("admin", checker.getLevel(permissions, "users.admin.devices.dev1", ContextUtils.ENTITY_VARIABLE, "status", null, null));
+    assertEquals("observer", checker.getLevel(permissions, "users.admin.devices.dev1", ContextUtils.ENTITY_VARIABLE, "other", null, null));
+    assertEquals("engineer", checker.getLevel(permissions, "users.admin.devices.dev2", ContextUtils.ENTITY_VARIABLE, "other", "ds_settings", null));
+    assertEquals("operator", checker.getLevel(permissions, "users.admin.devices.dev2", null, null, null, null));
+    assertEquals("manager", checker.getLevel(permissions, "users.admin", null, null, null, null));
+    assertEquals("admin", checker.getLevel(permissions, "users.admin2.devices", null, null, null, null));
+    assertEquals("observer", checker.getLevel(permissions, "system", null, null, null, null));
+    
+    assertEquals(DefaultPermissionChecker.NULL_PERMISSIONS, checker.getLevel(new Permissions("users.admin:admin", checker), "users.admin2", null, null, null, null));
+  }
+  
+  @Test
+  public void testMatcherSharing()
+  {
+    Permissions first = new Permissions(PERMISSIONS, checker);
+    Permissions second = new Permissions(PERMISSIONS, checker);
+    
+    assertSame(PermissionMatcher.get(first), PermissionMatcher.get(second));
+    assertNotSame(PermissionMatcher.get(first), PermissionMatcher.get(new Permissions("users.admin:admin", checker)));
+  }
+  
+  @Test
+  public void testMatcherInvalidation()
+  {
+    Permissions permissions = new Permissions("users.admin:admin", checker);
+    
+    assertFalse(checker.hasNecessaryLevel(checker.getLevel(permissions, "system", null, null, null, null), "observer"));
+    
+    PermissionMatcher matcher = PermissionMatcher.get(permissions);
+    
+    permissions.add(new Permission("system", "observer"));
+    
+    assertNotSame(matcher, PermissionMatcher.get(permissions));
+    assertTrue(checker.hasNecessaryLevel(checker.getLevel(permissions, "system", null, null, null, null), "observer"));
+  }
+  
+  /**
+   * Reference implementation checking permissions one by one.
+   */
+  private LevelInfo linearLevelInfo(Permissions permissions, String accessedContext, Integer accessedEntityType, String accessedEntity, String accessedEntityGroup)
+  {
+    boolean hasPermissionsForEntities = false;
+    int permissionIndex = 0;
+    
+    for (Permission permission : permissions)
+    {
+      if (permission.getContext() == null)
+      {
+        return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
+      }
+      
+      if (ContextUtils.matchesToMask(permission.getContext(), accessedContext, true, false))
+      {
+        int allowedEntityType = permission.getEntityType();
+        
+        if (allowedEntityType == ContextUtils.ENTITY_ANY_TYPE)
+        {
+          return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
+        }
+        
+        hasPermissionsForEntities = true;
+        
+        String allowedEntity = permission.getEntity();
+        
+        boolean entityMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntity, allowedEntity);
+        
+        if (accessedEntityType != null && accessedEntityType == allowedEntityType && entityMatch)
+        {
+          return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
+        }
+        
+        boolean groupMatch = ContextUtils.ENTITY_ANY.equals(allowedEntity) || Objects.equals(accessedEntityGroup, allowedEntity);
+        
+        if (accessedEntityType != null && accessedEntityType + ContextUtils.ENTITY_GROUP_SHIFT == allowedEntityType && groupMatch)
+        {
+          return new LevelInfo(permission, hasPermissionsForEntities, permissionIndex);
+        }
+      }
+      
+      permissionIndex++;
+    }
+    
+    return new LevelInfo(DefaultPermissionChecker.NULL_PERMISSIONS, hasPermissionsForEntities, permissionIndex);
+  }
+}
@@ -70,4 +70,28 @@ public class TestStringWrapper extends CommonsTestCase
     assertEquals(list.get(0), "12");
   }
   
+  public void testByteSlice()
+  {
+    byte[] bytes = "12\u0017\u0442\u0435\u0441\u0442\u0017".getBytes(StringUtils.UTF8_CHARSET);
+    
+    StringWrapper v1 = StringWrapper.valueOf(bytes, 0, 2, true);
+    StringWrapper v2 = StringWrapper.valueOf(bytes, 3, bytes.length - 1, false);
+    StringWrapper v3 = StringWrapper.valueOf(bytes, bytes.length, bytes.length, true);
+    
+    assertEquals(v1.length(), 2);
+    assertEquals(v1.charAt(1), '2');
+    assertTrue(v1.equals("12"));
+    assertFalse(v1.isMaterialized());
+    assertEquals(v1.toByteBuffer().remaining(), 2);
+    assertFalse(v1.isMaterialized());
+    
+    assertEquals(v2.length(), 4);
+    assertEquals(v2.charAt(0), '\u0442');
+    assertEquals(v2.getString(), "\u0442\u0435\u0441\u0442");
+    assertTrue(v2.isMaterialized());
+    
+    assertEquals(v3.length(), 0);
+    assertEquals(v3.getString(), "");
+  }
+  
 }